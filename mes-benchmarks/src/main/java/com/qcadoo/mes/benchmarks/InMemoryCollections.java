@@ -0,0 +1,86 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * {@link EntityList} and {@link EntityTree} stand-ins backed by array lists. Tree iterates over all of its nodes, as the
+ * database backed one does, and its root is given explicitly.
+ */
+final class InMemoryCollections {
+
+    private InMemoryCollections() {
+    }
+
+    static EntityList entityList(final List<Entity> entities) {
+        return (EntityList) Proxy.newProxyInstance(EntityList.class.getClassLoader(), new Class<?>[] { EntityList.class },
+                new ListHandler(entities, null));
+    }
+
+    static EntityTree entityTree(final List<Entity> nodes, final Entity root) {
+        return (EntityTree) Proxy.newProxyInstance(EntityTree.class.getClassLoader(), new Class<?>[] { EntityTree.class },
+                new ListHandler(nodes, root));
+    }
+
+    private static final class ListHandler implements InvocationHandler {
+
+        private final List<Entity> entities;
+
+        private final Entity root;
+
+        private ListHandler(final List<Entity> entities, final Entity root) {
+            this.entities = Lists.newArrayList(entities);
+            this.root = root;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if ("getRoot".equals(method.getName())) {
+                return root;
+            }
+
+            if (!method.getDeclaringClass().isInstance(entities)) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+
+            try {
+                return method.invoke(entities, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
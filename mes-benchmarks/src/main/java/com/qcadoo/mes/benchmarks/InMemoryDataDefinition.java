@@ -0,0 +1,163 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+/**
+ * {@link DataDefinition} stand-in holding its entities in memory.
+ * 
+ * Search criteria are accepted but ignored - find() always lists all entities, so it should be used only where benchmarked
+ * code reads whole model (like shifts).
+ */
+public final class InMemoryDataDefinition implements InvocationHandler {
+
+    private final String pluginIdentifier;
+
+    private final String name;
+
+    private final Map<Long, Entity> entities = Maps.newLinkedHashMap();
+
+    private final DataDefinition dataDefinition;
+
+    private long sequence;
+
+    public InMemoryDataDefinition(final String pluginIdentifier, final String name) {
+        this.pluginIdentifier = pluginIdentifier;
+        this.name = name;
+        this.dataDefinition = (DataDefinition) Proxy.newProxyInstance(DataDefinition.class.getClassLoader(),
+                new Class<?>[] { DataDefinition.class }, this);
+    }
+
+    public DataDefinition getDataDefinition() {
+        return dataDefinition;
+    }
+
+    public String getPluginIdentifier() {
+        return pluginIdentifier;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Creates and stores new entity with next id.
+     */
+    public Entity create() {
+        Entity entity = InMemoryEntity.create(dataDefinition, ++sequence);
+
+        entities.put(entity.getId(), entity);
+
+        return entity;
+    }
+
+    public Collection<Entity> getEntities() {
+        return entities.values();
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "getPluginIdentifier":
+                return pluginIdentifier;
+            case "getName":
+                return name;
+            case "get":
+                return entities.get(args[0]);
+            case "create":
+                return (args == null) ? InMemoryEntity.create(dataDefinition, null) : InMemoryEntity.create(dataDefinition,
+                        (Long) args[0]);
+            case "save":
+                return save((Entity) args[0]);
+            case "find":
+                return find();
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return pluginIdentifier + "." + name;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private Entity save(final Entity entity) {
+        if (entity.getId() == null) {
+            entity.setId(++sequence);
+        }
+
+        entities.put(entity.getId(), entity);
+
+        return entity;
+    }
+
+    private SearchCriteriaBuilder find() {
+        List<Entity> found = Lists.newArrayList(entities.values());
+
+        SearchResult searchResult = (SearchResult) Proxy.newProxyInstance(SearchResult.class.getClassLoader(),
+                new Class<?>[] { SearchResult.class }, (resultProxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getEntities":
+                            return found;
+                        case "getTotalNumberOfEntities":
+                            return found.size();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        InvocationHandler criteriaHandler = (criteriaProxy, method, args) -> {
+            if (SearchCriteriaBuilder.class.equals(method.getReturnType())) {
+                return criteriaProxy;
+            }
+
+            switch (method.getName()) {
+                case "list":
+                    return searchResult;
+                case "uniqueResult":
+                    return found.isEmpty() ? null : found.get(0);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        };
+
+        return (SearchCriteriaBuilder) Proxy.newProxyInstance(SearchCriteriaBuilder.class.getClassLoader(),
+                new Class<?>[] { SearchCriteriaBuilder.class }, criteriaHandler);
+    }
+
+}
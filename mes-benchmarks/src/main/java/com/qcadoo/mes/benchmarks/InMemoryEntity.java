@@ -0,0 +1,150 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Entity stand-in keeping its fields in a map, so benchmarks measure services and not the persistence layer.
+ * 
+ * Typed getters follow DefaultEntity conversions used by the benchmarked code, has many fields given as plain lists are
+ * exposed as {@link EntityList}. Methods not needed by benchmarks throw {@link UnsupportedOperationException}.
+ */
+final class InMemoryEntity implements InvocationHandler {
+
+    private final DataDefinition dataDefinition;
+
+    private final Map<String, Object> fields;
+
+    private Long id;
+
+    private InMemoryEntity(final DataDefinition dataDefinition, final Long id, final Map<String, Object> fields) {
+        this.dataDefinition = dataDefinition;
+        this.id = id;
+        this.fields = fields;
+    }
+
+    static Entity create(final DataDefinition dataDefinition, final Long id) {
+        return create(dataDefinition, id, Maps.newHashMap());
+    }
+
+    private static Entity create(final DataDefinition dataDefinition, final Long id, final Map<String, Object> fields) {
+        return (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[] { Entity.class },
+                new InMemoryEntity(dataDefinition, id, fields));
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "getId":
+                return id;
+            case "setId":
+                id = (Long) args[0];
+
+                return null;
+            case "getDataDefinition":
+                return dataDefinition;
+            case "getField":
+                return fields.get(args[0]);
+            case "setField":
+                fields.put((String) args[0], args[1]);
+
+                return null;
+            case "getFields":
+                return fields;
+            case "getStringField":
+                return (String) fields.get(args[0]);
+            case "getBooleanField":
+                return getBooleanField((String) args[0]);
+            case "getDecimalField":
+                return (BigDecimal) fields.get(args[0]);
+            case "getIntegerField":
+                return (Integer) fields.get(args[0]);
+            case "getLongField":
+                return (Long) fields.get(args[0]);
+            case "getDateField":
+                return (Date) fields.get(args[0]);
+            case "getBelongsToField":
+                return (Entity) fields.get(args[0]);
+            case "getHasManyField":
+                return getHasManyField((String) args[0]);
+            case "getTreeField":
+                return (EntityTree) fields.get(args[0]);
+            case "copy":
+                return create(dataDefinition, id, Maps.newHashMap(fields));
+            case "isValid":
+                return true;
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return dataDefinition.getName() + "[id=" + id + "]";
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private boolean getBooleanField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        if (Objects.isNull(value)) {
+            return false;
+        } else if (value instanceof String) {
+            return "1".equals(value) || "true".equals(value);
+        }
+
+        return (Boolean) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntityList getHasManyField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        if (Objects.isNull(value)) {
+            value = InMemoryCollections.entityList(Collections.emptyList());
+        } else if (!(value instanceof EntityList)) {
+            value = InMemoryCollections.entityList((List<Entity>) value);
+        }
+
+        fields.put(fieldName, value);
+
+        return (EntityList) value;
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Stand-ins of framework services and wiring of benchmarked beans without Spring context.
+ */
+public final class InMemoryServices {
+
+    private static final MathContext MATH_CONTEXT = new MathContext(12, RoundingMode.HALF_EVEN);
+
+    private InMemoryServices() {
+    }
+
+    public static DataDefinitionService dataDefinitionService(final InMemoryDataDefinition... dataDefinitions) {
+        Map<String, DataDefinition> dataDefinitionsByName = Maps.newHashMap();
+
+        for (InMemoryDataDefinition dataDefinition : dataDefinitions) {
+            dataDefinitionsByName.put(dataDefinition.getPluginIdentifier() + "." + dataDefinition.getName(),
+                    dataDefinition.getDataDefinition());
+        }
+
+        return (DataDefinitionService) Proxy.newProxyInstance(DataDefinitionService.class.getClassLoader(),
+                new Class<?>[] { DataDefinitionService.class }, (proxy, method, args) -> {
+                    if ("get".equals(method.getName()) && (args.length == 2)) {
+                        DataDefinition dataDefinition = dataDefinitionsByName.get(args[0] + "." + args[1]);
+
+                        if (dataDefinition == null) {
+                            throw new IllegalStateException("Missing in-memory model " + args[0] + "." + args[1]);
+                        }
+
+                        return dataDefinition;
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    public static NumberService numberService() {
+        return (NumberService) Proxy.newProxyInstance(NumberService.class.getClassLoader(),
+                new Class<?>[] { NumberService.class }, (proxy, method, args) -> {
+                    if ("getMathContext".equals(method.getName())) {
+                        return MATH_CONTEXT;
+                    }
+
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /**
+     * Sets autowired field of benchmarked bean.
+     */
+    public static void inject(final Object target, final String fieldName, final Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+
+                field.setAccessible(true);
+                field.set(target, value);
+
+                return;
+            } catch (NoSuchFieldException e) {
+                // field is declared in superclass
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        throw new IllegalArgumentException("No field " + fieldName + " in " + target.getClass());
+    }
+
+}
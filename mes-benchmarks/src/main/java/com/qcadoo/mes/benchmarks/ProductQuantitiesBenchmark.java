@@ -0,0 +1,195 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.technologies.ProductQuantitiesCache;
+import com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Needed product quantities of technology, calculated by {@link ProductQuantitiesServiceImpl}, for operation trees of given
+ * depth. Every operation consumes its children's products and one of shared materials, so quantities of materials are
+ * aggregated across the tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductQuantitiesBenchmark {
+
+    private static final int MATERIALS = 50;
+
+    private static final BigDecimal PLANNED_QUANTITY = BigDecimal.valueOf(125);
+
+    @Param({ "10" })
+    private int depth;
+
+    @Param({ "1", "2" })
+    private int childrenPerOperation;
+
+    // ONLY_MATERIALS looks for master technologies in database
+    @Param({ "ALL_PRODUCTS_IN", "ONLY_COMPONENTS" })
+    private MrpAlgorithm mrpAlgorithm;
+
+    // accepted technologies are served from ProductQuantitiesCache
+    @Param({ TechnologyStateStringValues.DRAFT, TechnologyStateStringValues.ACCEPTED })
+    private String technologyState;
+
+    private ProductQuantitiesServiceImpl productQuantitiesService;
+
+    private InMemoryDataDefinition productDD;
+
+    private InMemoryDataDefinition operationComponentDD;
+
+    private InMemoryDataDefinition operationProductInComponentDD;
+
+    private InMemoryDataDefinition operationProductOutComponentDD;
+
+    private Entity[] materials;
+
+    private Entity technology;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        productDD = new InMemoryDataDefinition(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
+        operationComponentDD = new InMemoryDataDefinition(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+        operationProductInComponentDD = new InMemoryDataDefinition(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+        operationProductOutComponentDD = new InMemoryDataDefinition(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT);
+
+        InMemoryDataDefinition technologyDD = new InMemoryDataDefinition(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY);
+
+        materials = new Entity[MATERIALS];
+
+        for (int i = 0; i < MATERIALS; i++) {
+            materials[i] = productDD.create();
+        }
+
+        Entity product = productDD.create();
+
+        List<Entity> operationComponents = Lists.newArrayList();
+
+        Entity root = createOperationComponent(1, null, product, operationComponents);
+
+        technology = technologyDD.create();
+        technology.setField(TechnologyFields.PRODUCT, product);
+        technology.setField(TechnologyFields.STATE, technologyState);
+        technology.setField(TechnologyFields.OPERATION_COMPONENTS,
+                InMemoryCollections.entityTree(operationComponents, root));
+
+        productQuantitiesService = new ProductQuantitiesServiceImpl();
+
+        InMemoryServices.inject(productQuantitiesService, "numberService", InMemoryServices.numberService());
+        InMemoryServices.inject(productQuantitiesService, "productQuantitiesCache", new ProductQuantitiesCache());
+        InMemoryServices.inject(productQuantitiesService, "dataDefinitionService",
+                InMemoryServices.dataDefinitionService(productDD, technologyDD, operationComponentDD));
+    }
+
+    private Entity createOperationComponent(final int level, final Entity parent, final Entity product,
+            final List<Entity> operationComponents) {
+        Entity operationComponent = operationComponentDD.create();
+
+        operationComponents.add(operationComponent);
+
+        operationComponent.setField(TechnologyOperationComponentFields.ENTITY_TYPE,
+                TechnologyOperationComponentEntityType.OPERATION.getStringValue());
+        operationComponent.setField(TechnologyOperationComponentFields.PARENT, parent);
+        operationComponent.setField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE, (level % 2) == 0);
+        operationComponent.setField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE, (level % 3) == 0);
+
+        List<Entity> operationProductOutComponents = Lists.newArrayList(createOperationProductComponent(
+                operationProductOutComponentDD, operationComponent, product, BigDecimal.valueOf(level)));
+        List<Entity> operationProductInComponents = Lists.newArrayList(createOperationProductComponent(
+                operationProductInComponentDD, operationComponent, materials[operationComponents.size() % MATERIALS],
+                new BigDecimal("1.5")));
+        List<Entity> children = Lists.newArrayList();
+
+        if (level < depth) {
+            for (int i = 0; i < childrenPerOperation; i++) {
+                Entity intermediate = productDD.create();
+
+                operationProductInComponents.add(createOperationProductComponent(operationProductInComponentDD,
+                        operationComponent, intermediate, BigDecimal.valueOf(2 + i)));
+                children.add(createOperationComponent(level + 1, operationComponent, intermediate, operationComponents));
+            }
+        }
+
+        operationComponent.setField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS,
+                InMemoryCollections.entityList(operationProductOutComponents));
+        operationComponent.setField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS,
+                InMemoryCollections.entityList(operationProductInComponents));
+        operationComponent.setField(TechnologyOperationComponentFields.CHILDREN, InMemoryCollections.entityList(children));
+
+        return operationComponent;
+    }
+
+    private Entity createOperationProductComponent(final InMemoryDataDefinition dataDefinition,
+            final Entity operationComponent, final Entity product, final BigDecimal quantity) {
+        Entity operationProductComponent = dataDefinition.create();
+
+        operationProductComponent.setField(OperationProductInComponentFields.OPERATION_COMPONENT, operationComponent);
+        operationProductComponent.setField(OperationProductInComponentFields.PRODUCT, product);
+        operationProductComponent.setField(OperationProductInComponentFields.QUANTITY, quantity);
+
+        return operationProductComponent;
+    }
+
+    @Benchmark
+    public Map<Long, BigDecimal> getNeededProductQuantities() {
+        return productQuantitiesService.getNeededProductQuantities(technology, PLANNED_QUANTITY, mrpAlgorithm);
+    }
+
+}
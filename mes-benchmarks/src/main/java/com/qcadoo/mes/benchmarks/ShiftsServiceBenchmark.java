@@ -0,0 +1,160 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsServiceImpl;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Order dates calculation in {@link ShiftsServiceImpl} - with compiled shift calendar and with calendar compiled from
+ * shifts on every call (as after any shift or exception change).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShiftsServiceBenchmark {
+
+    private static final String[] DAYS = { "monday", "tuesday", "wensday", "thursday", "friday", "saturday", "sunday" };
+
+    private static final String[] HOURS = { "06:00-14:00", "14:00-22:00", "22:00-06:00", "08:00-12:00, 12:30-16:30" };
+
+    private static final long ORDER_DURATION = 3L * 24 * 60 * 60;
+
+    private static final int DATES = 1024;
+
+    @Param({ "50" })
+    private int shifts;
+
+    @Param({ "20" })
+    private int exceptionsPerShift;
+
+    private ShiftsServiceImpl shiftsService;
+
+    private Date[] dates;
+
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        InMemoryDataDefinition shiftDD = new InMemoryDataDefinition(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT);
+        InMemoryDataDefinition exceptionDD = new InMemoryDataDefinition(BasicConstants.PLUGIN_IDENTIFIER,
+                BasicConstants.MODEL_SHIFT_TIMETABLE_EXCEPTION);
+
+        DateTime start = new DateTime(2020, 1, 1, 0, 0, 0, 0);
+
+        for (int i = 0; i < shifts; i++) {
+            Entity shift = shiftDD.create();
+
+            shift.setField(ShiftFields.NAME, "shift " + i);
+
+            for (int day = 0; day < DAYS.length; day++) {
+                boolean working = (day < 5) || (i % 3 == 0);
+
+                shift.setField(DAYS[day] + "Working", working);
+                shift.setField(DAYS[day] + "Hours", working ? HOURS[(i + day) % HOURS.length] : null);
+            }
+
+            List<Entity> exceptions = Lists.newArrayList();
+
+            for (int j = 0; j < exceptionsPerShift; j++) {
+                DateTime from = start.plusDays(random.nextInt(365)).plusHours(random.nextInt(24));
+
+                Entity exception = exceptionDD.create();
+
+                exception.setField(ShiftTimetableExceptionFields.NAME, "exception " + j);
+                exception.setField(ShiftTimetableExceptionFields.TYPE, ((j % 2) == 0) ? TimetableExceptionType.FREE_TIME
+                        .getStringValue() : TimetableExceptionType.WORK_TIME.getStringValue());
+                exception.setField(ShiftTimetableExceptionFields.FROM_DATE, from.toDate());
+                exception.setField(ShiftTimetableExceptionFields.TO_DATE, from.plusHours(1 + random.nextInt(48)).toDate());
+
+                exceptions.add(exception);
+            }
+
+            shift.setField(ShiftFields.TIMETABLE_EXCEPTIONS, exceptions);
+        }
+
+        shiftsService = new ShiftsServiceImpl();
+
+        InMemoryServices.inject(shiftsService, "dataDefinitionService", InMemoryServices.dataDefinitionService(shiftDD));
+
+        dates = new Date[DATES];
+
+        for (int i = 0; i < DATES; i++) {
+            dates[i] = start.plusMinutes(random.nextInt(365 * 24 * 60)).toDate();
+        }
+    }
+
+    @Benchmark
+    public Date findDateToForOrder() {
+        return shiftsService.findDateToForOrder(nextDate(), ORDER_DURATION);
+    }
+
+    @Benchmark
+    public Date findDateFromForOrder() {
+        return shiftsService.findDateFromForOrder(nextDate(), ORDER_DURATION);
+    }
+
+    @Benchmark
+    public Date findDateToForOrderAfterShiftChange() {
+        shiftsService.invalidateShiftCalendar();
+
+        return shiftsService.findDateToForOrder(nextDate(), ORDER_DURATION);
+    }
+
+    private Date nextDate() {
+        index = (index + 1) % DATES;
+
+        return dates[index];
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.benchmarks.InMemoryDataDefinition;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Matching document positions against resources in {@link ResourceAllocationBatch}, the in-memory part of releasing resources
+ * in {@link ResourceManagementServiceImpl}. Lives in service package, because the batch is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceAllocationBatchBenchmark {
+
+    private static final int PRODUCTS = 5;
+
+    private static final int POSITIONS = 20;
+
+    private static final int ADDITIONAL_CODES = 10;
+
+    @Param({ "10000" })
+    private int resourcesPerProduct;
+
+    @Param({ "FIFO", "FEFO" })
+    private WarehouseAlgorithm warehouseAlgorithm;
+
+    private List<Entity> resources;
+
+    private Entity[] products;
+
+    private Entity[] positions;
+
+    private Entity[] additionalCodes;
+
+    private ResourceAllocationBatch resourceAllocationBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        InMemoryDataDefinition productDD = new InMemoryDataDefinition(BasicConstants.PLUGIN_IDENTIFIER,
+                BasicConstants.MODEL_PRODUCT);
+        InMemoryDataDefinition additionalCodeDD = new InMemoryDataDefinition(BasicConstants.PLUGIN_IDENTIFIER,
+                BasicConstants.MODEL_ADDITIONAL_CODE);
+        InMemoryDataDefinition resourceDD = new InMemoryDataDefinition(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+        InMemoryDataDefinition positionDD = new InMemoryDataDefinition(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_POSITION);
+
+        products = new Entity[PRODUCTS];
+
+        for (int i = 0; i < PRODUCTS; i++) {
+            products[i] = productDD.create();
+            products[i].setField(ProductFields.ADDITIONAL_UNIT, ((i % 2) == 0) ? "kg" : null);
+        }
+
+        additionalCodes = new Entity[ADDITIONAL_CODES];
+
+        for (int i = 0; i < ADDITIONAL_CODES; i++) {
+            additionalCodes[i] = additionalCodeDD.create();
+        }
+
+        resources = Lists.newArrayListWithCapacity(PRODUCTS * resourcesPerProduct);
+
+        long now = System.currentTimeMillis();
+
+        for (Entity product : products) {
+            for (int i = 0; i < resourcesPerProduct; i++) {
+                Entity resource = resourceDD.create();
+
+                resource.setField(ResourceFields.PRODUCT, product);
+                resource.setField(ResourceFields.TIME, new Date(now - random.nextInt(Integer.MAX_VALUE)));
+                resource.setField(ResourceFields.EXPIRATION_DATE,
+                        ((i % 4) == 0) ? null : new Date(now + random.nextInt(Integer.MAX_VALUE)));
+                resource.setField(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.valueOf(random.nextInt(100)));
+                resource.setField(ResourceFields.CONVERSION, BigDecimal.valueOf(1 + random.nextInt(3)));
+                resource.setField(ResourceFields.ADDITIONAL_CODE,
+                        ((i % 3) == 0) ? additionalCodes[random.nextInt(ADDITIONAL_CODES)] : null);
+
+                resources.add(resource);
+            }
+        }
+
+        positions = new Entity[POSITIONS];
+
+        for (int i = 0; i < POSITIONS; i++) {
+            positions[i] = positionDD.create();
+            positions[i].setField(PositionFields.PRODUCT, products[i % PRODUCTS]);
+            positions[i].setField(PositionFields.CONVERSION, BigDecimal.valueOf(1 + (i % 3)));
+            positions[i].setField(PositionFields.ADDITIONAL_CODE, ((i % 2) == 0) ? additionalCodes[i % ADDITIONAL_CODES] : null);
+        }
+
+        resourceAllocationBatch = new ResourceAllocationBatch(resources, warehouseAlgorithm);
+    }
+
+    @Benchmark
+    public ResourceAllocationBatch createBatch() {
+        return new ResourceAllocationBatch(resources, warehouseAlgorithm);
+    }
+
+    @Benchmark
+    public List<Entity> getResourcesForPosition() {
+        return getResources(resourceAllocationBatch, positions[0]);
+    }
+
+    @Benchmark
+    public void allocateDocument(final Blackhole blackhole) {
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(resources, warehouseAlgorithm);
+
+        for (Entity position : positions) {
+            blackhole.consume(getResources(batch, position));
+        }
+    }
+
+    private List<Entity> getResources(final ResourceAllocationBatch batch, final Entity position) {
+        return batch.getResources(position.getBelongsToField(PositionFields.PRODUCT), position,
+                position.getBelongsToField(PositionFields.ADDITIONAL_CODE), true);
+    }
+
+}
@@ -41,6 +41,9 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.ArrayListMultimap;
@@ -97,6 +100,11 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
 
     private static final String PRODUCTION_FLOW = "productionFlow";
 
+    private static final String USED_PLANNED_QUANTITIES_QUERY = "SELECT pcq.product_id AS productId, "
+            + "COALESCE(SUM(pcq.plannedquantity), 0) AS plannedQuantity "
+            + "FROM basicproductioncounting_productioncountingquantity pcq "
+            + "WHERE pcq.order_id IN (:orderIds) AND pcq.role = :role GROUP BY pcq.product_id";
+
     private static final String inComponentHQL = "select opic from #technologies_operationProductInComponent opic "
             + "left join opic.operationComponent toc " + "left join toc.technology tech " + "where tech.id = :techId";
 
@@ -106,6 +114,9 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Autowired
     private NumberService numberService;
 
@@ -511,20 +522,15 @@ public class BasicProductionCountingServiceImpl implements BasicProductionCounti
             neededProductQuantities = Maps.newHashMap();
         }
 
-        for (Entity order : otherOrders) {
-            List<Entity> productionCountingQuantities = getUsedMaterialsFromProductionCountingQuantities(order);
+        if (!otherOrders.isEmpty()) {
+            Map<Long, BigDecimal> quantities = neededProductQuantities;
+            MapSqlParameterSource params = new MapSqlParameterSource();
 
-            for (Entity pcq : productionCountingQuantities) {
-                Long productId = pcq.getBelongsToField(ProductionCountingQuantityFields.PRODUCT).getId();
+            params.addValue("role", ProductionCountingQuantityRole.USED.getStringValue());
+            params.addValue("orderIds", otherOrders.stream().map(Entity::getId).collect(Collectors.toSet()));
 
-                if (neededProductQuantities.containsKey(productId)) {
-                    neededProductQuantities.put(productId, pcq.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY)
-                            .add(neededProductQuantities.get(productId)));
-                } else {
-                    neededProductQuantities.put(productId,
-                            pcq.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
-                }
-            }
+            jdbcTemplate.query(USED_PLANNED_QUANTITIES_QUERY, params, (RowCallbackHandler) rs -> quantities.merge(
+                    rs.getLong("productId"), rs.getBigDecimal("plannedQuantity"), BigDecimal::add));
         }
 
         return neededProductQuantities;
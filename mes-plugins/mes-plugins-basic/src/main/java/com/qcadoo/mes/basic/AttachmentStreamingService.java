@@ -0,0 +1,264 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.io.ByteStreams;
+import com.qcadoo.model.api.file.FileService;
+
+/**
+ * Serves uploaded attachments. The response carries its length, an ETag and Last-Modified before the body, so clients can
+ * revalidate with If-None-Match / If-Modified-Since and resume or seek with single byte Range requests. The body is handed to
+ * the container's sendfile support when available and is otherwise written with {@link FileChannel#transferTo}.
+ */
+@Service
+public class AttachmentStreamingService {
+
+    private static final String L_SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    private static final String L_SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+    private static final String L_SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+    private static final String L_SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String L_BYTES_UNIT = "bytes";
+
+    @Autowired
+    private FileService fileService;
+
+    public void streamAttachment(final String path, final String name, final HttpServletRequest request,
+            final HttpServletResponse response) throws IOException {
+        InputStream inputStream = fileService.getInputStream(path);
+
+        if (inputStream == null) {
+            response.sendRedirect("/error.html?code=404");
+
+            return;
+        }
+
+        try {
+            File file = new File(path);
+            long size = (inputStream instanceof FileInputStream) ? ((FileInputStream) inputStream).getChannel().size() : file
+                    .length();
+            long lastModified = file.isFile() ? (file.lastModified() / 1000 * 1000) : 0;
+            String eTag = (lastModified > 0) ? "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\""
+                    : null;
+
+            response.setHeader("Content-disposition", "inline; filename=" + name);
+            response.setHeader("Accept-Ranges", L_BYTES_UNIT);
+
+            if (eTag != null) {
+                response.setHeader("ETag", eTag);
+                response.setDateHeader("Last-Modified", lastModified);
+                response.setHeader("Cache-Control", "private, no-cache");
+
+                if (isNotModified(request, eTag, lastModified)) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+                    return;
+                }
+            }
+
+            response.setContentType(fileService.getContentType(path));
+
+            long start = 0;
+            long end = size - 1;
+            String range = request.getHeader("Range");
+
+            if ((range != null) && isRangeApplicable(request, eTag, lastModified)) {
+                long[] byteRange = parseRange(range, size);
+
+                if (byteRange == null) {
+                    response.setHeader("Content-Range", L_BYTES_UNIT + " */" + size);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+
+                    return;
+                }
+
+                if (byteRange.length == 2) {
+                    start = byteRange[0];
+                    end = byteRange[1];
+
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", L_BYTES_UNIT + " " + start + "-" + end + "/" + size);
+                }
+            }
+
+            long length = end - start + 1;
+
+            response.setHeader("Content-Length", Long.toString(length));
+
+            if (Boolean.TRUE.equals(request.getAttribute(L_SENDFILE_SUPPORT)) && file.isFile()) {
+                request.setAttribute(L_SENDFILE_FILENAME, file.getCanonicalPath());
+                request.setAttribute(L_SENDFILE_START, start);
+                request.setAttribute(L_SENDFILE_END, end + 1);
+
+                return;
+            }
+
+            writeBody(inputStream, response.getOutputStream(), start, length);
+
+            response.flushBuffer();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private boolean isNotModified(final HttpServletRequest request, final String eTag, final long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, eTag);
+        }
+
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+
+        return (ifModifiedSince != -1) && (lastModified <= ifModifiedSince);
+    }
+
+    private boolean isRangeApplicable(final HttpServletRequest request, final String eTag, final long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+
+        if (ifRange == null) {
+            return true;
+        }
+
+        if (eTag == null) {
+            return false;
+        }
+
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+
+        return getDateHeader(request, "If-Range") == lastModified;
+    }
+
+    private boolean matchesETag(final String header, final String eTag) {
+        for (String value : StringUtils.split(header, ',')) {
+            String candidate = StringUtils.removeStart(value.trim(), "W/");
+
+            if ("*".equals(candidate) || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private long getDateHeader(final HttpServletRequest request, final String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses a single range of the Range header.
+     *
+     * @return first and last byte of the range, an empty array when the header should be ignored (other unit, several or
+     *         malformed ranges) or null when the range can't be satisfied
+     */
+    private long[] parseRange(final String range, final long size) {
+        if (!range.startsWith(L_BYTES_UNIT + "=") || range.contains(",")) {
+            return new long[0];
+        }
+
+        String[] bounds = StringUtils.splitPreserveAllTokens(range.substring(L_BYTES_UNIT.length() + 1).trim(), '-');
+
+        if ((bounds.length != 2) || (bounds[0].isEmpty() && bounds[1].isEmpty())) {
+            return new long[0];
+        }
+
+        try {
+            long start;
+            long end;
+
+            if (bounds[0].isEmpty()) {
+                long suffixLength = Long.parseLong(bounds[1]);
+
+                if (suffixLength == 0) {
+                    return null;
+                }
+
+                start = Math.max(size - suffixLength, 0);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(bounds[0]);
+                end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+            }
+
+            if ((start >= size) || (start > end)) {
+                return null;
+            }
+
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private void writeBody(final InputStream inputStream, final OutputStream outputStream, final long start, final long length)
+            throws IOException {
+        if (inputStream instanceof FileInputStream) {
+            FileChannel fileChannel = ((FileInputStream) inputStream).getChannel();
+            WritableByteChannel outputChannel = Channels.newChannel(outputStream);
+
+            long position = start;
+            long remaining = length;
+
+            while (remaining > 0) {
+                long transferred = fileChannel.transferTo(position, remaining, outputChannel);
+
+                if (transferred <= 0) {
+                    break;
+                }
+
+                position += transferred;
+                remaining -= transferred;
+            }
+        } else {
+            ByteStreams.skipFully(inputStream, start);
+            ByteStreams.copy(ByteStreams.limit(inputStream, length), outputStream);
+        }
+    }
+
+}
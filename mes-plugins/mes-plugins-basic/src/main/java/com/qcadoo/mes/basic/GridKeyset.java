@@ -0,0 +1,50 @@
+package com.qcadoo.mes.basic;
+
+/**
+ * Boundary row of the grid page loaded before, so the neighbouring page can be sought with a keyset condition instead of
+ * OFFSET.
+ */
+public final class GridKeyset {
+
+    private static final GridKeyset NONE = new GridKeyset(null, null);
+
+    private final Long afterId;
+
+    private final Long beforeId;
+
+    private GridKeyset(final Long afterId, final Long beforeId) {
+        this.afterId = afterId;
+        this.beforeId = beforeId;
+    }
+
+    /**
+     * @param afterId
+     *            id of the last row of previous page, when next page is requested
+     * @param beforeId
+     *            id of the first row of next page, when previous page is requested
+     */
+    public static GridKeyset of(final Long afterId, final Long beforeId) {
+        if (afterId == null && beforeId == null) {
+            return NONE;
+        }
+
+        return new GridKeyset(afterId, beforeId);
+    }
+
+    public static GridKeyset none() {
+        return NONE;
+    }
+
+    public boolean isPresent() {
+        return afterId != null || beforeId != null;
+    }
+
+    public boolean isBackward() {
+        return afterId == null && beforeId != null;
+    }
+
+    public Long getBoundaryId() {
+        return afterId != null ? afterId : beforeId;
+    }
+
+}
@@ -3,10 +3,14 @@ package com.qcadoo.mes.basic;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,8 +34,7 @@ public class LookupUtils {
         sidx = sidx != null ? sidx.toLowerCase() : "";
         sord = sord != null ? sord.toLowerCase() : "";
 
-        Preconditions.checkState(Arrays.asList("asc", "desc", "").contains(sord));
-        Preconditions.checkState(Arrays.asList(recordExample.getClass().getDeclaredFields()).stream().map(Field::getName).map(String::toLowerCase).collect(Collectors.toList()).contains(sidx));
+        checkSorting(sidx, sord, recordExample);
 
         query += addQueryWhereForObject(recordExample);
 
@@ -46,6 +49,77 @@ public class LookupUtils {
         return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
     }
 
+    /**
+     * Returns grid page like {@link #getGridResponse(String, String, String, Integer, int, Object, Map)}, but when the grid is
+     * sorted by one of keyset columns and the neighbouring page was loaded before, the page is sought from that page's boundary
+     * row instead of being skipped to with OFFSET. Keyset columns have to be not null.
+     * 
+     * Count of records is taken from countCache when no filter is set.
+     */
+    public <R> GridResponse<R> getGridResponse(String query, String sidx, String sord, Integer page, int perPage, R recordExample,
+            Map<String, Object> parameters, GridKeyset keyset, Set<String> keysetColumns,
+            Function<Supplier<Integer>, Integer> countCache) {
+        sidx = sidx != null ? sidx.toLowerCase() : "";
+        sord = sord != null ? sord.toLowerCase() : "";
+
+        checkSorting(sidx, sord, recordExample);
+
+        String where = addQueryWhereForObject(recordExample);
+
+        parameters.putAll(getParametersForObject(recordExample));
+
+        String queryCount = String.format(query, "COUNT(*)", "") + where;
+        Supplier<Integer> countLoader = () -> jdbcTemplate.queryForObject(queryCount, parameters, Long.class).intValue();
+
+        Integer countRecords = where.isEmpty() ? countCache.apply(countLoader) : countLoader.get();
+
+        List<R> records = Collections.emptyList();
+
+        if (keyset.isPresent() && keysetColumns.contains(sidx)) {
+            records = getKeysetRecords(query, where, sidx, sord, perPage, recordExample, parameters, keyset);
+        }
+
+        if (records.isEmpty()) {
+            String queryRecords = String.format(query, "*", "ORDER BY " + sidx + " " + sord) + where
+                    + String.format(" LIMIT %d OFFSET %d", perPage, perPage * (page - 1));
+
+            records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+        }
+
+        return new GridResponse<>(page, Double.valueOf(Math.ceil((1.0 * countRecords) / perPage)).intValue(), countRecords, records);
+    }
+
+    private <R> List<R> getKeysetRecords(String query, String where, String sidx, String sord, int perPage, R recordExample,
+            Map<String, Object> parameters, GridKeyset keyset) {
+        boolean descending = "desc".equals(sord) != keyset.isBackward();
+        boolean sortedById = "id".equals(sidx);
+
+        String order = descending ? "DESC" : "ASC";
+        String key = sortedById ? "q.id" : String.format("q.%s, q.id", sidx);
+        String boundaryKey = sortedById ? "b.id" : String.format("b.%s, b.id", sidx);
+        String orderBy = sortedById ? String.format("q.id %s", order) : String.format("q.%s %s, q.id %s", sidx, order, order);
+
+        String queryRecords = String.format(query, "*", "") + (where.isEmpty() ? " WHERE " : where + " AND ")
+                + String.format("(%s) %s (SELECT %s FROM (%s) b WHERE b.id = :keysetBoundaryId) ", key, descending ? "<" : ">",
+                        boundaryKey, String.format(query, "*", ""))
+                + String.format("ORDER BY %s LIMIT %d", orderBy, perPage);
+
+        parameters.put("keysetBoundaryId", keyset.getBoundaryId());
+
+        List<R> records = jdbcTemplate.query(queryRecords, parameters, new BeanPropertyRowMapper(recordExample.getClass()));
+
+        if (keyset.isBackward()) {
+            Collections.reverse(records);
+        }
+
+        return records;
+    }
+
+    private void checkSorting(String sidx, String sord, Object recordExample) {
+        Preconditions.checkState(Arrays.asList("asc", "desc", "").contains(sord));
+        Preconditions.checkState(Arrays.asList(recordExample.getClass().getDeclaredFields()).stream().map(Field::getName).map(String::toLowerCase).collect(Collectors.toList()).contains(sidx));
+    }
+
     private String addQueryWhereForObject(Object object) {
         List<String> items = new ArrayList<>();
 
@@ -0,0 +1,99 @@
+package com.qcadoo.mes.basic;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Working time of shifts of a single production line, starting from given day.
+ * 
+ * Timetable exceptions of each shift are loaded once for all days since the first one (instead of once per shift and day), and
+ * computed work date times are remembered, so they can be asked for many times while planning orders of the line.
+ * 
+ * Instances are obtained from {@link ShiftExceptionService#getProductionLineWorkTime(Entity, DateTime)}.
+ * 
+ * @since 1.5
+ */
+public final class ProductionLineWorkTime {
+
+    private final ShiftExceptionService shiftExceptionService;
+
+    private final TimetableExceptionService timetableExceptionService;
+
+    private final Entity productionLine;
+
+    private final LocalDate fromDay;
+
+    private final Map<Long, List<Entity>> exceptionsByShift = Maps.newHashMap();
+
+    private final Map<Long, Map<Long, List<DateTimeRange>>> workDateTimesByShift = Maps.newHashMap();
+
+    ProductionLineWorkTime(final ShiftExceptionService shiftExceptionService,
+            final TimetableExceptionService timetableExceptionService, final Entity productionLine, final LocalDate fromDay) {
+        this.shiftExceptionService = shiftExceptionService;
+        this.timetableExceptionService = timetableExceptionService;
+        this.productionLine = productionLine;
+        this.fromDay = fromDay;
+    }
+
+    public boolean covers(final LocalDate day) {
+        return !day.isBefore(fromDay);
+    }
+
+    /**
+     * Returns work date times of given shift at given day, with production line's timetable exceptions applied - the same as
+     * {@link ShiftExceptionService#getShiftWorkDateTimes(Entity, Shift, DateTime)} does.
+     * 
+     * @param shift
+     *            shift
+     * @param dateOfDay
+     *            day
+     * @return unmodifiable list of work date times
+     */
+    public List<DateTimeRange> getShiftWorkDateTimes(final Shift shift, final DateTime dateOfDay) {
+        LocalDate day = dateOfDay.toLocalDate();
+
+        if (!covers(day)) {
+            return shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay);
+        }
+
+        Map<Long, List<DateTimeRange>> workDateTimes = workDateTimesByShift.computeIfAbsent(shift.getId(),
+                shiftId -> Maps.newHashMap());
+
+        List<DateTimeRange> shiftWorkDateTimes = workDateTimes.get(dateOfDay.getMillis());
+
+        if (shiftWorkDateTimes == null) {
+            shiftWorkDateTimes = Collections.unmodifiableList(shiftExceptionService.getShiftWorkDateTimes(shift, dateOfDay,
+                    getExceptionsAt(shift, day)));
+
+            workDateTimes.put(dateOfDay.getMillis(), shiftWorkDateTimes);
+        }
+
+        return shiftWorkDateTimes;
+    }
+
+    private List<Entity> getExceptionsAt(final Shift shift, final LocalDate day) {
+        List<Entity> exceptions = exceptionsByShift.computeIfAbsent(shift.getId(),
+                shiftId -> timetableExceptionService.findNotEndedBefore(productionLine, shift.getEntity(), fromDay.toDate()));
+
+        return exceptions.stream().filter(exception -> isAt(exception, day)).collect(Collectors.toList());
+    }
+
+    private boolean isAt(final Entity exception, final LocalDate day) {
+        LocalDate from = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE));
+        LocalDate to = new LocalDate(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE));
+
+        return !day.isBefore(from) && !day.isAfter(to);
+    }
+
+}
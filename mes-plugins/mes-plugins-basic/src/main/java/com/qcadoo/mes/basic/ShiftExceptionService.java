@@ -1,6 +1,7 @@
 package com.qcadoo.mes.basic;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
@@ -9,11 +10,15 @@ import com.qcadoo.mes.basic.shift.Shift;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.Entity;
 import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -23,6 +28,8 @@ public class ShiftExceptionService {
     @Autowired
     private TimetableExceptionService timetableExceptionService;
 
+    private final Object productionLineWorkTimesKey = new Object();
+
     public List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, final Entity productionLine,
             final Shift shift, final Date dateOfDay) {
         List<Entity> exceptions;
@@ -34,6 +41,69 @@ public class ShiftExceptionService {
             exceptions = timetableExceptionService.findFor(productionLine, shiftEntity, dateOfDay);
         }
 
+        return applyExceptions(shiftWorkDateTime, exceptions, shiftEntity, dateOfDay);
+    }
+
+    public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, DateTime dateOfDay) {
+        return manageExceptions(getPlannedShiftWorkDateTimes(shift, dateOfDay), productionLine, shift, dateOfDay.toDate());
+    }
+
+    /**
+     * Returns working time of given production line's shifts, which can be asked for many shifts and days without querying
+     * timetable exceptions for each of them.
+     * 
+     * Within a transaction the same instance is returned for the same production line, so generating PPS for many orders of one
+     * line (e.g. for all orders generated from master orders) loads line's exceptions only once.
+     * 
+     * @param productionLine
+     *            production line
+     * @param fromDay
+     *            first day which will be asked for
+     * @return production line's working time
+     */
+    public ProductionLineWorkTime getProductionLineWorkTime(final Entity productionLine, final DateTime fromDay) {
+        LocalDate day = fromDay.toLocalDate();
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new ProductionLineWorkTime(this, timetableExceptionService, productionLine, day);
+        }
+
+        Map<Long, ProductionLineWorkTime> productionLineWorkTimes = getProductionLineWorkTimes();
+
+        ProductionLineWorkTime productionLineWorkTime = productionLineWorkTimes.get(productionLine.getId());
+
+        if (Objects.isNull(productionLineWorkTime) || !productionLineWorkTime.covers(day)) {
+            productionLineWorkTime = new ProductionLineWorkTime(this, timetableExceptionService, productionLine, day);
+
+            productionLineWorkTimes.put(productionLine.getId(), productionLineWorkTime);
+        }
+
+        return productionLineWorkTime;
+    }
+
+    public void invalidateProductionLineWorkTimes() {
+        TransactionSynchronizationManager.unbindResourceIfPossible(productionLineWorkTimesKey);
+    }
+
+    List<DateTimeRange> getShiftWorkDateTimes(final Shift shift, final DateTime dateOfDay, final List<Entity> exceptions) {
+        return applyExceptions(getPlannedShiftWorkDateTimes(shift, dateOfDay), exceptions, shift.getEntity(), dateOfDay.toDate());
+    }
+
+    private List<DateTimeRange> getPlannedShiftWorkDateTimes(final Shift shift, final DateTime dateOfDay) {
+        List<TimeRange> shiftWorkTime = Lists.newArrayList();
+        List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
+        if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
+            shiftWorkTime = shift.findWorkTimeAt(dateOfDay.toLocalDate());
+        }
+        for (TimeRange range : shiftWorkTime) {
+            shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
+        }
+
+        return shiftWorkDateTime;
+    }
+
+    private List<DateTimeRange> applyExceptions(List<DateTimeRange> shiftWorkDateTime, final List<Entity> exceptions,
+            final Entity shiftEntity, final Date dateOfDay) {
         Shift shiftForDay = new Shift(shiftEntity, new DateTime(dateOfDay), false);
 
         for (Entity exception : exceptions) {
@@ -51,19 +121,25 @@ public class ShiftExceptionService {
         return shiftWorkDateTime;
     }
 
-    public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, DateTime dateOfDay) {
-        List<TimeRange> shiftWorkTime = Lists.newArrayList();
-        List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
-        if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
-            shiftWorkTime = shift.findWorkTimeAt(dateOfDay.toLocalDate());
-        }
-        for (TimeRange range : shiftWorkTime) {
-            shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
-        }
+    @SuppressWarnings("unchecked")
+    private Map<Long, ProductionLineWorkTime> getProductionLineWorkTimes() {
+        Map<Long, ProductionLineWorkTime> productionLineWorkTimes = (Map<Long, ProductionLineWorkTime>)
+                TransactionSynchronizationManager.getResource(productionLineWorkTimesKey);
 
-        shiftWorkDateTime = manageExceptions(shiftWorkDateTime, productionLine, shift, dateOfDay.toDate());
+        if (productionLineWorkTimes == null) {
+            productionLineWorkTimes = Maps.newHashMap();
 
-        return shiftWorkDateTime;
+            TransactionSynchronizationManager.bindResource(productionLineWorkTimesKey, productionLineWorkTimes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(productionLineWorkTimesKey);
+                }
+            });
+        }
+
+        return productionLineWorkTimes;
     }
 
     private List<DateTimeRange> removeFreeTimeException(final List<DateTimeRange> shiftWorkDateTime, final Entity exception,
@@ -46,6 +46,12 @@ public interface ShiftsService {
 
     Date findDateToForOrder(final Date dateFrom, final long seconds);
 
+    /**
+     * Drops compiled shift calendar used by {@link #findDateFromForOrder(Date, long)} and
+     * {@link #findDateToForOrder(Date, long)}, it will be compiled again on next use.
+     */
+    void invalidateShiftCalendar();
+
     List<ShiftHour> getHoursForShift(final Entity shift, final Date dateFrom, final Date dateTo);
 
     Entity getShiftFromDateWithTime(final Date date);
@@ -28,8 +28,10 @@ import com.google.common.collect.Maps;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.ShiftCalendar;
 import com.qcadoo.mes.basic.util.DateTimeRange;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -58,6 +60,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 @Service
@@ -89,12 +92,12 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String FROM_DATE_FIELD = "fromDate";
 
-    private static final long STEP = DateTimeConstants.MILLIS_PER_WEEK;
-
     private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
     private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
+    private static final long CALENDAR_HORIZON = 52L * DateTimeConstants.MILLIS_PER_WEEK;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -108,6 +111,10 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
 
+    private final AtomicLong shiftCalendarVersion = new AtomicLong();
+
+    private volatile ShiftCalendar shiftCalendar;
+
     private static Map<Integer, String> buildDayNumToNameMap() {
         Map<Integer, String> dayNumsToDayName = Maps.newHashMapWithExpectedSize(7);
 
@@ -339,70 +346,147 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     @Override
     public Date findDateToForOrder(final Date dateFrom, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
+        long start = dateFrom.getTime();
+
+        if ((seconds < 0) || (start > MAX_TIMESTAMP)) {
             return null;
         }
 
-        long start = dateFrom.getTime();
-        long remaining = seconds;
+        long horizonEnd = Math.min(start + CALENDAR_HORIZON, MAX_TIMESTAMP);
 
-        while (remaining >= 0) {
-            List<ShiftHour> hours = getHoursForAllShifts(new Date(start), new Date(start + STEP));
+        while (true) {
+            ShiftCalendar calendar = getShiftCalendar(start, horizonEnd);
 
-            for (ShiftHour hour : hours) {
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
+            Optional<Date> dateTo = calendar.findDateAfter(start, seconds * 1000);
 
-                if (diff >= remaining) {
-                    return new Date(hour.getDateFrom().getTime() + (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
+            if (dateTo.isPresent()) {
+                return dateTo.get();
             }
 
-            start += STEP;
-
-            if (start > MAX_TIMESTAMP) {
+            if (calendar.getHorizonEnd() >= MAX_TIMESTAMP) {
                 return null;
             }
-        }
 
-        return null;
+            horizonEnd = Math.min(calendar.getHorizonEnd() + (calendar.getHorizonEnd() - start), MAX_TIMESTAMP);
+        }
     }
 
     @Override
     public Date findDateFromForOrder(final Date dateTo, final long seconds) {
-        if (dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
-                .getTotalNumberOfEntities() == 0) {
+        long stop = dateTo.getTime();
+
+        if ((seconds < 0) || (stop < MIN_TIMESTAMP)) {
             return null;
         }
 
-        long stop = dateTo.getTime();
-        long remaining = seconds;
+        long horizonStart = Math.max(stop - CALENDAR_HORIZON, MIN_TIMESTAMP);
 
-        while (remaining >= 0) {
-            List<ShiftHour> hours = getHoursForAllShifts(new Date(stop - STEP), new Date(stop));
+        while (true) {
+            ShiftCalendar calendar = getShiftCalendar(horizonStart, stop);
 
-            for (int i = hours.size() - 1; i >= 0; i--) {
-                ShiftHour hour = hours.get(i);
+            Optional<Date> dateFrom = calendar.findDateBefore(stop, seconds * 1000);
 
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
+            if (dateFrom.isPresent()) {
+                return dateFrom.get();
+            }
 
-                if (diff >= remaining) {
-                    return new Date(hour.getDateTo().getTime() - (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
+            if (calendar.getHorizonStart() <= MIN_TIMESTAMP) {
+                return null;
             }
 
-            stop -= STEP;
+            horizonStart = Math.max(calendar.getHorizonStart() - (stop - calendar.getHorizonStart()), MIN_TIMESTAMP);
+        }
+    }
 
-            if (stop < MIN_TIMESTAMP) {
-                return null;
+    @Override
+    public void invalidateShiftCalendar() {
+        shiftCalendarVersion.incrementAndGet();
+
+        shiftCalendar = null;
+    }
+
+    private ShiftCalendar getShiftCalendar(final long from, final long to) {
+        ShiftCalendar calendar = shiftCalendar;
+
+        if ((calendar != null) && calendar.covers(from, to)) {
+            return calendar;
+        }
+
+        synchronized (shiftCalendarVersion) {
+            calendar = shiftCalendar;
+
+            if ((calendar != null) && calendar.covers(from, to)) {
+                return calendar;
+            }
+
+            long horizonStart = from;
+            long horizonEnd = to;
+
+            if (calendar != null) {
+                horizonStart = Math.min(horizonStart, calendar.getHorizonStart());
+                horizonEnd = Math.max(horizonEnd, calendar.getHorizonEnd());
+            }
+
+            long version = shiftCalendarVersion.get();
+
+            calendar = compileShiftCalendar(Math.max(horizonStart, MIN_TIMESTAMP), Math.min(horizonEnd, MAX_TIMESTAMP));
+
+            if (version == shiftCalendarVersion.get()) {
+                shiftCalendar = calendar;
             }
+
+            return calendar;
         }
+    }
 
-        return null;
+    private ShiftCalendar compileShiftCalendar(final long horizonStart, final long horizonEnd) {
+        ShiftCalendar.Builder builder = ShiftCalendar.builder(horizonStart, horizonEnd);
+
+        for (Entity shift : getAllShifts()) {
+            List<Entity> exceptions = shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+
+            builder.addShift(getWorkTimesForShift(shift, horizonStart, horizonEnd),
+                    getExceptionTimes(exceptions, TimetableExceptionType.WORK_TIME),
+                    getExceptionTimes(exceptions, TimetableExceptionType.FREE_TIME));
+        }
+
+        return builder.build();
+    }
+
+    private List<long[]> getWorkTimesForShift(final Entity shift, final long horizonStart, final long horizonEnd) {
+        LocalTime[][][] weekHours = new LocalTime[WEEK_DAYS.length + 1][][];
+
+        for (int dayOfWeek = DateTimeConstants.MONDAY; dayOfWeek <= DateTimeConstants.SUNDAY; dayOfWeek++) {
+            String day = WEEK_DAYS[dayOfWeek - 1];
+
+            if (shift.getBooleanField(day + WORKING_LITERAL)) {
+                weekHours[dayOfWeek] = convertDayHoursToInt(shift.getStringField(day + HOURS_LITERAL));
+            } else {
+                weekHours[dayOfWeek] = new LocalTime[][] {};
+            }
+        }
+
+        List<long[]> workTimes = Lists.newArrayList();
+
+        for (DateTime day = new DateTime(horizonStart).withTimeAtStartOfDay().minusDays(1); day.getMillis() < horizonEnd; day = day
+                .plusDays(1)) {
+            for (LocalTime[] dayHour : weekHours[day.getDayOfWeek()]) {
+                DateTime from = convertToDateTime(day, dayHour[0]);
+                DateTime to = convertToDateTime(dayHour[0].isAfter(dayHour[1]) ? day.plusDays(1) : day, dayHour[1]);
+
+                workTimes.add(new long[] { from.getMillis(), to.getMillis() });
+            }
+        }
+
+        return workTimes;
+    }
+
+    private List<long[]> getExceptionTimes(final List<Entity> exceptions, final TimetableExceptionType type) {
+        return exceptions.stream()
+                .filter(exception -> type.getStringValue().equals(exception.getStringField(ShiftTimetableExceptionFields.TYPE)))
+                .map(exception -> new long[] { exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE).getTime(),
+                        exception.getDateField(ShiftTimetableExceptionFields.TO_DATE).getTime() })
+                .collect(Collectors.toList());
     }
 
     @Override
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.basic.controllers;
 
 import com.google.common.io.Files;
+import com.qcadoo.mes.basic.AttachmentStreamingService;
 import com.qcadoo.mes.basic.MultiUploadHelper;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductAttachmentFields;
@@ -32,7 +33,6 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.file.FileService;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,9 +45,9 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Iterator;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 @Controller
@@ -65,6 +65,9 @@ public class ProductMultiUploadController {
     @Autowired
     private NumberService numberService;
 
+    @Autowired
+    private AttachmentStreamingService attachmentStreamingService;
+
     private static final Integer L_SCALE = 2;
 
     @ResponseBody
@@ -103,26 +106,15 @@ public class ProductMultiUploadController {
     }
 
     @RequestMapping(value = "/getAttachmentForProduct.html", method = RequestMethod.GET)
-    public final void getAttachment(@RequestParam("id") final Long[] ids, HttpServletResponse response) {
+    public final void getAttachment(@RequestParam("id") final Long[] ids, HttpServletRequest request,
+            HttpServletResponse response) {
         DataDefinition attachmentDD = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER,
                 BasicConstants.MODEL_PRODUCT_ATTACHMENT);
         Entity attachment = attachmentDD.get(ids[0]);
-        InputStream is = fileService.getInputStream(attachment.getStringField(ProductAttachmentFields.ATTACHMENT));
 
         try {
-            if (is == null) {
-                response.sendRedirect("/error.html?code=404");
-            }
-
-            response.setHeader("Content-disposition",
-                    "inline; filename=" + attachment.getStringField(ProductAttachmentFields.NAME));
-            response.setContentType(fileService.getContentType(attachment.getStringField(ProductAttachmentFields.ATTACHMENT)));
-
-            int bytes = IOUtils.copy(is, response.getOutputStream());
-            response.setContentLength(bytes);
-
-            response.flushBuffer();
-
+            attachmentStreamingService.streamAttachment(attachment.getStringField(ProductAttachmentFields.ATTACHMENT),
+                    attachment.getStringField(ProductAttachmentFields.NAME), request, response);
         } catch (IOException e) {
             logger.error("Unable to copy attachment file to response stream.", e);
         }
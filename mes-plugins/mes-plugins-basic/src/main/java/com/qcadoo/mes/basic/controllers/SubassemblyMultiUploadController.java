@@ -24,6 +24,7 @@
 package com.qcadoo.mes.basic.controllers;
 
 import com.google.common.io.Files;
+import com.qcadoo.mes.basic.AttachmentStreamingService;
 import com.qcadoo.mes.basic.MultiUploadHelper;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.SubassemblyAttachmentFields;
@@ -32,7 +33,6 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.file.FileService;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,9 +45,9 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Iterator;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 @Controller
@@ -62,6 +62,8 @@ public class SubassemblyMultiUploadController {
 
     @Autowired private NumberService numberService;
 
+    @Autowired private AttachmentStreamingService attachmentStreamingService;
+
     private static final Integer L_SCALE = 2;
 
     @ResponseBody
@@ -102,27 +104,14 @@ public class SubassemblyMultiUploadController {
     }
 
     @RequestMapping(value = "/getAttachmentForSubassembly.html", method = RequestMethod.GET) public final void getAttachment(
-            @RequestParam("id") final Long[] ids, HttpServletResponse response) {
+            @RequestParam("id") final Long[] ids, HttpServletRequest request, HttpServletResponse response) {
         DataDefinition attachmentDD = dataDefinitionService
                 .get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SUBASSEMBLY_ATTACHMENT);
         Entity attachment = attachmentDD.get(ids[0]);
-        InputStream is = fileService.getInputStream(attachment.getStringField(SubassemblyAttachmentFields.ATTACHMENT));
 
         try {
-            if (is == null) {
-                response.sendRedirect("/error.html?code=404");
-            }
-
-            response.setHeader("Content-disposition",
-                    "inline; filename=" + attachment.getStringField(SubassemblyAttachmentFields.NAME));
-            response.setContentType(
-                    fileService.getContentType(attachment.getStringField(SubassemblyAttachmentFields.ATTACHMENT)));
-
-            int bytes = IOUtils.copy(is, response.getOutputStream());
-            response.setContentLength(bytes);
-
-            response.flushBuffer();
-
+            attachmentStreamingService.streamAttachment(attachment.getStringField(SubassemblyAttachmentFields.ATTACHMENT),
+                    attachment.getStringField(SubassemblyAttachmentFields.NAME), request, response);
         } catch (IOException e) {
             logger.error("Unable to copy attachment file to response stream.", e);
         }
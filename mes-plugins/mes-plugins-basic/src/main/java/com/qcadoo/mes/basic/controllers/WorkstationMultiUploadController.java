@@ -24,6 +24,7 @@
 package com.qcadoo.mes.basic.controllers;
 
 import com.google.common.io.Files;
+import com.qcadoo.mes.basic.AttachmentStreamingService;
 import com.qcadoo.mes.basic.MultiUploadHelper;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.WorkstationAttachmentFields;
@@ -32,7 +33,6 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.file.FileService;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,9 +45,9 @@ import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.math.BigDecimal;
 import java.util.Iterator;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 @Controller
@@ -61,6 +61,8 @@ import javax.servlet.http.HttpServletResponse;
 
     @Autowired private NumberService numberService;
 
+    @Autowired private AttachmentStreamingService attachmentStreamingService;
+
     private static final Integer L_SCALE = 2;
 
     @ResponseBody
@@ -101,27 +103,14 @@ import javax.servlet.http.HttpServletResponse;
     }
 
     @RequestMapping(value = "/getAttachment.html", method = RequestMethod.GET) public final void getAttachment(
-            @RequestParam("id") final Long[] ids, HttpServletResponse response) {
+            @RequestParam("id") final Long[] ids, HttpServletRequest request, HttpServletResponse response) {
         DataDefinition attachmentDD = dataDefinitionService
                 .get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_WORKSTATION_ATTACHMENT);
         Entity attachment = attachmentDD.get(ids[0]);
-        InputStream is = fileService.getInputStream(attachment.getStringField(WorkstationAttachmentFields.ATTACHMENT));
 
         try {
-            if (is == null) {
-                response.sendRedirect("/error.html?code=404");
-            }
-
-            response.setHeader("Content-disposition",
-                    "inline; filename=" + attachment.getStringField(WorkstationAttachmentFields.NAME));
-            response.setContentType(
-                    fileService.getContentType(attachment.getStringField(WorkstationAttachmentFields.ATTACHMENT)));
-
-            int bytes = IOUtils.copy(is, response.getOutputStream());
-            response.setContentLength(bytes);
-
-            response.flushBuffer();
-
+            attachmentStreamingService.streamAttachment(attachment.getStringField(WorkstationAttachmentFields.ATTACHMENT),
+                    attachment.getStringField(WorkstationAttachmentFields.NAME), request, response);
         } catch (IOException e) {
             logger.error("Unable to copy attachment file to response stream.", e);
         }
@@ -0,0 +1,273 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Compiled, immutable view of the working time of all shifts within a given horizon.
+ * 
+ * Working intervals of all shifts (with their timetable exceptions already applied) are kept sorted and merged, together with
+ * the amount of working time elapsed before each of them, so finding a date that lies given amount of working time before or
+ * after another date is a binary search instead of a day-by-day scan.
+ * 
+ * @since 1.5
+ */
+public final class ShiftCalendar {
+
+    private final long horizonStart;
+
+    private final long horizonEnd;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    // workedBefore[i] is a working time (in millis) elapsed from the horizon start to the beginning of the i-th interval
+    private final long[] workedBefore;
+
+    private ShiftCalendar(final long horizonStart, final long horizonEnd, final List<long[]> intervals) {
+        this.horizonStart = horizonStart;
+        this.horizonEnd = horizonEnd;
+        this.starts = new long[intervals.size()];
+        this.ends = new long[intervals.size()];
+        this.workedBefore = new long[intervals.size() + 1];
+
+        for (int i = 0; i < intervals.size(); i++) {
+            long[] interval = intervals.get(i);
+
+            starts[i] = interval[0];
+            ends[i] = interval[1];
+            workedBefore[i + 1] = workedBefore[i] + (interval[1] - interval[0]);
+        }
+    }
+
+    public static Builder builder(final long horizonStart, final long horizonEnd) {
+        return new Builder(horizonStart, horizonEnd);
+    }
+
+    public long getHorizonStart() {
+        return horizonStart;
+    }
+
+    public long getHorizonEnd() {
+        return horizonEnd;
+    }
+
+    public boolean covers(final long from, final long to) {
+        return horizonStart <= from && to <= horizonEnd;
+    }
+
+    public int getNumberOfIntervals() {
+        return starts.length;
+    }
+
+    /**
+     * Returns date which lies given amount of working time after given date.
+     * 
+     * @param from
+     *            date from which working time is counted
+     * @param millis
+     *            working time in milliseconds
+     * @return found date or empty Optional if there is not enough working time between given date and the end of this calendar
+     *         horizon
+     */
+    public Optional<Date> findDateAfter(final long from, final long millis) {
+        int first = Arrays.binarySearch(ends, from);
+
+        first = (first >= 0) ? first + 1 : -first - 1;
+
+        if (first == starts.length) {
+            return Optional.empty();
+        }
+
+        long target = workedBefore[first] + Math.max(0, from - starts[first]) + millis;
+
+        if (target > workedBefore[starts.length]) {
+            return Optional.empty();
+        }
+
+        int index = Arrays.binarySearch(workedBefore, first + 1, starts.length + 1, target);
+
+        index = ((index >= 0) ? index : -index - 1) - 1;
+
+        return Optional.of(new Date(starts[index] + (target - workedBefore[index])));
+    }
+
+    /**
+     * Returns date which lies given amount of working time before given date.
+     * 
+     * @param to
+     *            date to which working time is counted
+     * @param millis
+     *            working time in milliseconds
+     * @return found date or empty Optional if there is not enough working time between the beginning of this calendar horizon
+     *         and given date
+     */
+    public Optional<Date> findDateBefore(final long to, final long millis) {
+        int last = Arrays.binarySearch(starts, to);
+
+        last = ((last >= 0) ? last : -last - 1) - 1;
+
+        if (last < 0) {
+            return Optional.empty();
+        }
+
+        long target = workedBefore[last] + Math.min(to, ends[last]) - starts[last] - millis;
+
+        if (target < 0) {
+            return Optional.empty();
+        }
+
+        int index = Arrays.binarySearch(workedBefore, 0, last + 1, target);
+
+        index = (index >= 0) ? index : -index - 2;
+
+        return Optional.of(new Date(starts[index] + (target - workedBefore[index])));
+    }
+
+    public static final class Builder {
+
+        private static final Comparator<long[]> INTERVAL_COMPARATOR = Comparator.<long[]> comparingLong(interval -> interval[0])
+                .thenComparingLong(interval -> interval[1]);
+
+        private final long horizonStart;
+
+        private final long horizonEnd;
+
+        private final List<long[]> intervals = Lists.newArrayList();
+
+        private Builder(final long horizonStart, final long horizonEnd) {
+            Preconditions.checkArgument(horizonStart <= horizonEnd, "Horizon start have to be <= horizon end.");
+
+            this.horizonStart = horizonStart;
+            this.horizonEnd = horizonEnd;
+        }
+
+        /**
+         * Adds work time of single shift.
+         * 
+         * @param workTimes
+         *            shift's planned work time intervals ({from, to} pairs)
+         * @param workTimeExceptions
+         *            shift's work time exceptions, added to planned work time
+         * @param freeTimeExceptions
+         *            shift's free time exceptions, removed from planned work time and work time exceptions
+         * @return this builder
+         */
+        public Builder addShift(final List<long[]> workTimes, final List<long[]> workTimeExceptions,
+                final List<long[]> freeTimeExceptions) {
+            List<long[]> shiftWorkTimes = Lists.newArrayList(workTimes);
+
+            shiftWorkTimes.addAll(workTimeExceptions);
+
+            intervals.addAll(subtract(merge(shiftWorkTimes), merge(Lists.newArrayList(freeTimeExceptions))));
+
+            return this;
+        }
+
+        public ShiftCalendar build() {
+            List<long[]> clipped = Lists.newArrayListWithCapacity(intervals.size());
+
+            for (long[] interval : merge(intervals)) {
+                long from = Math.max(interval[0], horizonStart);
+                long to = Math.min(interval[1], horizonEnd);
+
+                if (from < to) {
+                    clipped.add(new long[] { from, to });
+                }
+            }
+
+            return new ShiftCalendar(horizonStart, horizonEnd, clipped);
+        }
+
+        private static List<long[]> merge(final List<long[]> intervals) {
+            intervals.sort(INTERVAL_COMPARATOR);
+
+            List<long[]> merged = Lists.newArrayListWithCapacity(intervals.size());
+
+            long[] current = null;
+
+            for (long[] interval : intervals) {
+                if (interval[0] >= interval[1]) {
+                    continue;
+                }
+
+                if ((current == null) || (current[1] < interval[0])) {
+                    current = new long[] { interval[0], interval[1] };
+
+                    merged.add(current);
+                } else if (current[1] < interval[1]) {
+                    current[1] = interval[1];
+                }
+            }
+
+            return merged;
+        }
+
+        private static List<long[]> subtract(final List<long[]> workTimes, final List<long[]> freeTimes) {
+            if (freeTimes.isEmpty()) {
+                return workTimes;
+            }
+
+            List<long[]> result = Lists.newArrayListWithCapacity(workTimes.size());
+
+            int freeIndex = 0;
+
+            for (long[] workTime : workTimes) {
+                long from = workTime[0];
+                long to = workTime[1];
+
+                while ((freeIndex < freeTimes.size()) && (freeTimes.get(freeIndex)[1] <= from)) {
+                    freeIndex++;
+                }
+
+                for (int i = freeIndex; (i < freeTimes.size()) && (freeTimes.get(i)[0] < to); i++) {
+                    long[] freeTime = freeTimes.get(i);
+
+                    if (from < freeTime[0]) {
+                        result.add(new long[] { from, freeTime[0] });
+                    }
+
+                    from = Math.max(from, freeTime[1]);
+                }
+
+                if (from < to) {
+                    result.add(new long[] { from, to });
+                }
+            }
+
+            return result;
+        }
+
+    }
+
+}
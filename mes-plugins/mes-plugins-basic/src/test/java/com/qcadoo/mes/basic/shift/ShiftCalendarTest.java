@@ -0,0 +1,130 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ShiftCalendarTest {
+
+    private static final long HOUR = 3600 * 1000L;
+
+    private static final DateTime MONDAY = new DateTime(2017, 1, 2, 0, 0, 0, 0);
+
+    private ShiftCalendar shiftCalendar;
+
+    @Before
+    public final void init() {
+        List<long[]> firstShiftWorkTimes = Lists.newArrayList();
+        List<long[]> secondShiftWorkTimes = Lists.newArrayList();
+
+        for (int day = 0; day < 5; day++) {
+            firstShiftWorkTimes.add(interval(MONDAY.plusDays(day).withHourOfDay(6), MONDAY.plusDays(day).withHourOfDay(14)));
+            secondShiftWorkTimes.add(interval(MONDAY.plusDays(day).withHourOfDay(12), MONDAY.plusDays(day).withHourOfDay(20)));
+        }
+
+        List<long[]> freeTimes = Collections.singletonList(interval(MONDAY.plusDays(1).withHourOfDay(8),
+                MONDAY.plusDays(1).withHourOfDay(10)));
+        List<long[]> workTimes = Collections.singletonList(interval(MONDAY.plusDays(5).withHourOfDay(8),
+                MONDAY.plusDays(5).withHourOfDay(12)));
+
+        shiftCalendar = ShiftCalendar.builder(MONDAY.getMillis(), MONDAY.plusWeeks(1).getMillis())
+                .addShift(firstShiftWorkTimes, workTimes, freeTimes)
+                .addShift(secondShiftWorkTimes, Collections.<long[]> emptyList(), Collections.<long[]> emptyList()).build();
+    }
+
+    @Test
+    public final void shouldMergeOverlappingShiftsAndApplyExceptions() {
+        // then
+        // mon 6-20, tue 6-8, tue 10-20, wed-fri 6-20, sat 8-12
+        assertEquals(7, shiftCalendar.getNumberOfIntervals());
+    }
+
+    @Test
+    public final void shouldFindDateAfterWithinSingleInterval() {
+        // when
+        Date result = shiftCalendar.findDateAfter(MONDAY.withHourOfDay(7).getMillis(), 2 * HOUR).get();
+
+        // then
+        assertEquals(MONDAY.withHourOfDay(9).toDate(), result);
+    }
+
+    @Test
+    public final void shouldFindDateAfterSkippingFreeTime() {
+        // when
+        Date result = shiftCalendar.findDateAfter(MONDAY.withHourOfDay(19).getMillis(), 4 * HOUR).get();
+
+        // then
+        assertEquals(MONDAY.plusDays(1).withHourOfDay(11).toDate(), result);
+    }
+
+    @Test
+    public final void shouldFindNearestWorkingDateForZeroDuration() {
+        // when
+        Date result = shiftCalendar.findDateAfter(MONDAY.withHourOfDay(22).getMillis(), 0).get();
+
+        // then
+        assertEquals(MONDAY.plusDays(1).withHourOfDay(6).toDate(), result);
+    }
+
+    @Test
+    public final void shouldFindDateBeforeSkippingFreeTime() {
+        // when
+        Date result = shiftCalendar.findDateBefore(MONDAY.plusDays(1).withHourOfDay(13).getMillis(), 4 * HOUR).get();
+
+        // then
+        assertEquals(MONDAY.plusDays(1).withHourOfDay(7).toDate(), result);
+    }
+
+    @Test
+    public final void shouldFindDateBeforeUsingWorkTimeException() {
+        // when
+        Date result = shiftCalendar.findDateBefore(MONDAY.plusDays(6).getMillis(), 5 * HOUR).get();
+
+        // then
+        assertEquals(MONDAY.plusDays(4).withHourOfDay(19).toDate(), result);
+    }
+
+    @Test
+    public final void shouldReturnEmptyWhenHorizonIsExceeded() {
+        // then
+        assertFalse(shiftCalendar.findDateAfter(MONDAY.plusDays(4).getMillis(), 20 * HOUR).isPresent());
+        assertFalse(shiftCalendar.findDateBefore(MONDAY.withHourOfDay(8).getMillis(), 3 * HOUR).isPresent());
+    }
+
+    private long[] interval(final DateTime from, final DateTime to) {
+        return new long[] { from.getMillis(), to.getMillis() };
+    }
+
+}
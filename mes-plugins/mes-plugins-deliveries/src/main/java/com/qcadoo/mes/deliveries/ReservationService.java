@@ -6,18 +6,21 @@ import com.qcadoo.mes.deliveries.constants.*;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
 import com.qcadoo.model.api.*;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Service
 public class ReservationService {
@@ -26,20 +29,52 @@ public class ReservationService {
     
     public static final String OPERATION = "operation";
 
+    private static final String L_DELIVERED_QUANTITIES_BY_LOCATION_QUERY = "SELECT dpr.location_id AS locationId, "
+            + "SUM(dpr.deliveredquantity) AS deliveredQuantity FROM deliveries_deliveredproductreservation dpr "
+            + "JOIN deliveries_deliveredproduct dp ON dp.id = dpr.deliveredproduct_id WHERE dp.delivery_id = :deliveryId "
+            + "AND dp.product_id = :productId "
+            + "AND dp.additionalcode_id IS NOT DISTINCT FROM CAST(:additionalCodeId AS bigint) %s "
+            + "GROUP BY dpr.location_id";
+
+    private static final String L_DELIVERED_PRODUCTS_QUERY = "SELECT dp.id, dp.product_id AS productId, "
+            + "dp.additionalcode_id AS additionalCodeId, dp.offer_id AS offerId, dp.operation_id AS operationId, "
+            + "dp.deliveredquantity AS deliveredQuantity, dp.damagedquantity AS damagedQuantity, dp.conversion, "
+            + "product.additionalunit AS additionalUnit FROM deliveries_deliveredproduct dp "
+            + "JOIN basic_product product ON product.id = dp.product_id "
+            + "WHERE dp.delivery_id = :deliveryId AND NOT COALESCE(dp.iswaste, false) ORDER BY dp.id";
+
+    private static final String L_ORDERED_RESERVATIONS_QUERY = "SELECT op.id AS orderedProductId, op.product_id AS productId, "
+            + "op.additionalcode_id AS additionalCodeId, op.offer_id AS offerId, op.operation_id AS operationId, "
+            + "opr.location_id AS locationId, SUM(opr.orderedquantity) AS orderedQuantity "
+            + "FROM deliveries_orderedproductreservation opr "
+            + "JOIN deliveries_orderedproduct op ON op.id = opr.orderedproduct_id "
+            + "JOIN deliveries_delivery delivery ON delivery.id = op.delivery_id "
+            + "WHERE op.delivery_id = :deliveryId AND opr.location_id IS DISTINCT FROM delivery.location_id "
+            + "GROUP BY op.id, opr.location_id ORDER BY op.id, MIN(opr.id)";
+
+    private static final String L_RESERVATION_IN_LOCATION_QUERY = "SELECT EXISTS (SELECT 1 "
+            + "FROM deliveries_orderedproductreservation opr JOIN deliveries_orderedproduct op ON op.id = opr.orderedproduct_id "
+            + "WHERE op.delivery_id = :deliveryId AND opr.location_id = :locationId UNION ALL SELECT 1 "
+            + "FROM deliveries_deliveredproductreservation dpr "
+            + "JOIN deliveries_deliveredproduct dp ON dp.id = dpr.deliveredproduct_id "
+            + "WHERE dp.delivery_id = :deliveryId AND dpr.location_id = :locationId)";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public Entity createDefaultReservationsForDeliveredProduct(Entity deliveredProduct) {
         Entity product = deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT);
         if (product != null && !deliveredProduct.getBooleanField(DeliveredProductFields.IS_WASTE)) {
             List<Entity> deliveredProductReservations = new ArrayList<>();
 
             Entity orderedProductForProduct = findOrderedProductForProduct(deliveredProduct);
-            List<Entity> presentDeliveredProductForProductReservations = findPresentDeliveredProductForProductReservations(
-                    deliveredProduct);
+            Map<Long, BigDecimal> deliveredQuantitiesByLocation = findDeliveredQuantitiesByLocation(deliveredProduct);
 
             if (orderedProductForProduct != null) {
                 EntityList reservationsFromOrderedProduct = orderedProductForProduct
@@ -54,13 +89,16 @@ public class ReservationService {
 
                 for (Entity reservationFromOrderedProduct : reservationsFromOrderedProduct) {
                     Optional<Entity> maybeDeliveredProductReservation = createDeliveredProductReservation(availableQuantity,
-                            deliveredProduct, reservationFromOrderedProduct, presentDeliveredProductForProductReservations);
+                            deliveredProduct, reservationFromOrderedProduct, deliveredQuantitiesByLocation);
                     if (maybeDeliveredProductReservation.isPresent()) {
                         Entity deliveredProductReservation = maybeDeliveredProductReservation.get();
+                        BigDecimal deliveredQuantity = deliveredProductReservation
+                                .getDecimalField(DeliveredProductReservationFields.DELIVERED_QUANTITY);
                         deliveredProductReservations.add(deliveredProductReservation);
-                        presentDeliveredProductForProductReservations.add(deliveredProductReservation);
-                        availableQuantity = availableQuantity.subtract(deliveredProductReservation
-                                .getDecimalField(DeliveredProductReservationFields.DELIVERED_QUANTITY));
+                        deliveredQuantitiesByLocation.merge(deliveredProductReservation
+                                .getBelongsToField(DeliveredProductReservationFields.LOCATION).getId(), deliveredQuantity,
+                                BigDecimal::add);
+                        availableQuantity = availableQuantity.subtract(deliveredQuantity);
                     }
                 }
             }
@@ -71,25 +109,21 @@ public class ReservationService {
     }
 
     private Optional<Entity> createDeliveredProductReservation(BigDecimal availableQuantity, final Entity deliveredProduct,
-            final Entity reservationFromOrderedProduct, List<Entity> presentDeliveredProductForProductReservations) {
+            final Entity reservationFromOrderedProduct, Map<Long, BigDecimal> deliveredQuantitiesByLocation) {
         Entity location = reservationFromOrderedProduct.getBelongsToField(OrderedProductReservationFields.LOCATION);
-        List<Entity> reservationsFromLocation = filterReservationsByLocation(presentDeliveredProductForProductReservations,
-                location);
 
         BigDecimal orderedQuantity = reservationFromOrderedProduct.getDecimalField(OrderedProductFields.ORDERED_QUANTITY);
-        BigDecimal deliveredQuantity = sumQuantityFromReservations(reservationsFromLocation,
-                DeliveredProductReservationFields.DELIVERED_QUANTITY);
-        BigDecimal requestQuantity = orderedQuantity.subtract(deliveredQuantity);
-        BigDecimal currentDeliveredQuantity = requestQuantity.compareTo(BigDecimal.ZERO) <= 0 ? BigDecimal.ZERO
-                : requestQuantity.min(availableQuantity);
+        BigDecimal deliveredQuantity = deliveredQuantitiesByLocation.getOrDefault(location.getId(), BigDecimal.ZERO);
+        BigDecimal currentDeliveredQuantity = calculateReservedQuantity(orderedQuantity, deliveredQuantity, availableQuantity);
 
         BigDecimal conversion = deliveredProduct.getDecimalField(DeliveredProductFields.CONVERSION);
         if (conversion == null) {
             return Optional.empty();
         }
 
-        BigDecimal currentDeliveredAdditionalQuantity = calculationQuantityService.calculateAdditionalQuantity(currentDeliveredQuantity, conversion, deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT).getStringField(
-                ProductFields.ADDITIONAL_UNIT));
+        BigDecimal currentDeliveredAdditionalQuantity = calculationQuantityService.calculateAdditionalQuantity(
+                currentDeliveredQuantity, conversion,
+                deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT).getStringField(ProductFields.ADDITIONAL_UNIT));
 
         if (currentDeliveredQuantity.compareTo(BigDecimal.ZERO) <= 0
                 || currentDeliveredAdditionalQuantity.compareTo(BigDecimal.ZERO) <= 0) {
@@ -111,23 +145,89 @@ public class ReservationService {
         return Optional.of(deliveredProductReservation);
     }
 
-    public void recalculateReservationsForDelivery(Long deliveryId) {
-        SearchCriterion criterion = SearchRestrictions.eq(DeliveredProductFields.DELIVERY + ".id", deliveryId);
-        DataDefinition deliveredProductDD = getDeliveredProductDD();
+    private BigDecimal calculateReservedQuantity(BigDecimal orderedQuantity, BigDecimal deliveredQuantity,
+            BigDecimal availableQuantity) {
+        BigDecimal requestQuantity = orderedQuantity.subtract(deliveredQuantity);
 
-        List<Entity> deliveredProducts = deliveredProductDD.find().add(criterion).list().getEntities();
+        return requestQuantity.compareTo(BigDecimal.ZERO) <= 0 ? BigDecimal.ZERO : requestQuantity.min(availableQuantity);
+    }
 
-        deletePreviousReservations(deliveredProducts);
-        for (Entity deliveredProduct : deliveredProducts) {
-            if (!deliveredProduct.getBooleanField(DeliveredProductFields.IS_WASTE)) {
-                deliveredProduct = createDefaultReservationsForDeliveredProduct(deliveredProduct);
-                deliveredProductDD.save(deliveredProduct);
+    /**
+     * Rebuilds default reservations of all delivered products of the delivery. Ordered reservations and delivered products are
+     * read with one query each, quantities are split in delivered product order and new reservations are inserted in one batch.
+     */
+    public void recalculateReservationsForDelivery(Long deliveryId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("deliveryId", deliveryId);
+
+        jdbcTemplate.update("DELETE FROM deliveries_deliveredproductreservation WHERE deliveredproduct_id IN "
+                + "(SELECT id FROM deliveries_deliveredproduct WHERE delivery_id = :deliveryId)", params);
+
+        Map<List<Long>, Long> orderedProductIds = new HashMap<>();
+        Map<Long, List<Map<String, Object>>> orderedReservations = new HashMap<>();
+        for (Map<String, Object> reservation : jdbcTemplate.queryForList(L_ORDERED_RESERVATIONS_QUERY, params)) {
+            Long orderedProductId = toLong(reservation.get("orderedProductId"));
+            orderedProductIds.putIfAbsent(getOrderedProductKey(reservation), orderedProductId);
+            orderedReservations.computeIfAbsent(orderedProductId, id -> new ArrayList<>()).add(reservation);
+        }
+        if (orderedReservations.isEmpty()) {
+            return;
+        }
+
+        Map<List<Long>, BigDecimal> deliveredQuantities = new HashMap<>();
+        List<SqlParameterSource> deliveredProductReservations = new ArrayList<>();
+        for (Map<String, Object> deliveredProduct : jdbcTemplate.queryForList(L_DELIVERED_PRODUCTS_QUERY, params)) {
+            Long orderedProductId = orderedProductIds.get(getOrderedProductKey(deliveredProduct));
+            BigDecimal conversion = (BigDecimal) deliveredProduct.get(DeliveredProductFields.CONVERSION);
+            if (orderedProductId == null || conversion == null) {
+                continue;
+            }
+            BigDecimal deliveredQuantity = (BigDecimal) deliveredProduct.get("deliveredQuantity");
+            BigDecimal damagedQuantity = (BigDecimal) deliveredProduct.get("damagedQuantity");
+            BigDecimal availableQuantity = BigDecimalUtils.convertNullToZero(deliveredQuantity).subtract(
+                    BigDecimalUtils.convertNullToZero(damagedQuantity));
+
+            for (Map<String, Object> orderedReservation : orderedReservations.get(orderedProductId)) {
+                Long locationId = toLong(orderedReservation.get("locationId"));
+                List<Long> deliveredKey = getDeliveredQuantityKey(deliveredProduct, locationId);
+
+                BigDecimal reservedQuantity = calculateReservedQuantity((BigDecimal) orderedReservation.get("orderedQuantity"),
+                        deliveredQuantities.getOrDefault(deliveredKey, BigDecimal.ZERO), availableQuantity);
+                BigDecimal additionalQuantity = calculationQuantityService.calculateAdditionalQuantity(reservedQuantity,
+                        conversion, (String) deliveredProduct.get("additionalUnit"));
+
+                if (reservedQuantity.compareTo(BigDecimal.ZERO) > 0 && additionalQuantity.compareTo(BigDecimal.ZERO) > 0) {
+                    deliveredProductReservations.add(new MapSqlParameterSource("deliveredProductId", deliveredProduct.get("id"))
+                            .addValue("locationId", locationId).addValue("deliveredQuantity", reservedQuantity)
+                            .addValue("additionalQuantity", additionalQuantity));
+
+                    deliveredQuantities.merge(deliveredKey, reservedQuantity, BigDecimal::add);
+                    availableQuantity = availableQuantity.subtract(reservedQuantity);
+                }
             }
         }
+
+        if (!deliveredProductReservations.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO deliveries_deliveredproductreservation "
+                    + "(deliveredproduct_id, location_id, deliveredquantity, additionalquantity) "
+                    + "VALUES (:deliveredProductId, :locationId, :deliveredQuantity, :additionalQuantity)",
+                    deliveredProductReservations.toArray(new SqlParameterSource[0]));
+        }
+    }
+
+    private List<Long> getOrderedProductKey(Map<String, Object> row) {
+        return Arrays.asList(toLong(row.get("productId")), toLong(row.get("additionalCodeId")),
+                PluginUtils.isEnabled("supplyNegotiations") ? toLong(row.get("offerId")) : null,
+                PluginUtils.isEnabled("techSubcontrForDeliveries") ? toLong(row.get("operationId")) : null);
+    }
+
+    private List<Long> getDeliveredQuantityKey(Map<String, Object> deliveredProduct, Long locationId) {
+        return Arrays.asList(toLong(deliveredProduct.get("productId")), toLong(deliveredProduct.get("additionalCodeId")),
+                PluginUtils.isEnabled("supplyNegotiations") ? toLong(deliveredProduct.get("offerId")) : null, locationId);
     }
 
-    private DataDefinition getDeliveredProductDD() {
-        return dataDefinitionService.get(DeliveriesConstants.PLUGIN_IDENTIFIER, DeliveriesConstants.MODEL_DELIVERED_PRODUCT);
+    private Long toLong(Object value) {
+        return value == null ? null : ((Number) value).longValue();
     }
 
     private DataDefinition getDeliveredProductReservationDD() {
@@ -171,46 +271,30 @@ public class ReservationService {
         return orderedProductForProduct;
     }
 
-    private List<Entity> findPresentDeliveredProductForProductReservations(Entity deliveredProduct) {
+    private Map<Long, BigDecimal> findDeliveredQuantitiesByLocation(Entity deliveredProduct) {
         Entity delivery = deliveredProduct.getBelongsToField(DeliveredProductFields.DELIVERY);
         Entity additionalCode = deliveredProduct.getBelongsToField(DeliveredProductFields.ADDITIONAL_CODE);
-
-        SearchCriteriaBuilder findDeliveredProducts = delivery.getHasManyField(DeliveryFields.DELIVERED_PRODUCTS).find();
-        findDeliveredProducts.add(SearchRestrictions.belongsTo(DeliveredProductFields.PRODUCT,
-                deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT)));
-        if (additionalCode == null) {
-            findDeliveredProducts.add(SearchRestrictions.isNull(DeliveredProductFields.ADDITIONAL_CODE));
-        } else {
-            findDeliveredProducts.add(SearchRestrictions.belongsTo(DeliveredProductFields.ADDITIONAL_CODE, additionalCode));
-        }
-        if(PluginUtils.isEnabled("supplyNegotiations")) {
-            findDeliveredProducts.add(SearchRestrictions.belongsTo(OFFER, deliveredProduct.getBelongsToField(OFFER)));
+        Map<Long, BigDecimal> deliveredQuantitiesByLocation = new HashMap<>();
+        if (delivery.getId() == null) {
+            return deliveredQuantitiesByLocation;
         }
-        List<Entity> deliveredProducts = findDeliveredProducts.list().getEntities();
-
-        List<Entity> allReservationsFromDeliveredProducts = deliveredProducts.stream().flatMap(p -> {
-            return p.getHasManyField(DeliveredProductFields.RESERVATIONS).stream();
-        }).collect(Collectors.toList());
-
-        return allReservationsFromDeliveredProducts;
-    }
-
-    private List<Entity> filterReservationsByLocation(List<Entity> presentDeliveredProductForProductReservations,
-            Entity location) {
-        List<Entity> reservationsFromLocation = presentDeliveredProductForProductReservations.stream().filter(reservation -> {
-            Entity reservationLocation = reservation.getBelongsToField(OrderedProductReservationFields.LOCATION);
-            return location.getId().equals(reservationLocation.getId());
-        }).collect(Collectors.toList());
 
-        return reservationsFromLocation;
-    }
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("deliveryId", delivery.getId())
+                .addValue("productId", deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT).getId())
+                .addValue("additionalCodeId", additionalCode == null ? null : additionalCode.getId());
+        String offerCondition = "";
+        if (PluginUtils.isEnabled("supplyNegotiations")) {
+            Entity offer = deliveredProduct.getBelongsToField(OFFER);
+            offerCondition = "AND dp.offer_id IS NOT DISTINCT FROM CAST(:offerId AS bigint)";
+            params.addValue("offerId", offer == null ? null : offer.getId());
+        }
 
-    private BigDecimal sumQuantityFromReservations(List<Entity> reservationsFromLocation, String field) {
-        BigDecimal quantity = reservationsFromLocation.stream().map(r -> {
-            return r.getDecimalField(field);
-        }).reduce(BigDecimal.ZERO, (r1, r2) -> r1.add(r2));
+        for (Map<String, Object> row : jdbcTemplate.queryForList(
+                String.format(L_DELIVERED_QUANTITIES_BY_LOCATION_QUERY, offerCondition), params)) {
+            deliveredQuantitiesByLocation.put(toLong(row.get("locationId")), (BigDecimal) row.get("deliveredQuantity"));
+        }
 
-        return quantity;
+        return deliveredQuantitiesByLocation;
     }
 
     public void deleteReservationsForOrderedProductIfChanged(Entity orderedProduct) {
@@ -260,8 +344,22 @@ public class ReservationService {
     }
 
     public boolean validateDeliveryAgainstReservations(Entity delivery) {
-        return validateDeliveryOrderedProductsAgainstReservations(delivery)
-                && validateDeliveryDeliveredProductsAgainstReservations(delivery);
+        Entity deliveryLocation = delivery.getBelongsToField(DeliveryFields.LOCATION);
+        if (delivery.getId() == null || deliveryLocation == null) {
+            return validateDeliveryOrderedProductsAgainstReservations(delivery)
+                    && validateDeliveryDeliveredProductsAgainstReservations(delivery);
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("deliveryId", delivery.getId())
+                .addValue("locationId", deliveryLocation.getId());
+        if (jdbcTemplate.queryForObject(L_RESERVATION_IN_LOCATION_QUERY, params, Boolean.class)) {
+            FieldDefinition locationField = delivery.getDataDefinition().getField(DeliveryFields.LOCATION);
+            delivery.addError(locationField, "deliveries.delivery.error.locationNotUniqueToDelivery",
+                    deliveryLocation.getStringField(LocationFields.NUMBER));
+            return false;
+        }
+
+        return true;
     }
 
     private boolean validateDeliveryOrderedProductsAgainstReservations(Entity delivery) {
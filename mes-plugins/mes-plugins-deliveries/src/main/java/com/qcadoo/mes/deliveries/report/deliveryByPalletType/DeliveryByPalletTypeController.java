@@ -1,21 +1,31 @@
 package com.qcadoo.mes.deliveries.report.deliveryByPalletType;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.servlet.ModelAndView;
 
-import java.util.HashMap;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
 
 @Controller
 class DeliveryByPalletTypeController {
 
+    private static final String L_XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    @Autowired
+    private DeliveryByPalletTypeXlsService deliveryByPalletTypeXlsService;
+
     @RequestMapping(value = "/deliveries/deliveryByPalletType.xlsx", method = RequestMethod.GET)
-    public ModelAndView generatePlannedEventsReport(@RequestParam("from") final Long from, @RequestParam("to") final Long to) {
-        HashMap<String, Long> params = new HashMap<String, Long>();
-        params.put("from", from);
-        params.put("to", to);
-        return new ModelAndView("deliveryByPalletTypeXlsView", "params", params);
+    public void generatePlannedEventsReport(@RequestParam("from") final Long from, @RequestParam("to") final Long to,
+            final Locale locale, final HttpServletResponse response) throws IOException {
+        response.setContentType(L_XLSX_CONTENT_TYPE);
+        response.setHeader("Content-disposition", "attachment; filename=deliveryByPalletType.xlsx");
+
+        deliveryByPalletTypeXlsService.writeReport(from, to, locale, response.getOutputStream());
+
+        response.flushBuffer();
     }
 }
@@ -11,10 +11,10 @@ class DeliveryByPalletTypeKey {
 
     private final Date date;
 
-    public DeliveryByPalletTypeKey(final DeliveryByPalletTypeEntry entry) {
-        this.id = entry.getId();
-        this.number = entry.getNumber();
-        this.date = entry.getDate();
+    public DeliveryByPalletTypeKey(final Long id, final String number, final Date date) {
+        this.id = id;
+        this.number = number;
+        this.date = date;
     }
 
     public Long getId() {
@@ -1,17 +1,18 @@
 package com.qcadoo.mes.deliveries.report.deliveryByPalletType;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Maps;
-import com.qcadoo.model.api.DataDefinitionService;
 
 @Service
 class DeliveryByPalletTypeXlsDP {
@@ -19,51 +20,72 @@ class DeliveryByPalletTypeXlsDP {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    @Autowired
-    private DataDefinitionService dataDefinitionService;
-
-    public Map<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> findEntries(final Map<String, Object> filters) {
-        Map<String, Object> _filters = (Map<String, Object>) filters.get("params");
-        Long from = (Long) _filters.get("from");
-        Long to = (Long) _filters.get("to");
+    /**
+     * Passes deliveries received between given dates to the consumer, one call per delivery, ordered by receive date. Pallets are
+     * counted per pallet type in the query and rows of one delivery are folded while the result set is read.
+     */
+    public void processEntries(final Long from, final Long to,
+            final BiConsumer<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> consumer) {
         Map<String, Object> params = Maps.newHashMap();
         params.put("fromDate", new Date(from));
         params.put("toDate", new DateTime(to).plusDays(1).toDate());
-        String query = buildQuery();
-        List<DeliveryByPalletTypeEntry> entries = jdbcTemplate.query(query, params, new BeanPropertyRowMapper(
-                DeliveryByPalletTypeEntry.class));
-        Map<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> deliveryByPallet = Maps.newLinkedHashMap();
 
-        for (DeliveryByPalletTypeEntry entry : entries) {
-            DeliveryByPalletTypeKey key = new DeliveryByPalletTypeKey(entry);
-            if (deliveryByPallet.containsKey(key)) {
-                DeliveryByPalletTypeValue value = deliveryByPallet.get(key);
-                value.addQuantityForPallet(entry.getPalletType(), entry.getNumberOfPallets());
-            } else {
-                DeliveryByPalletTypeValue value = new DeliveryByPalletTypeValue();
-                value.addQuantityForPallet(entry.getPalletType(), entry.getNumberOfPallets());
-                deliveryByPallet.put(key, value);
-            }
-        }
-        return deliveryByPallet;
+        DeliveryByPalletTypeRowCallbackHandler rowCallbackHandler = new DeliveryByPalletTypeRowCallbackHandler(consumer);
+        jdbcTemplate.query(buildQuery(), params, rowCallbackHandler);
+        rowCallbackHandler.flush();
     }
 
     private String buildQuery() {
         StringBuilder query = new StringBuilder();
         query.append("SELECT delivery.id, delivery.number, deliveredproduct.pallettype, deliverystatechange.dateandtime as date, ");
         query.append("count(DISTINCT deliveredproduct.palletnumber_id) as numberofpallets FROM deliveries_delivery delivery ");
+        query.append("JOIN deliveries_deliverystatechange deliverystatechange ON deliverystatechange.delivery_id = delivery.id ");
+        query.append("AND deliverystatechange.status = '03successful' AND deliverystatechange.targetstate = '06received' ");
         query.append("LEFT JOIN deliveries_deliveredproduct deliveredproduct ON deliveredproduct.delivery_id = delivery.id ");
-        query.append("LEFT JOIN ");
-        query.append("  (SELECT dp.palletnumber_id, count(dp.palletnumber_id) > 0 AS anyWaste FROM deliveries_deliveredproduct dp ");
-        query.append("  JOIN deliveries_delivery delivery ON delivery.id = dp.delivery_id ");
-        query.append("  LEFT JOIN deliveries_deliverystatechange deliverystatechange ON deliverystatechange.delivery_id = dp.delivery_id AND deliverystatechange.status = '03successful' AND deliverystatechange.targetstate = '06received' ");
-        query.append("  WHERE delivery.state = '06received' AND deliverystatechange.dateandtime >= :fromDate AND deliverystatechange.dateandtime <= :toDate AND dp.iswaste = true ");
-        query.append("  GROUP BY dp.palletnumber_id ) AS otherdp ");
-        query.append("ON otherdp.palletnumber_id = deliveredproduct.palletnumber_id ");
-        query.append("LEFT JOIN deliveries_deliverystatechange deliverystatechange ON deliverystatechange.delivery_id = delivery.id AND deliverystatechange.status = '03successful' AND deliverystatechange.targetstate = '06received' ");
-        query.append("WHERE delivery.state = '06received' AND deliverystatechange.dateandtime >= :fromDate AND deliverystatechange.dateandtime <= :toDate AND otherdp.anyWaste is null ");
+        query.append("WHERE delivery.state = '06received' AND deliverystatechange.dateandtime >= :fromDate ");
+        query.append("AND deliverystatechange.dateandtime <= :toDate AND NOT EXISTS ");
+        query.append("  (SELECT 1 FROM deliveries_deliveredproduct dp ");
+        query.append("  JOIN deliveries_delivery otherdelivery ON otherdelivery.id = dp.delivery_id ");
+        query.append("  JOIN deliveries_deliverystatechange otherstatechange ON otherstatechange.delivery_id = dp.delivery_id ");
+        query.append("  AND otherstatechange.status = '03successful' AND otherstatechange.targetstate = '06received' ");
+        query.append("  WHERE dp.palletnumber_id = deliveredproduct.palletnumber_id AND dp.iswaste = true ");
+        query.append("  AND otherdelivery.state = '06received' AND otherstatechange.dateandtime >= :fromDate ");
+        query.append("  AND otherstatechange.dateandtime <= :toDate) ");
         query.append("GROUP BY delivery.id, delivery.number, deliverystatechange.dateandtime, deliveredproduct.pallettype ");
-        query.append("ORDER BY deliverystatechange.dateandtime ASC, delivery.number");
+        query.append("ORDER BY deliverystatechange.dateandtime ASC, delivery.number, delivery.id");
         return query.toString();
     }
+
+    private static class DeliveryByPalletTypeRowCallbackHandler implements RowCallbackHandler {
+
+        private final BiConsumer<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> consumer;
+
+        private DeliveryByPalletTypeKey key;
+
+        private DeliveryByPalletTypeValue value;
+
+        DeliveryByPalletTypeRowCallbackHandler(final BiConsumer<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(final ResultSet rs) throws SQLException {
+            DeliveryByPalletTypeKey rowKey = new DeliveryByPalletTypeKey(rs.getLong("id"), rs.getString("number"),
+                    rs.getTimestamp("date"));
+            if (!rowKey.equals(key)) {
+                flush();
+                key = rowKey;
+                value = new DeliveryByPalletTypeValue();
+            }
+            value.addQuantityForPallet(rs.getString("pallettype"), rs.getInt("numberofpallets"));
+        }
+
+        void flush() {
+            if (key != null) {
+                consumer.accept(key, value);
+                key = null;
+                value = null;
+            }
+        }
+    }
 }
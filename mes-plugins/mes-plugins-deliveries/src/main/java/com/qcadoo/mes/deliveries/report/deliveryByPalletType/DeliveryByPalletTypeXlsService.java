@@ -1,9 +1,10 @@
 package com.qcadoo.mes.deliveries.report.deliveryByPalletType;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.constants.DictionaryFields;
 import com.qcadoo.model.constants.DictionaryItemFields;
@@ -11,17 +12,22 @@ import com.qcadoo.model.constants.QcadooModelConstants;
 import org.apache.poi.hssf.usermodel.HSSFFont;
 import org.apache.poi.hssf.util.HSSFColor;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 @Service
 class DeliveryByPalletTypeXlsService {
 
-    @Autowired
-    private NumberService numberService;
+    private static final int L_ROW_ACCESS_WINDOW_SIZE = 500;
+
+    private static final int L_MAX_COLUMN_WIDTH = 255 * 256;
+
+    private static final int L_DATE_COLUMN_WIDTH = 12 * 256;
 
     @Autowired
     private TranslationService translationService;
@@ -36,27 +42,33 @@ class DeliveryByPalletTypeXlsService {
         return translationService.translate(DeliveryByPalletTypeXlsConstants.REPORT_TITLE, locale);
     }
 
-    public void buildExcelContent(final XSSFWorkbook workbook, final XSSFSheet sheet, final Map<String, Object> filters,
-            final Locale locale) {
-        List<Entity> pallets = getTypeOfPallets();
-        fillHeaderRow(workbook, sheet, 0, locale, pallets);
-        Map<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> deliveryByPalletType = dataProvider.findEntries(filters);
-        fillRows(workbook, sheet, 1, locale, deliveryByPalletType, pallets);
-        autoSizeColumn(sheet);
-    }
+    /**
+     * Writes the report to the output stream. Rows are written while the query result is read and only a window of them is kept
+     * in memory, so column widths are measured from cell contents instead of auto-sized.
+     */
+    public void writeReport(final Long from, final Long to, final Locale locale, final OutputStream outputStream)
+            throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(L_ROW_ACCESS_WINDOW_SIZE);
 
-    private void autoSizeColumn(XSSFSheet sheet) {
-        Row row = sheet.getRow(0);
-        Iterator<Cell> cellIterator = row.cellIterator();
-        while (cellIterator.hasNext()) {
-            Cell cell = cellIterator.next();
-            int columnIndex = cell.getColumnIndex();
-            sheet.autoSizeColumn(columnIndex);
+        try {
+            Sheet sheet = workbook.createSheet(getReportTitle(locale));
+            Map<Integer, Integer> columnWidths = Maps.newHashMap();
+            List<Entity> pallets = getTypeOfPallets();
+
+            fillHeaderRow(workbook, sheet, 0, locale, pallets, columnWidths);
+            fillRows(workbook, sheet, from, to, pallets, columnWidths);
+
+            columnWidths.merge(0, L_DATE_COLUMN_WIDTH, Math::max);
+            columnWidths.forEach(sheet::setColumnWidth);
+
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
         }
     }
 
-    private void fillRows(final XSSFWorkbook workbook, final XSSFSheet sheet, int rowNum, final Locale locale,
-            Map<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> deliveryByPalletType, final List<Entity> pallets) {
+    private void fillRows(final Workbook workbook, final Sheet sheet, final Long from, final Long to,
+            final List<Entity> pallets, final Map<Integer, Integer> columnWidths) {
         Font font = workbook.createFont();
         font.setFontName(HSSFFont.FONT_ARIAL);
         font.setFontHeightInPoints((short) 10);
@@ -65,76 +77,78 @@ class DeliveryByPalletTypeXlsService {
 
         CellStyle dateStyle = workbook.createCellStyle();
         dateStyle.setDataFormat(dataFormat.getFormat("dd.mm.yyyy"));
+        dateStyle.setFont(font);
+
+        CellStyle textStyle = workbook.createCellStyle();
+        textStyle.setFont(font);
 
         CellStyle numberStyle = workbook.createCellStyle();
-        numberStyle.setDataFormat(dataFormat.getFormat("# ##0"));
+        numberStyle.setDataFormat(dataFormat.getFormat("# ##0"));
+        numberStyle.setFont(font);
 
-        for (Map.Entry<DeliveryByPalletTypeKey, DeliveryByPalletTypeValue> entry : deliveryByPalletType.entrySet()) {
-            DeliveryByPalletTypeKey key = entry.getKey();
-            DeliveryByPalletTypeValue value = entry.getValue();
-            XSSFRow rowLine = sheet.createRow(rowNum);
+        dataProvider.processEntries(from, to, (key, value) -> {
+            Row rowLine = sheet.createRow(sheet.getLastRowNum() + 1);
 
-            XSSFCell dateCell = rowLine.createCell(0);
+            Cell dateCell = rowLine.createCell(0);
             dateCell.setCellValue(key.getDate());
-            dateCell.getCellStyle().setFont(font);
             dateCell.setCellStyle(dateStyle);
 
-            XSSFCell numberCell = rowLine.createCell(1);
+            Cell numberCell = rowLine.createCell(1);
             numberCell.setCellValue(key.getNumber());
+            numberCell.setCellStyle(textStyle);
+            measureColumn(columnWidths, 1, key.getNumber());
 
-            XSSFCell sumAllCell = rowLine.createCell(2);
+            Cell sumAllCell = rowLine.createCell(2);
             sumAllCell.setCellStyle(numberStyle);
-            sumAllCell.setCellType(Cell.CELL_TYPE_NUMERIC);
             sumAllCell.setCellValue(value.sum());
 
             int number = 3;
             for (Entity pallet : pallets) {
-                XSSFCell quantity = rowLine.createCell(number);
+                Cell quantity = rowLine.createCell(number);
                 quantity.setCellStyle(numberStyle);
-                quantity.setCellType(Cell.CELL_TYPE_NUMERIC);
                 quantity.setCellValue(nullToZero(value.getPalletQuantity().get(pallet.getStringField(DictionaryItemFields.NAME))));
                 number++;
             }
-            rowNum++;
+        });
+    }
+
+    private void measureColumn(final Map<Integer, Integer> columnWidths, final int column, final String content) {
+        if (Objects.nonNull(content)) {
+            columnWidths.merge(column, Math.min((content.length() + 2) * 256, L_MAX_COLUMN_WIDTH), Math::max);
         }
     }
 
-    private void fillHeaderRow(final XSSFWorkbook workbook, final XSSFSheet sheet, final int rowNum, final Locale locale,
-            final List<Entity> pallets) {
-        XSSFRow headerLine = sheet.createRow(rowNum);
-        XSSFFont font = workbook.createFont();
+    private void fillHeaderRow(final Workbook workbook, final Sheet sheet, final int rowNum, final Locale locale,
+            final List<Entity> pallets, final Map<Integer, Integer> columnWidths) {
+        Row headerLine = sheet.createRow(rowNum);
+        Font font = workbook.createFont();
         font.setFontHeightInPoints((short) 10);
         font.setFontName("ARIAL");
         font.setItalic(false);
-        font.setBold(true);
         font.setBoldweight(Font.BOLDWEIGHT_BOLD);
 
         font.setColor(HSSFColor.BLACK.index);
-        XSSFCellStyle style = workbook.createCellStyle();
+        CellStyle style = workbook.createCellStyle();
 
         style.setFont(font);
 
-        XSSFCell dateCell = headerLine.createCell(0);
-        dateCell.setCellValue(translationService.translate("deliveries.deliveryByPalletTypeReport.report.date", locale));
-        dateCell.setCellStyle(style);
-        XSSFCell numberCell = headerLine.createCell(1);
-        numberCell.setCellValue(translationService.translate("deliveries.deliveryByPalletTypeReport.report.number", locale));
-        numberCell.setCellStyle(style);
-
-        XSSFCell sumOfPalletCell = headerLine.createCell(2);
-        sumOfPalletCell.setCellValue(translationService.translate("deliveries.deliveryByPalletTypeReport.report.sumAllPallets",
-                locale));
-        sumOfPalletCell.setCellStyle(style);
-
-        int number = 3;
+        List<String> headers = Lists.newArrayList(
+                translationService.translate("deliveries.deliveryByPalletTypeReport.report.date", locale),
+                translationService.translate("deliveries.deliveryByPalletTypeReport.report.number", locale),
+                translationService.translate("deliveries.deliveryByPalletTypeReport.report.sumAllPallets", locale));
         for (Entity pallet : pallets) {
-            XSSFCell palletCell = headerLine.createCell(number);
-            palletCell.setCellValue(translationService
-                    .translate("deliveries.deliveryByPalletTypeReport.report.pallet", locale, pallet.getStringField(DictionaryItemFields.NAME)));
-            palletCell.setCellStyle(style);
-            number++;
+            headers.add(translationService.translate("deliveries.deliveryByPalletTypeReport.report.pallet", locale,
+                    pallet.getStringField(DictionaryItemFields.NAME)));
         }
 
+        int number = 0;
+        for (String header : headers) {
+            Cell headerCell = headerLine.createCell(number);
+            headerCell.setCellValue(header);
+            headerCell.setCellStyle(style);
+            measureColumn(columnWidths, number, header);
+            number++;
+        }
     }
 
     private List<Entity> getTypeOfPallets() {
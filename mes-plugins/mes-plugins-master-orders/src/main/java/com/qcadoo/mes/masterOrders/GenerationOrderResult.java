@@ -25,27 +25,63 @@ public class GenerationOrderResult {
 
     private List<String> productsWithoutAcceptedTechnologies = Lists.newArrayList();
 
-    public void addNotGeneratedProductError(MasterOrderProductErrorContainer err) {
+    public synchronized void addNotGeneratedProductError(MasterOrderProductErrorContainer err) {
         productOrderErrors.add(err);
     }
 
-    public void addGeneratedOrderNumber(String number) {
+    public synchronized void addGeneratedOrderNumber(String number) {
         generatedOrderNumbers.add(number);
     }
 
-    public void addOrderWithoutPps(String number) {
+    public synchronized void addOrderWithoutPps(String number) {
         ordersWithoutPps.add(number);
     }
 
-    public void addOrderWithoutGeneratedSubOrders(String number) {
+    public synchronized void addOrderWithoutGeneratedSubOrders(String number) {
         ordersWithoutGeneratedSubOrders.add(number);
     }
 
-    public void addProductWithoutAcceptedTechnology(String number) {
+    public synchronized void addProductWithoutAcceptedTechnology(String number) {
         productsWithoutAcceptedTechnologies.add(number);
     }
 
-    public void showMessage(ViewDefinitionState view) {
+    public void addAll(final GenerationOrderResult other) {
+        List<MasterOrderProductErrorContainer> otherProductOrderErrors = other.getNotGeneratedProductErrors();
+        List<String> otherGeneratedOrderNumbers = other.getGeneratedOrderNumbers();
+        List<String> otherOrdersWithoutPps = other.getOrdersWithoutPps();
+        List<String> otherOrdersWithoutGeneratedSubOrders = other.getOrdersWithoutGeneratedSubOrders();
+        List<String> otherProductsWithoutAcceptedTechnologies = other.getProductsWithoutAcceptedTechnologies();
+
+        synchronized (this) {
+            productOrderErrors.addAll(otherProductOrderErrors);
+            generatedOrderNumbers.addAll(otherGeneratedOrderNumbers);
+            ordersWithoutPps.addAll(otherOrdersWithoutPps);
+            ordersWithoutGeneratedSubOrders.addAll(otherOrdersWithoutGeneratedSubOrders);
+            productsWithoutAcceptedTechnologies.addAll(otherProductsWithoutAcceptedTechnologies);
+        }
+    }
+
+    public synchronized List<String> getGeneratedOrderNumbers() {
+        return Lists.newArrayList(generatedOrderNumbers);
+    }
+
+    public synchronized List<String> getOrdersWithoutPps() {
+        return Lists.newArrayList(ordersWithoutPps);
+    }
+
+    public synchronized List<String> getOrdersWithoutGeneratedSubOrders() {
+        return Lists.newArrayList(ordersWithoutGeneratedSubOrders);
+    }
+
+    public synchronized List<String> getProductsWithoutAcceptedTechnologies() {
+        return Lists.newArrayList(productsWithoutAcceptedTechnologies);
+    }
+
+    public synchronized List<MasterOrderProductErrorContainer> getNotGeneratedProductErrors() {
+        return Lists.newArrayList(productOrderErrors);
+    }
+
+    public synchronized void showMessage(ViewDefinitionState view) {
         if (!generatedOrderNumbers.isEmpty()) {
             view.addMessage("masterOrders.masterOrder.generationOrder.generatedOrderNumbers", ComponentState.MessageType.INFO,
                     false, String.join(", ", generatedOrderNumbers));
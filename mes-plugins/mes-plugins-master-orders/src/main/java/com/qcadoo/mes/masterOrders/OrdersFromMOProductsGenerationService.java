@@ -1,6 +1,8 @@
 package com.qcadoo.mes.masterOrders;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.ShiftsService;
@@ -22,6 +24,7 @@ import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.constants.ParameterFieldsO;
 import com.qcadoo.mes.orders.states.constants.OrderState;
 import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -30,8 +33,11 @@ import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.view.api.utils.NumberGeneratorService;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -40,8 +46,13 @@ import java.math.BigDecimal;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
 import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
@@ -49,6 +60,8 @@ import static com.qcadoo.model.api.BigDecimalUtils.convertNullToZero;
 @Service
 public class OrdersFromMOProductsGenerationService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersFromMOProductsGenerationService.class);
+
     private static final List<String> L_TECHNOLOGY_FIELD_NAMES = Lists.newArrayList("registerQuantityInProduct",
             "registerQuantityOutProduct", "registerProductionTime", "registerPiecework", "justOne", "allowToClose",
             "autoCloseOrder", "typeOfProductionRecording");
@@ -84,24 +97,96 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private ShiftsService shiftsService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public GenerationOrderResult generateOrders(List<Entity> masterOrderProducts, boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService);
-        boolean automaticPps = parameterService.getParameter().getBooleanField("ppsIsAutomatic");
-        masterOrderProducts.forEach(masterOrderProduct -> {
-            Optional<Entity> dtoEntity = Optional.ofNullable(masterOrderProduct.getDataDefinition().getMasterModelEntity(
-                    masterOrderProduct.getId()));
-            if (dtoEntity.isPresent()) {
-                generateOrder(generatePPS, automaticPps, result, dtoEntity.get());
-            } else {
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct);
-            }
+
+        generateOrders(masterOrderProducts, generatePPS, result, () -> false, () -> {
         });
 
         return result;
 
     }
 
-    private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result, Entity masterOrderProduct) {
+    /**
+     * Generates orders for given master order products one after another, the same way as
+     * {@link #generateOrders(List, boolean)} does.
+     * 
+     * @param cancelled
+     *            checked before each product, generation stops when it returns true
+     * @param productGenerated
+     *            called after each product
+     */
+    void generateOrders(final List<Entity> masterOrderProducts, final boolean generatePPS, final GenerationOrderResult result,
+            final BooleanSupplier cancelled, final Runnable productGenerated) {
+        boolean automaticPps = parameterService.getParameter().getBooleanField("ppsIsAutomatic");
+        Map<String, PpsGenerationThroughput> ppsGenerationThroughputs = Maps.newLinkedHashMap();
+        List<Entity> products = masterOrderProducts.stream().map(this::getMasterOrderProduct).collect(Collectors.toList());
+        lockMasterOrders(products);
+        for (Entity masterOrderProduct : products) {
+            if (cancelled.getAsBoolean()) {
+                break;
+            }
+            generateOrder(generatePPS, automaticPps, result, masterOrderProduct, ppsGenerationThroughputs);
+            productGenerated.run();
+        }
+
+        ppsGenerationThroughputs.forEach((productionLineNumber, throughput) -> LOG.info(String.format(
+                "PPS generated for %d orders of production line %s in %d ms", throughput.orders, productionLineNumber,
+                TimeUnit.NANOSECONDS.toMillis(throughput.nanos))));
+    }
+
+    /**
+     * Generates orders for given chunk of master order products in one transaction, so data cached for the transaction (like
+     * working time of production lines) is shared by the whole chunk instead of being loaded again for each order.
+     */
+    @Transactional
+    public void generateOrdersInTransaction(final List<Entity> masterOrderProducts, final boolean generatePPS,
+            final GenerationOrderResult result, final BooleanSupplier cancelled, final Runnable productGenerated) {
+        generateOrders(masterOrderProducts, generatePPS, result, cancelled, productGenerated);
+    }
+
+    /**
+     * Numbers of orders are generated from the ones already saved for the master order, so master orders are locked until the
+     * end of transaction - other generations of the same master order wait for them, instead of generating the same numbers.
+     * Rows are locked in order of their ids, so generations of overlapping master orders don't deadlock.
+     */
+    private void lockMasterOrders(final List<Entity> masterOrderProducts) {
+        Set<Long> masterOrderIds = Sets.newTreeSet();
+
+        for (Entity masterOrderProduct : masterOrderProducts) {
+            masterOrderIds.add(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER).getId());
+        }
+
+        if (masterOrderIds.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("ids", masterOrderIds);
+
+        jdbcTemplate.queryForList("SELECT id FROM masterorders_masterorder WHERE id IN (:ids) ORDER BY id FOR UPDATE", params,
+                Long.class);
+    }
+
+    Entity getMasterOrderProduct(final Entity masterOrderProduct) {
+        Optional<Entity> dtoEntity = Optional.ofNullable(masterOrderProduct.getDataDefinition().getMasterModelEntity(
+                masterOrderProduct.getId()));
+
+        return dtoEntity.orElse(masterOrderProduct);
+    }
+
+    Long getProductionLineId(final Entity masterOrderProduct) {
+        Entity productionLine = getProductionLine(getTechnology(masterOrderProduct));
+
+        return Objects.isNull(productionLine) ? null : productionLine.getId();
+    }
+
+    private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result, Entity masterOrderProduct,
+            Map<String, PpsGenerationThroughput> ppsGenerationThroughputs) {
         Entity order = createOrder(masterOrderProduct);
         order = getOrderDD().save(order);
         if (!order.isValid()) {
@@ -155,8 +240,12 @@ public class OrdersFromMOProductsGenerationService {
                     }
                 }
 
+                long startTime = System.nanoTime();
                 try {
                     Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate);
+                    ppsGenerationThroughputs
+                            .computeIfAbsent(getProductionLineNumber(ord), number -> new PpsGenerationThroughput())
+                            .add(System.nanoTime() - startTime);
                     if (Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
                         lastDate = finishDate;
                     } else if (Objects.isNull(lastDate)) {
@@ -173,6 +262,12 @@ public class OrdersFromMOProductsGenerationService {
         }
     }
 
+    private String getProductionLineNumber(final Entity order) {
+        Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+
+        return Objects.isNull(productionLine) ? "" : productionLine.getStringField(ProductionLineFields.NUMBER);
+    }
+
     public Optional<Entity> findLastOrder(final Entity order) {
         Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
         Entity lastOrder = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER).find()
@@ -423,4 +518,18 @@ public class OrdersFromMOProductsGenerationService {
         return dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
                 MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO);
     }
+
+    private static final class PpsGenerationThroughput {
+
+        private int orders;
+
+        private long nanos;
+
+        private void add(final long orderNanos) {
+            orders++;
+            nanos += orderNanos;
+        }
+
+    }
+
 }
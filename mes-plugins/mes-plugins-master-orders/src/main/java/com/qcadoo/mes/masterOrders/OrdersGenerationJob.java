@@ -0,0 +1,76 @@
+package com.qcadoo.mes.masterOrders;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of orders generation started by {@link OrdersGenerationJobService}.
+ * 
+ * Master order products of each production line are generated by a separate task, one after another, so orders of the same line
+ * are chained by dates the same way as in synchronous generation.
+ */
+public class OrdersGenerationJob {
+
+    private final String id;
+
+    private final int totalProducts;
+
+    private final GenerationOrderResult result;
+
+    private final AtomicInteger processedProducts = new AtomicInteger();
+
+    private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+
+    private volatile boolean cancelled;
+
+    OrdersGenerationJob(final String id, final int totalProducts, final GenerationOrderResult result) {
+        this.id = id;
+        this.totalProducts = totalProducts;
+        this.result = result;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getTotalProducts() {
+        return totalProducts;
+    }
+
+    public int getProcessedProducts() {
+        return processedProducts.get();
+    }
+
+    public GenerationOrderResult getResult() {
+        return result;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return tasks.stream().allMatch(Future::isDone);
+    }
+
+    /**
+     * Cancels generation - tasks which haven't started yet are dropped, the running ones stop after the product they are
+     * generating now.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        tasks.forEach(task -> task.cancel(false));
+    }
+
+    void addTask(final Future<?> task) {
+        tasks.add(task);
+    }
+
+    void productProcessed() {
+        processedProducts.incrementAndGet();
+    }
+
+}
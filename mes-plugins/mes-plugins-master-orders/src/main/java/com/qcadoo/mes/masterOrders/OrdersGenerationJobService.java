@@ -0,0 +1,194 @@
+package com.qcadoo.mes.masterOrders;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Generates orders from master order products in the background.
+ * 
+ * Products are grouped by production line of their orders and each group is generated by a separate task on a bounded pool, so
+ * independent lines are generated concurrently, while orders of one line are still planned one after another. Lines sharing a
+ * master order are joined into one group, so orders of a line and orders of a master order (numbered from the ones already
+ * saved) are always generated by a single task.
+ * 
+ * Each task saves its orders in chunks of {@code masterOrders.ordersGenerationChunkSize} products per transaction.
+ */
+@Service
+public class OrdersGenerationJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersGenerationJobService.class);
+
+    @Autowired
+    private OrdersFromMOProductsGenerationService ordersFromMOProductsGenerationService;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Value("${masterOrders.ordersGenerationThreads:4}")
+    private int ordersGenerationThreads;
+
+    @Value("${masterOrders.ordersGenerationChunkSize:20}")
+    private int ordersGenerationChunkSize;
+
+    private ExecutorService generationExecutor;
+
+    private final Cache<String, OrdersGenerationJob> jobs = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
+    @PostConstruct
+    public void init() {
+        generationExecutor = Executors.newFixedThreadPool(ordersGenerationThreads,
+                new ThreadFactoryBuilder().setNameFormat("ordersGeneration-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        generationExecutor.shutdownNow();
+    }
+
+    public OrdersGenerationJob start(final List<Entity> masterOrderProducts, final boolean generatePPS) {
+        List<Entity> products = Lists.newArrayList();
+        List<Long> productionLineIds = Lists.newArrayList();
+        Map<Long, Long> productionLineIdsByMasterOrder = Maps.newHashMap();
+        Map<Long, Long> productionLineGroups = Maps.newHashMap();
+
+        for (Entity masterOrderProduct : masterOrderProducts) {
+            Entity product = ordersFromMOProductsGenerationService.getMasterOrderProduct(masterOrderProduct);
+            Long masterOrderId = product.getBelongsToField(MasterOrderProductFields.MASTER_ORDER).getId();
+            Long productionLineId = ordersFromMOProductsGenerationService.getProductionLineId(product);
+
+            products.add(product);
+            productionLineIds.add(productionLineId);
+            productionLineGroups.putIfAbsent(productionLineId, productionLineId);
+
+            if (productionLineIdsByMasterOrder.containsKey(masterOrderId)) {
+                joinGroups(productionLineGroups, productionLineIdsByMasterOrder.get(masterOrderId), productionLineId);
+            } else {
+                productionLineIdsByMasterOrder.put(masterOrderId, productionLineId);
+            }
+        }
+
+        Map<Long, List<Entity>> masterOrderProductsByProductionLine = Maps.newLinkedHashMap();
+
+        for (int i = 0; i < products.size(); i++) {
+            masterOrderProductsByProductionLine.computeIfAbsent(findGroup(productionLineGroups, productionLineIds.get(i)),
+                    id -> Lists.newArrayList()).add(products.get(i));
+        }
+
+        OrdersGenerationJob job = new OrdersGenerationJob(UUID.randomUUID().toString(), masterOrderProducts.size(),
+                new GenerationOrderResult(translationService));
+
+        jobs.put(job.getId(), job);
+
+        int tenantId = getCurrentTenantId();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+
+        for (List<Entity> productionLineProducts : masterOrderProductsByProductionLine.values()) {
+            job.addTask(generationExecutor.submit(() -> {
+                SecurityContextHolder.setContext(securityContext);
+                LocaleContextHolder.setLocale(locale);
+
+                try {
+                    multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+                        @Override
+                        public void invoke() {
+                            generateOrders(job, productionLineProducts, generatePPS);
+                        }
+
+                    });
+                } catch (RuntimeException e) {
+                    LOG.error(String.format("Orders generation %s failed", job.getId()), e);
+                } finally {
+                    SecurityContextHolder.clearContext();
+                    LocaleContextHolder.resetLocaleContext();
+                }
+            }));
+        }
+
+        return job;
+    }
+
+    public Optional<OrdersGenerationJob> getJob(final String id) {
+        return Optional.ofNullable(jobs.getIfPresent(id));
+    }
+
+    private void joinGroups(final Map<Long, Long> productionLineGroups, final Long productionLineId,
+            final Long otherProductionLineId) {
+        Long group = findGroup(productionLineGroups, productionLineId);
+        Long otherGroup = findGroup(productionLineGroups, otherProductionLineId);
+
+        if (!Objects.equals(group, otherGroup)) {
+            productionLineGroups.put(otherGroup, group);
+        }
+    }
+
+    private Long findGroup(final Map<Long, Long> productionLineGroups, final Long productionLineId) {
+        Long group = productionLineId;
+
+        while (!Objects.equals(productionLineGroups.get(group), group)) {
+            group = productionLineGroups.get(group);
+        }
+
+        productionLineGroups.put(productionLineId, group);
+
+        return group;
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private void generateOrders(final OrdersGenerationJob job, final List<Entity> masterOrderProducts,
+            final boolean generatePPS) {
+        for (List<Entity> chunk : Lists.partition(masterOrderProducts, ordersGenerationChunkSize)) {
+            if (job.isCancelled()) {
+                return;
+            }
+
+            // collected apart from the job, so a rolled back chunk doesn't report orders which weren't saved
+            GenerationOrderResult chunkResult = new GenerationOrderResult(translationService);
+
+            ordersFromMOProductsGenerationService.generateOrdersInTransaction(chunk, generatePPS, chunkResult, job::isCancelled,
+                    job::productProcessed);
+
+            job.getResult().addAll(chunkResult);
+        }
+    }
+
+}
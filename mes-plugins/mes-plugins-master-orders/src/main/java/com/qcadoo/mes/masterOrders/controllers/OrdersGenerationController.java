@@ -0,0 +1,97 @@
+package com.qcadoo.mes.masterOrders.controllers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.masterOrders.GenerationOrderResult;
+import com.qcadoo.mes.masterOrders.OrdersGenerationJob;
+import com.qcadoo.mes.masterOrders.OrdersGenerationJobService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+@Controller
+@RequestMapping("/rest/masterOrders/ordersGeneration")
+public class OrdersGenerationController {
+
+    @Autowired
+    private OrdersGenerationJobService ordersGenerationJobService;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> start(@RequestBody List<Long> masterOrderProductIds,
+            @RequestParam(defaultValue = "true", required = false, value = "generatePPS") boolean generatePPS) {
+        List<Entity> masterOrderProducts = dataDefinitionService
+                .get(MasterOrdersConstants.PLUGIN_IDENTIFIER, MasterOrdersConstants.MODEL_MASTER_ORDER_PRODUCT).find()
+                .add(SearchRestrictions.in("id", masterOrderProductIds)).list().getEntities();
+
+        return getStatus(ordersGenerationJobService.start(masterOrderProducts, generatePPS));
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
+    public Map<String, Object> status(@PathVariable String id, final HttpServletResponse response) {
+        Optional<OrdersGenerationJob> job = ordersGenerationJobService.getJob(id);
+
+        if (!job.isPresent()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return null;
+        }
+
+        return getStatus(job.get());
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.DELETE, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
+    public Map<String, Object> cancel(@PathVariable String id, final HttpServletResponse response) {
+        Optional<OrdersGenerationJob> job = ordersGenerationJobService.getJob(id);
+
+        if (!job.isPresent()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return null;
+        }
+
+        job.get().cancel();
+
+        return getStatus(job.get());
+    }
+
+    private Map<String, Object> getStatus(final OrdersGenerationJob job) {
+        GenerationOrderResult result = job.getResult();
+        Map<String, Object> status = Maps.newLinkedHashMap();
+
+        status.put("id", job.getId());
+        status.put("totalProducts", job.getTotalProducts());
+        status.put("processedProducts", job.getProcessedProducts());
+        status.put("done", job.isDone());
+        status.put("cancelled", job.isCancelled());
+        status.put("generatedOrderNumbers", result.getGeneratedOrderNumbers());
+        status.put("ordersWithoutPps", result.getOrdersWithoutPps());
+        status.put("ordersWithoutGeneratedSubOrders", result.getOrdersWithoutGeneratedSubOrders());
+        status.put("productsWithoutAcceptedTechnologies", result.getProductsWithoutAcceptedTechnologies());
+        status.put("notGeneratedProducts", result.getNotGeneratedProductErrors().size());
+
+        return status;
+    }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class OrdersGenerationJobServiceTest {
+
+    private static final Long L_FIRST_LINE_ID = 1L;
+
+    private static final Long L_SECOND_LINE_ID = 2L;
+
+    private static final Long L_THIRD_LINE_ID = 3L;
+
+    private OrdersGenerationJobService ordersGenerationJobService;
+
+    @Mock
+    private OrdersFromMOProductsGenerationService ordersFromMOProductsGenerationService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersGenerationJobService = spy(new OrdersGenerationJobService());
+
+        ReflectionTestUtils.setField(ordersGenerationJobService, "ordersFromMOProductsGenerationService",
+                ordersFromMOProductsGenerationService);
+        ReflectionTestUtils.setField(ordersGenerationJobService, "translationService", translationService);
+        ReflectionTestUtils.setField(ordersGenerationJobService, "multiTenantService", multiTenantService);
+        ReflectionTestUtils.setField(ordersGenerationJobService, "ordersGenerationThreads", 2);
+        ReflectionTestUtils.setField(ordersGenerationJobService, "ordersGenerationChunkSize", 20);
+
+        doReturn(1).when(ordersGenerationJobService).getCurrentTenantId();
+
+        doAnswer(invocation -> {
+            ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+
+            return null;
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        given(ordersFromMOProductsGenerationService.getMasterOrderProduct(any(Entity.class))).willAnswer(
+                invocation -> invocation.getArguments()[0]);
+
+        ordersGenerationJobService.init();
+    }
+
+    @After
+    public void destroy() {
+        ordersGenerationJobService.destroy();
+    }
+
+    @Test
+    public void shouldGenerateProductsOfEachProductionLineSeparately() throws InterruptedException {
+        // given
+        Entity firstProduct = mockMasterOrderProduct(1L, L_FIRST_LINE_ID);
+        Entity secondProduct = mockMasterOrderProduct(2L, L_SECOND_LINE_ID);
+        Entity thirdProduct = mockMasterOrderProduct(3L, L_FIRST_LINE_ID);
+
+        // when
+        ordersGenerationJobService.start(Arrays.asList(firstProduct, secondProduct, thirdProduct), true);
+
+        finishGeneration();
+
+        // then
+        verify(ordersFromMOProductsGenerationService).generateOrdersInTransaction(eq(Arrays.asList(firstProduct, thirdProduct)),
+                eq(true), any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+        verify(ordersFromMOProductsGenerationService).generateOrdersInTransaction(eq(Arrays.asList(secondProduct)), eq(true),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+    }
+
+    @Test
+    public void shouldGenerateProductionLinesSharingMasterOrderTogether() throws InterruptedException {
+        // given
+        Entity firstProduct = mockMasterOrderProduct(1L, L_FIRST_LINE_ID);
+        Entity secondProduct = mockMasterOrderProduct(2L, L_SECOND_LINE_ID);
+        Entity thirdProduct = mockMasterOrderProduct(2L, L_FIRST_LINE_ID);
+        Entity fourthProduct = mockMasterOrderProduct(3L, L_THIRD_LINE_ID);
+        Entity fifthProduct = mockMasterOrderProduct(1L, L_SECOND_LINE_ID);
+
+        // when
+        ordersGenerationJobService.start(Arrays.asList(firstProduct, secondProduct, thirdProduct, fourthProduct, fifthProduct),
+                false);
+
+        finishGeneration();
+
+        // then
+        verify(ordersFromMOProductsGenerationService).generateOrdersInTransaction(
+                eq(Arrays.asList(firstProduct, secondProduct, thirdProduct, fifthProduct)), eq(false),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+        verify(ordersFromMOProductsGenerationService).generateOrdersInTransaction(eq(Arrays.asList(fourthProduct)), eq(false),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+    }
+
+    @Test
+    public void shouldGenerateProductsOfProductionLineInChunks() throws InterruptedException {
+        // given
+        ReflectionTestUtils.setField(ordersGenerationJobService, "ordersGenerationChunkSize", 2);
+
+        List<Entity> masterOrderProducts = Arrays.asList(mockMasterOrderProduct(1L, L_FIRST_LINE_ID),
+                mockMasterOrderProduct(2L, L_FIRST_LINE_ID), mockMasterOrderProduct(3L, L_FIRST_LINE_ID),
+                mockMasterOrderProduct(4L, L_FIRST_LINE_ID), mockMasterOrderProduct(5L, L_FIRST_LINE_ID));
+
+        // when
+        ordersGenerationJobService.start(masterOrderProducts, true);
+
+        finishGeneration();
+
+        // then
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        ArgumentCaptor<List<Entity>> chunkCaptor = ArgumentCaptor.forClass((Class) List.class);
+
+        verify(ordersFromMOProductsGenerationService, times(3)).generateOrdersInTransaction(chunkCaptor.capture(), eq(true),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+
+        assertEquals(masterOrderProducts.subList(0, 2), chunkCaptor.getAllValues().get(0));
+        assertEquals(masterOrderProducts.subList(2, 4), chunkCaptor.getAllValues().get(1));
+        assertEquals(masterOrderProducts.subList(4, 5), chunkCaptor.getAllValues().get(2));
+    }
+
+    @Test
+    public void shouldAddResultOfGeneratedChunkToJob() throws InterruptedException {
+        // given
+        Entity masterOrderProduct = mockMasterOrderProduct(1L, L_FIRST_LINE_ID);
+
+        doAnswer(invocation -> {
+            ((GenerationOrderResult) invocation.getArguments()[2]).addGeneratedOrderNumber("MO-001");
+            ((Runnable) invocation.getArguments()[4]).run();
+
+            return null;
+        }).when(ordersFromMOProductsGenerationService).generateOrdersInTransaction(any(List.class), anyBoolean(),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+
+        // when
+        OrdersGenerationJob job = ordersGenerationJobService.start(Arrays.asList(masterOrderProduct), true);
+
+        finishGeneration();
+
+        // then
+        assertTrue(job.isDone());
+        assertEquals(1, job.getProcessedProducts());
+        assertEquals(Arrays.asList("MO-001"), job.getResult().getGeneratedOrderNumbers());
+        assertEquals(job, ordersGenerationJobService.getJob(job.getId()).get());
+    }
+
+    @Test
+    public void shouldNotReportOrdersOfFailedChunk() throws InterruptedException {
+        // given
+        Entity masterOrderProduct = mockMasterOrderProduct(1L, L_FIRST_LINE_ID);
+
+        doAnswer(invocation -> {
+            ((GenerationOrderResult) invocation.getArguments()[2]).addGeneratedOrderNumber("MO-001");
+
+            throw new IllegalStateException();
+        }).when(ordersFromMOProductsGenerationService).generateOrdersInTransaction(any(List.class), anyBoolean(),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+
+        // when
+        OrdersGenerationJob job = ordersGenerationJobService.start(Arrays.asList(masterOrderProduct), true);
+
+        finishGeneration();
+
+        // then
+        assertTrue(job.getResult().getGeneratedOrderNumbers().isEmpty());
+    }
+
+    @Test
+    public void shouldNotGenerateNextChunksWhenJobIsCancelled() throws InterruptedException {
+        // given
+        ReflectionTestUtils.setField(ordersGenerationJobService, "ordersGenerationChunkSize", 1);
+
+        CountDownLatch chunkStarted = new CountDownLatch(1);
+        CountDownLatch jobCancelled = new CountDownLatch(1);
+
+        doAnswer(invocation -> {
+            chunkStarted.countDown();
+            jobCancelled.await();
+
+            return null;
+        }).when(ordersFromMOProductsGenerationService).generateOrdersInTransaction(any(List.class), anyBoolean(),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+
+        // when
+        OrdersGenerationJob job = ordersGenerationJobService.start(
+                Arrays.asList(mockMasterOrderProduct(1L, L_FIRST_LINE_ID), mockMasterOrderProduct(2L, L_FIRST_LINE_ID)), true);
+
+        chunkStarted.await(5, TimeUnit.SECONDS);
+        job.cancel();
+        jobCancelled.countDown();
+
+        finishGeneration();
+
+        // then
+        assertTrue(job.isCancelled());
+        verify(ordersFromMOProductsGenerationService, times(1)).generateOrdersInTransaction(any(List.class), anyBoolean(),
+                any(GenerationOrderResult.class), any(BooleanSupplier.class), any(Runnable.class));
+    }
+
+    @Test
+    public void shouldNotFindUnknownJob() {
+        // when & then
+        assertFalse(ordersGenerationJobService.getJob("unknown").isPresent());
+    }
+
+    private Entity mockMasterOrderProduct(final Long masterOrderId, final Long productionLineId) {
+        Entity masterOrderProduct = mock(Entity.class);
+        Entity masterOrder = mock(Entity.class);
+
+        given(masterOrder.getId()).willReturn(masterOrderId);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.MASTER_ORDER)).willReturn(masterOrder);
+        given(ordersFromMOProductsGenerationService.getProductionLineId(masterOrderProduct)).willReturn(productionLineId);
+
+        return masterOrderProduct;
+    }
+
+    private void finishGeneration() throws InterruptedException {
+        ExecutorService generationExecutor = (ExecutorService) ReflectionTestUtils.getField(ordersGenerationJobService,
+                "generationExecutor");
+
+        generationExecutor.shutdown();
+        generationExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+/**
+ * Keeps reference lookups (product, additional code, pallet number, storage location and warehouse) made while positions of a
+ * document are edited in the grid, so consecutive saves of the same document don't repeat them.
+ * 
+ * Only found values are kept, so numbers created in the meantime are always visible. Saves and deletes of referenced entities
+ * invalidate all documents, immediately and once more after their transaction completes.
+ */
+@Service
+public class DocumentPositionLookupsCache {
+
+    private final Cache<Long, ConcurrentMap<String, Object>> lookups = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(final Long documentId, final String key, final Supplier<T> loader) {
+        ConcurrentMap<String, Object> documentLookups = getDocumentLookups(documentId);
+
+        T value = (T) documentLookups.get(key);
+
+        if (Objects.isNull(value)) {
+            value = loader.get();
+
+            if (Objects.nonNull(value)) {
+                documentLookups.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    public void invalidateAll() {
+        lookups.invalidateAll();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    lookups.invalidateAll();
+                }
+
+            });
+        }
+    }
+
+    private ConcurrentMap<String, Object> getDocumentLookups(final Long documentId) {
+        try {
+            return lookups.get(documentId, Maps::newConcurrentMap);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+}
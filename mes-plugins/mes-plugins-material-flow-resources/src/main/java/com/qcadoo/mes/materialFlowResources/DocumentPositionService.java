@@ -6,6 +6,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,8 +20,12 @@ import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.GridKeyset;
 import com.qcadoo.mes.basic.GridResponse;
 import com.qcadoo.mes.basic.LookupUtils;
 import com.qcadoo.mes.basic.controllers.dataProvider.DataProvider;
@@ -32,6 +39,8 @@ import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
 @Repository
 public class DocumentPositionService {
 
+    private static final Set<String> KEYSET_COLUMNS = ImmutableSet.of("id");
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -50,8 +59,11 @@ public class DocumentPositionService {
     @Autowired
     private ReservationsService reservationsService;
 
+    private final Cache<Long, Integer> positionsCounts = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(10, TimeUnit.MINUTES).build();
+
     public GridResponse<DocumentPositionDTO> findAll(final Long documentId, final String _sidx, final String _sord, int page,
-            int perPage, final DocumentPositionDTO position) {
+            int perPage, final DocumentPositionDTO position, final GridKeyset keyset) {
         String query = "SELECT %s FROM ( SELECT p.*, p.document_id AS document, product.number AS product, product.name AS productName, product.unit, additionalcode.code AS additionalcode, "
                 + "palletnumber.number AS palletnumber, location.number AS storagelocation, resource.number AS resource, \n"
                 + "(coalesce(r1.resourcesCount,0) < 2 AND p.quantity >= coalesce(resource.quantity,0)) AS lastResource "
@@ -60,14 +72,36 @@ public class DocumentPositionService {
                 + "	LEFT JOIN basic_additionalcode additionalcode ON (p.additionalcode_id = additionalcode.id)\n"
                 + "	LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id)\n"
                 + "	LEFT JOIN materialflowresources_resource resource ON (p.resource_id = resource.id)\n"
-                + " LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount FROM materialflowresources_resource GROUP BY palletnumber_id) r1 ON r1.palletnumber_id = resource.palletnumber_id \n"
+                + " LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount FROM materialflowresources_resource "
+                + "WHERE palletnumber_id IN (SELECT pr.palletnumber_id FROM materialflowresources_position pp "
+                + "JOIN materialflowresources_resource pr ON pr.id = pp.resource_id WHERE pp.document_id = :documentId) "
+                + "GROUP BY palletnumber_id) r1 ON r1.palletnumber_id = resource.palletnumber_id \n"
                 + "	LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) WHERE p.document_id = :documentId %s) q ";
 
         Map<String, Object> parameters = Maps.newHashMap();
 
         parameters.put("documentId", documentId);
 
-        return lookupUtils.getGridResponse(query, _sidx, _sord, page, perPage, position, parameters);
+        return lookupUtils.getGridResponse(query, _sidx, _sord, page, perPage, position, parameters, keyset, KEYSET_COLUMNS,
+                countLoader -> getPositionsCount(documentId, countLoader));
+    }
+
+    private Integer getPositionsCount(final Long documentId, final Supplier<Integer> countLoader) {
+        Integer positionsCount = positionsCounts.getIfPresent(documentId);
+
+        if (positionsCount == null) {
+            positionsCount = countLoader.get();
+
+            positionsCounts.put(documentId, positionsCount);
+        }
+
+        return positionsCount;
+    }
+
+    public void invalidatePositionsCount(final Long documentId) {
+        if (documentId != null) {
+            positionsCounts.invalidate(documentId);
+        }
     }
 
     public void delete(final Long id) {
@@ -89,6 +123,8 @@ public class DocumentPositionService {
 
         reservationsService.deleteReservationFromDocumentPosition(params);
         jdbcTemplate.update(queryBuilder.toString(), params);
+
+        invalidatePositionsCount((Long) result.get("document_id"));
     }
 
     public void create(final DocumentPositionDTO documentPositionVO) {
@@ -116,6 +152,8 @@ public class DocumentPositionService {
 
             reservationsService.createReservationFromDocumentPosition(params);
         }
+
+        invalidatePositionsCount(documentPositionVO.getDocument());
     }
 
     public void update(final Long id, final DocumentPositionDTO documentPositionVO) {
@@ -223,32 +261,12 @@ public class DocumentPositionService {
     }
 
     public void updateDocumentPositionsNumbers(final Long documentId) {
-        String query = "SELECT p.*, p.document_id AS document, product.number AS product, product.unit, additionalcode.code AS additionalcode, palletnumber.number AS palletnumber, "
-                + "location.number AS storagelocationnumber\n"
-                + "	FROM materialflowresources_position p\n"
-                + "	LEFT JOIN basic_product product ON (p.product_id = product.id)\n"
-                + "	LEFT JOIN basic_additionalcode additionalcode ON (p.additionalcode_id = additionalcode.id)\n"
-                + "	LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id)\n"
-                + "	LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) WHERE p.document_id = :documentId ORDER BY p.number";
-
-        List<DocumentPositionDTO> list = jdbcTemplate.query(query, Collections.singletonMap("documentId", documentId),
-                new BeanPropertyRowMapper(DocumentPositionDTO.class));
-        int index = 1;
+        String query = "UPDATE materialflowresources_position p SET number = numbered.rownumber "
+                + "FROM (SELECT id, row_number() OVER (ORDER BY number, id) AS rownumber "
+                + "FROM materialflowresources_position WHERE document_id = :documentId) numbered "
+                + "WHERE p.id = numbered.id AND p.number IS DISTINCT FROM numbered.rownumber";
 
-        for (DocumentPositionDTO documentPositionDTO : list) {
-            documentPositionDTO.setNumber(index);
-
-            Map<String, Object> parameters = Maps.newHashMap();
-
-            parameters.put("number", documentPositionDTO.getNumber());
-            parameters.put("id", documentPositionDTO.getId());
-
-            String _query = "UPDATE materialflowresources_position SET number = :number WHERE id = :id ";
-
-            jdbcTemplate.update(_query, parameters);
-
-            index++;
-        }
+        jdbcTemplate.update(query, Collections.singletonMap("documentId", documentId));
     }
 
     public Long findDocumentByPosition(final Long positionId) {
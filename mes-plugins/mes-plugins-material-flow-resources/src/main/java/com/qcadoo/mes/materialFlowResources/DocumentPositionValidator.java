@@ -8,10 +8,13 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -43,6 +46,12 @@ public class DocumentPositionValidator {
     @Autowired
     private DocumentPositionService documentPositionService;
 
+    @Autowired
+    private DocumentPositionLookupsCache documentPositionLookupsCache;
+
+    @Value("${materialFlowResources.incrementalPositionValidation:true}")
+    private boolean incrementalPositionValidation;
+
     public Map<String, Object> validateAndTryMapBeforeCreate(final DocumentPositionDTO documentPositionDTO) {
         return validateAndMap(documentPositionDTO);
     }
@@ -67,6 +76,8 @@ public class DocumentPositionValidator {
 
         Map<String, Object> params = null;
 
+        DocumentPositionDTO previousPosition = getPreviousPosition(position);
+
         if (isGridReadOnly(document)) {
             errors.add("documentGrid.error.position.documentAccepted");
         } else if (isAcceptationInProgress(document)) {
@@ -80,16 +91,28 @@ public class DocumentPositionValidator {
             }
 
             errors.addAll(validateConversion(position));
-            errors.addAll(validateAdditionalCode(position));
+
+            if (hasChanged(previousPosition, position, DocumentPositionDTO::getProduct, DocumentPositionDTO::getAdditionalCode)) {
+                errors.addAll(validateAdditionalCode(position));
+            }
+
             errors.addAll(validatePrice(position));
             errors.addAll(validateQuantity(position));
             errors.addAll(validateGivenQuantity(position));
             errors.addAll(validateDates(position));
             errors.addAll(checkAttributesRequirement(position, document));
-            errors.addAll(validateResources(position, document));
-            errors.addAll(validatePallet(position, document));
 
-            if (errors.isEmpty()) {
+            if (hasChanged(previousPosition, position, DocumentPositionDTO::getProduct, DocumentPositionDTO::getAdditionalCode,
+                    DocumentPositionDTO::getConversion, DocumentPositionDTO::getResource)) {
+                errors.addAll(validateResources(position, document));
+            }
+            if (hasChanged(previousPosition, position, DocumentPositionDTO::getPalletNumber,
+                    DocumentPositionDTO::getStorageLocation, DocumentPositionDTO::getTypeOfPallet)) {
+                errors.addAll(validatePallet(position, document));
+            }
+
+            if (errors.isEmpty() && hasChanged(previousPosition, position, DocumentPositionDTO::getProduct,
+                    DocumentPositionDTO::getResource, DocumentPositionDTO::getQuantity)) {
                 errors.addAll(validateAvailableQuantity(position, document, errors));
             }
             params = tryMapDocumentPositionVOToParams(position, errors);
@@ -102,6 +125,60 @@ public class DocumentPositionValidator {
         return params;
     }
 
+    private DocumentPositionDTO getPreviousPosition(final DocumentPositionDTO position) {
+        if (!incrementalPositionValidation || Objects.isNull(position.getId()) || position.getId() == 0L) {
+            return null;
+        }
+
+        String query = "SELECT p.id, p.document_id AS document, product.number AS product, "
+                + "additionalcode.code AS additionalcode, p.quantity, p.conversion, palletnumber.number AS palletnumber, "
+                + "p.typeofpallet, location.number AS storagelocation, resource.number AS resource "
+                + "FROM materialflowresources_position p "
+                + "LEFT JOIN basic_product product ON (p.product_id = product.id) "
+                + "LEFT JOIN basic_additionalcode additionalcode ON (p.additionalcode_id = additionalcode.id) "
+                + "LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id) "
+                + "LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) "
+                + "LEFT JOIN materialflowresources_resource resource ON (p.resource_id = resource.id) "
+                + "WHERE p.id = :id AND p.document_id = :documentId";
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("id", position.getId());
+        params.put("documentId", position.getDocument());
+
+        List<DocumentPositionDTO> previousPositions = jdbcTemplate.query(query, params,
+                new BeanPropertyRowMapper<DocumentPositionDTO>(DocumentPositionDTO.class));
+
+        return previousPositions.isEmpty() ? null : previousPositions.get(0);
+    }
+
+    @SafeVarargs
+    private final boolean hasChanged(final DocumentPositionDTO previousPosition, final DocumentPositionDTO position,
+            final Function<DocumentPositionDTO, Object>... fields) {
+        if (Objects.isNull(previousPosition)) {
+            return true;
+        }
+
+        for (Function<DocumentPositionDTO, Object> field : fields) {
+            Object previousValue = field.apply(previousPosition);
+            Object value = field.apply(position);
+
+            if (previousValue instanceof BigDecimal && value instanceof BigDecimal) {
+                if (((BigDecimal) previousValue).compareTo((BigDecimal) value) != 0) {
+                    return true;
+                }
+            } else if (!Objects.equals(Strings.emptyToNull(toString(previousValue)), Strings.emptyToNull(toString(value)))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String toString(final Object value) {
+        return Objects.isNull(value) ? null : value.toString();
+    }
+
     private boolean isGridReadOnly(final DocumentDTO document) {
         return DocumentState.parseString(document.getState()) == DocumentState.ACCEPTED;
     }
@@ -114,7 +191,7 @@ public class DocumentPositionValidator {
         DocumentType documentType = DocumentType.parseString(document.getType());
 
         if (documentType == DocumentType.RECEIPT || documentType == DocumentType.INTERNAL_INBOUND) {
-            LocationDTO warehouseTo = getWarehouseById(document.getLocationTo_id());
+            LocationDTO warehouseTo = getWarehouseById(document.getId(), document.getLocationTo_id());
 
             return validatePositionAttributes(position, warehouseTo.isRequirePrice(), warehouseTo.isRequirebatch(),
                     warehouseTo.isRequirEproductionDate(), warehouseTo.isRequirEexpirationDate());
@@ -129,20 +206,22 @@ public class DocumentPositionValidator {
 
         if (DocumentType.isOutbound(type) && !document.getInBuffer()) {
             String query = "SELECT draftmakesreservation FROM materialflow_location WHERE id = :location_id";
-            Boolean enabled = jdbcTemplate.queryForObject(query,
-                    Collections.singletonMap("location_id", document.getLocationFrom_id()), Boolean.class);
+            Boolean enabled = documentPositionLookupsCache.get(document.getId(),
+                    "draftMakesReservation:" + document.getLocationFrom_id(), () -> jdbcTemplate.queryForObject(query,
+                            Collections.singletonMap("location_id", document.getLocationFrom_id()), Boolean.class));
 
             if (enabled) {
-                BigDecimal availableQuantity = getAvailableQuantityForProductAndLocation(position,
-                        tryGetProductIdByNumber(position.getProduct(), errors), document.getLocationFrom_id());
+                Long productId = tryGetProductIdByNumber(position.getDocument(), position.getProduct(), errors);
+                BigDecimal availableQuantity = getAvailableQuantityForProductAndLocation(position, productId,
+                        document.getLocationFrom_id());
                 BigDecimal quantity = position.getQuantity();
 
                 if (availableQuantity == null || quantity.compareTo(availableQuantity) > 0) {
                     errors.add("documentGrid.error.position.quantity.notEnoughResources");
                 } else {
                     if (!StringUtils.isEmpty(position.getResource())) {
-                        BigDecimal resourceAvailableQuantity = getAvailableQuantityForResource(position,
-                                tryGetProductIdByNumber(position.getProduct(), errors), document.getLocationFrom_id());
+                        BigDecimal resourceAvailableQuantity = getAvailableQuantityForResource(position, productId,
+                                document.getLocationFrom_id());
 
                         if (resourceAvailableQuantity == null || quantity.compareTo(resourceAvailableQuantity) > 0) {
                             errors.add("documentGrid.error.position.quantity.notEnoughResources");
@@ -354,12 +433,12 @@ public class DocumentPositionValidator {
         return Lists.newArrayList();
     }
 
-    private LocationDTO getWarehouseById(final Long id) {
+    private LocationDTO getWarehouseById(final Long documentId, final Long id) {
         BeanPropertyRowMapper<LocationDTO> x = new BeanPropertyRowMapper<>(LocationDTO.class);
         x.setPrimitivesDefaultedForNullValue(true);
 
-        return jdbcTemplate.queryForObject("SELECT * FROM materialflow_location WHERE id = :id",
-                Collections.singletonMap("id", id), x);
+        return documentPositionLookupsCache.get(documentId, "location:" + id, () -> jdbcTemplate.queryForObject(
+                "SELECT * FROM materialflow_location WHERE id = :id", Collections.singletonMap("id", id), x));
     }
 
     private Collection<? extends String> validateQuantity(final DocumentPositionDTO position) {
@@ -410,18 +489,24 @@ public class DocumentPositionValidator {
         String additionalCode = position.getAdditionalCode();
 
         if (!StringUtils.isEmpty(additionalCode)) {
-            try {
-                Map<String, Object> filters = Maps.newHashMap();
-
-                filters.put("code", additionalCode);
-                filters.put("productNumber", position.getProduct());
-
-                Long additionalCodeId = jdbcTemplate.queryForObject(
-                        "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :code "
-                                + "AND additionalcode.product_id IN (SELECT id FROM basic_product WHERE number = :productNumber)",
-                        filters, Long.class);
+            Map<String, Object> filters = Maps.newHashMap();
+
+            filters.put("code", additionalCode);
+            filters.put("productNumber", position.getProduct());
+
+            Long additionalCodeId = documentPositionLookupsCache.get(position.getDocument(), "productAdditionalCode:"
+                    + position.getProduct() + ":" + additionalCode, () -> {
+                try {
+                    return jdbcTemplate.queryForObject(
+                            "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :code "
+                                    + "AND additionalcode.product_id IN (SELECT id FROM basic_product WHERE number = :productNumber)",
+                            filters, Long.class);
+                } catch (EmptyResultDataAccessException e) {
+                    return null;
+                }
+            });
 
-            } catch (EmptyResultDataAccessException e) {
+            if (additionalCodeId == null) {
                 return Lists.newArrayList("documentGrid.error.position.additionalCode.doesntMatch");
             }
         }
@@ -433,16 +518,16 @@ public class DocumentPositionValidator {
         Map<String, Object> params = Maps.newHashMap();
 
         params.put("id", vo.getId());
-        params.put("product_id", tryGetProductIdByNumber(vo.getProduct(), errors));
-        params.put("additionalcode_id", tryGetAdditionalCodeIdByCode(vo.getAdditionalCode(), errors));
+        params.put("product_id", tryGetProductIdByNumber(vo.getDocument(), vo.getProduct(), errors));
+        params.put("additionalcode_id", tryGetAdditionalCodeIdByCode(vo.getDocument(), vo.getAdditionalCode(), errors));
         params.put("quantity", vo.getQuantity());
         params.put("givenquantity", vo.getGivenquantity());
         params.put("givenunit", vo.getGivenunit());
         params.put("conversion", vo.getUnit().equals(vo.getGivenunit()) ? 1 : vo.getConversion());
         params.put("expirationDate", vo.getExpirationDate());
-        params.put("palletnumber_id", tryGetPalletNumberIdByNumber(vo.getPalletNumber(), errors));
+        params.put("palletnumber_id", tryGetPalletNumberIdByNumber(vo.getDocument(), vo.getPalletNumber(), errors));
         params.put("typeofpallet", vo.getTypeOfPallet());
-        params.put("storagelocation_id", tryGetStorageLocationIdByNumber(vo.getStorageLocation(), errors));
+        params.put("storagelocation_id", tryGetStorageLocationIdByNumber(vo.getDocument(), vo.getStorageLocation(), errors));
         params.put("document_id", vo.getDocument());
         params.put("productionDate", vo.getProductionDate());
         params.put("price", vo.getPrice());
@@ -454,76 +539,77 @@ public class DocumentPositionValidator {
         return params;
     }
 
-    private Long tryGetProductIdByNumber(final String productNumber, final List<String> errors) {
+    private Long tryGetProductIdByNumber(final Long documentId, final String productNumber, final List<String> errors) {
         if (Strings.isNullOrEmpty(productNumber)) {
             return null;
         }
 
-        try {
-            Long productId = jdbcTemplate.queryForObject(
-                    "SELECT product.id FROM basic_product product WHERE product.number = :number",
-                    Collections.singletonMap("number", productNumber), Long.class);
+        Long productId = tryGetIdByNumber(documentId, "product:",
+                "SELECT product.id FROM basic_product product WHERE product.number = :number", productNumber);
 
-            return productId;
-        } catch (EmptyResultDataAccessException e) {
+        if (productId == null) {
             errors.add(String.format("Nie znaleziono takiego produktu: '%s'.", productNumber));
-
-            return null;
         }
+
+        return productId;
     }
 
-    private Long tryGetAdditionalCodeIdByCode(final String additionalCode, final List<String> errors) {
+    private Long tryGetAdditionalCodeIdByCode(final Long documentId, final String additionalCode, final List<String> errors) {
         if (Strings.isNullOrEmpty(additionalCode)) {
             return null;
         }
 
-        try {
-            Long additionalCodeId = jdbcTemplate.queryForObject(
-                    "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :code",
-                    Collections.singletonMap("code", additionalCode), Long.class);
+        Long additionalCodeId = tryGetIdByNumber(documentId, "additionalCode:",
+                "SELECT additionalcode.id FROM basic_additionalcode additionalcode WHERE additionalcode.code = :number",
+                additionalCode);
 
-            return additionalCodeId;
-        } catch (EmptyResultDataAccessException e) {
+        if (additionalCodeId == null) {
             errors.add(String.format("Nie znaleziono takiego dodatkowego kodu: '%s'.", additionalCode));
-
-            return null;
         }
+
+        return additionalCodeId;
     }
 
-    private Long tryGetPalletNumberIdByNumber(final String palletNumber, final List<String> errors) {
+    private Long tryGetPalletNumberIdByNumber(final Long documentId, final String palletNumber, final List<String> errors) {
         if (Strings.isNullOrEmpty(palletNumber)) {
             return null;
         }
 
-        try {
-            Long palletNumberId = jdbcTemplate.queryForObject(
-                    "SELECT palletnumber.id FROM basic_palletnumber palletnumber WHERE palletnumber.number = :number",
-                    Collections.singletonMap("number", palletNumber), Long.class);
+        Long palletNumberId = tryGetIdByNumber(documentId, "palletNumber:",
+                "SELECT palletnumber.id FROM basic_palletnumber palletnumber WHERE palletnumber.number = :number", palletNumber);
 
-            return palletNumberId;
-        } catch (EmptyResultDataAccessException e) {
+        if (palletNumberId == null) {
             errors.add(String.format("Nie znaleziono takiego numeru palety: '%s'.", palletNumber));
-
-            return null;
         }
+
+        return palletNumberId;
     }
 
-    private Long tryGetStorageLocationIdByNumber(final String storageLocationNumber, final List<String> errors) {
+    private Long tryGetStorageLocationIdByNumber(final Long documentId, final String storageLocationNumber,
+            final List<String> errors) {
         if (Strings.isNullOrEmpty(storageLocationNumber)) {
             return null;
         }
 
-        try {
-            Long storageLocationId = jdbcTemplate.queryForObject(
-                    "SELECT storagelocation.id FROM materialflowresources_storagelocation storagelocation WHERE storagelocation.number = :number",
-                    Collections.singletonMap("number", storageLocationNumber), Long.class);
+        Long storageLocationId = tryGetIdByNumber(documentId, "storageLocation:",
+                "SELECT storagelocation.id FROM materialflowresources_storagelocation storagelocation WHERE storagelocation.number = :number",
+                storageLocationNumber);
 
-            return storageLocationId;
-        } catch (EmptyResultDataAccessException e) {
+        if (storageLocationId == null) {
             errors.add(String.format("Nie znaleziono takiego miejsca składowania: '%s'.", storageLocationNumber));
-
-            return null;
         }
+
+        return storageLocationId;
+    }
+
+    private Long tryGetIdByNumber(final Long documentId, final String lookup, final String query, final String number) {
+        return documentPositionLookupsCache.get(documentId, lookup + number, () -> {
+            try {
+                return jdbcTemplate.queryForObject(query, Collections.singletonMap("number", number), Long.class);
+            } catch (EmptyResultDataAccessException e) {
+                return null;
+            }
+        });
     }
 
     private Object tryGetResourceIdByNumber(final String resource, final List<String> errors) {
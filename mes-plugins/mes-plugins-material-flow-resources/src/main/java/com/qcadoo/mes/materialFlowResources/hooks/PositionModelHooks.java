@@ -26,6 +26,7 @@ package com.qcadoo.mes.materialFlowResources.hooks;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
 import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
 import com.qcadoo.mes.materialFlowResources.constants.ReservationFields;
 import com.qcadoo.mes.materialFlowResources.service.ReservationsService;
@@ -46,6 +47,9 @@ public class PositionModelHooks {
     @Autowired
     private ResourceReservationsService resourceReservationsService;
 
+    @Autowired
+    private DocumentPositionService documentPositionService;
+
     public void onSave(final DataDefinition positionDD, final Entity position) {
         reservationsService.updateReservationFromDocumentPosition(position);
     }
@@ -55,15 +59,27 @@ public class PositionModelHooks {
     }
 
     public void onCreate(final DataDefinition positionDD, final Entity position) {
+        invalidatePositionsCount(position);
+
         if (positionValidators.validateAvailableQuantity(positionDD, position)) {
             reservationsService.createReservationFromDocumentPosition(position);
         }
     }
 
     public boolean onDelete(final DataDefinition positionDD, final Entity position) {
+        invalidatePositionsCount(position);
+
         resourceReservationsService.updateResourceQuantites(position,
                 position.getDecimalField(ReservationFields.QUANTITY).negate());
         return true;
     }
 
+    private void invalidatePositionsCount(final Entity position) {
+        Entity document = position.getBelongsToField(PositionFields.DOCUMENT);
+
+        if (document != null) {
+            documentPositionService.invalidatePositionsCount(document.getId());
+        }
+    }
+
 }
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ReservationFields;
 import com.qcadoo.mes.materialFlowResources.service.ResourceReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockProjection;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
@@ -16,6 +17,9 @@ public class ReservationHooks {
     @Autowired
     private ResourceReservationsService resourceReservationsService;
 
+    @Autowired
+    private ResourceStockProjection resourceStockProjection;
+
     public void onSave(DataDefinition reservationDD, Entity reservation) {
         Entity newResource = reservation.getBelongsToField(ReservationFields.RESOURCE);
         Entity oldResource = null;
@@ -29,6 +33,12 @@ public class ReservationHooks {
         }
         BigDecimal quantityToAdd = newQuantity.subtract(oldQuantity);
 
+        invalidateResourceStock(reservation);
+
+        if (oldReservation != null) {
+            invalidateResourceStock(oldReservation);
+        }
+
         if (oldResource != null && newResource != null) {
             if (oldResource.getId().compareTo(newResource.getId()) != 0) {
                 resourceReservationsService.updateResourceQuantites(reservation, newQuantity);
@@ -43,7 +53,22 @@ public class ReservationHooks {
         }
     }
 
+    public boolean onDelete(final DataDefinition reservationDD, final Entity reservation) {
+        invalidateResourceStock(reservation);
+
+        return true;
+    }
+
     public void onCopy(DataDefinition reservationDD, Entity reservation) {
         reservation.setField(ReservationFields.RESOURCE, null);
     }
+
+    private void invalidateResourceStock(final Entity reservation) {
+        Entity location = reservation.getBelongsToField(ReservationFields.LOCATION);
+        Entity product = reservation.getBelongsToField(ReservationFields.PRODUCT);
+
+        if ((location != null) && (product != null)) {
+            resourceStockProjection.invalidate(location.getId(), product.getId());
+        }
+    }
 }
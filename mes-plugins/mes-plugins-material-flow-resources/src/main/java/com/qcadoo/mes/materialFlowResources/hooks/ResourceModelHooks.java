@@ -25,6 +25,8 @@ package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockProjection;
+import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -39,6 +41,7 @@ import java.math.BigDecimal;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import static com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants.MODEL_RESOURCE;
 import static com.qcadoo.mes.materialFlowResources.constants.ResourceFields.BATCH;
@@ -52,6 +55,9 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockProjection resourceStockProjection;
+
     public void onSave(final DataDefinition resourceDD, final Entity resource) {
         if (StringUtils.isEmpty(resource.getStringField(ResourceFields.NUMBER))) {
             Date time = resource.getDateField(ResourceFields.TIME);
@@ -64,6 +70,56 @@ public class ResourceModelHooks {
                     String.class);
             resource.setField(ResourceFields.NUMBER, number);
         }
+
+        updateResourceStockProjection(resourceDD, resource);
+    }
+
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        if (resourceStockProjection.isEnabled()) {
+            resourceStockProjection.applyQuantityChange(getBelongsToId(resource, ResourceFields.LOCATION),
+                    getBelongsToId(resource, ResourceFields.PRODUCT), getQuantity(resource).negate());
+        }
+
+        return true;
+    }
+
+    private void updateResourceStockProjection(final DataDefinition resourceDD, final Entity resource) {
+        if (!resourceStockProjection.isEnabled()) {
+            return;
+        }
+
+        Long locationId = getBelongsToId(resource, ResourceFields.LOCATION);
+        Long productId = getBelongsToId(resource, ResourceFields.PRODUCT);
+        BigDecimal quantity = getQuantity(resource);
+
+        Entity resourceFromDB = (resource.getId() == null) ? null : resourceDD.get(resource.getId());
+
+        if (resourceFromDB == null) {
+            resourceStockProjection.applyQuantityChange(locationId, productId, quantity);
+        } else {
+            Long locationFromDBId = getBelongsToId(resourceFromDB, ResourceFields.LOCATION);
+            Long productFromDBId = getBelongsToId(resourceFromDB, ResourceFields.PRODUCT);
+            BigDecimal quantityFromDB = getQuantity(resourceFromDB);
+
+            if (Objects.equals(locationId, locationFromDBId) && Objects.equals(productId, productFromDBId)) {
+                if (quantity.compareTo(quantityFromDB) != 0) {
+                    resourceStockProjection.applyQuantityChange(locationId, productId, quantity.subtract(quantityFromDB));
+                }
+            } else {
+                resourceStockProjection.applyQuantityChange(locationFromDBId, productFromDBId, quantityFromDB.negate());
+                resourceStockProjection.applyQuantityChange(locationId, productId, quantity);
+            }
+        }
+    }
+
+    private Long getBelongsToId(final Entity entity, final String fieldName) {
+        Entity belongsTo = entity.getBelongsToField(fieldName);
+
+        return (belongsTo == null) ? null : belongsTo.getId();
+    }
+
+    private BigDecimal getQuantity(final Entity resource) {
+        return BigDecimalUtils.convertNullToZero(resource.getDecimalField(ResourceFields.QUANTITY));
     }
 
     public void onCreate(final DataDefinition resourceDD, final Entity resource) {
@@ -25,9 +25,9 @@ package com.qcadoo.mes.materialFlowResources.listeners;
 
 import java.util.Date;
 import java.util.Map;
+import java.util.Optional;
 
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.exception.LockAcquisitionException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +49,8 @@ import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
 import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
 import com.qcadoo.mes.materialFlowResources.print.DispositionOrderPdfService;
+import com.qcadoo.mes.materialFlowResources.service.FillResourcesJob;
+import com.qcadoo.mes.materialFlowResources.service.FillResourcesJobService;
 import com.qcadoo.mes.materialFlowResources.service.ReceiptDocumentForReleaseHelper;
 import com.qcadoo.mes.materialFlowResources.service.ResourceManagementService;
 import com.qcadoo.mes.materialFlowResources.service.ResourceStockService;
@@ -70,6 +72,8 @@ public class DocumentDetailsListeners {
 
     private static final String L_FORM = "form";
 
+    private static final String L_FILL_RESOURCES_JOB_ID = "fillResourcesJobId";
+
     private static final Logger LOG = LoggerFactory.getLogger(DocumentDetailsListeners.class);
 
     public static final String L_NUMBER = " number = ";
@@ -83,6 +87,9 @@ public class DocumentDetailsListeners {
     @Autowired
     private ResourceManagementService resourceManagementService;
 
+    @Autowired
+    private FillResourcesJobService fillResourcesJobService;
+
     @Autowired
     private ResourceStockService resourceStockService;
 
@@ -327,24 +334,43 @@ public class DocumentDetailsListeners {
         FormComponent form = (FormComponent) view.getComponentByReference(L_FORM);
         Entity document = form.getPersistedEntityWithIncludedFormValues();
 
-        try {
-            resourceManagementService.fillResourcesInDocument(view, document);
+        FillResourcesJob job = fillResourcesJobService.start(document.getId());
+
+        FieldComponent fillResourcesJobIdField = (FieldComponent) view.getComponentByReference(L_FILL_RESOURCES_JOB_ID);
+
+        fillResourcesJobIdField.setFieldValue(job.getId());
+        fillResourcesJobIdField.requestComponentUpdateState();
+
+        view.addMessage("materialFlow.document.fillResources.global.message.started", MessageType.INFO, false);
+    }
+
+    public void fillResourcesFinished(final ViewDefinitionState view, final ComponentState componentState, final String[] args) {
+        FormComponent form = (FormComponent) view.getComponentByReference(L_FORM);
+        FieldComponent fillResourcesJobIdField = (FieldComponent) view.getComponentByReference(L_FILL_RESOURCES_JOB_ID);
 
-            document = form.getPersistedEntityWithIncludedFormValues();
+        String jobId = (String) fillResourcesJobIdField.getFieldValue();
+        Optional<FillResourcesJob> job = StringUtils.isEmpty(jobId) ? Optional.empty() : fillResourcesJobService.getJob(jobId);
+
+        fillResourcesJobIdField.setFieldValue(null);
+        fillResourcesJobIdField.requestComponentUpdateState();
+
+        if (!job.isPresent() || !job.get().getDocumentId().equals(form.getEntityId())) {
+            view.addMessage("materialFlow.document.fillResources.global.error.jobNotFound", MessageType.FAILURE, false);
+
+            return;
+        }
+
+        if (job.get().isSuccessful()) {
+            Entity document = form.getPersistedEntityWithIncludedFormValues();
 
             form.setEntity(document);
 
             view.performEvent(view, "reset");
-        } catch (IllegalStateException e) {
-            LOG.warn("Fill resources: " + e.getMessage());
-            LOG.warn(document.toString());
 
-            view.addMessage("materialFlow.document.fillResources.global.error.documentNotValid", MessageType.FAILURE, false);
-        } catch (LockAcquisitionException e) {
-            LOG.warn("Fill resources: " + e.getMessage());
-            LOG.warn(document.toString());
-
-            view.addMessage("materialFlow.document.fillResources.global.error.concurrentModify", MessageType.FAILURE, false);
+            view.addMessage("materialFlow.document.fillResources.global.message.finished", MessageType.SUCCESS, false,
+                    String.valueOf(job.get().getFilledPositions()));
+        } else {
+            job.get().getFailureMessages().forEach(message -> view.addTranslatedMessage(message, MessageType.FAILURE, false));
         }
     }
 
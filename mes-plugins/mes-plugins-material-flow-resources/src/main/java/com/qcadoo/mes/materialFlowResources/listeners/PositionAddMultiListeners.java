@@ -9,6 +9,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
 import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
@@ -31,6 +32,9 @@ public class PositionAddMultiListeners {
     @Autowired
     private NumberService numberService;
 
+    @Autowired
+    private DocumentPositionService documentPositionService;
+
     public void addPositions(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         GridComponent grid = (GridComponent) view.getComponentByReference("resourceGrid");
         Set<Long> selectedEntities = grid.getSelectedEntitiesIds();
@@ -55,6 +59,7 @@ public class PositionAddMultiListeners {
                 errorNumbers.add(resource.getStringField(ResourceFields.NUMBER));
             }
         }
+        documentPositionService.updateDocumentPositionsNumbers(document.getId());
         if (!errorNumbers.isEmpty()) {
             view.addMessage("materialFlowResources.positionAddMulti.errorForResource", ComponentState.MessageType.INFO,
                     errorNumbers.stream().collect(Collectors.joining(", ")));
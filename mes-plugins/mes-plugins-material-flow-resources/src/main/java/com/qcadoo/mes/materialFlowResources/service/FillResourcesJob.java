@@ -0,0 +1,113 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of matching resources to positions of a document, started by {@link FillResourcesJobService}.
+ * 
+ * Positions are first matched one by one without locking anything, then all of them are written at once, so the document is
+ * either filled completely or left untouched.
+ */
+public class FillResourcesJob {
+
+    private final String id;
+
+    private final Long documentId;
+
+    private final AtomicInteger matchedPositions = new AtomicInteger();
+
+    private final List<String> failureMessages = new CopyOnWriteArrayList<>();
+
+    private volatile int totalPositions;
+
+    private volatile int filledPositions;
+
+    private volatile boolean successful;
+
+    private volatile Future<?> task;
+
+    FillResourcesJob(final String id, final Long documentId) {
+        this.id = id;
+        this.documentId = documentId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public int getTotalPositions() {
+        return totalPositions;
+    }
+
+    public int getMatchedPositions() {
+        return matchedPositions.get();
+    }
+
+    public int getFilledPositions() {
+        return filledPositions;
+    }
+
+    public List<String> getFailureMessages() {
+        return failureMessages;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public boolean isDone() {
+        return (task != null) && task.isDone();
+    }
+
+    void setTask(final Future<?> task) {
+        this.task = task;
+    }
+
+    void setTotalPositions(final int totalPositions) {
+        this.totalPositions = totalPositions;
+    }
+
+    void positionMatched() {
+        matchedPositions.incrementAndGet();
+    }
+
+    void succeeded(final int filledPositions) {
+        this.filledPositions = filledPositions;
+        this.successful = true;
+    }
+
+    void failed(final String message) {
+        failureMessages.add(message);
+    }
+
+}
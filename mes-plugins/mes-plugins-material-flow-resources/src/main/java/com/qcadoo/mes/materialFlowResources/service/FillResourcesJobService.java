@@ -0,0 +1,161 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.hibernate.exception.LockAcquisitionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Matches resources to positions of draft documents in the background, so large release documents don't hold the HTTP request.
+ * 
+ * Only one job runs for a document at a time - starting it again while it's running returns the running job.
+ */
+@Service
+public class FillResourcesJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FillResourcesJobService.class);
+
+    private static final String L_DOCUMENT_NOT_VALID = "materialFlow.document.fillResources.global.error.documentNotValid";
+
+    private static final String L_CONCURRENT_MODIFY = "materialFlow.document.fillResources.global.error.concurrentModify";
+
+    @Autowired
+    private ResourceManagementService resourceManagementService;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Value("${materialFlowResources.fillResourcesThreads:2}")
+    private int fillResourcesThreads;
+
+    private ExecutorService fillResourcesExecutor;
+
+    private final Cache<String, FillResourcesJob> jobs = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
+
+    private final ConcurrentMap<Long, FillResourcesJob> runningJobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        fillResourcesExecutor = Executors.newFixedThreadPool(fillResourcesThreads,
+                new ThreadFactoryBuilder().setNameFormat("fillResources-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        fillResourcesExecutor.shutdownNow();
+    }
+
+    public FillResourcesJob start(final Long documentId) {
+        FillResourcesJob job = new FillResourcesJob(UUID.randomUUID().toString(), documentId);
+
+        FillResourcesJob runningJob = runningJobs.putIfAbsent(documentId, job);
+
+        if (runningJob != null) {
+            return runningJob;
+        }
+
+        jobs.put(job.getId(), job);
+
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+
+        job.setTask(fillResourcesExecutor.submit(() -> {
+            SecurityContextHolder.setContext(securityContext);
+            LocaleContextHolder.setLocale(locale);
+
+            try {
+                multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+                    @Override
+                    public void invoke() {
+                        fillResources(job, locale);
+                    }
+
+                });
+            } finally {
+                runningJobs.remove(documentId, job);
+
+                SecurityContextHolder.clearContext();
+                LocaleContextHolder.resetLocaleContext();
+            }
+        }));
+
+        return job;
+    }
+
+    public Optional<FillResourcesJob> getJob(final String id) {
+        return Optional.ofNullable(jobs.getIfPresent(id));
+    }
+
+    private void fillResources(final FillResourcesJob job, final Locale locale) {
+        try {
+            FillResourcesPlan plan = resourceManagementService.matchResourcesInDocument(job.getDocumentId(), job);
+
+            resourceManagementService.applyResourcesInDocument(plan);
+
+            job.succeeded(plan.getPositionsCount());
+        } catch (ConcurrencyFailureException | LockAcquisitionException e) {
+            LOG.warn("Fill resources: " + e.getMessage());
+
+            job.failed(translationService.translate(L_CONCURRENT_MODIFY, locale));
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Fill resources in document %d failed", job.getDocumentId()), e);
+
+            job.failed(translationService.translate(L_DOCUMENT_NOT_VALID, locale));
+        }
+    }
+
+}
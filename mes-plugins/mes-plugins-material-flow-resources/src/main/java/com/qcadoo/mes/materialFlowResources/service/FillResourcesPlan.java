@@ -0,0 +1,175 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Resources matched to positions of a draft document, prepared by
+ * {@link ResourceManagementService#matchResourcesInDocument(Long, FillResourcesJob)} and written by
+ * {@link ResourceManagementService#applyResourcesInDocument(FillResourcesPlan)}.
+ * 
+ * Only positions for which at least one resource was found are kept here.
+ */
+public final class FillResourcesPlan {
+
+    private final Long documentId;
+
+    private final Long warehouseId;
+
+    private final boolean reservationsEnabled;
+
+    private final List<PositionResources> positionsResources = Lists.newArrayList();
+
+    FillResourcesPlan(final Long documentId, final Long warehouseId, final boolean reservationsEnabled) {
+        this.documentId = documentId;
+        this.warehouseId = warehouseId;
+        this.reservationsEnabled = reservationsEnabled;
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public int getPositionsCount() {
+        return positionsResources.size();
+    }
+
+    Long getWarehouseId() {
+        return warehouseId;
+    }
+
+    boolean isReservationsEnabled() {
+        return reservationsEnabled;
+    }
+
+    List<PositionResources> getPositionsResources() {
+        return Collections.unmodifiableList(positionsResources);
+    }
+
+    Set<Long> getPositionIds() {
+        return positionsResources.stream().map(PositionResources::getPositionId).collect(Collectors.toSet());
+    }
+
+    Set<Long> getProductIds() {
+        return positionsResources.stream().map(PositionResources::getProductId).collect(Collectors.toSet());
+    }
+
+    void addPosition(final Entity position, final List<Entity> newPositions) {
+        boolean resourceFound = newPositions.stream().anyMatch(
+                newPosition -> Objects.nonNull(newPosition.getBelongsToField(PositionFields.RESOURCE)));
+
+        if (resourceFound) {
+            positionsResources.add(new PositionResources(position, newPositions));
+        }
+    }
+
+    static final class PositionResources {
+
+        private final Long positionId;
+
+        private final Long productId;
+
+        private final Long additionalCodeId;
+
+        private final Long storageLocationId;
+
+        private final BigDecimal quantity;
+
+        private final BigDecimal conversion;
+
+        private final String givenUnit;
+
+        private final Integer number;
+
+        private final List<Entity> newPositions;
+
+        private PositionResources(final Entity position, final List<Entity> newPositions) {
+            this.positionId = position.getId();
+            this.productId = position.getBelongsToField(PositionFields.PRODUCT).getId();
+            this.additionalCodeId = getId(position.getBelongsToField(PositionFields.ADDITIONAL_CODE));
+            this.storageLocationId = getId(position.getBelongsToField(PositionFields.STORAGE_LOCATION));
+            this.quantity = position.getDecimalField(PositionFields.QUANTITY);
+            this.conversion = position.getDecimalField(PositionFields.CONVERSION);
+            this.givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
+            this.number = position.getIntegerField(PositionFields.NUMBER);
+            this.newPositions = newPositions;
+        }
+
+        Long getPositionId() {
+            return positionId;
+        }
+
+        Long getProductId() {
+            return productId;
+        }
+
+        Long getAdditionalCodeId() {
+            return additionalCodeId;
+        }
+
+        Long getStorageLocationId() {
+            return storageLocationId;
+        }
+
+        BigDecimal getQuantity() {
+            return quantity;
+        }
+
+        BigDecimal getConversion() {
+            return conversion;
+        }
+
+        String getGivenUnit() {
+            return givenUnit;
+        }
+
+        Integer getNumber() {
+            return number;
+        }
+
+        List<Entity> getNewPositions() {
+            return newPositions;
+        }
+
+        boolean isSplit() {
+            return newPositions.size() > 1;
+        }
+
+        private static Long getId(final Entity entity) {
+            return Objects.isNull(entity) ? null : entity.getId();
+        }
+
+    }
+
+}
@@ -1,11 +1,15 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.PalletNumberFields;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
@@ -21,6 +25,9 @@ public class PalletNumberDisposalService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     private DataDefinition resourceDataDefinition() {
         return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
@@ -39,6 +46,29 @@ public class PalletNumberDisposalService {
         }
     }
 
+    /**
+     * Disposes all given pallet numbers which are no longer used by any resource, using single statement.
+     * 
+     * @param palletNumberIds
+     *            ids of pallet numbers to dispose
+     */
+    public void tryToDispose(final Collection<Long> palletNumberIds) {
+        if (palletNumberIds.isEmpty()) {
+            return;
+        }
+
+        String query = "UPDATE basic_palletnumber palletnumber SET issuedatetime = :issueDateTime, active = false "
+                + "WHERE palletnumber.id IN (:ids) AND NOT EXISTS (SELECT 1 FROM materialflowresources_resource resource "
+                + "WHERE resource.palletnumber_id = palletnumber.id)";
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("ids", palletNumberIds);
+        params.put("issueDateTime", new Date());
+
+        jdbcTemplate.update(query, params);
+    }
+
     private boolean thereAreNoResourcesAssociatedWithGivenPalletNumber(Entity palletNumber) {
         return resourceDataDefinition().count(SearchRestrictions.belongsTo(ResourceFields.PALLET_NUMBER, palletNumber)) == 0;
     }
@@ -43,6 +43,9 @@ public class ReservationsService {
     @Autowired
     private MultiTenantService multiTenantService;
 
+    @Autowired
+    private ResourceStockProjection resourceStockProjection;
+
     private final static String L_QUANTITY = "quantity";
 
     public void cleanReservationsTrigger() {
@@ -87,6 +90,7 @@ public class ReservationsService {
 
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params, BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)));
+        invalidateResourceStock(params, params.get("product_id"));
     }
 
     /**
@@ -160,6 +164,8 @@ public class ReservationsService {
                     + "product_id = :product_id, quantity = :quantity, resource_id = :resource_id WHERE position_id = :id";
 
             jdbcTemplate.update(query, params);
+            invalidateResourceStock(params, params.get("product_id"));
+            invalidateResourceStock(params, oldPosition.get("product_id"));
 
             if (oldResourceId != null && newResourceId != null) {
                 if (oldResourceId.compareTo(newResourceId) != 0) {
@@ -226,6 +232,18 @@ public class ReservationsService {
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params,
                 BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)).negate());
+        invalidateResourceStock(params, params.get("product_id"));
+    }
+
+    private void invalidateResourceStock(final Map<String, Object> params, final Object productId) {
+        if (!resourceStockProjection.isEnabled() || (productId == null)) {
+            return;
+        }
+
+        Long locationId = jdbcTemplate.queryForObject(
+                "SELECT locationfrom_id FROM materialflowresources_document WHERE id = :document_id", params, Long.class);
+
+        resourceStockProjection.invalidate(locationId, ((Number) productId).longValue());
     }
 
     /**
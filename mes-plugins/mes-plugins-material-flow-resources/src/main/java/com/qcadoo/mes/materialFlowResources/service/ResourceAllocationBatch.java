@@ -0,0 +1,228 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * In-memory pool of resources used while releasing or matching resources for whole document.
+ * 
+ * Candidate resources for all products of the document are loaded once, then positions are matched against this pool in the
+ * same order, and with the same additional code and conversion rules, as the per position criteria queries would return them.
+ * Changes made to resources are only collected here, so they can be written to the database in batches.
+ */
+final class ResourceAllocationBatch {
+
+    private final Comparator<Entity> resourceComparator;
+
+    private final Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+    private final Map<Long, Entity> resourcesById = Maps.newHashMap();
+
+    private final Map<Long, Entity> changedResources = Maps.newLinkedHashMap();
+
+    private final Set<Long> deletedResources = Sets.newLinkedHashSet();
+
+    private final Set<Long> palletNumbersToDispose = Sets.newLinkedHashSet();
+
+    ResourceAllocationBatch(final Collection<Entity> resources, final WarehouseAlgorithm warehouseAlgorithm) {
+        this.resourceComparator = getResourceComparator(warehouseAlgorithm);
+
+        for (Entity resource : resources) {
+            addResource(resource);
+        }
+    }
+
+    /**
+     * Returns resources for given position, in the order of warehouse algorithm.
+     * 
+     * @param product
+     *            position's product
+     * @param position
+     *            document position
+     * @param additionalCode
+     *            position's additional code, resources with this code go first
+     * @param resourceIrrespectiveOfConversion
+     *            if true, resources with different conversion than position's are appended at the end
+     * @return matching resources with available quantity greater than zero
+     */
+    List<Entity> getResources(final Entity product, final Entity position, final Entity additionalCode,
+            final boolean resourceIrrespectiveOfConversion) {
+        List<Entity> available = resourcesByProduct.getOrDefault(product.getId(), Lists.newArrayList()).stream()
+                .filter(resource -> !deletedResources.contains(resource.getId()))
+                .filter(resource -> BigDecimal.ZERO.compareTo(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)) < 0)
+                .sorted(resourceComparator).collect(Collectors.toList());
+
+        BigDecimal conversion = StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT)) ? position
+                .getDecimalField(PositionFields.CONVERSION) : BigDecimal.ONE;
+
+        List<Entity> resources = getResourcesWithConversion(available, additionalCode, conversion, true);
+
+        if (resourceIrrespectiveOfConversion) {
+            resources.addAll(getResourcesWithConversion(available, additionalCode, conversion, false));
+        }
+
+        return resources;
+    }
+
+    private List<Entity> getResourcesWithConversion(final List<Entity> resources, final Entity additionalCode,
+            final BigDecimal conversion, final boolean sameConversion) {
+        List<Entity> resourcesWithConversion = resources.stream()
+                .filter(resource -> hasConversion(resource, conversion) == sameConversion).collect(Collectors.toList());
+
+        if (Objects.isNull(additionalCode)) {
+            return resourcesWithConversion;
+        }
+
+        List<Entity> resourcesWithAdditionalCode = resourcesWithConversion.stream()
+                .filter(resource -> hasAdditionalCode(resource, additionalCode)).collect(Collectors.toList());
+
+        resourcesWithConversion.stream().filter(resource -> !hasAdditionalCode(resource, additionalCode))
+                .forEach(resourcesWithAdditionalCode::add);
+
+        return resourcesWithAdditionalCode;
+    }
+
+    private boolean hasConversion(final Entity resource, final BigDecimal conversion) {
+        BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
+
+        if (Objects.isNull(conversion) || Objects.isNull(resourceConversion)) {
+            return false;
+        }
+
+        return conversion.compareTo(resourceConversion) == 0;
+    }
+
+    private boolean hasAdditionalCode(final Entity resource, final Entity additionalCode) {
+        Entity resourceAdditionalCode = resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE);
+
+        return Objects.nonNull(resourceAdditionalCode) && additionalCode.getId().equals(resourceAdditionalCode.getId());
+    }
+
+    /**
+     * Returns resource from this pool, or registers given one, so every position works on the same instance.
+     */
+    Entity getResource(final Entity resource) {
+        Entity pooledResource = resourcesById.get(resource.getId());
+
+        if (Objects.isNull(pooledResource)) {
+            addResource(resource);
+
+            return resource;
+        }
+
+        return pooledResource;
+    }
+
+    boolean isDeleted(final Entity resource) {
+        return deletedResources.contains(resource.getId());
+    }
+
+    void markChanged(final Entity resource) {
+        changedResources.put(resource.getId(), resource);
+    }
+
+    void markDeleted(final Entity resource) {
+        changedResources.remove(resource.getId());
+        deletedResources.add(resource.getId());
+
+        Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+        if (Objects.nonNull(palletNumber)) {
+            palletNumbersToDispose.add(palletNumber.getId());
+        }
+    }
+
+    Collection<Entity> getChangedResources() {
+        return changedResources.values();
+    }
+
+    Set<Long> getDeletedResources() {
+        return deletedResources;
+    }
+
+    Set<Long> getPalletNumbersToDispose() {
+        return palletNumbersToDispose;
+    }
+
+    private void addResource(final Entity resource) {
+        resourcesById.put(resource.getId(), resource);
+
+        Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
+
+        resourcesByProduct.computeIfAbsent(product.getId(), productId -> Lists.newArrayList()).add(resource);
+    }
+
+    // keeps PostgreSQL defaults - nulls are last in ascending and first in descending order
+    private static Comparator<Entity> getResourceComparator(final WarehouseAlgorithm warehouseAlgorithm) {
+        Comparator<Entity> comparator;
+
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            comparator = descending(ResourceFields.TIME);
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            comparator = ascending(ResourceFields.EXPIRATION_DATE).thenComparing(
+                    resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            comparator = descending(ResourceFields.EXPIRATION_DATE).thenComparing(
+                    resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        } else {
+            comparator = ascending(ResourceFields.TIME);
+        }
+
+        return comparator.thenComparing(Entity::getId);
+    }
+
+    private static Comparator<Entity> ascending(final String dateField) {
+        return Comparator.comparing(getDate(dateField), Comparator.nullsLast(Comparator.<Date> naturalOrder()));
+    }
+
+    private static Comparator<Entity> descending(final String dateField) {
+        return Comparator.comparing(getDate(dateField), Comparator.nullsFirst(Comparator.<Date> reverseOrder()));
+    }
+
+    private static Function<Entity, Date> getDate(final String dateField) {
+        return resource -> resource.getDateField(dateField);
+    }
+
+}
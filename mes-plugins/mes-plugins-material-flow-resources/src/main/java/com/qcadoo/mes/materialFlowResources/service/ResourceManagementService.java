@@ -24,7 +24,6 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.view.api.ViewDefinitionState;
 
 public interface ResourceManagementService {
 
@@ -32,5 +31,15 @@ public interface ResourceManagementService {
 
     void createResourcesForReceiptDocuments(final Entity document);
 
-    void fillResourcesInDocument(final ViewDefinitionState view, final Entity document);
+    /**
+     * Matches resources to positions of draft document which don't have a resource yet, without writing anything.
+     */
+    FillResourcesPlan matchResourcesInDocument(final Long documentId, final FillResourcesJob job);
+
+    /**
+     * Writes resources matched by {@link #matchResourcesInDocument(Long, FillResourcesJob)}, unless the document, its positions
+     * or matched resources have been changed in the meantime.
+     */
+    void applyResourcesInDocument(final FillResourcesPlan plan);
+
 }
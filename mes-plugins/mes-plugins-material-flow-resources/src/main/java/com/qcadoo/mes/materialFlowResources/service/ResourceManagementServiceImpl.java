@@ -26,27 +26,42 @@ package com.qcadoo.mes.materialFlowResources.service;
 import static com.qcadoo.mes.materialFlowResources.constants.ResourceFields.QUANTITY;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
-import org.hibernate.exception.LockAcquisitionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
 import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
@@ -60,6 +75,7 @@ import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageCopyToEntityHelper;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolder;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolderFactory;
+import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -72,8 +88,6 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.security.api.UserService;
 import com.qcadoo.security.constants.UserFields;
-import com.qcadoo.view.api.ComponentState;
-import com.qcadoo.view.api.ViewDefinitionState;
 
 @Service
 public class ResourceManagementServiceImpl implements ResourceManagementService {
@@ -82,6 +96,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     private static final String L_LAST_NAME = "lastName";
 
+    private static final String L_DOT_ID = ".id";
+
     private static final Logger logger = LoggerFactory.getLogger(ResourceManagementServiceImpl.class);
 
     @Autowired
@@ -96,6 +112,9 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private ResourceStockService resourceStockService;
 
+    @Autowired
+    private ResourceStockProjection resourceStockProjection;
+
     @Autowired
     private ReservationsService reservationsService;
 
@@ -111,6 +130,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DocumentPositionService documentPositionService;
+
+    @Value("${materialFlowResources.bulkReceiptMinPositions:20}")
+    private int bulkReceiptMinPositions;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -134,7 +162,19 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Object date = document.getField(DocumentFields.TIME);
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        if (canCreateResourcesInBulk(document, positions)) {
+            Optional<List<Entity>> resources = buildValidResources(document, warehouse, positions, date);
+
+            if (resources.isPresent()) {
+                createResourcesInBulk(document, warehouse, positions, resources.get());
+
+                return;
+            }
+        }
+
+        for (Entity position : positions) {
             createResource(document, warehouse, position, date);
 
             position = position.getDataDefinition().save(position);
@@ -150,6 +190,20 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private void createResource(final Entity document, final Entity warehouse, final Entity position, final Object date) {
+        Entity resource = buildResource(document, warehouse, position, date);
+
+        resourceStockService.createResourceStock(resource);
+
+        resource = resource.getDataDefinition().save(resource);
+
+        if (!resource.isValid()) {
+            throw new InvalidResourceException(resource);
+        }
+
+        position.setField(PositionFields.RESOURCE_RECEIPT_DOCUMENT, resource.getId().toString());
+    }
+
+    private Entity buildResource(final Entity document, final Entity warehouse, final Entity position, final Object date) {
         DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
 
@@ -189,15 +243,173 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             resource.setField(ResourceFields.CONVERSION, position.getField(PositionFields.CONVERSION));
         }
 
-        resourceStockService.createResourceStock(resource);
+        return resource;
+    }
+
+    /**
+     * Receipts of new, accepted documents with many positions are written with batched statements. Pallets shared by positions
+     * with different storage locations or pallet types are validated against each other only when saved one by one, so such
+     * documents keep using the entity path.
+     */
+    private boolean canCreateResourcesInBulk(final Entity document, final List<Entity> positions) {
+        if ((bulkReceiptMinPositions <= 0) || (positions.size() < bulkReceiptMinPositions)
+                || !DocumentState.ACCEPTED.equals(DocumentState.of(document))) {
+            return false;
+        }
 
-        resource = resourceDD.save(resource);
+        Multimap<Long, String> palletsPlacements = ArrayListMultimap.create();
 
-        if (!resource.isValid()) {
-            throw new InvalidResourceException(resource);
+        for (Entity position : positions) {
+            if (position.getId() != null) {
+                return false;
+            }
+
+            Entity palletNumber = position.getBelongsToField(PositionFields.PALLET_NUMBER);
+
+            if (palletNumber != null) {
+                palletsPlacements.put(palletNumber.getId(), getId(position.getBelongsToField(PositionFields.STORAGE_LOCATION))
+                        + "_" + position.getStringField(PositionFields.TYPE_OF_PALLET));
+            }
         }
 
-        position.setField("resourceReceiptDocument", resource.getId().toString());
+        return palletsPlacements.asMap().values().stream()
+                .allMatch(placements -> placements.stream().distinct().count() == 1);
+    }
+
+    private Optional<List<Entity>> buildValidResources(final Entity document, final Entity warehouse,
+            final List<Entity> positions, final Object date) {
+        List<Entity> resources = Lists.newArrayList();
+
+        for (Entity position : positions) {
+            Entity resource = buildResource(document, warehouse, position, date);
+
+            if (!position.getDataDefinition().callValidators(position.copy())
+                    || !resource.getDataDefinition().callValidators(resource)) {
+                return Optional.empty();
+            }
+
+            resources.add(resource);
+        }
+
+        return Optional.of(resources);
+    }
+
+    private void createResourcesInBulk(final Entity document, final Entity warehouse, final List<Entity> positions,
+            final List<Entity> resources) {
+        Long documentId = document.getId();
+        Long warehouseId = warehouse.getId();
+
+        Set<Long> productIds = resources.stream().map(resource -> getId(resource.getBelongsToField(ResourceFields.PRODUCT)))
+                .collect(Collectors.toSet());
+
+        Map<String, Object> stockParams = Maps.newHashMap();
+
+        stockParams.put("locationId", warehouseId);
+        stockParams.put("productIds", productIds);
+
+        jdbcTemplate.update("INSERT INTO materialflowresources_resourcestock (location_id, product_id) "
+                + "SELECT :locationId, p.id FROM basic_product p WHERE p.id IN (:productIds) AND NOT EXISTS "
+                + "(SELECT 1 FROM materialflowresources_resourcestock rs WHERE rs.location_id = :locationId "
+                + "AND rs.product_id = p.id)", stockParams);
+
+        Date time = resources.get(0).getDateField(ResourceFields.TIME);
+
+        Map<String, Object> numbersParams = Maps.newHashMap();
+
+        numbersParams.put("date", time);
+        numbersParams.put("count", resources.size());
+
+        List<Map<String, Object>> idsAndNumbers = jdbcTemplate.queryForList(
+                "SELECT nextval('materialflowresources_resource_id_seq') AS id, "
+                        + "generate_and_set_resource_number(:date) AS number FROM generate_series(1, :count) ORDER BY 1",
+                numbersParams);
+
+        Integer lastNumber = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(number), 0) FROM materialflowresources_position WHERE document_id = :documentId",
+                Collections.singletonMap("documentId", documentId), Integer.class);
+        Iterator<Long> positionIds = getNewPositionIds(positions.size()).iterator();
+
+        List<Map<String, Object>> resourcesParams = Lists.newArrayList();
+        List<Map<String, Object>> positionsParams = Lists.newArrayList();
+        Map<Long, BigDecimal> quantityChanges = Maps.newHashMap();
+
+        for (int index = 0; index < resources.size(); index++) {
+            Entity position = positions.get(index);
+            Entity resource = resources.get(index);
+            Long resourceId = ((Number) idsAndNumbers.get(index).get("id")).longValue();
+
+            resourcesParams.add(getResourceParams(resourceId, (String) idsAndNumbers.get(index).get("number"), resource));
+
+            Map<String, Object> positionParams = getPositionParams(positionIds.next(), documentId, lastNumber + index + 1,
+                    position);
+
+            positionParams.put("resourcereceiptdocument", resourceId.toString());
+
+            positionsParams.add(positionParams);
+
+            quantityChanges.merge(getId(resource.getBelongsToField(ResourceFields.PRODUCT)),
+                    BigDecimalUtils.convertNullToZero(resource.getDecimalField(ResourceFields.QUANTITY)), BigDecimal::add);
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO materialflowresources_resource (id, number, location_id, product_id, quantity, "
+                + "price, batch, time, productiondate, expirationdate, iscorrected, storagelocation_id, "
+                + "quantityinadditionalunit, additionalcode_id, conversion, palletnumber_id, typeofpallet, givenunit, username, "
+                + "waste, availablequantity, reservedquantity, deliverynumber) VALUES (:id, :number, :location_id, :product_id, :quantity, :price, :batch, "
+                + ":time, :productiondate, :expirationdate, false, :storagelocation_id, :quantityinadditionalunit, "
+                + ":additionalcode_id, :conversion, :palletnumber_id, :typeofpallet, :givenunit, :username, :waste, "
+                + ":availablequantity, :reservedquantity, :deliverynumber)",
+                createBatch(resourcesParams));
+
+        jdbcTemplate.batchUpdate("INSERT INTO materialflowresources_position (id, document_id, number, product_id, quantity, "
+                + "givenquantity, givenunit, price, batch, productiondate, expirationdate, resource_id, resourcenumber, "
+                + "storagelocation_id, additionalcode_id, conversion, palletnumber_id, typeofpallet, waste, "
+                + "resourcereceiptdocument) VALUES (:id, :document_id, :number, :product_id, :quantity, :givenquantity, "
+                + ":givenunit, :price, :batch, :productiondate, :expirationdate, :resource_id, :resourcenumber, "
+                + ":storagelocation_id, :additionalcode_id, :conversion, :palletnumber_id, :typeofpallet, :waste, "
+                + ":resourcereceiptdocument)", createBatch(positionsParams));
+
+        for (int index = 0; index < positions.size(); index++) {
+            positions.get(index).setField(PositionFields.RESOURCE_RECEIPT_DOCUMENT,
+                    positionsParams.get(index).get("resourcereceiptdocument"));
+        }
+
+        documentPositionService.invalidatePositionsCount(documentId);
+
+        if (resourceStockProjection.isEnabled()) {
+            quantityChanges.forEach((productId, quantity) -> resourceStockProjection.applyQuantityChange(warehouseId, productId,
+                    quantity));
+        }
+
+        logger.info("RECEIPT RESOURCES CREATED IN BULK FOR DOCUMENT: id = " + documentId + ", POSITIONS: " + positions.size());
+    }
+
+    private Map<String, Object> getResourceParams(final Long resourceId, final String number, final Entity resource) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("id", resourceId);
+        params.put("number", number);
+        params.put("location_id", getId(resource.getBelongsToField(ResourceFields.LOCATION)));
+        params.put("product_id", getId(resource.getBelongsToField(ResourceFields.PRODUCT)));
+        params.put("quantity", resource.getDecimalField(ResourceFields.QUANTITY));
+        params.put("price", resource.getDecimalField(ResourceFields.PRICE));
+        params.put("batch", resource.getStringField(ResourceFields.BATCH));
+        params.put("time", resource.getDateField(ResourceFields.TIME));
+        params.put("productiondate", resource.getDateField(ResourceFields.PRODUCTION_DATE));
+        params.put("expirationdate", resource.getDateField(ResourceFields.EXPIRATION_DATE));
+        params.put("storagelocation_id", getId(resource.getBelongsToField(ResourceFields.STORAGE_LOCATION)));
+        params.put("quantityinadditionalunit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT));
+        params.put("additionalcode_id", getId(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE)));
+        params.put("conversion", resource.getDecimalField(ResourceFields.CONVERSION));
+        params.put("palletnumber_id", getId(resource.getBelongsToField(ResourceFields.PALLET_NUMBER)));
+        params.put("typeofpallet", resource.getStringField(ResourceFields.TYPE_OF_PALLET));
+        params.put("givenunit", resource.getStringField(ResourceFields.GIVEN_UNIT));
+        params.put("username", resource.getStringField(ResourceFields.USER_NAME));
+        params.put("waste", resource.getBooleanField(ResourceFields.WASTE));
+        params.put("availablequantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        params.put("reservedquantity", resource.getDecimalField(ResourceFields.RESERVED_QUANTITY));
+        params.put("deliverynumber", resource.getStringField(ResourceFields.DELIVERY_NUMBER));
+
+        return params;
     }
 
     private Entity createResource(final Entity position, final Entity warehouse, final Entity resource,
@@ -360,13 +572,30 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
 
-        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse,
-                getProductsAndPositionsFromDocument(document));
+        Multimap<Entity, Entity> productsAndPositions = getProductsAndPositionsFromDocument(document);
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse, productsAndPositions);
+
+        ResourceAllocationBatch resourceAllocationBatch = new ResourceAllocationBatch(getResourcesForWarehouseAndProducts(
+                warehouse, productsAndPositions.keySet()), warehouseAlgorithm);
+
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+        List<List<Entity>> generatedPositionsForPositions = Lists.newArrayListWithCapacity(positions.size());
+
+        for (Entity position : positions) {
+            generatedPositionsForPositions.add(updateResources(warehouse, position, resourceAllocationBatch));
+        }
+
+        saveResourceAllocationBatch(resourceAllocationBatch);
+
+        resourceStockProjection.invalidate(warehouse.getId(),
+                productsAndPositions.keySet().stream().map(Entity::getId).collect(Collectors.toSet()));
+
+        for (int i = 0; i < positions.size(); i++) {
+            Entity position = positions.get(i);
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm);
+            List<Entity> generatedPositions = generatedPositionsForPositions.get(i);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -430,12 +659,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private List<Entity> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm) {
+            final ResourceAllocationBatch resourceAllocationBatch) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForPosition(product, position, resourceAllocationBatch);
 
         reservationsService.deleteReservationFromDocumentPosition(position);
 
@@ -468,11 +697,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    resourceAllocationBatch.markDeleted(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService.calculateAdditionalQuantity(
@@ -482,11 +707,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    resourceAllocationBatch.markChanged(resource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceAvailableQuantity));
@@ -511,11 +732,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                resourceAllocationBatch.markChanged(resource);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
 
@@ -533,6 +750,62 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return Lists.newArrayList(position);
     }
 
+    private List<Entity> getResourcesForWarehouseAndProducts(final Entity warehouse, final Collection<Entity> products) {
+        if (products.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        List<Long> productIds = products.stream().map(Entity::getId).distinct().collect(Collectors.toList());
+
+        return dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
+                .add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                .add(SearchRestrictions.in(ResourceFields.PRODUCT + L_DOT_ID, productIds))
+                .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO)).list().getEntities();
+    }
+
+    private void saveResourceAllocationBatch(final ResourceAllocationBatch resourceAllocationBatch) {
+        List<Map<String, Object>> resourcesParams = Lists.newArrayList();
+
+        for (Entity resource : resourceAllocationBatch.getChangedResources()) {
+            if (!resource.getDataDefinition().callValidators(resource)) {
+                throw new InvalidResourceException(resource);
+            }
+
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put("id", resource.getId());
+            params.put("quantity", resource.getDecimalField(ResourceFields.QUANTITY));
+            params.put("availableQuantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+            params.put("reservedQuantity", resource.getDecimalField(ResourceFields.RESERVED_QUANTITY));
+            params.put("quantityInAdditionalUnit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT));
+
+            resourcesParams.add(params);
+        }
+
+        if (!resourcesParams.isEmpty()) {
+            String query = "UPDATE materialflowresources_resource SET quantity = :quantity, availablequantity = :availableQuantity, "
+                    + "reservedquantity = :reservedQuantity, quantityinadditionalunit = :quantityInAdditionalUnit WHERE id = :id";
+
+            jdbcTemplate.batchUpdate(query, createBatch(resourcesParams));
+        }
+
+        Set<Long> deletedResources = resourceAllocationBatch.getDeletedResources();
+
+        if (!deletedResources.isEmpty()) {
+            Map<String, Object> params = Collections.singletonMap("ids", deletedResources);
+
+            jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE resource_id IN (:ids)", params);
+            jdbcTemplate.update("UPDATE materialflowresources_position SET resource_id = NULL WHERE resource_id IN (:ids)",
+                    params);
+            jdbcTemplate.update(
+                    "UPDATE materialflowresources_resourcecorrection SET resource_id = NULL WHERE resource_id IN (:ids)", params);
+            jdbcTemplate.update("DELETE FROM materialflowresources_resource WHERE id IN (:ids)", params);
+        }
+
+        palletNumberDisposalService.tryToDispose(resourceAllocationBatch.getPalletNumbersToDispose());
+    }
+
     private void moveResourcesForTransferDocument(final Entity document) {
         Entity warehouseFrom = document.getBelongsToField(DocumentFields.LOCATION_FROM);
         Entity warehouseTo = document.getBelongsToField(DocumentFields.LOCATION_TO);
@@ -753,6 +1026,47 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return resources;
     }
 
+    private List<Entity> getResourcesForPosition(final Entity product, final Entity position,
+            final ResourceAllocationBatch resourceAllocationBatch) {
+        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+        if (resource != null && resource.getId() != null) {
+            resource = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                    MaterialFlowResourcesConstants.MODEL_RESOURCE).get(resource.getId());
+
+            if (resource != null) {
+                resource = resourceAllocationBatch.isDeleted(resource) ? null : resourceAllocationBatch.getResource(resource);
+            }
+        }
+
+        if (resource == null) {
+            return resourceAllocationBatch.getResources(product, position,
+                    position.getBelongsToField(PositionFields.ADDITIONAL_CODE), isFillResourceIrrespectiveOfConversion());
+        }
+
+        List<Entity> resources = Lists.newArrayList();
+
+        Entity reservation = reservationsService.getReservationForPosition(position);
+
+        if (reservation != null) {
+            BigDecimal reservationQuantity = reservation.getDecimalField(ReservationFields.QUANTITY);
+            BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+            resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity.add(reservationQuantity));
+        }
+
+        resources.add(resource);
+
+        return resources;
+    }
+
+    private boolean isFillResourceIrrespectiveOfConversion() {
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        return documentPositionParameters.getBooleanField("fillResourceIrrespectiveOfConversion");
+    }
+
     private List<Entity> getResourcesForLocationCommonCodeConversion(final Entity warehouse, final Entity product,
             final Entity additionalCode, final Entity position, boolean resourceIrrespectiveOfConversion,
             SearchOrder... searchOrders) {
@@ -813,12 +1127,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             final Entity additionalCode, final Entity position, SearchOrder... searchOrders) {
         List<Entity> resources = getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, false,
                 searchOrders);
-        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
-                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
-
-        boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
-                .getBooleanField("fillResourceIrrespectiveOfConversion");
-        if (fillResourceIrrespectiveOfConversion) {
+        if (isFillResourceIrrespectiveOfConversion()) {
             resources.addAll(getResourcesForLocationCommonCodeConversion(warehouse, product, additionalCode, position, true,
                     searchOrders));
         }
@@ -849,66 +1158,315 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 SearchOrders.desc(ResourceFields.EXPIRATION_DATE), SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
     }
 
-    @Transactional(isolation = Isolation.REPEATABLE_READ)
-    public void fillResourcesInDocument(final ViewDefinitionState view, final Entity document) throws LockAcquisitionException {
+    @Override
+    @Transactional(readOnly = true)
+    public FillResourcesPlan matchResourcesInDocument(final Long documentId, final FillResourcesJob job) {
+        Entity document = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_DOCUMENT).get(documentId);
+
+        if (document == null) {
+            throw new IllegalStateException("Document " + documentId + " doesn't exist.");
+        }
+
         logger.info("FILL RESOURCES STARTED IN DOCUMENT: id = " + document.getId() + " number = "
                 + document.getStringField(DocumentFields.NUMBER));
         logger.info("USER STARTED IN DOCUMENT: id = " + document.getId() + ": "
                 + userService.getCurrentUserEntity().getStringField(UserFields.USER_NAME));
-        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
-        logger.info("INITIAL POSITIONS IN DOCUMENT: id = " + document.getId() + ": size = " + positions.size());
-        logger.info(positions.toString());
+
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS).stream()
+                .filter(position -> position.getBelongsToField(PositionFields.RESOURCE) == null).collect(Collectors.toList());
+
+        logger.info("POSITIONS WITHOUT RESOURCE IN DOCUMENT: id = " + document.getId() + ": size = " + positions.size());
+
         Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_FROM);
         WarehouseAlgorithm warehouseAlgorithm = WarehouseAlgorithm.parseString(warehouse
                 .getStringField(LocationFieldsMFR.ALGORITHM));
-        boolean valid = true;
+
+        boolean reservationsEnabled = reservationsService.reservationsEnabledForDocumentPositions(document);
+        boolean resourceIrrespectiveOfConversion = isFillResourceIrrespectiveOfConversion();
+
+        ResourceAllocationBatch resourceAllocationBatch = new ResourceAllocationBatch(getResourcesForWarehouseAndProducts(
+                warehouse, positions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT))
+                        .collect(Collectors.toList())), warehouseAlgorithm);
+
+        FillResourcesPlan plan = new FillResourcesPlan(document.getId(), warehouse.getId(), reservationsEnabled);
+
+        job.setTotalPositions(positions.size());
 
         for (Entity position : positions) {
-            if (position.getBelongsToField(PositionFields.RESOURCE) == null) {
-                List<Entity> newPositions = matchResourcesToPosition(position, warehouse, warehouseAlgorithm);
-                if (!newPositions.isEmpty()) {
-                    logger.info("GENERATED POSITIONS IN DOCUMENT: id = " + document.getId() + ", FOR POSITION: id = "
-                            + position.getId() + ", size = " + newPositions.size());
-                    logger.info(newPositions.toString());
-                    if (newPositions.size() > 1) {
-                        position.getDataDefinition().delete(position.getId());
-                        for (Entity newPosition : newPositions) {
-                            newPosition.setField(PositionFields.DOCUMENT, document);
-                            Entity saved = newPosition.getDataDefinition().save(newPosition);
-                            valid = valid && saved.isValid();
-                            addPositionErrors(view, saved);
-                        }
-                    } else {
-                        copyPositionValues(position, newPositions.get(0));
-                        Entity saved = position.getDataDefinition().save(position);
-                        valid = valid && saved.isValid();
-                        addPositionErrors(view, saved);
-                    }
+            plan.addPosition(position, matchResourcesToPosition(position, resourceAllocationBatch,
+                    resourceIrrespectiveOfConversion, reservationsEnabled));
+
+            job.positionMatched();
+        }
+
+        return plan;
+    }
+
+    @Override
+    @Transactional(isolation = Isolation.REPEATABLE_READ)
+    public void applyResourcesInDocument(final FillResourcesPlan plan) {
+        if (plan.getPositionsCount() == 0) {
+            return;
+        }
+
+        lockDocument(plan.getDocumentId());
+        lockPositions(plan);
+
+        if (plan.isReservationsEnabled()) {
+            lockResources(plan);
+        }
+
+        jdbcTemplate.update("DELETE FROM materialflowresources_reservation WHERE position_id IN (:ids)",
+                Collections.singletonMap("ids", plan.getPositionIds()));
+
+        List<Map<String, Object>> updatedPositionsParams = Lists.newArrayList();
+        List<Map<String, Object>> createdPositionsParams = Lists.newArrayList();
+        List<Long> deletedPositionIds = Lists.newArrayList();
+
+        List<FillResourcesPlan.PositionResources> splitPositions = plan.getPositionsResources().stream()
+                .filter(FillResourcesPlan.PositionResources::isSplit).collect(Collectors.toList());
+        Iterator<Long> newPositionIds = getNewPositionIds(splitPositions.stream()
+                .mapToInt(positionResources -> positionResources.getNewPositions().size()).sum()).iterator();
+
+        for (FillResourcesPlan.PositionResources positionResources : plan.getPositionsResources()) {
+            if (positionResources.isSplit()) {
+                deletedPositionIds.add(positionResources.getPositionId());
+
+                for (Entity newPosition : positionResources.getNewPositions()) {
+                    createdPositionsParams.add(getPositionParams(newPositionIds.next(), plan.getDocumentId(),
+                            positionResources.getNumber(), newPosition));
                 }
+            } else {
+                updatedPositionsParams.add(getPositionParams(positionResources.getPositionId(), plan.getDocumentId(),
+                        positionResources.getNumber(), positionResources.getNewPositions().get(0)));
+            }
+        }
+
+        if (!updatedPositionsParams.isEmpty()) {
+            String query = "UPDATE materialflowresources_position SET price = :price, batch = :batch, "
+                    + "productiondate = :productiondate, expirationdate = :expirationdate, resource_id = :resource_id, "
+                    + "resourcenumber = :resourcenumber, storagelocation_id = :storagelocation_id, "
+                    + "additionalcode_id = :additionalcode_id, conversion = :conversion, palletnumber_id = :palletnumber_id, "
+                    + "typeofpallet = :typeofpallet, waste = :waste, quantity = :quantity, givenquantity = :givenquantity "
+                    + "WHERE id = :id";
+
+            jdbcTemplate.batchUpdate(query, createBatch(updatedPositionsParams));
+        }
+
+        if (!deletedPositionIds.isEmpty()) {
+            jdbcTemplate.update("DELETE FROM materialflowresources_position WHERE id IN (:ids)",
+                    Collections.singletonMap("ids", deletedPositionIds));
+        }
+
+        if (!createdPositionsParams.isEmpty()) {
+            String query = "INSERT INTO materialflowresources_position (id, document_id, number, product_id, quantity, "
+                    + "givenquantity, givenunit, price, batch, productiondate, expirationdate, resource_id, resourcenumber, "
+                    + "storagelocation_id, additionalcode_id, conversion, palletnumber_id, typeofpallet, waste) VALUES (:id, "
+                    + ":document_id, :number, :product_id, :quantity, :givenquantity, :givenunit, :price, :batch, "
+                    + ":productiondate, :expirationdate, :resource_id, :resourcenumber, :storagelocation_id, "
+                    + ":additionalcode_id, :conversion, :palletnumber_id, :typeofpallet, :waste)";
+
+            jdbcTemplate.batchUpdate(query, createBatch(createdPositionsParams));
+        }
+
+        if (plan.isReservationsEnabled()) {
+            createReservations(plan, Lists.newArrayList(Iterables.concat(updatedPositionsParams, createdPositionsParams)));
+        }
+
+        documentPositionService.updateDocumentPositionsNumbers(plan.getDocumentId());
+        documentPositionService.invalidatePositionsCount(plan.getDocumentId());
+
+        resourceStockProjection.invalidate(plan.getWarehouseId(), plan.getProductIds());
+
+        logger.info("FILL RESOURCES ENDED SUCCESSFULLY FOR DOCUMENT: id = " + plan.getDocumentId() + ", FILLED POSITIONS: "
+                + plan.getPositionsCount() + ", CREATED POSITIONS: " + createdPositionsParams.size());
+    }
+
+    private void lockDocument(final Long documentId) {
+        Map<String, Object> document = jdbcTemplate.queryForMap(
+                "SELECT state, acceptationinprogress FROM materialflowresources_document WHERE id = :id FOR UPDATE",
+                Collections.singletonMap("id", documentId));
+
+        if (DocumentState.parseString((String) document.get("state")) != DocumentState.DRAFT
+                || Boolean.TRUE.equals(document.get("acceptationinprogress"))) {
+            throw new IllegalStateException("Document " + documentId + " isn't a draft anymore.");
+        }
+    }
+
+    private void lockPositions(final FillResourcesPlan plan) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("ids", plan.getPositionIds());
+        params.put("documentId", plan.getDocumentId());
+
+        Map<Long, Map<String, Object>> positions = jdbcTemplate
+                .queryForList("SELECT id, product_id, additionalcode_id, storagelocation_id, quantity, conversion, givenunit, "
+                        + "number FROM materialflowresources_position WHERE id IN (:ids) AND document_id = :documentId "
+                        + "AND resource_id IS NULL ORDER BY id FOR UPDATE", params).stream()
+                .collect(Collectors.toMap(position -> getLongValue(position.get("id")), position -> position));
+
+        for (FillResourcesPlan.PositionResources positionResources : plan.getPositionsResources()) {
+            Map<String, Object> position = positions.get(positionResources.getPositionId());
+
+            if (position == null || hasPositionChanged(positionResources, position)) {
+                throw new ConcurrencyFailureException("Position " + positionResources.getPositionId() + " has been changed.");
             }
         }
-        if (valid) {
-            logger.info("FILL RESOURCES ENDED SUCCESSFULLY FOR DOCUMENT: id = " + document.getId() + " number = "
-                    + document.getStringField(DocumentFields.NUMBER));
+    }
+
+    // everything the resources were matched by or copied from has to be the same as when the plan was prepared
+    private boolean hasPositionChanged(final FillResourcesPlan.PositionResources positionResources,
+            final Map<String, Object> position) {
+        return !Objects.equals(positionResources.getProductId(), getLongValue(position.get("product_id")))
+                || !Objects.equals(positionResources.getAdditionalCodeId(), getLongValue(position.get("additionalcode_id")))
+                || !Objects.equals(positionResources.getStorageLocationId(), getLongValue(position.get("storagelocation_id")))
+                || !Objects.equals(positionResources.getGivenUnit(), position.get("givenunit"))
+                || !Objects.equals(positionResources.getNumber(), getIntegerValue(position.get("number")))
+                || !isSameDecimal(positionResources.getQuantity(), (BigDecimal) position.get("quantity"))
+                || !isSameDecimal(positionResources.getConversion(), (BigDecimal) position.get("conversion"));
+    }
+
+    private Long getLongValue(final Object value) {
+        return Objects.isNull(value) ? null : ((Number) value).longValue();
+    }
+
+    private Integer getIntegerValue(final Object value) {
+        return Objects.isNull(value) ? null : ((Number) value).intValue();
+    }
+
+    private boolean isSameDecimal(final BigDecimal first, final BigDecimal second) {
+        if (Objects.isNull(first) || Objects.isNull(second)) {
+            return Objects.isNull(first) && Objects.isNull(second);
+        }
+
+        return first.compareTo(second) == 0;
+    }
+
+    private void lockResources(final FillResourcesPlan plan) {
+        Map<Long, BigDecimal> allocatedQuantities = getAllocatedQuantities(plan);
+
+        if (allocatedQuantities.isEmpty()) {
             return;
         }
 
-        logger.warn("FILL RESOURCES ENDED WITH ERRORS FOR DOCUMENT: id = " + document.getId() + " number = "
-                + document.getStringField(DocumentFields.NUMBER));
-        throw new IllegalStateException("Unable to fill resources in document.");
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        jdbcTemplate.query("SELECT id, availablequantity FROM materialflowresources_resource WHERE id IN (:ids) "
+                + "ORDER BY id FOR UPDATE", Collections.singletonMap("ids", allocatedQuantities.keySet()),
+                (RowCallbackHandler) rs -> availableQuantities.put(rs.getLong("id"), rs.getBigDecimal("availablequantity")));
+
+        for (Map.Entry<Long, BigDecimal> allocatedQuantity : allocatedQuantities.entrySet()) {
+            BigDecimal availableQuantity = availableQuantities.get(allocatedQuantity.getKey());
+
+            if (availableQuantity == null || availableQuantity.compareTo(allocatedQuantity.getValue()) < 0) {
+                throw new ConcurrencyFailureException("Resource " + allocatedQuantity.getKey() + " has been used.");
+            }
+        }
     }
 
-    private void addPositionErrors(ViewDefinitionState view, Entity saved) {
-        saved.getGlobalErrors().forEach(view::addMessage);
-        if (!saved.getErrors().isEmpty()) {
-            view.addMessage("materialFlow.document.fillResources.global.error.positionNotValid",
-                    ComponentState.MessageType.FAILURE, false,
-                    saved.getBelongsToField(PositionFields.PRODUCT).getStringField(ProductFields.NUMBER));
+    private Map<Long, BigDecimal> getAllocatedQuantities(final FillResourcesPlan plan) {
+        Map<Long, BigDecimal> allocatedQuantities = Maps.newHashMap();
+
+        for (FillResourcesPlan.PositionResources positionResources : plan.getPositionsResources()) {
+            for (Entity newPosition : positionResources.getNewPositions()) {
+                Entity resource = newPosition.getBelongsToField(PositionFields.RESOURCE);
+
+                if (resource != null) {
+                    allocatedQuantities.merge(resource.getId(), newPosition.getDecimalField(PositionFields.QUANTITY),
+                            BigDecimal::add);
+                }
+            }
         }
+
+        return allocatedQuantities;
+    }
+
+    private List<Long> getNewPositionIds(final int count) {
+        if (count == 0) {
+            return Lists.newArrayList();
+        }
+
+        return jdbcTemplate.queryForList(
+                "SELECT nextval('materialflowresources_position_id_seq') FROM generate_series(1, :count)",
+                Collections.singletonMap("count", count), Long.class);
+    }
+
+    private Map<String, Object> getPositionParams(final Long positionId, final Long documentId, final Integer number,
+            final Entity position) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("id", positionId);
+        params.put("document_id", documentId);
+        params.put("number", number);
+        params.put("product_id", getId(position.getBelongsToField(PositionFields.PRODUCT)));
+        params.put("quantity", position.getDecimalField(PositionFields.QUANTITY));
+        params.put("givenquantity", position.getDecimalField(PositionFields.GIVEN_QUANTITY));
+        params.put("givenunit", position.getStringField(PositionFields.GIVEN_UNIT));
+        params.put("price", position.getDecimalField(PositionFields.PRICE));
+        params.put("batch", position.getStringField(PositionFields.BATCH));
+        params.put("productiondate", position.getDateField(PositionFields.PRODUCTION_DATE));
+        params.put("expirationdate", position.getDateField(PositionFields.EXPIRATION_DATE));
+        params.put("resource_id", getId(position.getBelongsToField(PositionFields.RESOURCE)));
+        params.put("resourcenumber", position.getStringField(PositionFields.RESOURCE_NUMBER));
+        params.put("storagelocation_id", getId(position.getBelongsToField(PositionFields.STORAGE_LOCATION)));
+        params.put("additionalcode_id", getId(position.getBelongsToField(PositionFields.ADDITIONAL_CODE)));
+        params.put("conversion", position.getDecimalField(PositionFields.CONVERSION));
+        params.put("palletnumber_id", getId(position.getBelongsToField(PositionFields.PALLET_NUMBER)));
+        params.put("typeofpallet", position.getStringField(PositionFields.TYPE_OF_PALLET));
+        params.put("waste", position.getBooleanField(PositionFields.WASTE));
+
+        return params;
     }
 
-    private List<Entity> matchResourcesToPosition(final Entity position, final Entity warehouse,
-            final WarehouseAlgorithm warehouseAlgorithm) {
+    private Long getId(final Entity entity) {
+        return entity == null ? null : entity.getId();
+    }
+
+    private void createReservations(final FillResourcesPlan plan, final List<Map<String, Object>> positionsParams) {
+        List<Map<String, Object>> reservationsParams = Lists.newArrayList();
+        Map<Long, BigDecimal> reservedQuantities = Maps.newHashMap();
+
+        for (Map<String, Object> positionParams : positionsParams) {
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put("location_id", plan.getWarehouseId());
+            params.put("product_id", positionParams.get("product_id"));
+            params.put("quantity", positionParams.get("quantity"));
+            params.put("position_id", positionParams.get("id"));
+            params.put("resource_id", positionParams.get("resource_id"));
+
+            reservationsParams.add(params);
+
+            if (positionParams.get("resource_id") != null) {
+                reservedQuantities.merge((Long) positionParams.get("resource_id"), (BigDecimal) positionParams.get("quantity"),
+                        BigDecimal::add);
+            }
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO materialflowresources_reservation "
+                + "(location_id, product_id, quantity, position_id, resource_id) "
+                + "VALUES (:location_id, :product_id, :quantity, :position_id, :resource_id)",
+                createBatch(reservationsParams));
+
+        List<Map<String, Object>> resourcesParams = Lists.newArrayList();
+
+        for (Map.Entry<Long, BigDecimal> reservedQuantity : reservedQuantities.entrySet()) {
+            Map<String, Object> params = Maps.newHashMap();
+
+            params.put("id", reservedQuantity.getKey());
+            params.put("quantity", reservedQuantity.getValue());
+
+            resourcesParams.add(params);
+        }
+
+        jdbcTemplate.batchUpdate("UPDATE materialflowresources_resource SET reservedquantity = reservedquantity + :quantity, "
+                + "availablequantity = availablequantity - :quantity WHERE id = :id",
+                createBatch(resourcesParams));
+    }
+
+    private List<Entity> matchResourcesToPosition(final Entity position, final ResourceAllocationBatch resourceAllocationBatch,
+            final boolean resourceIrrespectiveOfConversion, final boolean reservationsEnabled) {
         DataDefinition positionDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_POSITION);
 
@@ -916,7 +1474,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = resourceAllocationBatch.getResources(product, position,
+                position.getBelongsToField(PositionFields.ADDITIONAL_CODE), resourceIrrespectiveOfConversion);
         BigDecimal quantity = position.getDecimalField(PositionFields.QUANTITY);
         BigDecimal conversion = position.getDecimalField(PositionFields.CONVERSION);
         String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
@@ -925,9 +1484,6 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             if (resource.getBooleanField(ResourceFields.WASTE)) {
                 continue;
             }
-            logger.info("DOCUMENT: " + position.getBelongsToField(PositionFields.DOCUMENT).getId() + " POSITION: "
-                    + position.toString());
-            logger.info("RESOURCE USED: " + resource.toString());
 
             Entity newPosition = createNewPosition(position, product, resource);
             newPosition.setField(PositionFields.RESOURCE, resource);
@@ -943,10 +1499,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
                 setPositionQuantityAndGivenQuantity(resourceAvailableQuantity, newPosition);
                 newPositions.add(newPosition);
+
+                reserveInBatch(resource, resourceAvailableQuantity, reservationsEnabled);
             } else {
                 setPositionQuantityAndGivenQuantity(quantity, newPosition);
                 newPositions.add(newPosition);
 
+                reserveInBatch(resource, quantity, reservationsEnabled);
+
                 return newPositions;
             }
         }
@@ -954,6 +1514,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return newPositions;
     }
 
+    // positions matched later in the same document mustn't get quantity already reserved for the previous ones
+    private void reserveInBatch(final Entity resource, final BigDecimal quantity, final boolean reservationsEnabled) {
+        if (reservationsEnabled) {
+            resource.setField(ResourceFields.AVAILABLE_QUANTITY,
+                    resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY).subtract(quantity, numberService.getMathContext()));
+        }
+    }
+
     private Entity createNewPosition(Entity position, Entity product, Entity resource) {
         Entity newPosition = position.getDataDefinition().create();
 
@@ -1003,4 +1571,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return newPosition;
     }
 
+    private SqlParameterSource[] createBatch(final List<Map<String, Object>> params) {
+        return params.stream().map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new);
+    }
+
 }
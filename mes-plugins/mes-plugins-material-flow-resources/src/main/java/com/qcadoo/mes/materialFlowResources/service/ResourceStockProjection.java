@@ -0,0 +1,494 @@
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+/**
+ * Optional in-process projection of resource stock quantities keyed by (location, product). Entries are loaded lazily, moved by
+ * quantity deltas from resource hooks once the changing transaction commits, invalidated by jdbc writers which bypass those
+ * hooks and periodically reconciled against materialflowresources_resourcestockdto.
+ *
+ * Keys are spread over lock stripes, each holding an open addressing table of primitive location and product ids. Every change
+ * of a stripe bumps its version, so a value read from the database is only stored when no change committed in between.
+ */
+@Service
+public class ResourceStockProjection {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceStockProjection.class);
+
+    private static final int STRIPES_COUNT = 64;
+
+    private static final String RESOURCE_STOCKS_QUERY = "SELECT location_id, product_id, quantity, availablequantity "
+            + "FROM materialflowresources_resourcestockdto";
+
+    private final Stripe[] stripes = new Stripe[STRIPES_COUNT];
+
+    private final Object pendingChangesKey = new Object();
+
+    @Value("${resourceStockProjectionEnabled:false}")
+    private boolean enabled;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    public ResourceStockProjection() {
+        for (int i = 0; i < STRIPES_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public ResourceStockDto getResourceStock(final long locationId, final long productId, final Supplier<ResourceStockDto> loader) {
+        if (!enabled || isChangedInCurrentTransaction(locationId, productId)) {
+            return loader.get();
+        }
+
+        Stripe stripe = getStripe(locationId, productId);
+
+        long version;
+
+        synchronized (stripe) {
+            ResourceStockDto resourceStock = stripe.get(locationId, productId);
+
+            if (resourceStock != null) {
+                return resourceStock;
+            }
+
+            version = stripe.version;
+        }
+
+        ResourceStockDto resourceStock = loader.get();
+
+        synchronized (stripe) {
+            if ((stripe.version == version) && (stripe.inFlight == 0)) {
+                stripe.put(locationId, productId, resourceStock.getQuantity(), resourceStock.getAvailableQuantity());
+            }
+        }
+
+        return resourceStock;
+    }
+
+    public void applyQuantityChange(final Long locationId, final Long productId, final BigDecimal quantityToAdd) {
+        if (!enabled || (locationId == null) || (productId == null)) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getPendingChanges().addDelta(locationId, productId, quantityToAdd);
+        } else {
+            Stripe stripe = getStripe(locationId, productId);
+
+            synchronized (stripe) {
+                stripe.add(locationId, productId, quantityToAdd);
+            }
+        }
+    }
+
+    public void invalidate(final Long locationId, final Long productId) {
+        if (!enabled || (locationId == null) || (productId == null)) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getPendingChanges().invalidate(locationId, productId);
+        } else {
+            Stripe stripe = getStripe(locationId, productId);
+
+            synchronized (stripe) {
+                stripe.invalidate(locationId, productId);
+            }
+        }
+    }
+
+    public void invalidate(final Long locationId, final Collection<Long> productIds) {
+        for (Long productId : productIds) {
+            invalidate(locationId, productId);
+        }
+    }
+
+    public void reconcileTrigger() {
+        if (!enabled) {
+            return;
+        }
+
+        multiTenantService.doInMultiTenantContext(new MultiTenantCallback() {
+
+            @Override
+            public void invoke() {
+                reconcile();
+            }
+
+        });
+    }
+
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+
+        long[] versions = new long[STRIPES_COUNT];
+
+        for (int i = 0; i < STRIPES_COUNT; i++) {
+            synchronized (stripes[i]) {
+                versions[i] = stripes[i].version;
+                stripes[i].beginReconcile();
+            }
+        }
+
+        int[] drifted = new int[1];
+
+        jdbcTemplate.query(RESOURCE_STOCKS_QUERY, Collections.emptyMap(), (RowCallbackHandler) rs -> {
+            long locationId = rs.getLong("location_id");
+            long productId = rs.getLong("product_id");
+            int index = getStripeIndex(locationId, productId);
+
+            synchronized (stripes[index]) {
+                if ((stripes[index].version == versions[index]) && (stripes[index].inFlight == 0)) {
+                    drifted[0] += stripes[index].reconcile(locationId, productId, rs.getBigDecimal("quantity"),
+                            rs.getBigDecimal("availablequantity"));
+                }
+            }
+        });
+
+        for (int i = 0; i < STRIPES_COUNT; i++) {
+            synchronized (stripes[i]) {
+                if ((stripes[i].version == versions[i]) && (stripes[i].inFlight == 0)) {
+                    drifted[0] += stripes[i].endReconcile();
+                } else {
+                    stripes[i].invalidateAll();
+                }
+            }
+        }
+
+        if (drifted[0] > 0) {
+            LOG.warn(String.format("Resource stock projection reconciled, %d entries differed from database", drifted[0]));
+        }
+    }
+
+    private Stripe getStripe(final long locationId, final long productId) {
+        return stripes[getStripeIndex(locationId, productId)];
+    }
+
+    private static int getStripeIndex(final long locationId, final long productId) {
+        return hash(locationId, productId) & (STRIPES_COUNT - 1);
+    }
+
+    private static int hash(final long locationId, final long productId) {
+        long hash = (locationId * 0x9E3779B97F4A7C15L) ^ (productId * 0xC2B2AE3D27D4EB4FL);
+
+        return (int) (hash ^ (hash >>> 29) ^ (hash >>> 47));
+    }
+
+    private boolean isChangedInCurrentTransaction(final long locationId, final long productId) {
+        PendingChanges pendingChanges = (PendingChanges) TransactionSynchronizationManager.getResource(pendingChangesKey);
+
+        return (pendingChanges != null) && pendingChanges.contains(locationId, productId);
+    }
+
+    private PendingChanges getPendingChanges() {
+        PendingChanges pendingChanges = (PendingChanges) TransactionSynchronizationManager.getResource(pendingChangesKey);
+
+        if (pendingChanges == null) {
+            PendingChanges changes = new PendingChanges();
+
+            TransactionSynchronizationManager.bindResource(pendingChangesKey, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void beforeCommit(final boolean readOnly) {
+                    changes.startCommit();
+                }
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(pendingChangesKey);
+
+                    changes.complete(TransactionSynchronization.STATUS_COMMITTED == status);
+                }
+            });
+
+            pendingChanges = changes;
+        }
+
+        return pendingChanges;
+    }
+
+    private class PendingChanges {
+
+        private final Map<List<Long>, BigDecimal> deltas = Maps.newLinkedHashMap();
+
+        private final Set<List<Long>> invalidated = Sets.newLinkedHashSet();
+
+        private final Set<Integer> inFlightStripes = Sets.newHashSet();
+
+        void addDelta(final long locationId, final long productId, final BigDecimal quantityToAdd) {
+            deltas.merge(Arrays.asList(locationId, productId), quantityToAdd, BigDecimal::add);
+        }
+
+        void invalidate(final long locationId, final long productId) {
+            invalidated.add(Arrays.asList(locationId, productId));
+        }
+
+        boolean contains(final long locationId, final long productId) {
+            List<Long> key = Arrays.asList(locationId, productId);
+
+            return deltas.containsKey(key) || invalidated.contains(key);
+        }
+
+        void startCommit() {
+            for (List<Long> key : Sets.union(deltas.keySet(), invalidated)) {
+                int index = getStripeIndex(key.get(0), key.get(1));
+
+                if (inFlightStripes.add(index)) {
+                    synchronized (stripes[index]) {
+                        stripes[index].inFlight++;
+                    }
+                }
+            }
+        }
+
+        void complete(final boolean committed) {
+            if (committed) {
+                deltas.forEach((key, quantityToAdd) -> {
+                    Stripe stripe = getStripe(key.get(0), key.get(1));
+
+                    synchronized (stripe) {
+                        stripe.add(key.get(0), key.get(1), quantityToAdd);
+                    }
+                });
+
+                for (List<Long> key : invalidated) {
+                    Stripe stripe = getStripe(key.get(0), key.get(1));
+
+                    synchronized (stripe) {
+                        stripe.invalidate(key.get(0), key.get(1));
+                    }
+                }
+            }
+
+            for (Integer index : inFlightStripes) {
+                synchronized (stripes[index]) {
+                    stripes[index].version++;
+                    stripes[index].inFlight--;
+                }
+            }
+        }
+
+    }
+
+    private static class Stripe {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long version;
+
+        private int inFlight;
+
+        private int size;
+
+        private long[] locationIds = new long[INITIAL_CAPACITY];
+
+        private long[] productIds = new long[INITIAL_CAPACITY];
+
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+
+        private boolean[] loaded = new boolean[INITIAL_CAPACITY];
+
+        private boolean[] reconciled = new boolean[INITIAL_CAPACITY];
+
+        private BigDecimal[] quantities = new BigDecimal[INITIAL_CAPACITY];
+
+        private BigDecimal[] availableQuantities = new BigDecimal[INITIAL_CAPACITY];
+
+        ResourceStockDto get(final long locationId, final long productId) {
+            int slot = find(locationId, productId);
+
+            if ((slot < 0) || !loaded[slot]) {
+                return null;
+            }
+
+            ResourceStockDto resourceStock = new ResourceStockDto();
+
+            resourceStock.setQuantity(quantities[slot]);
+            resourceStock.setAvailableQuantity(availableQuantities[slot]);
+
+            return resourceStock;
+        }
+
+        void put(final long locationId, final long productId, final BigDecimal quantity, final BigDecimal availableQuantity) {
+            int slot = findOrAllocate(locationId, productId);
+
+            loaded[slot] = true;
+            reconciled[slot] = true;
+            quantities[slot] = Objects.isNull(quantity) ? BigDecimal.ZERO : quantity;
+            availableQuantities[slot] = Objects.isNull(availableQuantity) ? BigDecimal.ZERO : availableQuantity;
+        }
+
+        void add(final long locationId, final long productId, final BigDecimal quantityToAdd) {
+            int slot = find(locationId, productId);
+
+            if ((slot >= 0) && loaded[slot]) {
+                quantities[slot] = quantities[slot].add(quantityToAdd);
+                availableQuantities[slot] = availableQuantities[slot].add(quantityToAdd);
+            }
+
+            version++;
+        }
+
+        void invalidate(final long locationId, final long productId) {
+            int slot = find(locationId, productId);
+
+            if (slot >= 0) {
+                loaded[slot] = false;
+            }
+
+            version++;
+        }
+
+        void invalidateAll() {
+            Arrays.fill(loaded, false);
+
+            version++;
+        }
+
+        void beginReconcile() {
+            Arrays.fill(reconciled, false);
+        }
+
+        int reconcile(final long locationId, final long productId, final BigDecimal quantity,
+                final BigDecimal availableQuantity) {
+            int slot = find(locationId, productId);
+
+            if ((slot < 0) || !loaded[slot]) {
+                return 0;
+            }
+
+            reconciled[slot] = true;
+
+            if (!sameValue(quantities[slot], quantity) || !sameValue(availableQuantities[slot], availableQuantity)) {
+                put(locationId, productId, quantity, availableQuantity);
+
+                return 1;
+            }
+
+            return 0;
+        }
+
+        int endReconcile() {
+            int drifted = 0;
+
+            for (int slot = 0; slot < used.length; slot++) {
+                if (loaded[slot] && !reconciled[slot]) {
+                    if ((quantities[slot].signum() != 0) || (availableQuantities[slot].signum() != 0)) {
+                        quantities[slot] = BigDecimal.ZERO;
+                        availableQuantities[slot] = BigDecimal.ZERO;
+
+                        drifted++;
+                    }
+                }
+            }
+
+            return drifted;
+        }
+
+        private boolean sameValue(final BigDecimal value, final BigDecimal databaseValue) {
+            return value.compareTo(Objects.isNull(databaseValue) ? BigDecimal.ZERO : databaseValue) == 0;
+        }
+
+        private int find(final long locationId, final long productId) {
+            int mask = used.length - 1;
+
+            for (int slot = hash(locationId, productId) >>> 6 & mask; used[slot]; slot = (slot + 1) & mask) {
+                if ((locationIds[slot] == locationId) && (productIds[slot] == productId)) {
+                    return slot;
+                }
+            }
+
+            return -1;
+        }
+
+        private int findOrAllocate(final long locationId, final long productId) {
+            int slot = find(locationId, productId);
+
+            if (slot >= 0) {
+                return slot;
+            }
+
+            if ((size + 1) * 4 > used.length * 3) {
+                resize();
+            }
+
+            int mask = used.length - 1;
+
+            for (slot = hash(locationId, productId) >>> 6 & mask; used[slot]; slot = (slot + 1) & mask) {
+            }
+
+            used[slot] = true;
+            locationIds[slot] = locationId;
+            productIds[slot] = productId;
+
+            size++;
+
+            return slot;
+        }
+
+        private void resize() {
+            long[] oldLocationIds = locationIds;
+            long[] oldProductIds = productIds;
+            boolean[] oldUsed = used;
+            boolean[] oldLoaded = loaded;
+            BigDecimal[] oldQuantities = quantities;
+            BigDecimal[] oldAvailableQuantities = availableQuantities;
+
+            int capacity = oldUsed.length * 2;
+
+            locationIds = new long[capacity];
+            productIds = new long[capacity];
+            used = new boolean[capacity];
+            loaded = new boolean[capacity];
+            reconciled = new boolean[capacity];
+            quantities = new BigDecimal[capacity];
+            availableQuantities = new BigDecimal[capacity];
+            size = 0;
+            version++;
+
+            for (int slot = 0; slot < oldUsed.length; slot++) {
+                if (oldUsed[slot] && oldLoaded[slot]) {
+                    put(oldLocationIds[slot], oldProductIds[slot], oldQuantities[slot], oldAvailableQuantities[slot]);
+                }
+            }
+        }
+
+    }
+
+}
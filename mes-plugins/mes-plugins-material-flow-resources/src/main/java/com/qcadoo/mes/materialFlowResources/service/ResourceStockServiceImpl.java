@@ -35,11 +35,14 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockProjection resourceStockProjection;
+
     @Override
     public void createResourceStock(final Entity resource) {
         Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
         Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
-        Optional<ResourceStockDto> maybeStock = getResourceStockForProductAndLocation(product, location);
+        Optional<ResourceStockDto> maybeStock = findResourceStockForProductAndLocation(product, location);
         if (!maybeStock.isPresent()) {
             DataDefinition resourceStockDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                     MaterialFlowResourcesConstants.MODEL_RESOURCE_STOCK);
@@ -70,7 +73,28 @@ public class ResourceStockServiceImpl implements ResourceStockService {
         return quantity;
     }
 
-    private Optional<ResourceStockDto> getResourceStockForProductAndLocation(Entity product, Entity location) {
+    private Optional<ResourceStockDto> getResourceStockForProductAndLocation(final Entity product, final Entity location) {
+        if (resourceStockProjection.isEnabled()) {
+            return Optional.of(resourceStockProjection.getResourceStock(location.getId(), product.getId(), () -> {
+                Optional<ResourceStockDto> resourceStock = findResourceStockForProductAndLocation(product, location);
+
+                if (resourceStock.isPresent()) {
+                    return resourceStock.get();
+                }
+
+                ResourceStockDto emptyResourceStock = new ResourceStockDto();
+
+                emptyResourceStock.setQuantity(BigDecimal.ZERO);
+                emptyResourceStock.setAvailableQuantity(BigDecimal.ZERO);
+
+                return emptyResourceStock;
+            }));
+        }
+
+        return findResourceStockForProductAndLocation(product, location);
+    }
+
+    private Optional<ResourceStockDto> findResourceStockForProductAndLocation(Entity product, Entity location) {
         StringBuilder query = new StringBuilder();
         query.append("SELECT rs.* ");
         query.append("FROM materialflowresources_resourcestockdto rs ");
@@ -3,33 +3,32 @@ package com.qcadoo.mes.materialFlowResources.storagelocation.imports;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Row;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class ImportStorageLocationService {
 
-    private static final Integer HEADER_ROW_NUMBER = 0;
+    private static final int CHUNK_SIZE = 1000;
 
     private static final String PATH_TO_FILE = "positionsFile";
 
@@ -41,6 +40,9 @@ public class ImportStorageLocationService {
     @Autowired
     private FileService fileService;
 
+    @Autowired
+    private StorageLocationsPositionsFileReader storageLocationsPositionsFileReader;
+
     @Transactional
     public ImportStorageLocationsResult importPositionsFromFile(final Entity entity, final ViewDefinitionState view) {
         ImportStorageLocationsResult result = new ImportStorageLocationsResult();
@@ -52,69 +54,93 @@ public class ImportStorageLocationService {
             return result;
         }
 
-        Entity warehouse = entity.getBelongsToField(LOCATION);
-        warehouse.isValid();
+        Long warehouseId = entity.getBelongsToField(LOCATION).getId();
 
-        List<StorageLocationDto> storageLocations = findStorageLocationsForWarehouse(warehouse.getId());
+        List<StorageLocationDto> storageLocations = findStorageLocationsForWarehouse(warehouseId);
 
         Map<String, StorageLocationDto> storageLocationsByNumber = storageLocations.stream().collect(
                 Collectors.toMap(StorageLocationDto::getStorageLocationNumber, item -> item));
 
-        List<ImportedStorageLocationPosition> storageLocationsToUpdate = Lists.newArrayList();
+        Map<String, Long> productsIdByNumber = findProductsIdByNumber(positionsContainer.getPositions());
+
+        List<Map<String, Object>> storageLocationsToCreate = Lists.newArrayList();
+        Map<Long, Long> productsIdByStorageLocationId = Maps.newLinkedHashMap();
+        Set<String> notExistingProducts = Sets.newLinkedHashSet();
 
         for (ImportedStorageLocationPosition position : positionsContainer.getPositions()) {
-            if (storageLocationsByNumber.containsKey(position.getStorageLocation())) {
-                storageLocationsToUpdate.add(position);
-            } else {
-                createStorageLocation(result, warehouse.getId(), position);
-            }
-        }
+            Long productId = productsIdByNumber.get(position.getProduct());
 
-        Iterable<List<ImportedStorageLocationPosition>> subSets = Iterables.partition(storageLocationsToUpdate, 100);
+            if (StringUtils.isNotEmpty(position.getProduct()) && (productId == null)) {
+                notExistingProducts.add(position.getProduct());
+            }
 
-        subSets.forEach(list -> {
-            List<String> productsNumber = storageLocationsToUpdate.stream().map(s -> s.getProduct()).collect(Collectors.toList());
+            StorageLocationDto storageLocation = storageLocationsByNumber.get(position.getStorageLocation());
 
-            List<ProductDto> prods = findProductsByList(productsNumber);
-            fillResultWithNotExistingProducts(result, productsNumber, prods);
-            Map<String, Long> productsIdByNumber = prods.stream()
-                    .collect(Collectors.toMap(ProductDto::getProductNumber, ProductDto::getProductId));
-            for (ImportedStorageLocationPosition position : list) {
-                updateStorageLocation(storageLocationsByNumber.get(position.getStorageLocation()),
-                        productsIdByNumber.get(position.getProduct()));
+            if (storageLocation != null) {
+                productsIdByStorageLocationId.put(storageLocation.getStorageLocationId(), productId);
+            } else if ((productId != null) || StringUtils.isEmpty(position.getProduct())) {
+                storageLocationsToCreate.add(getStorageLocationParameters(warehouseId, position.getStorageLocation(), productId));
             }
+        }
 
-        });
+        notExistingProducts.forEach(result::addNotExcitingProduct);
 
         Set<String> storageLocationsToClearProduct = findStorageLocationsToClearProduct(storageLocationsByNumber.keySet(),
                 positionsContainer.getPositions());
 
-        storageLocationsToClearProduct.forEach(sl -> {
-            updateStorageLocation(storageLocationsByNumber.get(sl), null);
-        });
+        storageLocationsToClearProduct.forEach(sl -> productsIdByStorageLocationId.put(
+                storageLocationsByNumber.get(sl).getStorageLocationId(), null));
+
+        Map<Long, Long> changedProductsIdByStorageLocationId = Maps.newLinkedHashMap();
+        Set<Long> affectedProductIds = Sets.newHashSet();
+
+        for (StorageLocationDto storageLocation : storageLocations) {
+            Long storageLocationId = storageLocation.getStorageLocationId();
+
+            if (productsIdByStorageLocationId.containsKey(storageLocationId)) {
+                Long productId = productsIdByStorageLocationId.get(storageLocationId);
+
+                if (!Objects.equals(productId, storageLocation.getProductId())) {
+                    changedProductsIdByStorageLocationId.put(storageLocationId, productId);
+
+                    addIfNotNull(affectedProductIds, productId);
+                    addIfNotNull(affectedProductIds, storageLocation.getProductId());
+                }
+            }
+        }
+
+        storageLocationsToCreate.forEach(params -> addIfNotNull(affectedProductIds, (Long) params.get("product_id")));
+
+        createStorageLocations(storageLocationsToCreate);
+        updateStorageLocations(changedProductsIdByStorageLocationId);
+        updateStorageLocationInResource(warehouseId, affectedProductIds);
 
-        updateStorageLocationInResource(warehouse.getId());
         return result;
     }
 
-    private void fillResultWithNotExistingProducts(ImportStorageLocationsResult result, List<String> productsNumberFromFile,
-            List<ProductDto> existingProducts) {
-        Map<String, ProductDto> existingProductsByNumber = existingProducts.stream().collect(
-                Collectors.toMap(ProductDto::getProductNumber, item -> item));
-        productsNumberFromFile.stream().filter(productNumber -> !existingProductsByNumber.containsKey(productNumber))
-                .forEach(result::addNotExcitingProduct);
+    private void addIfNotNull(final Set<Long> ids, final Long id) {
+        if (id != null) {
+            ids.add(id);
+        }
     }
 
-    private int updateStorageLocationInResource(Long warehouse) {
-        StringBuilder query = new StringBuilder();
-        query.append("UPDATE materialflowresources_resource res ");
-        query.append("SET storagelocation_id= ");
-        query.append("(SELECT sl.id FROM materialflowresources_storagelocation sl WHERE sl.location_id =:location_id ");
-        query.append("AND sl.product_id=res.product_id AND active = true LIMIT 1) ");
-        query.append("WHERE res.location_id=:location_id");
-        Map<String, Object> parameters = new HashMap<String, Object>();
-        parameters.put("location_id", warehouse);
-        return jdbcTemplate.update(query.toString(), parameters);
+    private int updateStorageLocationInResource(final Long warehouse, final Set<Long> productIds) {
+        int updated = 0;
+
+        for (List<Long> productIdsChunk : Iterables.partition(productIds, CHUNK_SIZE)) {
+            StringBuilder query = new StringBuilder();
+            query.append("UPDATE materialflowresources_resource res ");
+            query.append("SET storagelocation_id= ");
+            query.append("(SELECT sl.id FROM materialflowresources_storagelocation sl WHERE sl.location_id =:location_id ");
+            query.append("AND sl.product_id=res.product_id AND active = true LIMIT 1) ");
+            query.append("WHERE res.location_id=:location_id AND res.product_id IN (:product_ids)");
+            Map<String, Object> parameters = new HashMap<String, Object>();
+            parameters.put("location_id", warehouse);
+            parameters.put("product_ids", productIdsChunk);
+            updated += jdbcTemplate.update(query.toString(), parameters);
+        }
+
+        return updated;
     }
 
     private Set<String> findStorageLocationsToClearProduct(Set<String> storageLocationsDB,
@@ -125,14 +151,43 @@ public class ImportStorageLocationService {
         return storageLocationsDB;
     }
 
-    private void updateStorageLocation(StorageLocationDto storageLocationDto, Long productId) {
-        String insert = "UPDATE materialflowresources_storagelocation SET product_id=:product_id WHERE id = :id";
+    private void updateStorageLocations(final Map<Long, Long> productsIdByStorageLocationId) {
+        for (List<Map.Entry<Long, Long>> chunk : Iterables.partition(productsIdByStorageLocationId.entrySet(), CHUNK_SIZE)) {
+            StringBuilder query = new StringBuilder();
+            Map<String, Object> parameters = new HashMap<String, Object>();
 
-        Map<String, Object> parameters = new HashMap<String, Object>();
-        parameters.put("product_id", productId);
-        parameters.put("id", storageLocationDto.getStorageLocationId());
+            query.append("UPDATE materialflowresources_storagelocation sl SET product_id = v.product_id FROM (VALUES ");
+
+            for (int index = 0; index < chunk.size(); index++) {
+                if (index > 0) {
+                    query.append(", ");
+                }
+
+                query.append("(CAST(:id").append(index).append(" AS bigint), CAST(:product_id").append(index)
+                        .append(" AS bigint))");
 
-        jdbcTemplate.update(insert, parameters);
+                parameters.put("id" + index, chunk.get(index).getKey());
+                parameters.put("product_id" + index, chunk.get(index).getValue());
+            }
+
+            query.append(") AS v (id, product_id) WHERE sl.id = v.id");
+
+            jdbcTemplate.update(query.toString(), parameters);
+        }
+    }
+
+    private Map<String, Long> findProductsIdByNumber(final List<ImportedStorageLocationPosition> positions) {
+        List<String> productsNumber = positions.stream().map(ImportedStorageLocationPosition::getProduct)
+                .filter(StringUtils::isNotEmpty).distinct().collect(Collectors.toList());
+
+        Map<String, Long> productsIdByNumber = Maps.newHashMap();
+
+        for (List<String> productsNumberChunk : Iterables.partition(productsNumber, CHUNK_SIZE)) {
+            findProductsByList(productsNumberChunk).forEach(
+                    product -> productsIdByNumber.put(product.getProductNumber(), product.getProductId()));
+        }
+
+        return productsIdByNumber;
     }
 
     private List<ProductDto> findProductsByList(List<String> list) {
@@ -144,58 +199,36 @@ public class ImportStorageLocationService {
                 ProductDto.class));
     }
 
-    private void createStorageLocation(ImportStorageLocationsResult result, Long id, ImportedStorageLocationPosition position) {
-        String insert = "INSERT INTO materialflowresources_storagelocation(number, location_id, product_id, active) "
-                + "VALUES (:number, :location_id, :product_id, :active);";
-
+    private Map<String, Object> getStorageLocationParameters(final Long warehouseId, final String number, final Long productId) {
         Map<String, Object> parameters = new HashMap<String, Object>();
 
-        if(StringUtils.isNotEmpty(position.getProduct())) {
-            String queryProductByNumber = "SELECT id FROM basic_product WHERE number = :number";
-            Map<String, Object> queryProductByNumberParameters = new HashMap<String, Object>();
-            queryProductByNumberParameters.put("number", position.getProduct());
-            try {
-                Long productId = jdbcTemplate.queryForObject(queryProductByNumber, queryProductByNumberParameters, Long.class);
-                parameters.put("product_id", productId);
-            } catch (EmptyResultDataAccessException ex) {
-                result.addNotExcitingProduct(position.getProduct());
-                return;
-            }
+        parameters.put("product_id", productId);
+        parameters.put("number", number);
+        parameters.put("location_id", warehouseId);
+        parameters.put("active", true);
+
+        return parameters;
+    }
 
-        } else {
-            result.addNotExcitingProduct(position.getProduct());
-            parameters.put("product_id", null);
+    private void createStorageLocations(final List<Map<String, Object>> storageLocationsParameters) {
+        if (storageLocationsParameters.isEmpty()) {
+            return;
         }
 
-        parameters.put("number", position.getStorageLocation());
-        parameters.put("location_id", id);
-        parameters.put("active", true);
+        String insert = "INSERT INTO materialflowresources_storagelocation(number, location_id, product_id, active) "
+                + "VALUES (:number, :location_id, :product_id, :active)";
 
-        jdbcTemplate.update(insert, parameters);
+        jdbcTemplate.batchUpdate(insert, storageLocationsParameters.stream()
+                .map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new));
     }
 
     private ImportedStorageLocationsPositionsContainer importPositionsToContainer(final Entity entity,
             final ViewDefinitionState view) {
         ImportedStorageLocationsPositionsContainer positionsContainer = new ImportedStorageLocationsPositionsContainer();
         String path = entity.getStringField(PATH_TO_FILE);
-        try {
-
-            InputStream stream = fileService.getInputStream(path);
-            HSSFWorkbook workbook = null;
-            workbook = new HSSFWorkbook(stream);
-
-            HSSFSheet sheet = workbook.getSheetAt(0);
-
-            Iterator<Row> rowIterator = sheet.iterator();
-            while (rowIterator.hasNext()) {
-                Row row = rowIterator.next();
-
-                if (row.getRowNum() > HEADER_ROW_NUMBER) {
-                    positionsContainer.addPosition(row);
-                }
-
-            }
 
+        try (InputStream stream = fileService.getInputStream(path)) {
+            storageLocationsPositionsFileReader.read(path, stream, positionsContainer);
         } catch (Exception e) {
             positionsContainer.setImportedPositions(false);
             view.addMessage("materialFlowResources.importStorageLocationList.importPositions.import.wrongXlsFileStructure",
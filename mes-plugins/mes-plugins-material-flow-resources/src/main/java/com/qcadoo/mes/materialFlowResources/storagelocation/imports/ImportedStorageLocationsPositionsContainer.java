@@ -2,9 +2,6 @@ package com.qcadoo.mes.materialFlowResources.storagelocation.imports;
 
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.apache.poi.ss.usermodel.Row;
 
 import java.util.List;
 
@@ -14,26 +11,15 @@ public class ImportedStorageLocationsPositionsContainer {
 
     private final List<ImportedStorageLocationPosition> positions = Lists.newArrayList();
 
-    public void addPosition(Row row) {
-        Cell codeCell = row.getCell(StorageLocationsPositionsXlsFile.A.getColumnNumber());
-        if (codeCell == null) {
-            return;
-        }
-
-        DataFormatter formatter = new DataFormatter();
-        String codeCellValue = formatter.formatCellValue(codeCell);
-        if (StringUtils.isEmpty(codeCellValue)) {
+    public void addPosition(final String storageLocation, final String product) {
+        if (StringUtils.isEmpty(storageLocation)) {
             return;
         }
 
         ImportedStorageLocationPosition position = new ImportedStorageLocationPosition();
 
-        position = position.withStorageLocation(codeCellValue);
-
-        Cell productCell = row.getCell(StorageLocationsPositionsXlsFile.B.getColumnNumber());
-        String productCellValue = formatter.formatCellValue(productCell);
-        
-        position = position.withProduct(productCellValue);
+        position = position.withStorageLocation(storageLocation);
+        position = position.withProduct(StringUtils.defaultString(product));
 
         positions.add(position);
     }
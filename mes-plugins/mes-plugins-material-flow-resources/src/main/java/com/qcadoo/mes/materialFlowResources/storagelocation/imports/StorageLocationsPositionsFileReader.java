@@ -0,0 +1,383 @@
+package com.qcadoo.mes.materialFlowResources.storagelocation.imports;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads storage place and product numbers from the first sheet of an .xls or .xlsx file, or from a .csv file, without building
+ * the workbook in memory. Rows are passed to the container one by one, the header row is skipped.
+ */
+@Service
+public class StorageLocationsPositionsFileReader {
+
+    private static final int HEADER_ROW_NUMBER = 0;
+
+    private static final int STORAGE_LOCATION_COLUMN = StorageLocationsPositionsXlsFile.A.getColumnNumber();
+
+    private static final int PRODUCT_COLUMN = StorageLocationsPositionsXlsFile.B.getColumnNumber();
+
+    @Value("${exportedCsvSeparator:','}")
+    private String csvSeparator;
+
+    public void read(final String path, final InputStream stream, final ImportedStorageLocationsPositionsContainer container)
+            throws Exception {
+        String extension = Files.getFileExtension(path).toLowerCase();
+
+        if ("xlsx".equals(extension)) {
+            readXlsx(stream, container);
+        } else if ("csv".equals(extension)) {
+            readCsv(stream, container);
+        } else {
+            readXls(stream, container);
+        }
+    }
+
+    private void readXls(final InputStream stream, final ImportedStorageLocationsPositionsContainer container)
+            throws Exception {
+        XlsSheetListener sheetListener = new XlsSheetListener(container);
+        FormatTrackingHSSFListener formatListener = new FormatTrackingHSSFListener(sheetListener);
+
+        sheetListener.setFormatListener(formatListener);
+
+        HSSFRequest request = new HSSFRequest();
+
+        request.addListenerForAllRecords(formatListener);
+
+        new HSSFEventFactory().processWorkbookEvents(request, new POIFSFileSystem(stream));
+
+        sheetListener.endRow();
+    }
+
+    private void readXlsx(final InputStream stream, final ImportedStorageLocationsPositionsContainer container)
+            throws Exception {
+        OPCPackage opcPackage = OPCPackage.open(stream);
+
+        try {
+            XSSFReader reader = new XSSFReader(opcPackage);
+            Iterator<InputStream> sheets = reader.getSheetsData();
+
+            if (!sheets.hasNext()) {
+                return;
+            }
+
+            SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+
+            parserFactory.setNamespaceAware(true);
+
+            XMLReader xmlReader = parserFactory.newSAXParser().getXMLReader();
+
+            xmlReader.setContentHandler(new XlsxSheetHandler(new ReadOnlySharedStringsTable(opcPackage), reader.getStylesTable(),
+                    container));
+
+            try (InputStream sheet = sheets.next()) {
+                xmlReader.parse(new InputSource(sheet));
+            }
+        } finally {
+            opcPackage.revert();
+        }
+    }
+
+    private void readCsv(final InputStream stream, final ImportedStorageLocationsPositionsContainer container)
+            throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+        char separator = csvSeparator.isEmpty() ? ',' : csvSeparator.charAt(0);
+
+        String line;
+        int rowNumber = 0;
+
+        while ((line = reader.readLine()) != null) {
+            if (rowNumber++ > HEADER_ROW_NUMBER) {
+                List<String> values = parseCsvLine(StringUtils.removeStart(line, "\uFEFF"), separator);
+
+                container.addPosition(getValue(values, STORAGE_LOCATION_COLUMN), getValue(values, PRODUCT_COLUMN));
+            }
+        }
+    }
+
+    private List<String> parseCsvLine(final String line, final char separator) {
+        List<String> values = Lists.newArrayList();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int index = 0; index < line.length(); index++) {
+            char character = line.charAt(index);
+
+            if (quoted) {
+                if (character != '"') {
+                    value.append(character);
+                } else if ((index + 1 < line.length()) && (line.charAt(index + 1) == '"')) {
+                    value.append('"');
+                    index++;
+                } else {
+                    quoted = false;
+                }
+            } else if (character == '"') {
+                quoted = true;
+            } else if (character == separator) {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(character);
+            }
+        }
+
+        values.add(value.toString().trim());
+
+        return values;
+    }
+
+    private String getValue(final List<String> values, final int column) {
+        return (column < values.size()) ? values.get(column) : null;
+    }
+
+    /**
+     * Collects the two imported columns of the first sheet from HSSF records, which arrive row by row.
+     */
+    private static class XlsSheetListener implements HSSFListener {
+
+        private final ImportedStorageLocationsPositionsContainer container;
+
+        private FormatTrackingHSSFListener formatListener;
+
+        private SSTRecord sstRecord;
+
+        private int sheetIndex = -1;
+
+        private int currentRow = -1;
+
+        private int formulaRow;
+
+        private int formulaColumn;
+
+        private boolean waitingForFormulaString;
+
+        private String storageLocation;
+
+        private String product;
+
+        XlsSheetListener(final ImportedStorageLocationsPositionsContainer container) {
+            this.container = container;
+        }
+
+        void setFormatListener(final FormatTrackingHSSFListener formatListener) {
+            this.formatListener = formatListener;
+        }
+
+        @Override
+        public void processRecord(final Record record) {
+            if (record instanceof BOFRecord) {
+                if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKSHEET) {
+                    sheetIndex++;
+                }
+            } else if (record instanceof SSTRecord) {
+                sstRecord = (SSTRecord) record;
+            } else if (sheetIndex == 0) {
+                processSheetRecord(record);
+            }
+        }
+
+        private void processSheetRecord(final Record record) {
+            if (record instanceof EOFRecord) {
+                endRow();
+            } else if (record instanceof StringRecord) {
+                if (waitingForFormulaString) {
+                    setValue(formulaRow, formulaColumn, ((StringRecord) record).getString());
+
+                    waitingForFormulaString = false;
+                }
+            } else if (record instanceof FormulaRecord) {
+                FormulaRecord formulaRecord = (FormulaRecord) record;
+
+                if (formulaRecord.hasCachedResultString()) {
+                    formulaRow = formulaRecord.getRow();
+                    formulaColumn = formulaRecord.getColumn();
+                    waitingForFormulaString = true;
+                } else {
+                    setValue(formulaRecord, formatListener.formatNumberDateCell(formulaRecord));
+                }
+            } else if (record instanceof LabelSSTRecord) {
+                LabelSSTRecord labelSSTRecord = (LabelSSTRecord) record;
+
+                setValue(labelSSTRecord, sstRecord.getString(labelSSTRecord.getSSTIndex()).getString());
+            } else if (record instanceof LabelRecord) {
+                setValue((LabelRecord) record, ((LabelRecord) record).getValue());
+            } else if (record instanceof NumberRecord) {
+                setValue((NumberRecord) record, formatListener.formatNumberDateCell((NumberRecord) record));
+            }
+        }
+
+        private void setValue(final CellValueRecordInterface cell, final String value) {
+            setValue(cell.getRow(), cell.getColumn(), value);
+        }
+
+        private void setValue(final int row, final int column, final String value) {
+            if (row != currentRow) {
+                endRow();
+
+                currentRow = row;
+            }
+
+            if (column == STORAGE_LOCATION_COLUMN) {
+                storageLocation = value;
+            } else if (column == PRODUCT_COLUMN) {
+                product = value;
+            }
+        }
+
+        void endRow() {
+            if (currentRow > HEADER_ROW_NUMBER) {
+                container.addPosition(storageLocation, product);
+            }
+
+            currentRow = -1;
+            storageLocation = null;
+            product = null;
+        }
+
+    }
+
+    /**
+     * Collects the two imported columns from the sheet XML, formatting values the same way {@link DataFormatter} formats
+     * cells of a loaded workbook.
+     */
+    private static class XlsxSheetHandler extends DefaultHandler {
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+
+        private final StylesTable styles;
+
+        private final ImportedStorageLocationsPositionsContainer container;
+
+        private final DataFormatter formatter = new DataFormatter();
+
+        private final StringBuilder value = new StringBuilder();
+
+        private int currentRow = -1;
+
+        private int column = -1;
+
+        private String cellType;
+
+        private String cellStyle;
+
+        private boolean readingValue;
+
+        private String storageLocation;
+
+        private String product;
+
+        XlsxSheetHandler(final ReadOnlySharedStringsTable sharedStrings, final StylesTable styles,
+                final ImportedStorageLocationsPositionsContainer container) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.container = container;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String name, final Attributes attributes) {
+            if ("row".equals(localName)) {
+                String rowReference = attributes.getValue("r");
+
+                currentRow = (rowReference == null) ? currentRow + 1 : Integer.parseInt(rowReference) - 1;
+                column = -1;
+                storageLocation = null;
+                product = null;
+            } else if ("c".equals(localName)) {
+                String cellReference = attributes.getValue("r");
+
+                column = (cellReference == null) ? column + 1 : new CellReference(cellReference).getCol();
+                cellType = attributes.getValue("t");
+                cellStyle = attributes.getValue("s");
+                value.setLength(0);
+            } else if ("v".equals(localName) || "t".equals(localName)) {
+                readingValue = true;
+            }
+        }
+
+        @Override
+        public void characters(final char[] characters, final int start, final int length) {
+            if (readingValue) {
+                value.append(characters, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String name) {
+            if ("v".equals(localName) || "t".equals(localName)) {
+                readingValue = false;
+            } else if ("c".equals(localName)) {
+                if (column == STORAGE_LOCATION_COLUMN) {
+                    storageLocation = formatValue();
+                } else if (column == PRODUCT_COLUMN) {
+                    product = formatValue();
+                }
+            } else if ("row".equals(localName) && (currentRow > HEADER_ROW_NUMBER)) {
+                container.addPosition(storageLocation, product);
+            }
+        }
+
+        private String formatValue() {
+            String rawValue = value.toString();
+
+            if (rawValue.isEmpty()) {
+                return rawValue;
+            }
+
+            if ("s".equals(cellType)) {
+                return String.valueOf(sharedStrings.getEntryAt(Integer.parseInt(rawValue)));
+            } else if ("b".equals(cellType)) {
+                return "0".equals(rawValue) ? "FALSE" : "TRUE";
+            } else if ((cellType == null) || "n".equals(cellType)) {
+                XSSFCellStyle style = (cellStyle == null) ? null : styles.getStyleAt(Integer.parseInt(cellStyle));
+
+                if (style != null) {
+                    return formatter.formatRawCellContents(Double.parseDouble(rawValue), style.getDataFormat(),
+                            style.getDataFormatString());
+                }
+
+                return formatter.formatRawCellContents(Double.parseDouble(rawValue), 0, "General");
+            }
+
+            return rawValue;
+        }
+
+    }
+
+}
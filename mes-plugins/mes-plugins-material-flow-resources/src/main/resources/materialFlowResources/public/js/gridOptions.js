@@ -1304,6 +1304,13 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
 
         $("#window\\.positionsGridTab").resize($scope.resize);
 
+        // boundary rows of last loaded page, so neighbouring page can be sought instead of skipped to with offset
+        var keyset = null;
+
+        function getKeysetKey(postData) {
+            return JSON.stringify($.extend({}, postData, {page: null, nd: null}));
+        }
+
         var gridEditOptions = {
             keys: true,
             url: '../../rest/rest/documentPositions.html',
@@ -1702,6 +1709,31 @@ myApp.controller('GridController', ['$scope', '$window', '$http', function ($sco
                 }
             ],
             pager: "#jqGridPager",
+            serializeGridData: function (postData) {
+                var data = $.extend({}, postData);
+
+                if (keyset && keyset.key === getKeysetKey(postData)) {
+                    if (Number(postData.page) === keyset.page + 1) {
+                        data.after = keyset.lastId;
+                    } else if (Number(postData.page) === keyset.page - 1) {
+                        data.before = keyset.firstId;
+                    }
+                }
+
+                return data;
+            },
+            loadComplete: function (data) {
+                if (data && data.rows && data.rows.length) {
+                    keyset = {
+                        key: getKeysetKey($(this).getGridParam('postData')),
+                        page: Number(data.page),
+                        firstId: data.rows[0].id,
+                        lastId: data.rows[data.rows.length - 1].id
+                    };
+                } else {
+                    keyset = null;
+                }
+            },
             gridComplete: function () {
                 var grid = $('#grid');
                 var rows = grid.jqGrid('getDataIDs');
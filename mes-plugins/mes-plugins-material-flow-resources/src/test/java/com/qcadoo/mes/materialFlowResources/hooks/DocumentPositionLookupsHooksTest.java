@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.hooks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.materialFlowResources.DocumentPositionLookupsCache;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+public class DocumentPositionLookupsHooksTest {
+
+    private static final Long L_DOCUMENT_ID = 1L;
+
+    private static final String L_KEY = "storageLocation";
+
+    private DocumentPositionLookupsHooks documentPositionLookupsHooks;
+
+    private DocumentPositionLookupsCache documentPositionLookupsCache;
+
+    @Mock
+    private DataDefinition dataDefinition;
+
+    @Mock
+    private Entity entity;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        documentPositionLookupsHooks = new DocumentPositionLookupsHooks();
+        documentPositionLookupsCache = new DocumentPositionLookupsCache();
+
+        ReflectionTestUtils.setField(documentPositionLookupsHooks, "documentPositionLookupsCache", documentPositionLookupsCache);
+
+        documentPositionLookupsCache.get(L_DOCUMENT_ID, L_KEY, () -> 10L);
+    }
+
+    @Test
+    public void shouldInvalidateLookupsOnDelete() {
+        // when
+        boolean result = documentPositionLookupsHooks.onDelete(dataDefinition, entity);
+
+        // then
+        assertTrue(result);
+        assertEquals(Long.valueOf(20L), documentPositionLookupsCache.get(L_DOCUMENT_ID, L_KEY, () -> 20L));
+    }
+
+    @Test
+    public void shouldInvalidateLookupsOnUpdate() {
+        // given
+        given(entity.getId()).willReturn(10L);
+
+        // when
+        documentPositionLookupsHooks.onSave(dataDefinition, entity);
+
+        // then
+        assertEquals(Long.valueOf(20L), documentPositionLookupsCache.get(L_DOCUMENT_ID, L_KEY, () -> 20L));
+    }
+
+    @Test
+    public void shouldKeepLookupsOnCreate() {
+        // given
+        given(entity.getId()).willReturn(null);
+
+        // when
+        documentPositionLookupsHooks.onSave(dataDefinition, entity);
+
+        // then
+        assertEquals(Long.valueOf(10L), documentPositionLookupsCache.get(L_DOCUMENT_ID, L_KEY, () -> 20L));
+    }
+
+}
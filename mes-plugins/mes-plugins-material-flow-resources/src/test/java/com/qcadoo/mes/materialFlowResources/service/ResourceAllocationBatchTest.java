@@ -0,0 +1,161 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+
+public class ResourceAllocationBatchTest {
+
+    private Entity product, position, additionalCode;
+
+    @Before
+    public void init() {
+        product = mockEntity(1L);
+        position = mockEntity(2L);
+        additionalCode = mockEntity(3L);
+
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn(null);
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(BigDecimal.ONE);
+    }
+
+    @Test
+    public void shouldReturnResourcesInFifoOrder() {
+        // given
+        Entity older = mockResource(11L, new Date(1000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+        Entity newer = mockResource(12L, new Date(2000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(Lists.newArrayList(newer, older), WarehouseAlgorithm.FIFO);
+
+        // when
+        List<Entity> resources = batch.getResources(product, position, null, false);
+
+        // then
+        assertEquals(Lists.newArrayList(older, newer), resources);
+    }
+
+    @Test
+    public void shouldReturnResourcesWithAdditionalCodeFirst() {
+        // given
+        Entity older = mockResource(11L, new Date(1000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+        Entity newer = mockResource(12L, new Date(2000L), null, BigDecimal.TEN, BigDecimal.ONE, additionalCode);
+
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(Lists.newArrayList(older, newer), WarehouseAlgorithm.FIFO);
+
+        // when
+        List<Entity> resources = batch.getResources(product, position, additionalCode, false);
+
+        // then
+        assertEquals(Lists.newArrayList(newer, older), resources);
+    }
+
+    @Test
+    public void shouldPutNullExpirationDatesLastInFefoOrder() {
+        // given
+        Entity withoutDate = mockResource(11L, new Date(1000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+        Entity expiring = mockResource(12L, new Date(2000L), new Date(5000L), BigDecimal.TEN, BigDecimal.ONE, null);
+        Entity expiringSmaller = mockResource(13L, new Date(3000L), new Date(5000L), BigDecimal.ONE, BigDecimal.ONE, null);
+
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(Lists.newArrayList(withoutDate, expiring, expiringSmaller),
+                WarehouseAlgorithm.FEFO);
+
+        // when
+        List<Entity> resources = batch.getResources(product, position, null, false);
+
+        // then
+        assertEquals(Lists.newArrayList(expiringSmaller, expiring, withoutDate), resources);
+    }
+
+    @Test
+    public void shouldAppendResourcesWithOtherConversionOnlyWhenIrrespectiveOfConversion() {
+        // given
+        Entity sameConversion = mockResource(11L, new Date(2000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+        Entity otherConversion = mockResource(12L, new Date(1000L), null, BigDecimal.TEN, BigDecimal.TEN, null);
+
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(Lists.newArrayList(sameConversion, otherConversion),
+                WarehouseAlgorithm.FIFO);
+
+        // when
+        List<Entity> resources = batch.getResources(product, position, null, false);
+        List<Entity> resourcesIrrespectiveOfConversion = batch.getResources(product, position, null, true);
+
+        // then
+        assertEquals(Lists.newArrayList(sameConversion), resources);
+        assertEquals(Lists.newArrayList(sameConversion, otherConversion), resourcesIrrespectiveOfConversion);
+    }
+
+    @Test
+    public void shouldSkipDeletedResources() {
+        // given
+        Entity resource = mockResource(11L, new Date(1000L), null, BigDecimal.TEN, BigDecimal.ONE, null);
+
+        ResourceAllocationBatch batch = new ResourceAllocationBatch(Lists.newArrayList(resource), WarehouseAlgorithm.FIFO);
+
+        // when
+        batch.markDeleted(resource);
+
+        // then
+        assertTrue(batch.getResources(product, position, null, false).isEmpty());
+        assertTrue(batch.getDeletedResources().contains(11L));
+    }
+
+    private Entity mockResource(final Long id, final Date time, final Date expirationDate, final BigDecimal availableQuantity,
+            final BigDecimal conversion, final Entity resourceAdditionalCode) {
+        Entity resource = mockEntity(id);
+
+        given(resource.getBelongsToField(ResourceFields.PRODUCT)).willReturn(product);
+        given(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE)).willReturn(resourceAdditionalCode);
+        given(resource.getDateField(ResourceFields.TIME)).willReturn(time);
+        given(resource.getDateField(ResourceFields.EXPIRATION_DATE)).willReturn(expirationDate);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(availableQuantity);
+        given(resource.getDecimalField(ResourceFields.CONVERSION)).willReturn(conversion);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(id);
+
+        return entity;
+    }
+
+}
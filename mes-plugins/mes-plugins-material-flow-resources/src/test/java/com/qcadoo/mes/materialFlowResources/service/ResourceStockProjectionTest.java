@@ -0,0 +1,136 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+
+public class ResourceStockProjectionTest {
+
+    private ResourceStockProjection resourceStockProjection;
+
+    private AtomicInteger loads;
+
+    @Before
+    public void init() {
+        resourceStockProjection = new ResourceStockProjection();
+        loads = new AtomicInteger();
+
+        ReflectionTestUtils.setField(resourceStockProjection, "enabled", true);
+    }
+
+    @Test
+    public void shouldLoadResourceStockOnlyOnce() {
+        // when
+        resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+        ResourceStockDto resourceStock = resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+
+        // then
+        assertEquals(1, loads.get());
+        assertEquals(0, new BigDecimal("10").compareTo(resourceStock.getQuantity()));
+        assertEquals(0, new BigDecimal("8").compareTo(resourceStock.getAvailableQuantity()));
+    }
+
+    @Test
+    public void shouldApplyQuantityChangeToLoadedResourceStock() {
+        // given
+        resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+
+        // when
+        resourceStockProjection.applyQuantityChange(1L, 2L, new BigDecimal("-3"));
+
+        ResourceStockDto resourceStock = resourceStockProjection.getResourceStock(1L, 2L, loader("0", "0"));
+
+        // then
+        assertEquals(1, loads.get());
+        assertEquals(0, new BigDecimal("7").compareTo(resourceStock.getQuantity()));
+        assertEquals(0, new BigDecimal("5").compareTo(resourceStock.getAvailableQuantity()));
+    }
+
+    @Test
+    public void shouldReloadInvalidatedResourceStock() {
+        // given
+        resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+
+        // when
+        resourceStockProjection.invalidate(1L, 2L);
+
+        ResourceStockDto resourceStock = resourceStockProjection.getResourceStock(1L, 2L, loader("4", "4"));
+
+        // then
+        assertEquals(2, loads.get());
+        assertEquals(0, new BigDecimal("4").compareTo(resourceStock.getQuantity()));
+    }
+
+    @Test
+    public void shouldKeepDifferentKeysApart() {
+        // given
+        for (long productId = 1; productId <= 1000; productId++) {
+            resourceStockProjection.getResourceStock(1L, productId, loader(String.valueOf(productId), "0"));
+        }
+
+        // when
+        ResourceStockDto resourceStock = resourceStockProjection.getResourceStock(1L, 500L, loader("0", "0"));
+
+        // then
+        assertEquals(1000, loads.get());
+        assertEquals(0, new BigDecimal("500").compareTo(resourceStock.getQuantity()));
+    }
+
+    @Test
+    public void shouldAlwaysLoadWhenDisabled() {
+        // given
+        ReflectionTestUtils.setField(resourceStockProjection, "enabled", false);
+
+        // when
+        resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+        resourceStockProjection.getResourceStock(1L, 2L, loader("10", "8"));
+
+        // then
+        assertEquals(2, loads.get());
+    }
+
+    private Supplier<ResourceStockDto> loader(final String quantity, final String availableQuantity) {
+        return () -> {
+            loads.incrementAndGet();
+
+            ResourceStockDto resourceStock = new ResourceStockDto();
+
+            resourceStock.setQuantity(new BigDecimal(quantity));
+            resourceStock.setAvailableQuantity(new BigDecimal(availableQuantity));
+
+            return resourceStock;
+        };
+    }
+
+}
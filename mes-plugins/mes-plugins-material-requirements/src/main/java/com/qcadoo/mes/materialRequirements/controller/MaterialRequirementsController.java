@@ -0,0 +1,131 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialRequirements.controller;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Objects;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
+import com.qcadoo.mes.materialRequirements.print.NeededProduct;
+import com.qcadoo.mes.materialRequirements.print.NeededProductsService;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+@Controller
+@RequestMapping("/materialRequirements")
+public class MaterialRequirementsController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MaterialRequirementsController.class);
+
+    private static final String L_QUOTE = "\"";
+
+    private static final String L_NEW_LINE = "\n";
+
+    @Value("${exportedCsvSeparator:','}")
+    private String exportedCsvSeparator;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NeededProductsService neededProductsService;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private NumberService numberService;
+
+    @RequestMapping(value = "/materialRequirement.csv", method = RequestMethod.GET)
+    public final void printMaterialRequirementCsv(@RequestParam("id") final Long materialRequirementId,
+            final HttpServletResponse response) {
+        Entity materialRequirement = dataDefinitionService.get(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT).get(materialRequirementId);
+
+        if (Objects.isNull(materialRequirement)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        Locale locale = LocaleContextHolder.getLocale();
+
+        response.setContentType("text/csv;charset=UTF-8");
+        response.setHeader("Content-disposition", "attachment; filename="
+                + translationService.translate("materialRequirements.materialRequirement.report.fileName", locale) + "_"
+                + materialRequirement.getStringField(MaterialRequirementFields.NUMBER) + ".csv");
+
+        try {
+            BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),
+                    StandardCharsets.UTF_8));
+
+            appendRow(bufferedWriter, translationService.translate("basic.product.number.label", locale),
+                    translationService.translate("basic.product.name.label", locale),
+                    translationService.translate("technologies.technologyOperationComponent.quantity.label", locale),
+                    translationService.translate("basic.product.unit.label", locale));
+
+            for (NeededProduct neededProduct : neededProductsService.getNeededProducts(materialRequirement)) {
+                appendRow(bufferedWriter, neededProduct.getNumber(), neededProduct.getName(),
+                        numberService.format(neededProduct.getQuantity()), neededProduct.getUnit());
+            }
+
+            bufferedWriter.flush();
+        } catch (IOException e) {
+            LOG.error("Problem with printing material requirement - " + e.getMessage());
+        }
+    }
+
+    private void appendRow(final BufferedWriter bufferedWriter, final String... values) throws IOException {
+        for (int index = 0; index < values.length; index++) {
+            if (index > 0) {
+                bufferedWriter.append(exportedCsvSeparator);
+            }
+
+            bufferedWriter.append(L_QUOTE).append(StringUtils.replace(values[index], L_QUOTE, L_QUOTE + L_QUOTE)).append(L_QUOTE);
+        }
+
+        bufferedWriter.append(L_NEW_LINE);
+    }
+
+}
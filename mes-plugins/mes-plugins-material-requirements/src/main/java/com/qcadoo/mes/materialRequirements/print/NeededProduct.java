@@ -0,0 +1,69 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialRequirements.print;
+
+import java.math.BigDecimal;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Product needed by material requirement, with the product fields printed in its documents.
+ */
+public final class NeededProduct {
+
+    private final String number;
+
+    private final String name;
+
+    private final String unit;
+
+    private final BigDecimal quantity;
+
+    NeededProduct(final Entity product, final BigDecimal quantity) {
+        this.number = product.getStringField(ProductFields.NUMBER);
+        this.name = product.getStringField(ProductFields.NAME);
+        this.unit = StringUtils.defaultString(product.getStringField(ProductFields.UNIT));
+        this.quantity = quantity;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialRequirements.print;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Calculates products needed by material requirement for its documents.
+ * 
+ * Products are loaded in batches instead of one by one, and the result is kept until the end of transaction, so PDF and XLS
+ * documents generated together don't calculate quantities twice.
+ */
+@Service
+public class NeededProductsService {
+
+    private static final int L_PRODUCTS_BATCH_SIZE = 1000;
+
+    private final Object neededProductsKey = new Object();
+
+    @Autowired
+    private BasicProductionCountingService basicProductionCountingService;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    public List<NeededProduct> getNeededProducts(final Entity materialRequirement) {
+        Map<Long, List<NeededProduct>> neededProductsByMaterialRequirement = getNeededProductsByMaterialRequirement();
+
+        List<NeededProduct> neededProducts = neededProductsByMaterialRequirement.get(materialRequirement.getId());
+
+        if (Objects.isNull(neededProducts)) {
+            neededProducts = calculateNeededProducts(materialRequirement);
+
+            neededProductsByMaterialRequirement.put(materialRequirement.getId(), neededProducts);
+        }
+
+        return neededProducts;
+    }
+
+    private List<NeededProduct> calculateNeededProducts(final Entity materialRequirement) {
+        List<Entity> orders = materialRequirement.getManyToManyField(MaterialRequirementFields.ORDERS);
+        MrpAlgorithm algorithm = MrpAlgorithm.parseString(materialRequirement
+                .getStringField(MaterialRequirementFields.MRP_ALGORITHM));
+
+        Map<Long, BigDecimal> neededProductQuantities = basicProductionCountingService.getNeededProductQuantities(orders,
+                algorithm);
+
+        Map<Long, Entity> products = getProducts(Lists.newArrayList(neededProductQuantities.keySet()));
+
+        List<NeededProduct> neededProducts = Lists.newArrayListWithCapacity(neededProductQuantities.size());
+
+        for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
+            neededProducts.add(new NeededProduct(products.get(neededProductQuantity.getKey()), neededProductQuantity.getValue()));
+        }
+
+        return Collections.unmodifiableList(neededProducts);
+    }
+
+    private Map<Long, Entity> getProducts(final List<Long> productIds) {
+        Map<Long, Entity> products = Maps.newHashMapWithExpectedSize(productIds.size());
+
+        for (List<Long> batchIds : Lists.partition(productIds, L_PRODUCTS_BATCH_SIZE)) {
+            for (Entity product : dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT).find()
+                    .add(SearchRestrictions.in("id", batchIds)).list().getEntities()) {
+                products.put(product.getId(), product);
+            }
+        }
+
+        return products;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, List<NeededProduct>> getNeededProductsByMaterialRequirement() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return Maps.newHashMap();
+        }
+
+        Map<Long, List<NeededProduct>> neededProducts = (Map<Long, List<NeededProduct>>) TransactionSynchronizationManager
+                .getResource(neededProductsKey);
+
+        if (Objects.isNull(neededProducts)) {
+            neededProducts = Maps.newHashMap();
+
+            TransactionSynchronizationManager.bindResource(neededProductsKey, neededProducts);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(neededProductsKey);
+                }
+
+            });
+        }
+
+        return neededProducts;
+    }
+
+}
@@ -23,11 +23,7 @@
  */
 package com.qcadoo.mes.materialRequirements.print.xls;
 
-import java.math.BigDecimal;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.hssf.usermodel.HSSFRow;
@@ -36,11 +32,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.localization.api.TranslationService;
-import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
-import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
-import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.materialRequirements.print.NeededProduct;
+import com.qcadoo.mes.materialRequirements.print.NeededProductsService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.report.api.xls.XlsDocumentService;
@@ -59,10 +52,7 @@ public final class MaterialRequirementXlsService extends XlsDocumentService {
     private XlsHelper xlsHelper;
 
     @Autowired
-    private ProductQuantitiesService productQuantitiesService;
-
-    @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
+    private NeededProductsService neededProductsService;
 
     @Override
     protected void addHeader(final HSSFSheet sheet, final Locale locale, final Entity materialRequirement) {
@@ -84,26 +74,13 @@ public final class MaterialRequirementXlsService extends XlsDocumentService {
     @Override
     protected void addSeries(final HSSFSheet sheet, final Entity materialRequirement) {
         int rowNum = 1;
-        List<Entity> orders = materialRequirement.getManyToManyField(MaterialRequirementFields.ORDERS);
-        MrpAlgorithm algorithm = MrpAlgorithm.parseString(materialRequirement
-                .getStringField(MaterialRequirementFields.MRP_ALGORITHM));
-
-        Map<Long, BigDecimal> neededProductQuantities = basicProductionCountingService.getNeededProductQuantities(orders,
-                algorithm);
-
-        for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
 
+        for (NeededProduct neededProduct : neededProductsService.getNeededProducts(materialRequirement)) {
             HSSFRow row = sheet.createRow(rowNum++);
-            row.createCell(0).setCellValue(product.getStringField(ProductFields.NUMBER));
-            row.createCell(1).setCellValue(product.getStringField(ProductFields.NAME));
-            row.createCell(2).setCellValue(numberService.setScaleWithDefaultMathContext(neededProductQuantity.getValue()).doubleValue());
-            String unit = product.getStringField(ProductFields.UNIT);
-            if (unit == null) {
-                row.createCell(3).setCellValue("");
-            } else {
-                row.createCell(3).setCellValue(unit);
-            }
+            row.createCell(0).setCellValue(neededProduct.getNumber());
+            row.createCell(1).setCellValue(neededProduct.getName());
+            row.createCell(2).setCellValue(numberService.setScaleWithDefaultMathContext(neededProduct.getQuantity()).doubleValue());
+            row.createCell(3).setCellValue(neededProduct.getUnit());
         }
         sheet.autoSizeColumn((short) 0);
         sheet.autoSizeColumn((short) 1);
@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimeNorms;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Time norms of operation components, read for all operations of technology at once and kept per technology, so that time
+ * estimations don't reload each operation component on every evaluation.
+ * 
+ * Norms of technology are invalidated when it or any of its operation components is saved, both immediately and after
+ * transaction completion, and norms read during invalidation are not stored.
+ */
+@Service
+public class OperationTimeNormsCache {
+
+    private final Object invalidationKey = new Object();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Cache<Long, Map<Long, OperationTimeNorms>> technologiesNorms = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterAccess(30, TimeUnit.MINUTES).build();
+
+    public OperationTimeNorms getNorms(final Entity operationComponent) {
+        Entity technology = operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY);
+
+        if (Objects.isNull(operationComponent.getId()) || Objects.isNull(technology)) {
+            return OperationTimeNorms.of(operationComponent);
+        }
+
+        Map<Long, OperationTimeNorms> technologyNorms = technologiesNorms.getIfPresent(technology.getId());
+
+        if (Objects.isNull(technologyNorms)) {
+            long currentVersion = version.get();
+
+            technologyNorms = readNorms(technology);
+
+            if (currentVersion == version.get()) {
+                technologiesNorms.put(technology.getId(), technologyNorms);
+            }
+        }
+
+        OperationTimeNorms norms = technologyNorms.get(operationComponent.getId());
+
+        if (Objects.isNull(norms)) {
+            norms = OperationTimeNorms.of(operationComponent.getDataDefinition().get(operationComponent.getId()));
+        }
+
+        return norms;
+    }
+
+    private Map<Long, OperationTimeNorms> readNorms(final Entity technology) {
+        ImmutableMap.Builder<Long, OperationTimeNorms> norms = ImmutableMap.builder();
+
+        for (Entity operationComponent : technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)) {
+            if (TechnologyOperationComponentEntityType.OPERATION.getStringValue().equals(
+                    operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+                norms.put(operationComponent.getId(), OperationTimeNorms.of(operationComponent));
+            }
+        }
+
+        return norms.build();
+    }
+
+    public void invalidate(final Long technologyId) {
+        if (Objects.isNull(technologyId)) {
+            return;
+        }
+
+        invalidateNow(technologyId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            @SuppressWarnings("unchecked")
+            Set<Long> technologyIds = (Set<Long>) TransactionSynchronizationManager
+                    .getResource(invalidationKey);
+
+            if (Objects.isNull(technologyIds)) {
+                Set<Long> ids = Sets.newHashSet();
+
+                TransactionSynchronizationManager.bindResource(invalidationKey, ids);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                    @Override
+                    public void afterCompletion(final int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(invalidationKey);
+
+                        ids.forEach(OperationTimeNormsCache.this::invalidateNow);
+                    }
+
+                });
+
+                technologyIds = ids;
+            }
+
+            technologyIds.add(technologyId);
+        }
+    }
+
+    private void invalidateNow(final Long technologyId) {
+        version.incrementAndGet();
+
+        technologiesNorms.invalidate(technologyId);
+    }
+
+}
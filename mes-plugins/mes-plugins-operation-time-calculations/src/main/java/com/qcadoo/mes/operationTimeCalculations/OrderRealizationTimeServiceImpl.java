@@ -27,6 +27,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimeNorms;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.ProductionLinesService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
@@ -35,11 +36,9 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityT
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.timeNormsForOperations.constants.OperCompTimeCalculationsFields;
-import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTreeNode;
 import com.qcadoo.model.api.NumberService;
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -78,6 +77,9 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     @Autowired
     private OperationWorkTimeService operationWorkTimeService;
 
+    @Autowired
+    private OperationTimeNormsCache operationTimeNormsCache;
+
     @Override
     public Object setDateToField(final Date date) {
         return new SimpleDateFormat(DateUtils.L_DATE_TIME_FORMAT, Locale.getDefault()).format(date);
@@ -204,7 +206,7 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
                 int childTime = evaluateOperationTime(order, child, includeTpz, includeAdditionalTime, operationRuns, productionLine,
                         maxForWorkstation, productComponentQuantities);
 
-                if ("02specified".equals(child.getStringField("nextOperationAfterProducedType"))) {
+                if ("02specified".equals(operationTimeNormsCache.getNorms(child).getNextOperationAfterProducedType())) {
 
                     int childTimeTotal = evaluateSingleOperationTime(child, includeTpz, includeAdditionalTime, operationRuns,
                             productionLine, true);
@@ -236,28 +238,21 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         throw new IllegalStateException("entityType has to be either operation or referenceTechnology");
     }
 
-    private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
-        if (StringUtils.isEmpty(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)
-                .getStringField(TechnologyFields.TECHNOLOGY_TYPE))) {
-            if (parameterService.getParameter().getBooleanField("workstationsQuantityFromProductionLine")) {
-                return productionLinesService.getWorkstationTypesCount(operationComponent, productionLine);
-            } else {
-                return getIntegerValue(operationComponent
-                        .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS));
-
-            }
-        } else {
-            return getIntegerValue(operationComponent
-                    .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS));
+    private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final OperationTimeNorms norms,
+            final Entity productionLine) {
+        if (norms.isTechnologyTypeEmpty()
+                && parameterService.getParameter().getBooleanField("workstationsQuantityFromProductionLine")) {
+            return productionLinesService.getWorkstationTypesCount(operationComponent, productionLine);
         }
 
+        return norms.getQuantityOfWorkstations();
     }
 
     @Override
     public int evaluateSingleOperationTime(Entity operationComponent, final boolean includeTpz,
             final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
             final boolean maxForWorkstation) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
+        OperationTimeNorms norms = operationTimeNormsCache.getNorms(operationComponent);
 
         BigDecimal cycles = operationRuns.get(operationComponent.getId());
         if (cycles == null) {
@@ -269,8 +264,8 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
                             new BigDecimal("56", numberService.getMathContext()), operationRunsFromProductionQuantities);
             cycles = operationRunsFromProductionQuantities.get(operationComponent.getId());
         }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
+        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, norms, productionLine, maxForWorkstation,
+                includeTpz, includeAdditionalTime);
     }
 
     @Override
@@ -278,10 +273,9 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             final boolean includeTpz, final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns,
             final Entity productionLine, final boolean maxForWorkstation,
             final OperationProductComponentWithQuantityContainer productComponentQuantities) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
+        OperationTimeNorms norms = operationTimeNormsCache.getNorms(operationComponent);
         BigDecimal cycles = BigDecimal.ONE;
-        BigDecimal nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(operationComponent
-                .getDecimalField("nextOperationAfterProducedQuantity"));
+        BigDecimal nextOperationAfterProducedQuantity = norms.getNextOperationAfterProducedQuantity();
         BigDecimal productComponentQuantity = productComponentQuantities.get(getOutputProduct(operationComponent));
         Entity technologyOperationComponent = getTechnologyOperationComponent(operationComponent);
 
@@ -291,8 +285,8 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         } else {
             cycles = operationRuns.get(technologyOperationComponent.getId());
         }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
+        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, norms, productionLine, maxForWorkstation,
+                includeTpz, includeAdditionalTime);
     }
 
     private Entity getTechnologyOperationComponent(final Entity operationComponent) {
@@ -325,9 +319,16 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     public int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final Entity operationComponent,
             final Entity productionLine, final boolean maxForWorkstation, final boolean includeTpz,
             final boolean includeAdditionalTime) {
-        boolean isTjDivisable = operationComponent.getBooleanField("isTjDivisible");
+        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, OperationTimeNorms.of(operationComponent),
+                productionLine, maxForWorkstation, includeTpz, includeAdditionalTime);
+    }
+
+    private int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final Entity operationComponent,
+            final OperationTimeNorms norms, final Entity productionLine, final boolean maxForWorkstation,
+            final boolean includeTpz, final boolean includeAdditionalTime) {
+        boolean isTjDivisable = norms.isTjDivisible();
 
-        Integer workstationsCount = retrieveWorkstationTypesCount(operationComponent, productionLine);
+        Integer workstationsCount = retrieveWorkstationTypesCount(operationComponent, norms, productionLine);
         BigDecimal cyclesPerOperation = cycles;
 
         if (maxForWorkstation) {
@@ -338,16 +339,16 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             }
         }
 
-        int tj = getIntegerValue(operationComponent.getField("tj"));
+        int tj = norms.getTj();
         int operationTime = cyclesPerOperation.multiply(BigDecimal.valueOf(tj), numberService.getMathContext()).intValue();
 
         if (includeTpz) {
-            int tpz = getIntegerValue(operationComponent.getField("tpz"));
+            int tpz = norms.getTpz();
             operationTime += (maxForWorkstation ? tpz : (tpz * workstationsCount));
         }
 
         if (includeAdditionalTime) {
-            int additionalTime = getIntegerValue(operationComponent.getField("timeNextOperation"));
+            int additionalTime = norms.getTimeNextOperation();
             operationTime += (maxForWorkstation ? additionalTime : (additionalTime * workstationsCount));
         }
 
@@ -365,10 +366,6 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         }
     }
 
-    private Integer getIntegerValue(final Object value) {
-        return value == null ? Integer.valueOf(0) : (Integer) value;
-    }
-
     @Override
     public int estimateOperationTimeConsumption(EntityTreeNode operationComponent, BigDecimal plannedQuantity,
             Entity productionLine) {
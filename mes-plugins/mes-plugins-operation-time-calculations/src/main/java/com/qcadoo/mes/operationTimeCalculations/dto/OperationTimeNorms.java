@@ -0,0 +1,113 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations.dto;
+
+import java.math.BigDecimal;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Time norms of technology operation component, read once from its fields.
+ */
+public final class OperationTimeNorms {
+
+    private final int tj;
+
+    private final int tpz;
+
+    private final int timeNextOperation;
+
+    private final boolean tjDivisible;
+
+    private final int quantityOfWorkstations;
+
+    private final boolean technologyTypeEmpty;
+
+    private final String nextOperationAfterProducedType;
+
+    private final BigDecimal nextOperationAfterProducedQuantity;
+
+    private OperationTimeNorms(final Entity operationComponent) {
+        tj = getIntegerValue(operationComponent.getField(TechnologyOperationComponentFieldsTNFO.TJ));
+        tpz = getIntegerValue(operationComponent.getField(TechnologyOperationComponentFieldsTNFO.TPZ));
+        timeNextOperation = getIntegerValue(operationComponent
+                .getField(TechnologyOperationComponentFieldsTNFO.TIME_NEXT_OPERATION));
+        tjDivisible = operationComponent.getBooleanField(TechnologyOperationComponentFieldsTNFO.IS_TJ_DIVISIBLE);
+        quantityOfWorkstations = getIntegerValue(operationComponent
+                .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS));
+        technologyTypeEmpty = StringUtils.isEmpty(operationComponent.getBelongsToField(
+                TechnologyOperationComponentFields.TECHNOLOGY).getStringField(TechnologyFields.TECHNOLOGY_TYPE));
+        nextOperationAfterProducedType = operationComponent
+                .getStringField(TechnologyOperationComponentFieldsTNFO.NEXT_OPERATION_AFTER_PRODUCED_TYPE);
+        nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(operationComponent
+                .getDecimalField(TechnologyOperationComponentFieldsTNFO.NEXT_OPERATION_AFTER_PRODUCED_QUANTITY));
+    }
+
+    public static OperationTimeNorms of(final Entity operationComponent) {
+        return new OperationTimeNorms(operationComponent);
+    }
+
+    public int getTj() {
+        return tj;
+    }
+
+    public int getTpz() {
+        return tpz;
+    }
+
+    public int getTimeNextOperation() {
+        return timeNextOperation;
+    }
+
+    public boolean isTjDivisible() {
+        return tjDivisible;
+    }
+
+    public int getQuantityOfWorkstations() {
+        return quantityOfWorkstations;
+    }
+
+    public boolean isTechnologyTypeEmpty() {
+        return technologyTypeEmpty;
+    }
+
+    public String getNextOperationAfterProducedType() {
+        return nextOperationAfterProducedType;
+    }
+
+    public BigDecimal getNextOperationAfterProducedQuantity() {
+        return nextOperationAfterProducedQuantity;
+    }
+
+    private static int getIntegerValue(final Object value) {
+        return value == null ? 0 : (Integer) value;
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInComponentFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Applies quantities of accepted, declined or corrected production tracking to basic production counting of its order.
+ * 
+ * Quantities of tracking products are summed up per product and added to counting rows with set-based updates, instead of loading
+ * and saving each row. Order row and then counting rows are locked in id order first, so concurrent trackings of one order wait
+ * for each other instead of deadlocking. Rows which would end up with negative quantity are left unchanged, as they were
+ * rejected by counting validators before.
+ */
+@Service
+public class BasicProductionCountingQuantitiesService {
+
+    private static final String L_LOCK_ORDER_QUERY = "SELECT id FROM orders_order WHERE id = :orderId FOR UPDATE";
+
+    private static final String L_BASIC_PRODUCTION_COUNTINGS_QUERY = "SELECT MIN(id) AS id, product_id AS productId "
+            + "FROM basicproductioncounting_basicproductioncounting "
+            + "WHERE order_id = :orderId AND product_id IN (:productIds) GROUP BY product_id";
+
+    private static final String L_LOCK_BASIC_PRODUCTION_COUNTINGS_QUERY = "SELECT id "
+            + "FROM basicproductioncounting_basicproductioncounting WHERE id IN (:ids) ORDER BY id FOR UPDATE";
+
+    private static final String L_UPDATE_QUANTITY_QUERY = "UPDATE basicproductioncounting_basicproductioncounting "
+            + "SET %1$s = COALESCE(%1$s, 0) + :delta, entityversion = entityversion + 1 "
+            + "WHERE id = :id AND COALESCE(%1$s, 0) + :delta >= 0";
+
+    private static final String L_USED_QUANTITY = "usedquantity";
+
+    private static final String L_PRODUCED_QUANTITY = "producedquantity";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NumberService numberService;
+
+    public void addTrackingQuantities(final Entity productionTracking) {
+        updateQuantities(productionTracking, BigDecimal.ONE);
+    }
+
+    public void subtractTrackingQuantities(final Entity productionTracking) {
+        updateQuantities(productionTracking, BigDecimal.ONE.negate());
+    }
+
+    private void updateQuantities(final Entity productionTracking, final BigDecimal sign) {
+        Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
+
+        Map<Long, BigDecimal> usedQuantityDeltas = getDeltas(
+                productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS),
+                TrackingOperationProductInComponentFields.PRODUCT, TrackingOperationProductInComponentFields.USED_QUANTITY,
+                sign);
+        Map<Long, BigDecimal> producedQuantityDeltas = getDeltas(
+                productionTracking.getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS),
+                TrackingOperationProductOutComponentFields.PRODUCT, TrackingOperationProductOutComponentFields.USED_QUANTITY,
+                sign);
+
+        if (usedQuantityDeltas.isEmpty() && producedQuantityDeltas.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.queryForList(L_LOCK_ORDER_QUERY, new MapSqlParameterSource("orderId", order.getId()), Long.class);
+
+        Map<Long, Long> basicProductionCountingIds = getBasicProductionCountingIds(order.getId(), usedQuantityDeltas.keySet(),
+                producedQuantityDeltas.keySet());
+
+        if (basicProductionCountingIds.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.queryForList(L_LOCK_BASIC_PRODUCTION_COUNTINGS_QUERY,
+                new MapSqlParameterSource("ids", basicProductionCountingIds.values()), Long.class);
+
+        updateQuantity(L_USED_QUANTITY, usedQuantityDeltas, basicProductionCountingIds);
+        updateQuantity(L_PRODUCED_QUANTITY, producedQuantityDeltas, basicProductionCountingIds);
+    }
+
+    private Map<Long, BigDecimal> getDeltas(final List<Entity> trackingOperationProductComponents, final String productFieldName,
+            final String quantityFieldName, final BigDecimal sign) {
+        Map<Long, BigDecimal> deltas = Maps.newHashMap();
+
+        for (Entity trackingOperationProductComponent : trackingOperationProductComponents) {
+            BigDecimal quantity = trackingOperationProductComponent.getDecimalField(quantityFieldName);
+
+            if (Objects.nonNull(quantity)) {
+                deltas.merge(trackingOperationProductComponent.getBelongsToField(productFieldName).getId(),
+                        quantity.multiply(sign, numberService.getMathContext()),
+                        (delta, value) -> delta.add(value, numberService.getMathContext()));
+            }
+        }
+
+        return deltas;
+    }
+
+    private Map<Long, Long> getBasicProductionCountingIds(final Long orderId, final Collection<Long> usedProductIds,
+            final Collection<Long> producedProductIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource("orderId", orderId);
+
+        Set<Long> productIds = Sets.newHashSet(usedProductIds);
+        productIds.addAll(producedProductIds);
+        params.addValue("productIds", productIds);
+
+        Map<Long, Long> basicProductionCountingIds = Maps.newHashMap();
+
+        jdbcTemplate.query(L_BASIC_PRODUCTION_COUNTINGS_QUERY, params,
+                (RowCallbackHandler) rs -> basicProductionCountingIds.put(rs.getLong("productId"), rs.getLong("id")));
+
+        return basicProductionCountingIds;
+    }
+
+    private void updateQuantity(final String columnName, final Map<Long, BigDecimal> deltas,
+            final Map<Long, Long> basicProductionCountingIds) {
+        SortedMap<Long, BigDecimal> deltasByBasicProductionCountingId = Maps.newTreeMap();
+
+        deltas.forEach((productId, delta) -> {
+            Long basicProductionCountingId = basicProductionCountingIds.get(productId);
+
+            if (Objects.nonNull(basicProductionCountingId) && (delta.signum() != 0)) {
+                deltasByBasicProductionCountingId.put(basicProductionCountingId, delta);
+            }
+        });
+
+        if (deltasByBasicProductionCountingId.isEmpty()) {
+            return;
+        }
+
+        SqlParameterSource[] batchParams = deltasByBasicProductionCountingId.entrySet().stream()
+                .map(entry -> new MapSqlParameterSource("id", entry.getKey()).addValue("delta", entry.getValue()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(String.format(L_UPDATE_QUANTITY_QUERY, columnName), batchParams);
+    }
+
+}
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.productionCounting;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 
 import com.qcadoo.model.api.DataDefinition;
@@ -248,4 +249,12 @@ public interface ProductionCountingService {
     BigDecimal getRegisteredProductValueForOperationProductIn(final Entity operationProduct, final BigDecimal planed);
 
     BigDecimal getRegisteredProductValueForOperationProductOut(final Entity operationProduct, final BigDecimal planed);
+
+    /**
+     * Loads registered quantities of given technology operation components at once, before asking for their operation products
+     *
+     * @param technologyOperationComponents
+     *            technology operation components
+     */
+    void loadRegisteredProductValues(final Collection<Entity> technologyOperationComponents);
 }
@@ -26,8 +26,11 @@ package com.qcadoo.mes.productionCounting;
 import static com.qcadoo.model.api.search.SearchRestrictions.idEq;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -45,8 +48,6 @@ import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
 import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
 import com.qcadoo.mes.productionCounting.constants.ProductionTrackingReportFields;
-import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInComponentFields;
-import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
 import com.qcadoo.mes.productionCounting.constants.TypeOfProductionRecording;
 import com.qcadoo.mes.productionCounting.print.utils.EntityProductionTrackingComparator;
 import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
@@ -96,6 +97,9 @@ public class ProductionCountingServiceImpl implements ProductionCountingService
     @Autowired
     private NumberService numberService;
 
+    @Autowired
+    private RegisteredQuantitiesCache registeredQuantitiesCache;
+
     @Override
     public Entity getProductionTrackingReport(final Long productionTrackingReportId) {
         return getProductionTrackingReportDD().get(productionTrackingReportId);
@@ -409,75 +413,34 @@ public class ProductionCountingServiceImpl implements ProductionCountingService
 
     @Override
     public BigDecimal getRegisteredProductValueForOperationProductIn(final Entity operationProduct, final BigDecimal planed) {
-        BigDecimal value = null;
         Entity toc = operationProduct.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT);
         Entity product = operationProduct.getBelongsToField(OperationProductInComponentFields.PRODUCT);
 
-        List<Entity> tracings = getProductionTrackingDD().find()
-                .add(SearchRestrictions.belongsTo(ProductionTrackingFields.TECHNOLOGY_OPERATION_COMPONENT, toc))
-                .add(SearchRestrictions.eq(ProductionTrackingFields.STATE, ProductionTrackingStateStringValues.ACCEPTED)).list()
-                .getEntities();
-        for (Entity tracking : tracings) {
-            Entity topIN = getTrackingOperationProductInComponentDD().find()
-                    .add(SearchRestrictions.belongsTo(TrackingOperationProductInComponentFields.PRODUCTION_TRACKING, tracking))
-                    .add(SearchRestrictions.belongsTo(TrackingOperationProductInComponentFields.PRODUCT, product))
-                    .setMaxResults(1).uniqueResult();
-            if (topIN != null) {
-                if (value == null) {
-                    value = new BigDecimal(0l);
-                }
-                BigDecimal usedQuantity = topIN.getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
-                if (usedQuantity != null) {
-                    value = value.add(usedQuantity, numberService.getMathContext());
-                }
-            }
-        }
-        if (value != null) {
-            value = planed.subtract(value, numberService.getMathContext());
-        } else {
-            return value;
-        }
-
-        if (value.compareTo(new BigDecimal(0l)) == -1) {
-            value = new BigDecimal(0l);
-        }
-
-        return value;
+        return getRegisteredProductValue(registeredQuantitiesCache.getUsedQuantityIn(toc.getId(), product.getId()), planed);
     }
 
     @Override
     public BigDecimal getRegisteredProductValueForOperationProductOut(final Entity operationProduct, final BigDecimal planed) {
-        BigDecimal value = null;
         Entity toc = operationProduct.getBelongsToField(OperationProductOutComponentFields.OPERATION_COMPONENT);
         Entity product = operationProduct.getBelongsToField(OperationProductOutComponentFields.PRODUCT);
 
-        List<Entity> tracings = getProductionTrackingDD().find()
-                .add(SearchRestrictions.belongsTo(ProductionTrackingFields.TECHNOLOGY_OPERATION_COMPONENT, toc))
-                .add(SearchRestrictions.eq(ProductionTrackingFields.STATE, ProductionTrackingStateStringValues.ACCEPTED)).list()
-                .getEntities();
-        for (Entity tracking : tracings) {
-            Entity topIN = getTrackingOperationProductOutComponentDD().find()
-                    .add(SearchRestrictions.belongsTo(TrackingOperationProductOutComponentFields.PRODUCTION_TRACKING, tracking))
-                    .add(SearchRestrictions.belongsTo(TrackingOperationProductOutComponentFields.PRODUCT, product))
-                    .setMaxResults(1).uniqueResult();
-            if (topIN != null) {
-                if (value == null) {
-                    value = new BigDecimal(0l);
-                }
-                BigDecimal usedQuantity = topIN.getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY);
-                if (usedQuantity != null) {
-                    value = value.add(usedQuantity, numberService.getMathContext());
-                }
-            }
-        }
-        if (value != null) {
-            value = planed.subtract(value, numberService.getMathContext());
-        } else {
-            return value;
+        return getRegisteredProductValue(registeredQuantitiesCache.getUsedQuantityOut(toc.getId(), product.getId()), planed);
+    }
+
+    @Override
+    public void loadRegisteredProductValues(final Collection<Entity> technologyOperationComponents) {
+        registeredQuantitiesCache.load(technologyOperationComponents.stream().map(Entity::getId).collect(Collectors.toSet()));
+    }
+
+    private BigDecimal getRegisteredProductValue(final Optional<BigDecimal> usedQuantity, final BigDecimal planed) {
+        if (!usedQuantity.isPresent()) {
+            return null;
         }
 
-        if (value.compareTo(new BigDecimal(0l)) == -1) {
-            value = new BigDecimal(0l);
+        BigDecimal value = planed.subtract(usedQuantity.get(), numberService.getMathContext());
+
+        if (value.compareTo(BigDecimal.ZERO) < 0) {
+            value = BigDecimal.ZERO;
         }
 
         return value;
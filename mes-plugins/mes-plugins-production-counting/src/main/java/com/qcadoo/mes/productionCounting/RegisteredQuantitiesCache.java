@@ -0,0 +1,211 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
+
+/**
+ * Used quantities registered by accepted production trackings, summed per operation component and product.
+ * 
+ * Sums of all products of an operation component are loaded with a single aggregate query (or for many operation components at
+ * once) and kept until a production tracking of that operation component is saved - which happens on each state change - both
+ * immediately and after transaction completion. Sums loaded during invalidation are not stored.
+ */
+@Service
+public class RegisteredQuantitiesCache {
+
+    private static final String L_USED_QUANTITIES_QUERY = "SELECT pt.technologyoperationcomponent_id AS operationComponentId, "
+            + "topc.product_id AS productId, SUM(COALESCE(topc.usedquantity, 0)) AS usedQuantity "
+            + "FROM %s topc JOIN productioncounting_productiontracking pt ON pt.id = topc.productiontracking_id "
+            + "WHERE pt.technologyoperationcomponent_id IN (:operationComponentIds) AND pt.state = :state "
+            + "GROUP BY pt.technologyoperationcomponent_id, topc.product_id";
+
+    private static final String L_TRACKING_OPERATION_PRODUCT_IN_COMPONENT = "productioncounting_trackingoperationproductincomponent";
+
+    private static final String L_TRACKING_OPERATION_PRODUCT_OUT_COMPONENT = "productioncounting_trackingoperationproductoutcomponent";
+
+    private final Object invalidationKey = new Object();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Cache<Long, OperationComponentQuantities> operationComponentsQuantities = CacheBuilder.newBuilder()
+            .maximumSize(10000).expireAfterWrite(30, TimeUnit.MINUTES).build();
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns used quantity of product registered for operation component by its accepted production trackings, or empty
+     * Optional if none of them registered the product.
+     */
+    public Optional<BigDecimal> getUsedQuantityIn(final Long operationComponentId, final Long productId) {
+        return Optional.ofNullable(getQuantities(operationComponentId).usedQuantitiesIn.get(productId));
+    }
+
+    /**
+     * Returns produced quantity of product registered for operation component by its accepted production trackings, or empty
+     * Optional if none of them registered the product.
+     */
+    public Optional<BigDecimal> getUsedQuantityOut(final Long operationComponentId, final Long productId) {
+        return Optional.ofNullable(getQuantities(operationComponentId).usedQuantitiesOut.get(productId));
+    }
+
+    /**
+     * Loads sums of given operation components, which aren't loaded yet, with one query for input and one for output products.
+     */
+    public void load(final Collection<Long> operationComponentIds) {
+        Set<Long> missingIds = operationComponentIds.stream().filter(Objects::nonNull)
+                .filter(id -> Objects.isNull(operationComponentsQuantities.getIfPresent(id))).collect(Collectors.toSet());
+
+        if (missingIds.isEmpty()) {
+            return;
+        }
+
+        long currentVersion = version.get();
+
+        Map<Long, Map<Long, BigDecimal>> usedQuantitiesIn = findUsedQuantities(L_TRACKING_OPERATION_PRODUCT_IN_COMPONENT,
+                missingIds);
+        Map<Long, Map<Long, BigDecimal>> usedQuantitiesOut = findUsedQuantities(L_TRACKING_OPERATION_PRODUCT_OUT_COMPONENT,
+                missingIds);
+
+        if (currentVersion == version.get()) {
+            for (Long operationComponentId : missingIds) {
+                operationComponentsQuantities.put(operationComponentId, new OperationComponentQuantities(
+                        usedQuantitiesIn.get(operationComponentId), usedQuantitiesOut.get(operationComponentId)));
+            }
+        }
+    }
+
+    public void invalidate(final Long operationComponentId) {
+        invalidateNow(operationComponentId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            @SuppressWarnings("unchecked")
+            Set<Long> pendingIds = (Set<Long>) TransactionSynchronizationManager.getResource(invalidationKey);
+
+            if (Objects.isNull(pendingIds)) {
+                Set<Long> ids = Sets.newHashSet();
+
+                TransactionSynchronizationManager.bindResource(invalidationKey, ids);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                    @Override
+                    public void afterCompletion(final int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(invalidationKey);
+
+                        ids.forEach(RegisteredQuantitiesCache.this::invalidateNow);
+                    }
+
+                });
+
+                pendingIds = ids;
+            }
+
+            pendingIds.add(operationComponentId);
+        }
+    }
+
+    private void invalidateNow(final Long operationComponentId) {
+        version.incrementAndGet();
+
+        operationComponentsQuantities.invalidate(operationComponentId);
+    }
+
+    private OperationComponentQuantities getQuantities(final Long operationComponentId) {
+        OperationComponentQuantities quantities = operationComponentsQuantities.getIfPresent(operationComponentId);
+
+        if (Objects.isNull(quantities)) {
+            long currentVersion = version.get();
+
+            List<Long> operationComponentIds = Collections.singletonList(operationComponentId);
+
+            quantities = new OperationComponentQuantities(
+                    findUsedQuantities(L_TRACKING_OPERATION_PRODUCT_IN_COMPONENT, operationComponentIds)
+                            .get(operationComponentId),
+                    findUsedQuantities(L_TRACKING_OPERATION_PRODUCT_OUT_COMPONENT, operationComponentIds)
+                            .get(operationComponentId));
+
+            if (currentVersion == version.get()) {
+                operationComponentsQuantities.put(operationComponentId, quantities);
+            }
+        }
+
+        return quantities;
+    }
+
+    private Map<Long, Map<Long, BigDecimal>> findUsedQuantities(final String trackingOperationProductComponentTable,
+            final Collection<Long> operationComponentIds) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("operationComponentIds", operationComponentIds);
+        params.put("state", ProductionTrackingStateStringValues.ACCEPTED);
+
+        Map<Long, Map<Long, BigDecimal>> usedQuantities = Maps.newHashMap();
+
+        jdbcTemplate.query(String.format(L_USED_QUANTITIES_QUERY, trackingOperationProductComponentTable), params,
+                (RowCallbackHandler) rs -> usedQuantities
+                        .computeIfAbsent(rs.getLong("operationComponentId"), operationComponentId -> Maps.newHashMap())
+                        .put(rs.getLong("productId"), rs.getBigDecimal("usedQuantity")));
+
+        return usedQuantities;
+    }
+
+    private static final class OperationComponentQuantities {
+
+        private final Map<Long, BigDecimal> usedQuantitiesIn;
+
+        private final Map<Long, BigDecimal> usedQuantitiesOut;
+
+        private OperationComponentQuantities(final Map<Long, BigDecimal> usedQuantitiesIn,
+                final Map<Long, BigDecimal> usedQuantitiesOut) {
+            this.usedQuantitiesIn = Objects.isNull(usedQuantitiesIn) ? Collections.emptyMap() : usedQuantitiesIn;
+            this.usedQuantitiesOut = Objects.isNull(usedQuantitiesOut) ? Collections.emptyMap() : usedQuantitiesOut;
+        }
+
+    }
+
+}
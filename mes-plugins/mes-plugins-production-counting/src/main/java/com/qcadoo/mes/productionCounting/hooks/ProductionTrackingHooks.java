@@ -48,6 +48,7 @@ import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.productionCounting.ProductionTrackingService;
+import com.qcadoo.mes.productionCounting.RegisteredQuantitiesCache;
 import com.qcadoo.mes.productionCounting.SetTechnologyInComponentsService;
 import com.qcadoo.mes.productionCounting.SetTrackingOperationProductsComponentsService;
 import com.qcadoo.mes.productionCounting.constants.OrderFieldsPC;
@@ -107,6 +108,9 @@ public class ProductionTrackingHooks {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private RegisteredQuantitiesCache registeredQuantitiesCache;
+
     public void onCreate(final DataDefinition productionTrackingDD, final Entity productionTracking) {
         setInitialState(productionTracking);
     }
@@ -124,6 +128,7 @@ public class ProductionTrackingHooks {
         copyProducts(productionTracking);
         generateSetTrackingOperationProductsComponents(productionTracking);
         generateSetTechnologyInComponents(productionTracking);
+        invalidateRegisteredQuantities(productionTracking);
 
         if (productionTracking.getId() == null) {
 
@@ -154,9 +159,19 @@ public class ProductionTrackingHooks {
 
     public void onDelete(final DataDefinition productionTrackingDD, final Entity productionTracking) {
         productionTrackingService.unCorrect(productionTracking);
+        invalidateRegisteredQuantities(productionTracking);
         logPerformDelete(productionTracking);
     }
 
+    private void invalidateRegisteredQuantities(final Entity productionTracking) {
+        Entity technologyOperationComponent = productionTracking
+                .getBelongsToField(ProductionTrackingFields.TECHNOLOGY_OPERATION_COMPONENT);
+
+        if (technologyOperationComponent != null) {
+            registeredQuantitiesCache.invalidate(technologyOperationComponent.getId());
+        }
+    }
+
     private void logPerformDelete(final Entity productionTracking) {
         String username = securityService.getCurrentUserName();
         LOGGER.info(String.format("Delete production tracking. Number : %S id : %d. User : %S",
@@ -131,6 +131,14 @@ public class ProductionBalanceDetailsListeners {
     }
 
     public void printProductionBalance(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        Entity productionBalance = productionCountingService.getProductionBalance((Long) state.getFieldValue());
+
+        if (productionBalance != null && productionBalanceXlsService.hasDocument(productionBalance)) {
+            view.redirectTo("/productionCounting/productionBalance.xlsx?id=" + productionBalance.getId(), true, false);
+
+            return;
+        }
+
         reportService.printGeneratedReport(view, state, new String[] { args[0], ProductionCountingConstants.PLUGIN_IDENTIFIER,
                 ProductionCountingConstants.MODEL_PRODUCTION_BALANCE });
     }
@@ -1,11 +1,16 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.function.Function;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
 import org.springframework.stereotype.Repository;
 
 import com.qcadoo.mes.costCalculation.constants.CalculateMaterialCostsMode;
@@ -24,6 +29,10 @@ import com.qcadoo.model.api.Entity;
 @Repository
 class ProductionBalanceRepository {
 
+    private static final String L_BIGINT = "int8";
+
+    private static final String L_NUMERIC = "numeric";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
@@ -56,7 +65,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
     }
 
@@ -65,7 +74,7 @@ class ProductionBalanceRepository {
     }
 
     private void appendWhereClause(StringBuilder query) {
-        query.append("WHERE o.id IN (:ordersIds) ");
+        query.append("WHERE o.id = ANY(:ordersIds) ");
     }
 
     List<MaterialCost> getMaterialCosts(Entity entity, List<Long> ordersIds) {
@@ -89,7 +98,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit) ");
         query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(MaterialCost.class));
     }
 
@@ -255,7 +264,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
     }
 
@@ -281,7 +290,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname, staffLaborHourlyCost, wageGroupName ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(LaborTime.class));
     }
 
@@ -392,7 +401,7 @@ class ProductionBalanceRepository {
         query.append("AND o.typeofproductionrecording = '03forEach') ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
     }
 
@@ -532,7 +541,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderId, orderNumber, toc.id, operationNumber) ");
         query.append("ORDER BY orderNumber, operationNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        return jdbcTemplate.query(query.toString(), getOrdersIdsParameters(ordersIds),
                 BeanPropertyRowMapper.newInstance(ProductionCost.class));
     }
 
@@ -681,28 +690,28 @@ class ProductionBalanceRepository {
     List<OrderBalance> getOrdersBalance(Entity entity, List<Long> ordersIds, List<MaterialCost> materialCosts,
             List<ProductionCost> productionCosts) {
         StringBuilder query = new StringBuilder();
-        appendOrdersBalanceWithQueries(materialCosts, productionCosts, query);
-        appendOrdersBalanceSelectionClause(entity, query);
+        appendOrdersBalanceWithQueries(query);
+        appendOrdersBalanceSelectionClause(query);
         query.append("MIN(COALESCE(gmc.cost, 0)) AS materialCosts, ");
         query.append("MIN(gpc.cost) AS productionCosts, ");
         query.append("MIN(COALESCE(gmc.cost, 0)) + MIN(gpc.cost) AS technicalProductionCosts, ");
-        appendMaterialCostMarginValue(entity, query);
+        appendMaterialCostMarginValue(query);
         query.append("AS materialCostMarginValue, ");
-        appendProductionCostMarginValue(entity, query);
+        appendProductionCostMarginValue(query);
         query.append("AS productionCostMarginValue, ");
-        appendTotalCosts(entity, query);
+        appendTotalCosts(query);
         query.append("AS totalCosts, ");
-        appendRegistrationPrice(entity, query);
+        appendRegistrationPrice(query);
         query.append("AS registrationPrice, ");
-        appendRegistrationPriceOverheadValue(entity, query);
+        appendRegistrationPriceOverheadValue(query);
         query.append("AS registrationPriceOverheadValue, ");
-        appendRealProductionCosts(entity, query);
+        appendRealProductionCosts(query);
         query.append("AS realProductionCosts, ");
-        appendProfitValue(entity, query);
+        appendProfitValue(query);
         query.append("AS profitValue, ");
-        appendRealProductionCosts(entity, query);
+        appendRealProductionCosts(query);
         query.append("+ ");
-        appendProfitValue(entity, query);
+        appendProfitValue(query);
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
@@ -714,39 +723,26 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderId, rootId, orderNumber, productNumber, productName ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        MapSqlParameterSource parameters = getBalanceParameters(entity, ordersIds);
+        parameters.addValue("materialCostsOrdersIds", createArray(L_BIGINT, materialCosts, MaterialCost::getOrderId));
+        parameters.addValue("materialCosts", createArray(L_NUMERIC, materialCosts, MaterialCost::getRealCost));
+        parameters.addValue("productionCostsOrdersIds", createArray(L_BIGINT, productionCosts, ProductionCost::getOrderId));
+        parameters.addValue("productionCosts", createArray(L_NUMERIC, productionCosts, ProductionCost::getRealCostsSum));
+
+        return jdbcTemplate.query(query.toString(), parameters,
                 BeanPropertyRowMapper.newInstance(OrderBalance.class));
     }
 
-    private void appendOrdersBalanceWithQueries(List<MaterialCost> materialCosts, List<ProductionCost> productionCosts,
-            StringBuilder query) {
-        query.append("WITH real_material_cost (order_id, cost) AS (VALUES ");
-        if (materialCosts.isEmpty()) {
-            query.append("(NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < materialCosts.size(); i++) {
-                MaterialCost materialCost = materialCosts.get(i);
-                query.append("(" + materialCost.getOrderId() + ", " + materialCost.getRealCost() + ") ");
-                if (i != materialCosts.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
+    private void appendOrdersBalanceWithQueries(StringBuilder query) {
+        query.append("WITH real_material_cost (order_id, cost) AS ");
+        query.append("(SELECT * FROM unnest(:materialCostsOrdersIds, :materialCosts)), ");
         query.append("grouped_material_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_material_cost GROUP BY order_id), ");
-        query.append("real_production_cost (order_id, cost) AS (VALUES ");
-        for (int i = 0; i < productionCosts.size(); i++) {
-            ProductionCost productionCost = productionCosts.get(i);
-            query.append("(" + productionCost.getOrderId() + ", " + productionCost.getRealCostsSum() + ") ");
-            if (i != productionCosts.size() - 1) {
-                query.append(", ");
-            }
-        }
-        query.append("), ");
+        query.append("real_production_cost (order_id, cost) AS ");
+        query.append("(SELECT * FROM unnest(:productionCostsOrdersIds, :productionCosts)), ");
         query.append("grouped_production_cost AS (SELECT order_id, SUM(cost) AS cost FROM real_production_cost GROUP BY order_id) ");
     }
 
-    private void appendOrdersBalanceSelectionClause(Entity entity, StringBuilder query) {
+    private void appendOrdersBalanceSelectionClause(StringBuilder query) {
         query.append("SELECT ");
         query.append("o.id AS orderId, ");
         query.append("o.root_id AS rootId, ");
@@ -755,98 +751,98 @@ class ProductionBalanceRepository {
         query.append("prod.name AS productName, ");
         appendProducedQuantity(query);
         query.append("AS producedQuantity, ");
-        appendMaterialCostMargin(entity, query);
+        appendMaterialCostMargin(query);
         query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
+        appendProductionCostMargin(query);
         query.append("AS productionCostMargin, ");
-        appendAdditionalOverhead(entity, query);
+        appendAdditionalOverhead(query);
         query.append("AS additionalOverhead, ");
         appendDirectAdditionalCost(query);
         query.append("AS directAdditionalCost, ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
         query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
+        appendProfit(query);
         query.append("AS profit, ");
     }
 
-    private void appendMaterialCostMargin(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.MATERIAL_COST_MARGIN) + ", 0) ");
+    private void appendMaterialCostMargin(StringBuilder query) {
+        query.append("COALESCE(CAST(:materialCostMargin AS numeric), 0) ");
     }
 
-    private void appendProductionCostMargin(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.PRODUCTION_COST_MARGIN) + ", 0) ");
+    private void appendProductionCostMargin(StringBuilder query) {
+        query.append("COALESCE(CAST(:productionCostMargin AS numeric), 0) ");
     }
 
-    private void appendAdditionalOverhead(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.ADDITIONAL_OVERHEAD) + ", 0) ");
+    private void appendAdditionalOverhead(StringBuilder query) {
+        query.append("COALESCE(CAST(:additionalOverhead AS numeric), 0) ");
     }
 
     private void appendDirectAdditionalCost(StringBuilder query) {
         query.append("COALESCE(MIN(o.directadditionalcost), 0) ");
     }
 
-    private void appendRegistrationPriceOverhead(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.REGISTRATION_PRICE_OVERHEAD) + ", 0) ");
+    private void appendRegistrationPriceOverhead(StringBuilder query) {
+        query.append("COALESCE(CAST(:registrationPriceOverhead AS numeric), 0) ");
     }
 
-    private void appendProfit(Entity entity, StringBuilder query) {
-        query.append("COALESCE(" + entity.getDecimalField(ProductionBalanceFields.PROFIT) + ", 0) ");
+    private void appendProfit(StringBuilder query) {
+        query.append("COALESCE(CAST(:profit AS numeric), 0) ");
     }
 
-    private void appendProfitValue(Entity entity, StringBuilder query) {
-        appendRealProductionCosts(entity, query);
+    private void appendProfitValue(StringBuilder query) {
+        appendRealProductionCosts(query);
         query.append(" / 100 * ");
-        appendProfit(entity, query);
+        appendProfit(query);
     }
 
-    private void appendRealProductionCosts(Entity entity, StringBuilder query) {
+    private void appendRealProductionCosts(StringBuilder query) {
         query.append("( ");
-        appendRegistrationPrice(entity, query);
+        appendRegistrationPrice(query);
         query.append("+ ");
-        appendRegistrationPriceOverheadValue(entity, query);
+        appendRegistrationPriceOverheadValue(query);
         query.append(") ");
     }
 
-    private void appendRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
-        appendRegistrationPrice(entity, query);
+    private void appendRegistrationPriceOverheadValue(StringBuilder query) {
+        appendRegistrationPrice(query);
         query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
     }
 
-    private void appendRegistrationPrice(Entity entity, StringBuilder query) {
+    private void appendRegistrationPrice(StringBuilder query) {
         query.append("CASE WHEN ");
         appendProducedQuantity(query);
         query.append("<> 0 THEN (");
-        appendTotalCosts(entity, query);
+        appendTotalCosts(query);
         query.append(")/ ");
         appendProducedQuantity(query);
         query.append("ELSE 0 END ");
     }
 
-    private void appendTotalCosts(Entity entity, StringBuilder query) {
+    private void appendTotalCosts(StringBuilder query) {
         query.append("MIN(COALESCE(gmc.cost, 0)) + MIN(gpc.cost) + ");
-        appendMaterialCostMarginValue(entity, query);
+        appendMaterialCostMarginValue(query);
         query.append("+ ");
-        appendProductionCostMarginValue(entity, query);
+        appendProductionCostMarginValue(query);
         query.append("+ ");
-        appendAdditionalOverhead(entity, query);
+        appendAdditionalOverhead(query);
         query.append("+ ");
         appendDirectAdditionalCost(query);
     }
 
-    private void appendProductionCostMarginValue(Entity entity, StringBuilder query) {
-        appendProductionCostMargin(entity, query);
+    private void appendProductionCostMarginValue(StringBuilder query) {
+        appendProductionCostMargin(query);
         query.append("/ 100 * MIN(gpc.cost) ");
     }
 
-    private void appendMaterialCostMarginValue(Entity entity, StringBuilder query) {
-        appendMaterialCostMargin(entity, query);
+    private void appendMaterialCostMarginValue(StringBuilder query) {
+        appendMaterialCostMargin(query);
         query.append("/ 100 * MIN(COALESCE(gmc.cost, 0)) ");
     }
 
     List<OrderBalance> getComponentsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> ordersBalance) {
         StringBuilder query = new StringBuilder();
-        appendComponentsBalanceWithQueries(ordersBalance, query);
+        appendComponentsBalanceWithQueries(query);
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
         query.append("prod.id AS productId, ");
@@ -854,13 +850,13 @@ class ProductionBalanceRepository {
         query.append("prod.name AS productName, ");
         appendProducedQuantity(query);
         query.append("AS producedQuantity, ");
-        appendMaterialCostMargin(entity, query);
+        appendMaterialCostMargin(query);
         query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
+        appendProductionCostMargin(query);
         query.append("AS productionCostMargin, ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
         query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
+        appendProfit(query);
         query.append("AS profit, ");
         query.append("MIN(obr.additional_overhead) AS additionalOverhead, ");
         query.append("MIN(obr.direct_additional_cost) AS directAdditionalCost, ");
@@ -872,15 +868,15 @@ class ProductionBalanceRepository {
         query.append("MIN(obr.total_costs) AS totalCosts, ");
         appendComponentsBalanceRegistrationPrice(query);
         query.append("AS registrationPrice, ");
-        appendComponentsBalanceRegistrationPriceOverheadValue(entity, query);
+        appendComponentsBalanceRegistrationPriceOverheadValue(query);
         query.append("AS registrationPriceOverheadValue, ");
-        appendComponentsBalanceRealProductionCosts(entity, query);
+        appendComponentsBalanceRealProductionCosts(query);
         query.append("AS realProductionCosts, ");
-        appendComponentsBalanceProfitValue(entity, query);
+        appendComponentsBalanceProfitValue(query);
         query.append("AS profitValue, ");
-        appendComponentsBalanceRealProductionCosts(entity, query);
+        appendComponentsBalanceRealProductionCosts(query);
         query.append("+ ");
-        appendComponentsBalanceProfitValue(entity, query);
+        appendComponentsBalanceProfitValue(query);
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
@@ -892,28 +888,33 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, productId, productNumber, productName ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        MapSqlParameterSource parameters = getBalanceParameters(entity, ordersIds);
+        parameters.addValue("ordersBalanceOrdersIds", createArray(L_BIGINT, ordersBalance, OrderBalance::getOrderId));
+        parameters.addValue("ordersBalanceRootsIds", createArray(L_BIGINT, ordersBalance, OrderBalance::getRootId));
+        addCostsParameters(parameters, "ordersBalance", ordersBalance);
+
+        return jdbcTemplate.query(query.toString(), parameters,
                 BeanPropertyRowMapper.newInstance(OrderBalance.class));
     }
 
-    private void appendComponentsBalanceProfitValue(Entity entity, StringBuilder query) {
-        appendComponentsBalanceRealProductionCosts(entity, query);
+    private void appendComponentsBalanceProfitValue(StringBuilder query) {
+        appendComponentsBalanceRealProductionCosts(query);
         query.append(" / 100 * ");
-        appendProfit(entity, query);
+        appendProfit(query);
     }
 
-    private void appendComponentsBalanceRealProductionCosts(Entity entity, StringBuilder query) {
+    private void appendComponentsBalanceRealProductionCosts(StringBuilder query) {
         query.append("( ");
         appendComponentsBalanceRegistrationPrice(query);
         query.append("+ ");
-        appendComponentsBalanceRegistrationPriceOverheadValue(entity, query);
+        appendComponentsBalanceRegistrationPriceOverheadValue(query);
         query.append(") ");
     }
 
-    private void appendComponentsBalanceRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
+    private void appendComponentsBalanceRegistrationPriceOverheadValue(StringBuilder query) {
         appendComponentsBalanceRegistrationPrice(query);
         query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
     }
 
     private void appendComponentsBalanceRegistrationPrice(StringBuilder query) {
@@ -925,32 +926,14 @@ class ProductionBalanceRepository {
         query.append("ELSE 0 END ");
     }
 
-    private void appendComponentsBalanceWithQueries(List<OrderBalance> ordersBalance, StringBuilder query) {
+    private void appendComponentsBalanceWithQueries(StringBuilder query) {
         query.append("WITH order_balance (order_id, root_id, material_costs, ");
         query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
         query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-
-        for (int i = 0; i < ordersBalance.size(); i++) {
-            OrderBalance orderBalance = ordersBalance.get(i);
-            query.append("(");
-            query.append(orderBalance.getOrderId() + ", ");
-            query.append(orderBalance.getRootId() + "::INTEGER, ");
-            query.append(orderBalance.getMaterialCosts() + ", ");
-            query.append(orderBalance.getProductionCosts() + ", ");
-            query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-            query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-            query.append(orderBalance.getProductionCostMarginValue() + ", ");
-            query.append(orderBalance.getAdditionalOverhead() + ", ");
-            query.append(orderBalance.getDirectAdditionalCost() + ", ");
-            query.append(orderBalance.getTotalCosts());
-            query.append(") ");
-            if (i != ordersBalance.size() - 1) {
-                query.append(", ");
-            }
-
-        }
-        query.append("), ");
+        query.append(") AS (SELECT * FROM unnest(:ordersBalanceOrdersIds, :ordersBalanceRootsIds, :ordersBalanceMaterialCosts, ");
+        query.append(":ordersBalanceProductionCosts, :ordersBalanceTechnicalProductionCosts, ");
+        query.append(":ordersBalanceMaterialCostMarginValues, :ordersBalanceProductionCostMarginValues, ");
+        query.append(":ordersBalanceAdditionalOverheads, :ordersBalanceDirectAdditionalCosts, :ordersBalanceTotalCosts)), ");
         query.append("order_balance_rec AS (WITH RECURSIVE order_balance_rec AS ");
         query.append("(SELECT order_id, order_id AS root_id, material_costs, ");
         query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
@@ -970,17 +953,17 @@ class ProductionBalanceRepository {
 
     List<OrderBalance> getProductsBalance(Entity entity, List<Long> ordersIds, List<OrderBalance> componentsBalance) {
         StringBuilder query = new StringBuilder();
-        appendProductsBalanceWithQueries(componentsBalance, query);
+        appendProductsBalanceWithQueries(query);
         query.append("SELECT ");
         query.append("prod.number AS productNumber, ");
         query.append("prod.name AS productName, ");
-        appendMaterialCostMargin(entity, query);
+        appendMaterialCostMargin(query);
         query.append("AS materialCostMargin, ");
-        appendProductionCostMargin(entity, query);
+        appendProductionCostMargin(query);
         query.append("AS productionCostMargin, ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
         query.append("AS registrationPriceOverhead, ");
-        appendProfit(entity, query);
+        appendProfit(query);
         query.append("AS profit, ");
         query.append("MIN(gcb.produced_quantity) AS producedQuantity, ");
         query.append("MIN(gcb.additional_overhead) AS additionalOverhead, ");
@@ -993,15 +976,15 @@ class ProductionBalanceRepository {
         query.append("MIN(gcb.total_costs) AS totalCosts, ");
         appendProductsBalanceRegistrationPrice(query);
         query.append("AS registrationPrice, ");
-        appendProductsBalanceRegistrationPriceOverheadValue(entity, query);
+        appendProductsBalanceRegistrationPriceOverheadValue(query);
         query.append("AS registrationPriceOverheadValue, ");
-        appendProductsBalanceRealProductionCosts(entity, query);
+        appendProductsBalanceRealProductionCosts(query);
         query.append("AS realProductionCosts, ");
-        appendProductsBalanceProfitValue(entity, query);
+        appendProductsBalanceProfitValue(query);
         query.append("AS profitValue, ");
-        appendProductsBalanceRealProductionCosts(entity, query);
+        appendProductsBalanceRealProductionCosts(query);
         query.append("+ ");
-        appendProductsBalanceProfitValue(entity, query);
+        appendProductsBalanceProfitValue(query);
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
@@ -1011,28 +994,34 @@ class ProductionBalanceRepository {
         query.append("GROUP BY productNumber, productName ");
         query.append("ORDER BY productNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
+        MapSqlParameterSource parameters = getBalanceParameters(entity, ordersIds);
+        parameters.addValue("componentsBalanceProductsIds", createArray(L_BIGINT, componentsBalance, OrderBalance::getProductId));
+        parameters.addValue("componentsBalanceProducedQuantities",
+                createArray(L_NUMERIC, componentsBalance, OrderBalance::getProducedQuantity));
+        addCostsParameters(parameters, "componentsBalance", componentsBalance);
+
+        return jdbcTemplate.query(query.toString(), parameters,
                 BeanPropertyRowMapper.newInstance(OrderBalance.class));
     }
 
-    private void appendProductsBalanceProfitValue(Entity entity, StringBuilder query) {
-        appendProductsBalanceRealProductionCosts(entity, query);
+    private void appendProductsBalanceProfitValue(StringBuilder query) {
+        appendProductsBalanceRealProductionCosts(query);
         query.append(" / 100 * ");
-        appendProfit(entity, query);
+        appendProfit(query);
     }
 
-    private void appendProductsBalanceRealProductionCosts(Entity entity, StringBuilder query) {
+    private void appendProductsBalanceRealProductionCosts(StringBuilder query) {
         query.append("( ");
         appendProductsBalanceRegistrationPrice(query);
         query.append("+ ");
-        appendProductsBalanceRegistrationPriceOverheadValue(entity, query);
+        appendProductsBalanceRegistrationPriceOverheadValue(query);
         query.append(") ");
     }
 
-    private void appendProductsBalanceRegistrationPriceOverheadValue(Entity entity, StringBuilder query) {
+    private void appendProductsBalanceRegistrationPriceOverheadValue(StringBuilder query) {
         appendProductsBalanceRegistrationPrice(query);
         query.append(" / 100 * ");
-        appendRegistrationPriceOverhead(entity, query);
+        appendRegistrationPriceOverhead(query);
     }
 
     private void appendProductsBalanceRegistrationPrice(StringBuilder query) {
@@ -1040,35 +1029,15 @@ class ProductionBalanceRepository {
         query.append("/ MIN(gcb.produced_quantity) ELSE 0 END ");
     }
 
-    private void appendProductsBalanceWithQueries(List<OrderBalance> componentsBalance, StringBuilder query) {
+    private void appendProductsBalanceWithQueries(StringBuilder query) {
         query.append("WITH component_balance (product_id, produced_quantity, material_costs, ");
         query.append("production_costs, technical_production_costs, material_cost_margin_value, ");
         query.append("production_cost_margin_value, additional_overhead, direct_additional_cost, total_costs ");
-        query.append(") AS (VALUES ");
-        if (componentsBalance.isEmpty()) {
-            query.append("(NULL::integer, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric, ");
-            query.append("NULL::numeric, NULL::numeric, NULL::numeric, NULL::numeric) ");
-        } else {
-            for (int i = 0; i < componentsBalance.size(); i++) {
-                OrderBalance orderBalance = componentsBalance.get(i);
-                query.append("(");
-                query.append(orderBalance.getProductId() + ", ");
-                query.append(orderBalance.getProducedQuantity() + ", ");
-                query.append(orderBalance.getMaterialCosts() + ", ");
-                query.append(orderBalance.getProductionCosts() + ", ");
-                query.append(orderBalance.getTechnicalProductionCosts() + ", ");
-                query.append(orderBalance.getMaterialCostMarginValue() + ", ");
-                query.append(orderBalance.getProductionCostMarginValue() + ", ");
-                query.append(orderBalance.getAdditionalOverhead() + ", ");
-                query.append(orderBalance.getDirectAdditionalCost() + ", ");
-                query.append(orderBalance.getTotalCosts());
-                query.append(") ");
-                if (i != componentsBalance.size() - 1) {
-                    query.append(", ");
-                }
-            }
-        }
-        query.append("), ");
+        query.append(") AS (SELECT * FROM unnest(:componentsBalanceProductsIds, :componentsBalanceProducedQuantities, ");
+        query.append(":componentsBalanceMaterialCosts, :componentsBalanceProductionCosts, ");
+        query.append(":componentsBalanceTechnicalProductionCosts, :componentsBalanceMaterialCostMarginValues, ");
+        query.append(":componentsBalanceProductionCostMarginValues, :componentsBalanceAdditionalOverheads, ");
+        query.append(":componentsBalanceDirectAdditionalCosts, :componentsBalanceTotalCosts)), ");
         query.append("grouped_component_balance AS (SELECT product_id, SUM(produced_quantity) AS produced_quantity, ");
         query.append("SUM(material_costs) AS material_costs, SUM(production_costs) AS production_costs, ");
         query.append("SUM(technical_production_costs) AS technical_production_costs, SUM(material_cost_margin_value) AS material_cost_margin_value, ");
@@ -1076,4 +1045,49 @@ class ProductionBalanceRepository {
         query.append("SUM(direct_additional_cost) AS direct_additional_cost, SUM(total_costs) AS total_costs ");
         query.append("FROM component_balance GROUP BY product_id) ");
     }
+
+    private MapSqlParameterSource getOrdersIdsParameters(List<Long> ordersIds) {
+        return new MapSqlParameterSource("ordersIds", createArray(L_BIGINT, ordersIds, Function.identity()));
+    }
+
+    private MapSqlParameterSource getBalanceParameters(Entity entity, List<Long> ordersIds) {
+        MapSqlParameterSource parameters = getOrdersIdsParameters(ordersIds);
+        parameters.addValue("materialCostMargin", entity.getDecimalField(ProductionBalanceFields.MATERIAL_COST_MARGIN));
+        parameters.addValue("productionCostMargin", entity.getDecimalField(ProductionBalanceFields.PRODUCTION_COST_MARGIN));
+        parameters.addValue("additionalOverhead", entity.getDecimalField(ProductionBalanceFields.ADDITIONAL_OVERHEAD));
+        parameters.addValue("registrationPriceOverhead",
+                entity.getDecimalField(ProductionBalanceFields.REGISTRATION_PRICE_OVERHEAD));
+        parameters.addValue("profit", entity.getDecimalField(ProductionBalanceFields.PROFIT));
+        return parameters;
+    }
+
+    private void addCostsParameters(MapSqlParameterSource parameters, String prefix, List<OrderBalance> balance) {
+        parameters.addValue(prefix + "MaterialCosts", createArray(L_NUMERIC, balance, OrderBalance::getMaterialCosts));
+        parameters.addValue(prefix + "ProductionCosts", createArray(L_NUMERIC, balance, OrderBalance::getProductionCosts));
+        parameters.addValue(prefix + "TechnicalProductionCosts",
+                createArray(L_NUMERIC, balance, OrderBalance::getTechnicalProductionCosts));
+        parameters.addValue(prefix + "MaterialCostMarginValues",
+                createArray(L_NUMERIC, balance, OrderBalance::getMaterialCostMarginValue));
+        parameters.addValue(prefix + "ProductionCostMarginValues",
+                createArray(L_NUMERIC, balance, OrderBalance::getProductionCostMarginValue));
+        parameters.addValue(prefix + "AdditionalOverheads", createArray(L_NUMERIC, balance, OrderBalance::getAdditionalOverhead));
+        parameters.addValue(prefix + "DirectAdditionalCosts",
+                createArray(L_NUMERIC, balance, OrderBalance::getDirectAdditionalCost));
+        parameters.addValue(prefix + "TotalCosts", createArray(L_NUMERIC, balance, OrderBalance::getTotalCosts));
+    }
+
+    /**
+     * Passes rows as typed array parameter, so the query text doesn't depend on the number of rows.
+     */
+    private <T> SqlTypeValue createArray(String typeName, List<T> rows, Function<T, ?> getter) {
+        Object[] values = rows.stream().map(getter).toArray();
+
+        return new AbstractSqlTypeValue() {
+
+            @Override
+            protected Object createTypeValue(Connection connection, int sqlType, String sqlTypeName) throws SQLException {
+                return connection.createArrayOf(typeName, values);
+            }
+        };
+    }
 }
@@ -1,24 +1,44 @@
 package com.qcadoo.mes.productionCounting.xls;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.productionCounting.constants.ProductionBalanceFields;
 import com.qcadoo.mes.productionCounting.xls.dto.LaborTime;
@@ -30,10 +50,23 @@ import com.qcadoo.mes.productionCounting.xls.dto.ProducedQuantity;
 import com.qcadoo.mes.productionCounting.xls.dto.ProductionCost;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.report.api.xls.XlsDocumentService;
 
 @Service
-public class ProductionBalanceXlsService extends XlsDocumentService {
+public class ProductionBalanceXlsService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductionBalanceXlsService.class);
+
+    private static final String L_XLSX_EXTENSION = ".xlsx";
+
+    private static final String L_SHEET = "productionCounting.productionBalance.report.xls.sheet.";
+
+    private static final int L_ROW_ACCESS_WINDOW_SIZE = 500;
+
+    private static final int L_QUERY_THREADS = 4;
+
+    private static final int L_MAX_COLUMN_WIDTH = 255 * 256;
+
+    private static final String L_DATE_TIME_PATTERN = "yyyy-mm-dd hh:mm";
 
     @Autowired
     private TranslationService translationService;
@@ -44,70 +77,143 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     @Autowired
     private ProductionBalanceRepository productionBalanceRepository;
 
+    private ExecutorService queryExecutor;
+
     private static final List<String> PRODUCTION_QUANTITIES_HEADERS = Lists.newArrayList("orderNumber", "productNumber",
             "productName", "plannedQuantity", "producedQuantity", "wastesQuantity", "producedWastes", "deviation", "productUnit");
 
-    @Override
-    protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
+    @PostConstruct
+    public void init() {
+        queryExecutor = Executors.newFixedThreadPool(L_QUERY_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("productionBalanceXls-%d").setDaemon(true).build());
+    }
 
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
-        int columnIndex = 0;
-        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
-                    columnIndex, HSSFCellStyle.ALIGN_LEFT);
-            columnIndex++;
+    @PreDestroy
+    public void destroy() {
+        queryExecutor.shutdownNow();
+    }
+
+    /**
+     * Generates production balance workbook into its report file.
+     * 
+     * Independent sheet queries run concurrently, rows are streamed into the workbook, so only a window of
+     * {@value #L_ROW_ACCESS_WINDOW_SIZE} rows per sheet is kept in memory.
+     * 
+     * @param productionBalance
+     *            production balance with file name already set
+     * @param locale
+     *            locale
+     * @throws IOException
+     *             when report file can't be written
+     */
+    public void generateDocument(final Entity productionBalance, final Locale locale) throws IOException {
+        List<Long> ordersIds = getOrdersIds(productionBalance);
+
+        CompletableFuture<List<ProducedQuantity>> producedQuantities = query("producedQuantities",
+                () -> productionBalanceRepository.getProducedQuantities(ordersIds));
+        CompletableFuture<List<MaterialCost>> materialCosts = query("materialCosts",
+                () -> productionBalanceRepository.getMaterialCosts(productionBalance, ordersIds));
+        CompletableFuture<List<LaborTime>> laborTime = query("laborTime",
+                () -> productionBalanceRepository.getLaborTime(ordersIds));
+        CompletableFuture<List<LaborTimeDetails>> laborTimeDetails = query("laborTimeDetails",
+                () -> productionBalanceRepository.getLaborTimeDetails(productionBalance, ordersIds));
+        CompletableFuture<List<PieceworkDetails>> pieceworkDetails = query("piecework",
+                () -> productionBalanceRepository.getPieceworkDetails(ordersIds));
+        CompletableFuture<List<ProductionCost>> productionCosts = query("productionCosts",
+                () -> productionBalanceRepository.getProductionCosts(productionBalance, ordersIds));
+        CompletableFuture<List<OrderBalance>> ordersBalance = CompletableFuture.allOf(materialCosts, productionCosts)
+                .thenCompose(done -> query("ordersBalance", () -> productionBalanceRepository.getOrdersBalance(
+                        productionBalance, ordersIds, materialCosts.join(), productionCosts.join())));
+        CompletableFuture<List<OrderBalance>> componentsBalance = ordersBalance.thenCompose(
+                balance -> query("componentsBalance",
+                        () -> productionBalanceRepository.getComponentsBalance(productionBalance, ordersIds, balance)));
+        CompletableFuture<List<OrderBalance>> productsBalance = componentsBalance.thenCompose(
+                balance -> query("productsBalance",
+                        () -> productionBalanceRepository.getProductsBalance(productionBalance, ordersIds, balance)));
+
+        SXSSFWorkbook workbook = new SXSSFWorkbook(L_ROW_ACCESS_WINDOW_SIZE);
+
+        try (OutputStream outputStream = new FileOutputStream(getDocumentFile(productionBalance))) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+
+            createProducedQuantitiesSheet(getResult(producedQuantities),
+                    createSheet(workbook, translationService.translate(L_SHEET + "producedQuantities", locale)), locale);
+            logSheetWritten("producedQuantities", stopwatch);
+            createMaterialCostsSheet(getResult(materialCosts),
+                    createSheet(workbook, translationService.translate(L_SHEET + "materialCosts", locale)), locale);
+            logSheetWritten("materialCosts", stopwatch);
+            createLaborTimeSheet(getResult(laborTime),
+                    createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)), locale);
+            logSheetWritten("laborTime", stopwatch);
+            createLaborTimeDetailsSheet(getResult(laborTimeDetails),
+                    createSheet(workbook, translationService.translate(L_SHEET + "laborTimeDetails", locale)), locale);
+            logSheetWritten("laborTimeDetails", stopwatch);
+            createPieceworkSheet(getResult(pieceworkDetails),
+                    createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)), locale);
+            logSheetWritten("piecework", stopwatch);
+            createProductionCostsSheet(getResult(productionCosts),
+                    createSheet(workbook, translationService.translate(L_SHEET + "productionCosts", locale)), locale);
+            logSheetWritten("productionCosts", stopwatch);
+            createOrdersBalanceSheet(getResult(ordersBalance),
+                    createSheet(workbook, translationService.translate(L_SHEET + "ordersBalance", locale)), locale);
+            logSheetWritten("ordersBalance", stopwatch);
+            createOrdersBalanceSheet(getResult(componentsBalance),
+                    createSheet(workbook, translationService.translate(L_SHEET + "componentsBalance", locale)), locale);
+            logSheetWritten("componentsBalance", stopwatch);
+            createProductsBalanceSheet(getResult(productsBalance),
+                    createSheet(workbook, translationService.translate(L_SHEET + "productsBalance", locale)), locale);
+            logSheetWritten("productsBalance", stopwatch);
+
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
         }
     }
 
-    @Override
-    protected void addSeries(HSSFSheet sheet, Entity entity) {
-        List<Long> ordersIds = getOrdersIds(entity);
+    /**
+     * Returns generated document of given production balance. Balances generated before the workbook was streamed have only the
+     * legacy xls document.
+     */
+    File getDocumentFile(final Entity productionBalance) {
+        return new File(productionBalance.getStringField(ProductionBalanceFields.FILE_NAME) + L_XLSX_EXTENSION);
+    }
 
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
+    public boolean hasDocument(final Entity productionBalance) {
+        return getDocumentFile(productionBalance).exists();
     }
 
-    @Override
-    public String getReportTitle(Locale locale) {
-        return translationService.translate("productionCounting.productionBalance.report.xls.sheet.producedQuantities", locale);
+    private <T> CompletableFuture<List<T>> query(final String sheetName, final Supplier<List<T>> query) {
+        return CompletableFuture.supplyAsync(() -> {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+
+            List<T> rows = query.get();
+
+            LOG.info(String.format("Production balance sheet %s: %d rows queried in %d ms", sheetName, rows.size(),
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+
+            return rows;
+        }, queryExecutor);
     }
 
-    @Override
-    protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
-        List<Long> ordersIds = getOrdersIds(entity);
-        List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
-        createMaterialCostsSheet(materialCosts, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
-        createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
-                locale);
-        createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
-        createProductionCostsSheet(productionCosts, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
-        List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
-                productionCosts);
-        createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
-                locale);
-        List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
-        createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
-                locale);
-        List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
-        createProductsBalanceSheet(productsBalance, createSheet(workbook,
-                translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
-                locale);
+    private <T> List<T> getResult(final CompletableFuture<List<T>> rows) {
+        try {
+            return rows.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    private void logSheetWritten(final String sheetName, final Stopwatch stopwatch) {
+        LOG.info(String.format("Production balance sheet %s: written after %d ms", sheetName,
+                stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+    }
+
+    private Sheet createSheet(final Workbook workbook, final String sheetName) {
+        return workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
     }
 
     private List<Long> getOrdersIds(final Entity productionBalance) {
@@ -116,11 +222,21 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
+    private void createProducedQuantitiesSheet(List<ProducedQuantity> producedQuantities, Sheet sheet, Locale locale) {
+        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
+        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+        Row headerRow = sheet.createRow(0);
+        int columnIndex = 0;
+        for (String key : PRODUCTION_QUANTITIES_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
+                    columnIndex, CellStyle.ALIGN_LEFT);
+            columnIndex++;
+        }
+
         int rowIndex = 1;
         for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+            Row row = sheet.createRow(rowIndex);
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
@@ -133,16 +249,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             rowIndex++;
         }
 
-        for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
+    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.materialCosts.orderNumber", locale),
@@ -212,16 +326,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createRegularCell(stylesContainer, row, 12, materialCost.getUsedWasteUnit());
             rowCounter++;
         }
-        for (int i = 0; i <= 12; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createPieceworkSheet(List<PieceworkDetails> pieceworkDetailsList, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -230,7 +342,6 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 CellStyle.ALIGN_LEFT);
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
         int rowCounter = 0;
         for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
             row = sheet.createRow(rowOffset + rowCounter);
@@ -239,16 +350,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 2; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
+    private void createLaborTimeSheet(List<LaborTime> laborTimeList, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1,
@@ -266,7 +375,6 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7,
                 CellStyle.ALIGN_LEFT);
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
         int rowCounter = 0;
         for (LaborTime laborTime : laborTimeList) {
             row = sheet.createRow(rowOffset + rowCounter);
@@ -280,16 +388,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 7; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, HSSFSheet sheet, Locale locale) {
+    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.divisionNumber", locale),
@@ -427,16 +533,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 25; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
+    private void createProductionCostsSheet(List<ProductionCost> productionCosts, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.productionCosts.orderNumber", locale),
@@ -528,16 +632,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 16, productionCost.getRealPieceworkCosts(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 16; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
+    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.orderNumber", locale),
@@ -652,16 +754,14 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 20, orderBalance.getSellPrice(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 20; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
+    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, Sheet sheet, Locale locale) {
         final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
         final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
         final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
                 row, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance.productNumber", locale),
@@ -771,84 +871,90 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 19, orderBalance.getSellPrice(), false);
             rowCounter++;
         }
-        for (int i = 0; i <= 19; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+        stylesContainer.setColumnWidths(sheet);
     }
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
-        cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HSSFCellStyle.ALIGN_LEFT));
+        cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, CellStyle.ALIGN_LEFT));
+        stylesContainer.updateColumnWidth(column, content);
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
-        cell.setCellValue(numberService.setScaleWithDefaultMathContext(value, 2).doubleValue());
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
+        BigDecimal scaledValue = numberService.setScaleWithDefaultMathContext(value, 2);
+        cell.setCellValue(scaledValue.doubleValue());
+        stylesContainer.updateColumnWidth(column, scaledValue.toPlainString());
         if (bold) {
-            cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberBoldStyle, HSSFCellStyle.ALIGN_RIGHT));
+            cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberBoldStyle, CellStyle.ALIGN_RIGHT));
         } else {
-            cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberStyle, HSSFCellStyle.ALIGN_RIGHT));
+            cell.setCellStyle(StylesContainer.aligned(stylesContainer.numberStyle, CellStyle.ALIGN_RIGHT));
         }
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value, boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value, boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             value = 0;
         }
         cell.setCellValue(Math.abs(value) / 86400d);
+        stylesContainer.updateColumnWidth(column, String.format("-%d:00:00", Math.abs(value) / 3600));
         if (value >= 0) {
             if (bold) {
-                cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeBoldStyle, HSSFCellStyle.ALIGN_RIGHT));
+                cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeBoldStyle, CellStyle.ALIGN_RIGHT));
             } else {
-                cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeStyle, HSSFCellStyle.ALIGN_RIGHT));
+                cell.setCellStyle(StylesContainer.aligned(stylesContainer.timeStyle, CellStyle.ALIGN_RIGHT));
             }
         } else {
-            cell.setCellStyle(StylesContainer.aligned(stylesContainer.negativeTimeStyle, HSSFCellStyle.ALIGN_RIGHT));
+            cell.setCellStyle(StylesContainer.aligned(stylesContainer.negativeTimeStyle, CellStyle.ALIGN_RIGHT));
         }
         return cell;
     }
 
-    private HSSFCell createDateTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Date value) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createDateTimeCell(StylesContainer stylesContainer, Row row, int column, Date value) {
+        Cell cell = row.createCell(column);
         if (value != null) {
             cell.setCellValue(value);
-            cell.setCellStyle(StylesContainer.aligned(stylesContainer.dateTimeStyle, HSSFCellStyle.ALIGN_RIGHT));
+            cell.setCellStyle(StylesContainer.aligned(stylesContainer.dateTimeStyle, CellStyle.ALIGN_RIGHT));
+            stylesContainer.updateColumnWidth(column, L_DATE_TIME_PATTERN);
         }
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column, short align) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column, short align) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, align));
+        stylesContainer.updateColumnWidth(column, content);
         return cell;
     }
 
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle timeBoldStyle;
+        private final CellStyle timeBoldStyle;
 
-        private final HSSFCellStyle negativeTimeStyle;
+        private final CellStyle negativeTimeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        private final HSSFCellStyle numberBoldStyle;
+        private final CellStyle numberBoldStyle;
 
-        private final HSSFCellStyle dateTimeStyle;
+        private final CellStyle dateTimeStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        private final Map<Integer, Integer> columnWidths = Maps.newHashMap();
+
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
-            regularStyle.setVerticalAlignment(HSSFCellStyle.VERTICAL_CENTER);
+            regularStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
 
             headerStyle = workbook.createCellStyle();
             headerStyle.setFont(fontsContainer.boldFont);
@@ -875,10 +981,23 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             numberBoldStyle.setFont(fontsContainer.boldFont);
 
             dateTimeStyle = workbook.createCellStyle();
-            dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+            dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat(L_DATE_TIME_PATTERN));
+        }
+
+        /**
+         * Rows are flushed from the streamed workbook, so column widths are measured while the cells are created.
+         */
+        private void updateColumnWidth(int column, String content) {
+            if (content != null) {
+                columnWidths.merge(column, Math.min((content.length() + 2) * 256, L_MAX_COLUMN_WIDTH), Math::max);
+            }
+        }
+
+        private void setColumnWidths(Sheet sheet) {
+            columnWidths.forEach(sheet::setColumnWidth);
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, short align) {
+        private static CellStyle aligned(CellStyle style, short align) {
             style.setAlignment(align);
             return style;
         }
@@ -889,7 +1008,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBoldweight(Font.BOLDWEIGHT_BOLD);
         }
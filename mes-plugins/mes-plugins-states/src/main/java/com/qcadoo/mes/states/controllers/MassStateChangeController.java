@@ -0,0 +1,96 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.controllers;
+
+import java.util.Map;
+import java.util.Optional;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.states.service.client.StateChangeJob;
+import com.qcadoo.mes.states.service.client.StateChangeJobService;
+
+@Controller
+@RequestMapping("/rest/states/massStateChange")
+public class MassStateChangeController {
+
+    @Autowired
+    private StateChangeJobService stateChangeJobService;
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
+    public Map<String, Object> status(@PathVariable String id, final HttpServletResponse response) {
+        Optional<StateChangeJob> job = stateChangeJobService.getJob(id);
+
+        if (!job.isPresent()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return null;
+        }
+
+        return getStatus(job.get());
+    }
+
+    @ResponseBody
+    @RequestMapping(method = RequestMethod.DELETE, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}")
+    public Map<String, Object> cancel(@PathVariable String id, final HttpServletResponse response) {
+        Optional<StateChangeJob> job = stateChangeJobService.getJob(id);
+
+        if (!job.isPresent()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return null;
+        }
+
+        job.get().cancel();
+
+        return getStatus(job.get());
+    }
+
+    private Map<String, Object> getStatus(final StateChangeJob job) {
+        Map<String, Object> status = Maps.newLinkedHashMap();
+
+        status.put("id", job.getId());
+        status.put("targetState", job.getTargetState());
+        status.put("totalEntities", job.getTotalEntities());
+        status.put("processedEntities", job.getProcessedEntities());
+        status.put("successfulEntities", job.getSuccessfulEntities());
+        status.put("failedEntities", job.getFailedEntities());
+        status.put("done", job.isDone());
+        status.put("cancelled", job.isCancelled());
+        status.put("failureMessages", job.getFailureMessages());
+
+        return status;
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.states.messages.constants.StateMessageType;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+
+/**
+ * Writes state changes which failed before any of their phases was run, together with their messages, using one batch insert
+ * per table instead of saving every row through its data definition.
+ * 
+ * Rows are written directly, so only the fields described by {@link StateChangeEntityDescriber} are filled, the remaining
+ * columns get their database defaults and no model hooks are called.
+ */
+@Service
+public class StateChangeBatchInsertService {
+
+    private static final String L_MESSAGES_TABLE = "states_message";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    /**
+     * Inserts failed state changes of given owners with single failure message each.
+     * 
+     * @param describer
+     *            describer of state change entity
+     * @param owners
+     *            state change owners, with their current state
+     * @param targetState
+     *            requested target state
+     * @param messageKey
+     *            translation key of failure message
+     */
+    @Transactional
+    public void insertFailedStateChanges(final StateChangeEntityDescriber describer, final List<Entity> owners,
+            final String targetState, final String messageKey) {
+        if (owners.isEmpty()) {
+            return;
+        }
+
+        String stateChangesTable = getTableName(describer.getDataDefinition());
+        Iterator<Long> stateChangeIds = getNewIds(stateChangesTable, owners.size()).iterator();
+        Iterator<Long> messageIds = getNewIds(L_MESSAGES_TABLE, owners.size()).iterator();
+
+        Date dateAndTime = new Date();
+        Entity shift = shiftsService.getShiftFromDateWithTime(dateAndTime);
+        String worker = securityService.getCurrentUserName();
+
+        List<Map<String, Object>> stateChangesParams = Lists.newArrayList();
+        List<Map<String, Object>> messagesParams = Lists.newArrayList();
+
+        for (Entity owner : owners) {
+            Map<String, Object> stateChangeParams = Maps.newHashMap();
+
+            stateChangeParams.put("id", stateChangeIds.next());
+            stateChangeParams.put("owner_id", owner.getId());
+            stateChangeParams.put("sourceState", owner.getStringField(describer.getOwnerStateFieldName()));
+            stateChangeParams.put("targetState", targetState);
+            stateChangeParams.put("status", StateChangeStatus.FAILURE.getStringValue());
+            stateChangeParams.put("phase", 0);
+            stateChangeParams.put("dateAndTime", dateAndTime);
+            stateChangeParams.put("shift_id", (shift == null) ? null : shift.getId());
+            stateChangeParams.put("worker", worker);
+
+            stateChangesParams.add(stateChangeParams);
+
+            Map<String, Object> messageParams = Maps.newHashMap();
+
+            messageParams.put("id", messageIds.next());
+            messageParams.put("stateChange_id", stateChangeParams.get("id"));
+            messageParams.put("type", StateMessageType.FAILURE.getStringValue());
+            messageParams.put("translationKey", messageKey);
+
+            messagesParams.add(messageParams);
+        }
+
+        String stateChangesQuery = String.format("INSERT INTO %s (id, %s_id, %s, %s, %s, %s, %s, %s_id, %s) VALUES (:id, "
+                + ":owner_id, :sourceState, :targetState, :status, :phase, :dateAndTime, :shift_id, :worker)",
+                stateChangesTable, getColumnName(describer.getOwnerFieldName()),
+                getColumnName(describer.getSourceStateFieldName()), getColumnName(describer.getTargetStateFieldName()),
+                getColumnName(describer.getStatusFieldName()), getColumnName(describer.getPhaseFieldName()),
+                getColumnName(describer.getDateTimeFieldName()), getColumnName(describer.getShiftFieldName()),
+                getColumnName(describer.getWorkerFieldName()));
+
+        jdbcTemplate.batchUpdate(stateChangesQuery, createBatch(stateChangesParams));
+
+        // messages are joined to state change by the field named after state change model
+        String messagesQuery = String.format("INSERT INTO %s (id, %s_id, type, translationkey, autoclose) VALUES (:id, "
+                + ":stateChange_id, :type, :translationKey, true)", L_MESSAGES_TABLE,
+                getColumnName(describer.getDataDefinition().getName()));
+
+        jdbcTemplate.batchUpdate(messagesQuery, createBatch(messagesParams));
+    }
+
+    private List<Long> getNewIds(final String tableName, final int count) {
+        return jdbcTemplate.queryForList(String.format("SELECT nextval('%s_id_seq') FROM generate_series(1, :count)", tableName),
+                Collections.singletonMap("count", count), Long.class);
+    }
+
+    private String getTableName(final DataDefinition dataDefinition) {
+        return getColumnName(dataDefinition.getPluginIdentifier()) + "_" + getColumnName(dataDefinition.getName());
+    }
+
+    private String getColumnName(final String fieldName) {
+        return fieldName.toLowerCase();
+    }
+
+    private SqlParameterSource[] createBatch(final List<Map<String, Object>> params) {
+        return params.stream().map(MapSqlParameterSource::new).toArray(SqlParameterSource[]::new);
+    }
+
+}
@@ -42,8 +42,11 @@ import com.qcadoo.view.api.components.GridComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static com.qcadoo.mes.states.constants.StateChangeStatus.*;
 import static com.qcadoo.mes.states.messages.util.MessagesUtil.hasFailureMessages;
@@ -61,6 +64,16 @@ public abstract class AbstractStateChangeViewClient implements StateChangeViewCl
     @Autowired
     private StateChangeViewClientValidationUtil viewClientValidationUtil;
 
+    @Autowired
+    private StateChangeJobService stateChangeJobService;
+
+    /**
+     * Grid selections larger than this are changed by a background {@link StateChangeJob}, if the view passes id of the job as
+     * the second argument of changeState event and follows it through /rest/states/massStateChange.
+     */
+    @Value("${states.massStateChangeThreshold:50}")
+    private int massStateChangeThreshold;
+
     protected abstract StateChangeService getStateChangeService();
 
     @Override
@@ -68,12 +81,51 @@ public abstract class AbstractStateChangeViewClient implements StateChangeViewCl
         final String newStateString = args[0];
         Preconditions.checkNotNull(newStateString, "Missing target state argument!");
         Preconditions.checkArgument(parseStateEnum(newStateString) != null, "Unsupported state value: " + newStateString);
-        changeState(buildViewContext(view, component), newStateString);
+        final String massStateChangeJobId = (args.length > 1) ? args[1] : null;
+        changeSelectedEntitiesState(buildViewContext(view, component), newStateString, massStateChangeJobId);
+    }
+
+    /**
+     * Reports result of mass state change which id is given as the first argument, once the view has found the job done.
+     * 
+     * @param view
+     * @param component
+     * @param args
+     */
+    public final void massStateChangeFinished(final ViewDefinitionState view, final ComponentState component,
+            final String[] args) {
+        final Optional<StateChangeJob> job = (args.length > 0) ? stateChangeJobService.getJob(args[0]) : Optional.empty();
+        final ComponentState messagesConsumer = buildViewContext(view, component).getMessagesConsumer();
+        if (!job.isPresent()) {
+            messagesConsumer.addMessage("states.messages.change.massChange.jobNotFound", MessageType.FAILURE, false);
+            return;
+        }
+        if (job.get().getSuccessfulEntities() > 0) {
+            messagesConsumer.addMessage("states.messages.change.massChange.successful", MessageType.SUCCESS, false,
+                    String.valueOf(job.get().getSuccessfulEntities()), String.valueOf(job.get().getTotalEntities()));
+        }
+        if (job.get().getFailedEntities() > 0) {
+            messagesConsumer.addMessage("states.messages.change.massChange.failure", MessageType.FAILURE, false,
+                    String.valueOf(job.get().getFailedEntities()), String.valueOf(job.get().getTotalEntities()));
+            for (String failureMessage : job.get().getFailureMessages()) {
+                messagesConsumer.addTranslatedMessage(failureMessage, MessageType.FAILURE, false);
+            }
+        }
     }
 
     @Override
     public final void changeState(final ViewContextHolder viewContext, final String targetState) {
+        changeSelectedEntitiesState(viewContext, targetState, null);
+    }
+
+    private void changeSelectedEntitiesState(final ViewContextHolder viewContext, final String targetState,
+            final String massStateChangeJobId) {
         final List<Entity> entities = viewClientUtil.getEntitiesFromComponent(viewContext);
+        if ((viewContext.getInvoker() instanceof GridComponent) && (entities.size() > massStateChangeThreshold)
+                && stateChangeJobService.canStart(massStateChangeJobId)) {
+            startMassStateChange(viewContext, targetState, entities, massStateChangeJobId);
+            return;
+        }
         for (Entity entity : entities) {
             DataDefinition dd = entity.getDataDefinition();
             Entity optionalMasterModel = dd.tryGetMasterModelEntity(entity.getId());
@@ -112,6 +164,17 @@ public abstract class AbstractStateChangeViewClient implements StateChangeViewCl
         }
     }
 
+    private void startMassStateChange(final ViewContextHolder viewContext, final String targetState, final List<Entity> entities,
+            final String jobId) {
+        List<Long> entityIds = entities.stream().map(Entity::getId).collect(Collectors.toList());
+        StateChangeJob job = stateChangeJobService.start(jobId, getStateChangeService(), entities.get(0).getDataDefinition(),
+                entityIds, targetState);
+        LOG.info(String.format("Mass state change %s started. Entity name : %S count : %d. Target state : %S", job.getId(),
+                entities.get(0).getDataDefinition().getName(), entityIds.size(), targetState));
+        viewContext.getMessagesConsumer().addMessage("states.messages.change.massChange.started", MessageType.INFO, false,
+                String.valueOf(entityIds.size()), job.getId());
+    }
+
     @Override
     public void showMessages(final ViewContextHolder viewContext, final StateChangeContext stateChangeContext) {
         viewClientUtil.addStateMessagesToView(viewContext.getMessagesConsumer(), stateChangeContext);
@@ -0,0 +1,124 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.service.client;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of mass state change started by {@link StateChangeJobService}.
+ * 
+ * Entities are changed one after another, each one within its own state change, so a failure of one entity doesn't roll back
+ * the others.
+ */
+public class StateChangeJob {
+
+    private final String id;
+
+    private final String targetState;
+
+    private final String userName;
+
+    private final int totalEntities;
+
+    private final AtomicInteger successfulEntities = new AtomicInteger();
+
+    private final AtomicInteger failedEntities = new AtomicInteger();
+
+    private final List<String> failureMessages = new CopyOnWriteArrayList<>();
+
+    private volatile Future<?> task;
+
+    private volatile boolean cancelled;
+
+    StateChangeJob(final String id, final String targetState, final String userName, final int totalEntities) {
+        this.id = id;
+        this.targetState = targetState;
+        this.userName = userName;
+        this.totalEntities = totalEntities;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTargetState() {
+        return targetState;
+    }
+
+    String getUserName() {
+        return userName;
+    }
+
+    public int getTotalEntities() {
+        return totalEntities;
+    }
+
+    public int getProcessedEntities() {
+        return successfulEntities.get() + failedEntities.get();
+    }
+
+    public int getSuccessfulEntities() {
+        return successfulEntities.get();
+    }
+
+    public int getFailedEntities() {
+        return failedEntities.get();
+    }
+
+    public List<String> getFailureMessages() {
+        return failureMessages;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return (task != null) && task.isDone();
+    }
+
+    /**
+     * Cancels state change - entity which state is being changed now is finished, the remaining ones are left untouched.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    void setTask(final Future<?> task) {
+        this.task = task;
+    }
+
+    void entitySucceeded() {
+        successfulEntities.incrementAndGet();
+    }
+
+    void entityFailed(final List<String> messages) {
+        failedEntities.incrementAndGet();
+        failureMessages.addAll(messages);
+    }
+
+}
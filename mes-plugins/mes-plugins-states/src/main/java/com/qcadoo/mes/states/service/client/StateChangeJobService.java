@@ -0,0 +1,335 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.service.client;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.states.StateChangeContext;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.StateEnum;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.states.messages.constants.StateMessageType;
+import com.qcadoo.mes.states.messages.util.MessagesUtil;
+import com.qcadoo.mes.states.service.StateChangeBatchInsertService;
+import com.qcadoo.mes.states.service.StateChangeContextBuilder;
+import com.qcadoo.mes.states.service.StateChangeService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.security.api.SecurityService;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Changes state of many entities in the background, so that accepting or closing a long list doesn't hold the HTTP request.
+ * 
+ * Entities are loaded and validated in batches. The ones which can't change to target state or have another state change in
+ * progress are rejected without running any phase, their failed state changes are written by
+ * {@link StateChangeBatchInsertService}. Every other entity goes through the regular state change of its
+ * {@link StateChangeService}, with all of its phases and listeners.
+ * 
+ * Job id is chosen by the view which starts the job, so that it can follow the job right after its request returns.
+ */
+@Service
+public class StateChangeJobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StateChangeJobService.class);
+
+    private static final String L_TRANSITION_NOT_ALLOWED = "states.messages.change.failure.transitionNotAllowed";
+
+    private static final String L_FAILURE = "states.messages.change.failure";
+
+    private static final String L_ANOTHER_CHANGE_IN_PROGRESS = "states.messages.change.failure.anotherChangeInProgress";
+
+    private static final String L_ENTITY_FAILURE = "states.messages.change.massChange.entityFailure";
+
+    private static final Pattern JOB_ID_PATTERN = Pattern.compile("[0-9a-z]{16,64}");
+
+    @Autowired
+    private StateChangeContextBuilder stateChangeContextBuilder;
+
+    @Autowired
+    private StateChangeBatchInsertService stateChangeBatchInsertService;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private SecurityService securityService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Value("${states.massStateChangeThreads:2}")
+    private int massStateChangeThreads;
+
+    @Value("${states.massStateChangeBatchSize:100}")
+    private int massStateChangeBatchSize;
+
+    private ExecutorService stateChangeExecutor;
+
+    private final Cache<String, StateChangeJob> jobs = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.HOURS).build();
+
+    @PostConstruct
+    public void init() {
+        stateChangeExecutor = Executors.newFixedThreadPool(massStateChangeThreads,
+                new ThreadFactoryBuilder().setNameFormat("massStateChange-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        stateChangeExecutor.shutdownNow();
+    }
+
+    /**
+     * Checks if job with given id can be started - id has to be long enough not to be guessed and not used yet.
+     * 
+     * @param id
+     *            job id chosen by the view
+     * @return true if job with given id can be started
+     */
+    public boolean canStart(final String id) {
+        return (id != null) && JOB_ID_PATTERN.matcher(id).matches() && (jobs.getIfPresent(id) == null);
+    }
+
+    public StateChangeJob start(final String id, final StateChangeService stateChangeService,
+            final DataDefinition dataDefinition, final List<Long> entityIds, final String targetState) {
+        StateChangeJob job = new StateChangeJob(id, targetState, securityService.getCurrentUserName(), entityIds.size());
+
+        if (jobs.asMap().putIfAbsent(job.getId(), job) != null) {
+            throw new IllegalArgumentException("Mass state change " + id + " already exists.");
+        }
+
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+
+        job.setTask(stateChangeExecutor.submit(() -> {
+            SecurityContextHolder.setContext(securityContext);
+            LocaleContextHolder.setLocale(locale);
+
+            try {
+                multiTenantService.doInMultiTenantContext(tenantId, new MultiTenantCallback() {
+
+                    @Override
+                    public void invoke() {
+                        changeState(job, stateChangeService, dataDefinition, entityIds, locale);
+                    }
+
+                });
+            } catch (RuntimeException e) {
+                LOG.error(String.format("Mass state change %s failed", job.getId()), e);
+            } finally {
+                SecurityContextHolder.clearContext();
+                LocaleContextHolder.resetLocaleContext();
+            }
+        }));
+
+        return job;
+    }
+
+    /**
+     * Returns job with given id, if it was started by current user.
+     * 
+     * @param id
+     *            job id
+     * @return job or empty optional if it doesn't exist, has expired or belongs to another user
+     */
+    public Optional<StateChangeJob> getJob(final String id) {
+        if (id == null) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(jobs.getIfPresent(id)).filter(
+                job -> job.getUserName().equals(securityService.getCurrentUserName()));
+    }
+
+    private void changeState(final StateChangeJob job, final StateChangeService stateChangeService,
+            final DataDefinition dataDefinition, final List<Long> entityIds, final Locale locale) {
+        StateChangeEntityDescriber describer = stateChangeService.getChangeEntityDescriber();
+        StateEnum targetState = describer.parseStateEnum(job.getTargetState());
+
+        for (List<Long> batchIds : Lists.partition(entityIds, massStateChangeBatchSize)) {
+            if (job.isCancelled()) {
+                return;
+            }
+
+            Map<Long, Entity> entitiesById = dataDefinition.find().add(SearchRestrictions.in("id", batchIds)).list()
+                    .getEntities().stream().collect(Collectors.toMap(Entity::getId, Function.identity()));
+
+            List<Entity> owners = Lists.newArrayList();
+
+            for (Long entityId : batchIds) {
+                Entity entity = entitiesById.get(entityId);
+
+                if (entity == null) {
+                    job.entityFailed(Collections.singletonList(translate(L_FAILURE, locale, entityId)));
+
+                    continue;
+                }
+
+                Entity masterModelEntity = dataDefinition.tryGetMasterModelEntity(entityId);
+
+                owners.add((masterModelEntity == null) ? entity : masterModelEntity);
+            }
+
+            Set<Long> ownersWithUnfinishedStateChange = getOwnersWithUnfinishedStateChange(describer, owners);
+
+            List<Entity> notAllowedOwners = Lists.newArrayList();
+            List<Entity> inProgressOwners = Lists.newArrayList();
+            List<Entity> allowedOwners = Lists.newArrayList();
+
+            for (Entity owner : owners) {
+                StateEnum sourceState = describer.parseStateEnum(owner.getStringField(describer.getOwnerStateFieldName()));
+
+                if ((sourceState != null) && !sourceState.canChangeTo(targetState)) {
+                    notAllowedOwners.add(owner);
+                } else if (ownersWithUnfinishedStateChange.contains(owner.getId())) {
+                    inProgressOwners.add(owner);
+                } else {
+                    allowedOwners.add(owner);
+                }
+            }
+
+            rejectStateChanges(job, describer, notAllowedOwners, L_TRANSITION_NOT_ALLOWED, locale);
+            rejectStateChanges(job, describer, inProgressOwners, L_ANOTHER_CHANGE_IN_PROGRESS, locale);
+
+            for (Entity owner : allowedOwners) {
+                if (job.isCancelled()) {
+                    return;
+                }
+
+                changeState(job, stateChangeService, describer, owner, locale);
+            }
+        }
+    }
+
+    private Set<Long> getOwnersWithUnfinishedStateChange(final StateChangeEntityDescriber describer, final List<Entity> owners) {
+        if (owners.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        String ownerFieldName = describer.getOwnerFieldName();
+
+        SearchCriteriaBuilder searchCriteriaBuilder = describer.getDataDefinition().find();
+
+        searchCriteriaBuilder.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteriaBuilder.add(SearchRestrictions.in(ownerFieldName + ".id",
+                owners.stream().map(Entity::getId).collect(Collectors.toList())));
+        searchCriteriaBuilder.add(SearchRestrictions.in(describer.getStatusFieldName(),
+                Sets.newHashSet(StateChangeStatus.IN_PROGRESS.getStringValue(), StateChangeStatus.PAUSED.getStringValue())));
+
+        return searchCriteriaBuilder.list().getEntities().stream()
+                .map(stateChange -> stateChange.getBelongsToField(ownerFieldName).getId()).collect(Collectors.toSet());
+    }
+
+    private void rejectStateChanges(final StateChangeJob job, final StateChangeEntityDescriber describer,
+            final List<Entity> owners, final String messageKey, final Locale locale) {
+        if (owners.isEmpty()) {
+            return;
+        }
+
+        try {
+            stateChangeBatchInsertService.insertFailedStateChanges(describer, owners, job.getTargetState(), messageKey);
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Can't save rejected state changes of %d entities", owners.size()), e);
+        }
+
+        for (Entity owner : owners) {
+            job.entityFailed(Collections.singletonList(translate(messageKey, locale, owner.getId())));
+        }
+    }
+
+    private void changeState(final StateChangeJob job, final StateChangeService stateChangeService,
+            final StateChangeEntityDescriber describer, final Entity entity, final Locale locale) {
+        try {
+            StateChangeContext stateChangeContext = stateChangeContextBuilder.build(describer, entity, job.getTargetState());
+
+            stateChangeService.changeState(stateChangeContext);
+
+            if (StateChangeStatus.SUCCESSFUL.equals(stateChangeContext.getStatus())) {
+                job.entitySucceeded();
+            } else {
+                job.entityFailed(getFailureMessages(stateChangeContext, entity.getId(), locale));
+            }
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Can't change state of %s id : %d", entity.getDataDefinition().getName(), entity.getId()), e);
+
+            job.entityFailed(Collections.singletonList(translate(L_FAILURE, locale, entity.getId())));
+        }
+    }
+
+    private List<String> getFailureMessages(final StateChangeContext stateChangeContext, final Long entityId,
+            final Locale locale) {
+        List<String> messages = stateChangeContext.getAllMessages().stream()
+                .filter(message -> MessagesUtil.messageIsTypeOf(message, StateMessageType.FAILURE)
+                        || MessagesUtil.messageIsTypeOf(message, StateMessageType.VALIDATION_ERROR))
+                .map(message -> translationService.translate(L_ENTITY_FAILURE, locale, String.valueOf(entityId),
+                        translationService.translate(MessagesUtil.getKey(message), locale, MessagesUtil.getArgs(message))))
+                .collect(Collectors.toList());
+
+        if (messages.isEmpty()) {
+            messages.add(translate(L_FAILURE, locale, entityId));
+        }
+
+        return messages;
+    }
+
+    private String translate(final String key, final Locale locale, final Long entityId) {
+        return translationService.translate(L_ENTITY_FAILURE, locale, String.valueOf(entityId),
+                translationService.translate(key, locale));
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.states.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.MockStateChangeDescriber;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.states.messages.constants.StateMessageType;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.security.api.SecurityService;
+
+public class StateChangeBatchInsertServiceTest {
+
+    private static final String L_TARGET_STATE = "02accepted";
+
+    private static final String L_MESSAGE_KEY = "states.messages.change.failure.transitionNotAllowed";
+
+    private StateChangeBatchInsertService stateChangeBatchInsertService;
+
+    private StateChangeEntityDescriber describer;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private SecurityService securityService;
+
+    @Mock
+    private DataDefinition stateChangeDD;
+
+    @Mock
+    private Entity shift;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateChangeBatchInsertService = new StateChangeBatchInsertService();
+        ReflectionTestUtils.setField(stateChangeBatchInsertService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(stateChangeBatchInsertService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(stateChangeBatchInsertService, "securityService", securityService);
+
+        describer = new MockStateChangeDescriber(stateChangeDD);
+
+        given(stateChangeDD.getPluginIdentifier()).willReturn("orders");
+        given(stateChangeDD.getName()).willReturn("orderStateChange");
+        given(shiftsService.getShiftFromDateWithTime(Matchers.any(Date.class))).willReturn(shift);
+        given(shift.getId()).willReturn(7L);
+        given(securityService.getCurrentUserName()).willReturn("admin");
+        given(jdbcTemplate.queryForList(Matchers.contains("orders_orderstatechange_id_seq"), Matchers.anyMap(),
+                Matchers.eq(Long.class))).willReturn(Lists.newArrayList(101L, 102L));
+        given(jdbcTemplate.queryForList(Matchers.contains("states_message_id_seq"), Matchers.anyMap(), Matchers.eq(Long.class)))
+                .willReturn(Lists.newArrayList(201L, 202L));
+    }
+
+    @Test
+    public final void shouldNotInsertAnythingForNoOwners() {
+        // when
+        stateChangeBatchInsertService.insertFailedStateChanges(describer, Collections.<Entity> emptyList(), L_TARGET_STATE,
+                L_MESSAGE_KEY);
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    @Test
+    public final void shouldInsertFailedStateChangeWithMessageForEveryOwner() {
+        // given
+        Entity firstOwner = mockOwner(1L, "01pending");
+        Entity secondOwner = mockOwner(2L, "03inProgress");
+
+        // when
+        stateChangeBatchInsertService.insertFailedStateChanges(describer, Lists.newArrayList(firstOwner, secondOwner),
+                L_TARGET_STATE, L_MESSAGE_KEY);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource[]> paramsCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate, times(2)).batchUpdate(queryCaptor.capture(), paramsCaptor.capture());
+
+        assertEquals("INSERT INTO orders_orderstatechange (id, owner_id, sourcestate, targetstate, status, phase, dateandtime, "
+                + "shift_id, worker) VALUES (:id, :owner_id, :sourceState, :targetState, :status, :phase, :dateAndTime, "
+                + ":shift_id, :worker)", queryCaptor.getAllValues().get(0));
+        assertEquals("INSERT INTO states_message (id, orderstatechange_id, type, translationkey, autoclose) VALUES (:id, "
+                + ":stateChange_id, :type, :translationKey, true)", queryCaptor.getAllValues().get(1));
+
+        SqlParameterSource[] stateChangesParams = paramsCaptor.getAllValues().get(0);
+
+        assertEquals(2, stateChangesParams.length);
+        assertEquals(101L, stateChangesParams[0].getValue("id"));
+        assertEquals(1L, stateChangesParams[0].getValue("owner_id"));
+        assertEquals("01pending", stateChangesParams[0].getValue("sourceState"));
+        assertEquals(L_TARGET_STATE, stateChangesParams[0].getValue("targetState"));
+        assertEquals(StateChangeStatus.FAILURE.getStringValue(), stateChangesParams[0].getValue("status"));
+        assertEquals(7L, stateChangesParams[0].getValue("shift_id"));
+        assertEquals("admin", stateChangesParams[0].getValue("worker"));
+        assertEquals(102L, stateChangesParams[1].getValue("id"));
+        assertEquals(2L, stateChangesParams[1].getValue("owner_id"));
+        assertEquals("03inProgress", stateChangesParams[1].getValue("sourceState"));
+
+        SqlParameterSource[] messagesParams = paramsCaptor.getAllValues().get(1);
+
+        assertEquals(2, messagesParams.length);
+        assertEquals(201L, messagesParams[0].getValue("id"));
+        assertEquals(101L, messagesParams[0].getValue("stateChange_id"));
+        assertEquals(StateMessageType.FAILURE.getStringValue(), messagesParams[0].getValue("type"));
+        assertEquals(L_MESSAGE_KEY, messagesParams[0].getValue("translationKey"));
+        assertEquals(202L, messagesParams[1].getValue("id"));
+        assertEquals(102L, messagesParams[1].getValue("stateChange_id"));
+    }
+
+    private Entity mockOwner(final Long id, final String state) {
+        Entity owner = mock(Entity.class);
+
+        given(owner.getId()).willReturn(id);
+        given(owner.getStringField(describer.getOwnerStateFieldName())).willReturn(state);
+
+        return owner;
+    }
+
+}
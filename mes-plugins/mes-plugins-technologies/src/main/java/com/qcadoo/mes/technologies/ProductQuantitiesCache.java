@@ -0,0 +1,224 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Product component quantities, operation runs and non components calculated for technologies, which operation trees can't be
+ * changed any more (accepted, checked and outdated ones, with all referenced technologies in such state too).
+ * 
+ * Results are kept per technology, its state and given quantity - operation runs are rounded up, so results for other given
+ * quantity can't be just multiplied. Whole cache is invalidated on every technology save (state or master technology change),
+ * both immediately and after transaction completion, and results calculated during invalidation are not stored.
+ */
+@Service
+public class ProductQuantitiesCache {
+
+    private static final Set<String> UNCHANGEABLE_STATES = ImmutableSet.of(TechnologyStateStringValues.ACCEPTED,
+            TechnologyStateStringValues.CHECKED, TechnologyStateStringValues.OUTDATED);
+
+    private static final Object INVALIDATION_KEY = new Object();
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final Cache<Key, TechnologyQuantities> technologiesQuantities = CacheBuilder.newBuilder().maximumSize(1000)
+            .expireAfterWrite(30, TimeUnit.MINUTES).build();
+
+    /**
+     * Returns product component quantities of technology, adding its operation runs and non components to given ones, as the
+     * calculation would do.
+     * 
+     * @param calculation
+     *            calculates quantities filling given (empty) operation runs and non components
+     */
+    public OperationProductComponentWithQuantityContainer getProductComponentWithQuantities(final Entity technology,
+            final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
+            final Set<OperationProductComponentHolder> nonComponents,
+            final BiFunction<Map<Long, BigDecimal>, Set<OperationProductComponentHolder>, OperationProductComponentWithQuantityContainer> calculation) {
+        String state = technology.getStringField(TechnologyFields.STATE);
+
+        if (Objects.isNull(technology.getId()) || Objects.isNull(givenQuantity) || !UNCHANGEABLE_STATES.contains(state)) {
+            return calculation.apply(operationRuns, nonComponents);
+        }
+
+        Key key = new Key(technology.getId(), state, givenQuantity);
+
+        TechnologyQuantities technologyQuantities = technologiesQuantities.getIfPresent(key);
+
+        if (Objects.isNull(technologyQuantities)) {
+            long currentVersion = version.get();
+
+            Map<Long, BigDecimal> technologyOperationRuns = Maps.newHashMap();
+            Set<OperationProductComponentHolder> technologyNonComponents = Sets.newHashSet();
+
+            OperationProductComponentWithQuantityContainer productComponentWithQuantities = calculation.apply(
+                    technologyOperationRuns, technologyNonComponents);
+
+            technologyQuantities = new TechnologyQuantities(productComponentWithQuantities.asMap(), technologyOperationRuns,
+                    technologyNonComponents);
+
+            if ((currentVersion == version.get()) && hasUnchangeableReferenceTechnologies(technology)) {
+                technologiesQuantities.put(key, technologyQuantities);
+            }
+        }
+
+        operationRuns.putAll(technologyQuantities.operationRuns);
+        nonComponents.addAll(technologyQuantities.nonComponents);
+
+        OperationProductComponentWithQuantityContainer productComponentWithQuantities = new OperationProductComponentWithQuantityContainer();
+
+        for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : technologyQuantities.quantities
+                .entrySet()) {
+            productComponentWithQuantities.put(productComponentWithQuantity.getKey(), productComponentWithQuantity.getValue());
+        }
+
+        return productComponentWithQuantities;
+    }
+
+    private boolean hasUnchangeableReferenceTechnologies(final Entity technology) {
+        EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+        for (Entity operationComponent : operationComponents) {
+            if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                    operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+                Entity referenceTechnology = operationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                if (!UNCHANGEABLE_STATES.contains(referenceTechnology.getStringField(TechnologyFields.STATE))
+                        || !hasUnchangeableReferenceTechnologies(referenceTechnology)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public void invalidate() {
+        invalidateNow();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.hasResource(INVALIDATION_KEY)) {
+            TransactionSynchronizationManager.bindResource(INVALIDATION_KEY, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(INVALIDATION_KEY);
+
+                    invalidateNow();
+                }
+
+            });
+        }
+    }
+
+    private void invalidateNow() {
+        version.incrementAndGet();
+
+        technologiesQuantities.invalidateAll();
+    }
+
+    private static final class TechnologyQuantities {
+
+        private final Map<OperationProductComponentHolder, BigDecimal> quantities;
+
+        private final Map<Long, BigDecimal> operationRuns;
+
+        private final Set<OperationProductComponentHolder> nonComponents;
+
+        private TechnologyQuantities(final Map<OperationProductComponentHolder, BigDecimal> quantities,
+                final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents) {
+            this.quantities = Collections.unmodifiableMap(Maps.newHashMap(quantities));
+            this.operationRuns = Collections.unmodifiableMap(Maps.newHashMap(operationRuns));
+            this.nonComponents = Collections.unmodifiableSet(Sets.newHashSet(nonComponents));
+        }
+
+    }
+
+    private static final class Key {
+
+        private final Long technologyId;
+
+        private final String state;
+
+        private final BigDecimal givenQuantity;
+
+        private Key(final Long technologyId, final String state, final BigDecimal givenQuantity) {
+            this.technologyId = technologyId;
+            this.state = state;
+            this.givenQuantity = givenQuantity;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(technologyId, state, givenQuantity);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return technologyId.equals(other.technologyId) && state.equals(other.state)
+                    && givenQuantity.equals(other.givenQuantity);
+        }
+
+    }
+
+}
@@ -72,6 +72,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private ProductQuantitiesCache productQuantitiesCache;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -195,6 +198,14 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     public OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForTechnology(final Entity technology,
             final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
             final Set<OperationProductComponentHolder> nonComponents) {
+        return productQuantitiesCache.getProductComponentWithQuantities(technology, givenQuantity, operationRuns, nonComponents,
+                (technologyOperationRuns, technologyNonComponents) -> calculateProductComponentWithQuantitiesForTechnology(
+                        technology, givenQuantity, technologyOperationRuns, technologyNonComponents));
+    }
+
+    private OperationProductComponentWithQuantityContainer calculateProductComponentWithQuantitiesForTechnology(
+            final Entity technology, final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
+            final Set<OperationProductComponentHolder> nonComponents) {
         OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
 
         EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
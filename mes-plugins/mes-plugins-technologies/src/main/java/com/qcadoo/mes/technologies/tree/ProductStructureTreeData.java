@@ -0,0 +1,224 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangeFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Technologies used while building a single product structure tree.
+ * 
+ * Operation components of a technology and their in/out product components are loaded with one query each, the first time the
+ * technology is reached, and technologies of products are loaded for all input products of an operation at once. Lookups made
+ * for every tree node are then answered from id-indexed maps, instead of a separate query for each node.
+ */
+final class ProductStructureTreeData {
+
+    private final DataDefinitionService dataDefinitionService;
+
+    private final Map<Long, Optional<Entity>> technologiesByProduct = Maps.newHashMap();
+
+    private final Map<Long, TechnologyStructure> technologyStructures = Maps.newHashMap();
+
+    private final Map<Long, Optional<Entity>> lastStateChanges = Maps.newHashMap();
+
+    ProductStructureTreeData(final DataDefinitionService dataDefinitionService) {
+        this.dataDefinitionService = dataDefinitionService;
+    }
+
+    Entity findTechnologyForProduct(final Entity product) {
+        if (!technologiesByProduct.containsKey(product.getId())) {
+            loadTechnologiesForProducts(Collections.singletonList(product));
+        }
+
+        return technologiesByProduct.get(product.getId()).orElse(null);
+    }
+
+    void loadTechnologiesForProducts(final Collection<Entity> products) {
+        Set<Long> productIds = products.stream().map(Entity::getId).filter(id -> !technologiesByProduct.containsKey(id))
+                .collect(Collectors.toSet());
+
+        if (productIds.isEmpty()) {
+            return;
+        }
+
+        List<Entity> technologies = dataDefinitionService
+                .get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY)
+                .find()
+                .createAlias(TechnologyFields.PRODUCT, "p", JoinType.INNER)
+                .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
+                .add(SearchRestrictions.in("p.id", productIds))
+                .add(SearchRestrictions.or(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyStateStringValues.ACCEPTED),
+                        SearchRestrictions.eq(TechnologyFields.STATE, TechnologyStateStringValues.CHECKED)))
+                .addOrder(SearchOrders.desc(TechnologyFields.MASTER)).addOrder(SearchOrders.asc(TechnologyFields.NUMBER)).list()
+                .getEntities();
+
+        for (Entity technology : technologies) {
+            technologiesByProduct.putIfAbsent(technology.getBelongsToField(TechnologyFields.PRODUCT).getId(),
+                    Optional.of(technology));
+        }
+        for (Long productId : productIds) {
+            technologiesByProduct.putIfAbsent(productId, Optional.empty());
+        }
+    }
+
+    Entity findOperationForProductAndTechnology(final Entity product, final Entity technology) {
+        TechnologyStructure structure = getStructure(technology);
+        List<Entity> productOutComponents = structure.getProductOutComponents(product);
+
+        return productOutComponents.isEmpty() ? null : structure.getOperationComponent(productOutComponents.get(0));
+    }
+
+    Entity findOperationForProductWithinChildren(final Entity product, final Entity operation, final Entity technology) {
+        TechnologyStructure structure = getStructure(technology);
+
+        for (Entity productOutComponent : structure.getProductOutComponents(product)) {
+            Entity operationComponent = structure.getOperationComponent(productOutComponent);
+            Entity parent = operationComponent.getBelongsToField(TechnologyOperationComponentFields.PARENT);
+
+            if (Objects.nonNull(parent) && parent.getId().equals(operation.getId())) {
+                return operationComponent;
+            }
+        }
+
+        return null;
+    }
+
+    BigDecimal findQuantityOfProductInOperation(final Entity product, final Entity operation, final Entity technology) {
+        TechnologyStructure structure = getStructure(technology);
+
+        for (Entity productOutComponent : structure.getProductOutComponents(product)) {
+            if (isOfOperation(productOutComponent, OperationProductOutComponentFields.OPERATION_COMPONENT, operation)) {
+                return productOutComponent.getDecimalField(OperationProductOutComponentFields.QUANTITY);
+            }
+        }
+        for (Entity productInComponent : structure.getProductInComponents(operation)) {
+            if (productInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT).getId().equals(product.getId())) {
+                return productInComponent.getDecimalField(OperationProductInComponentFields.QUANTITY);
+            }
+        }
+
+        return null;
+    }
+
+    List<Entity> getProductInComponents(final Entity operation, final Entity technology) {
+        return getStructure(technology).getProductInComponents(operation);
+    }
+
+    Entity getLastTechnologyStateChange(final Entity technology) {
+        return lastStateChanges.computeIfAbsent(technology.getId(),
+                technologyId -> Optional.ofNullable(technology.getHasManyField(TechnologyFields.STATE_CHANGES).find()
+                        .add(SearchRestrictions.eq(TechnologyStateChangeFields.STATUS,
+                                StateChangeStatus.SUCCESSFUL.getStringValue()))
+                        .addOrder(SearchOrders.desc(TechnologyStateChangeFields.DATE_AND_TIME)).setMaxResults(1)
+                        .uniqueResult())).orElse(null);
+    }
+
+    private boolean isOfOperation(final Entity productComponent, final String operationComponentField, final Entity operation) {
+        return productComponent.getBelongsToField(operationComponentField).getId().equals(operation.getId());
+    }
+
+    private TechnologyStructure getStructure(final Entity technology) {
+        return technologyStructures.computeIfAbsent(technology.getId(), technologyId -> new TechnologyStructure(technology));
+    }
+
+    private final class TechnologyStructure {
+
+        private final Map<Long, Entity> operationComponents = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> productOutComponentsByProduct = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> productInComponentsByOperation = Maps.newHashMap();
+
+        private TechnologyStructure(final Entity technology) {
+            for (Entity operationComponent : dataDefinitionService
+                    .get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT)
+                    .find().add(SearchRestrictions.belongsTo(TechnologyOperationComponentFields.TECHNOLOGY, technology)).list()
+                    .getEntities()) {
+                operationComponents.put(operationComponent.getId(), operationComponent);
+            }
+
+            for (Entity productOutComponent : findProductComponents(
+                    TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT,
+                    OperationProductOutComponentFields.OPERATION_COMPONENT, technology)) {
+                productOutComponentsByProduct.computeIfAbsent(
+                        productOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId(),
+                        productId -> Lists.newArrayList()).add(productOutComponent);
+            }
+
+            for (Entity productInComponent : findProductComponents(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT,
+                    OperationProductInComponentFields.OPERATION_COMPONENT, technology)) {
+                productInComponentsByOperation.computeIfAbsent(
+                        productInComponent.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT).getId(),
+                        operationId -> Lists.newArrayList()).add(productInComponent);
+            }
+        }
+
+        private List<Entity> findProductComponents(final String modelName, final String operationComponentField,
+                final Entity technology) {
+            return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, modelName).find()
+                    .createAlias(operationComponentField, "c", JoinType.INNER)
+                    .add(SearchRestrictions.belongsTo("c." + TechnologyOperationComponentFields.TECHNOLOGY, technology))
+                    .addOrder(SearchOrders.asc("id")).list().getEntities();
+        }
+
+        private Entity getOperationComponent(final Entity productOutComponent) {
+            return operationComponents.get(productOutComponent.getBelongsToField(
+                    OperationProductOutComponentFields.OPERATION_COMPONENT).getId());
+        }
+
+        private List<Entity> getProductOutComponents(final Entity product) {
+            return productOutComponentsByProduct.getOrDefault(product.getId(), Collections.emptyList());
+        }
+
+        private List<Entity> getProductInComponents(final Entity operation) {
+            return productInComponentsByOperation.getOrDefault(operation.getId(), Collections.emptyList());
+        }
+
+    }
+
+}
@@ -27,6 +27,7 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -122,40 +123,23 @@ public class ProductStructureTreeService {
                 .setMaxResults(1).uniqueResult();
     }
 
-    private BigDecimal findQuantityOfProductInOperation(final Entity product, final Entity operation) {
-        EntityList outProducts = operation.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
-
-        Entity productComponent = outProducts.find()
-                .add(SearchRestrictions.belongsTo(ProductStructureTreeNodeFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-        if (productComponent != null) {
-            return productComponent.getDecimalField(ProductStructureTreeNodeFields.QUANTITY);
-        }
-        EntityList inProducts = operation.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
-        productComponent = inProducts.find().add(SearchRestrictions.belongsTo(ProductStructureTreeNodeFields.PRODUCT, product))
-                .setMaxResults(1).uniqueResult();
-        if (productComponent != null) {
-            return productComponent.getDecimalField(ProductStructureTreeNodeFields.QUANTITY);
-        }
-        return null;
-    }
-
-    private void generateTreeForSubproducts(final Entity operation, final Entity technology, final List<Entity> tree,
-            final Entity parent, final ViewDefinitionState view, final Entity mainTechnology) {
-        EntityList productInComponents = operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
+    private void generateTreeForSubproducts(final ProductStructureTreeData data, final Entity operation,
+            final Entity technology, final List<Entity> tree, final Entity parent, final ViewDefinitionState view,
+            final Entity mainTechnology) {
+        List<Entity> productInComponents = data.getProductInComponents(operation, technology);
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
+        data.loadTechnologiesForProducts(getProducts(productInComponents));
         for (Entity productInComp : productInComponents) {
             Entity child = treeNodeDD.create();
             Entity product = productInComp.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+            Entity subOperation = data.findOperationForProductWithinChildren(product, operation, technology);
+            BigDecimal quantity = data.findQuantityOfProductInOperation(product, operation, technology);
+            Entity subTechnology = data.findTechnologyForProduct(product);
 
             if (subTechnology != null) {
                 if (subOperation == null) {
-                    Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
+                    Entity operationForTechnology = data.findOperationForProductAndTechnology(product, subTechnology);
                     Entity technologyGroup = subTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
                     BigDecimal standardPerformanceTechnology = subTechnology
                             .getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
@@ -170,7 +154,8 @@ public class ProductStructureTreeService {
                     child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroup);
                     child.setField(ProductStructureTreeNodeFields.STANDARD_PERFORMANCE_TECHNOLOGY, standardPerformanceTechnology);
                     child = addChild(tree, child, parent, L_COMPONENT);
-                    generateTreeForSubproducts(operationForTechnology, subTechnology, tree, child, view, mainTechnology);
+                    generateTreeForSubproducts(data, operationForTechnology, subTechnology, tree, child, view,
+                            mainTechnology);
                 } else {
                     child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
                     child.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, mainTechnology);
@@ -192,7 +177,7 @@ public class ProductStructureTreeService {
                                                     + product.getStringField(ProductFields.NAME));
                         }
                     }
-                    generateTreeForSubproducts(subOperation, technology, tree, child, view, mainTechnology);
+                    generateTreeForSubproducts(data, subOperation, technology, tree, child, view, mainTechnology);
                 }
             } else {
                 Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
@@ -211,7 +196,7 @@ public class ProductStructureTreeService {
                             subOperation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
 
                     child = addChild(tree, child, parent, L_INTERMEDIATE);
-                    generateTreeForSubproducts(subOperation, technology, tree, child, view, mainTechnology);
+                    generateTreeForSubproducts(data, subOperation, technology, tree, child, view, mainTechnology);
                 } else {
                     child.setField(ProductStructureTreeNodeFields.OPERATION, operation);
                     child.setField(ProductStructureTreeNodeFields.DIVISION,
@@ -224,17 +209,18 @@ public class ProductStructureTreeService {
     }
 
     public EntityTree generateProductStructureTree(final ViewDefinitionState view, final Entity technology) {
+        ProductStructureTreeData data = new ProductStructureTreeData(dataDefinitionService);
         Entity product = technology.getBelongsToField(TechnologyFields.PRODUCT);
-        Entity operation = findOperationForProductAndTechnology(product, technology);
+        Entity operation = data.findOperationForProductAndTechnology(product, technology);
         Entity technologyFromDB = technology.getDataDefinition().get(technology.getId());
         EntityTree tree = technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE);
         if (tree.getRoot() != null) {
             Date productStructureCreateDate = tree.getRoot().getDateField(ProductStructureTreeNodeFields.CREATE_DATE);
             List<Entity> treeEntities = tree.find().list().getEntities();
-            Entity technologyStateChange = getLastTechnologyStateChange(technologyFromDB);
+            Entity technologyStateChange = data.getLastTechnologyStateChange(technologyFromDB);
             if (productStructureCreateDate.before(technologyStateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME))
-                    || checkSubTechnologiesSubstitution(treeEntities)
-                    || checkIfSubTechnologiesChanged(operation, productStructureCreateDate)) {
+                    || checkSubTechnologiesSubstitution(data, treeEntities)
+                    || checkIfSubTechnologiesChanged(data, operation, technology, productStructureCreateDate)) {
                 deleteProductStructureTree(treeEntities);
             } else {
                 return tree;
@@ -243,7 +229,7 @@ public class ProductStructureTreeService {
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
         Entity root = treeNodeDD.create();
-        BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
+        BigDecimal quantity = data.findQuantityOfProductInOperation(product, operation, technology);
         Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
         BigDecimal standardPerformanceTechnology = technology.getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
         root.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
@@ -259,7 +245,7 @@ public class ProductStructureTreeService {
         List<Entity> productStructureList = new ArrayList<>();
         root = addChild(productStructureList, root, null, L_FINAL_PRODUCT);
 
-        generateTreeForSubproducts(operation, technology, productStructureList, root, view, technology);
+        generateTreeForSubproducts(data, operation, technology, productStructureList, root, view, technology);
 
         return EntityTreeUtilsService.getDetachedEntityTree(productStructureList);
     }
@@ -270,14 +256,16 @@ public class ProductStructureTreeService {
         }
     }
 
-    private boolean checkSubTechnologiesSubstitution(List<Entity> treeEntities) {
+    private boolean checkSubTechnologiesSubstitution(final ProductStructureTreeData data, List<Entity> treeEntities) {
+        data.loadTechnologiesForProducts(treeEntities.stream()
+                .map(entity -> entity.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT)).collect(Collectors.toList()));
         for (Entity entity : treeEntities) {
             String entityType = entity.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE);
             if (entityType.equals(L_INTERMEDIATE) || entityType.equals(L_FINAL_PRODUCT)) {
                 continue;
             }
             Entity product = entity.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT);
-            Entity newTechnology = findTechnologyForProduct(product);
+            Entity newTechnology = data.findTechnologyForProduct(product);
             if (entityType.equals(L_MATERIAL) && newTechnology != null) {
                 return true;
             } else if (entityType.equals(L_COMPONENT)) {
@@ -291,32 +279,36 @@ public class ProductStructureTreeService {
         return false;
     }
 
-    private boolean checkIfSubTechnologiesChanged(Entity operation, Date productStructureCreateDate) {
-        for (Entity productInComp : operation.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+    private boolean checkIfSubTechnologiesChanged(final ProductStructureTreeData data, Entity operation, Entity technology,
+            Date productStructureCreateDate) {
+        List<Entity> productInComponents = data.getProductInComponents(operation, technology);
+        data.loadTechnologiesForProducts(getProducts(productInComponents));
+        for (Entity productInComp : productInComponents) {
             Entity product = productInComp.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+            Entity subOperation = data.findOperationForProductWithinChildren(product, operation, technology);
+            Entity subTechnology = data.findTechnologyForProduct(product);
 
             if (subTechnology != null) {
-                Entity technologyStateChange = getLastTechnologyStateChange(subTechnology);
+                Entity technologyStateChange = data.getLastTechnologyStateChange(subTechnology);
                 if (productStructureCreateDate.before(technologyStateChange
                         .getDateField(TechnologyStateChangeFields.DATE_AND_TIME))) {
                     return true;
                 }
                 if (subOperation == null) {
-                    Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
-                    boolean changed = checkIfSubTechnologiesChanged(operationForTechnology, productStructureCreateDate);
+                    Entity operationForTechnology = data.findOperationForProductAndTechnology(product, subTechnology);
+                    boolean changed = checkIfSubTechnologiesChanged(data, operationForTechnology, subTechnology,
+                            productStructureCreateDate);
                     if (changed) {
                         return true;
                     }
                 } else {
-                    boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
+                    boolean changed = checkIfSubTechnologiesChanged(data, subOperation, technology, productStructureCreateDate);
                     if (changed) {
                         return true;
                     }
                 }
             } else if (subOperation != null) {
-                boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
+                boolean changed = checkIfSubTechnologiesChanged(data, subOperation, technology, productStructureCreateDate);
                 if (changed) {
                     return true;
                 }
@@ -325,6 +317,12 @@ public class ProductStructureTreeService {
         return false;
     }
 
+    private List<Entity> getProducts(final List<Entity> productInComponents) {
+        return productInComponents.stream()
+                .map(productInComponent -> productInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT))
+                .collect(Collectors.toList());
+    }
+
     public Entity getLastTechnologyStateChange(Entity technology) {
         return technology.getHasManyField(TechnologyFields.STATE_CHANGES).find()
                 .add(SearchRestrictions.eq(TechnologyStateChangeFields.STATUS, StateChangeStatus.SUCCESSFUL.getStringValue()))
@@ -0,0 +1,165 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+public class ProductQuantitiesCacheTest {
+
+    private ProductQuantitiesCache productQuantitiesCache;
+
+    @Mock
+    private Entity technology;
+
+    @Mock
+    private EntityTree operationComponents;
+
+    private final OperationProductComponentHolder inComponent = new OperationProductComponentHolder(1L, 10L, null, null,
+            OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+
+    private final OperationProductComponentHolder nonComponent = new OperationProductComponentHolder(2L, 10L, null, null,
+            OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+
+    private final AtomicInteger calculations = new AtomicInteger();
+
+    private final BiFunction<Map<Long, BigDecimal>, Set<OperationProductComponentHolder>, OperationProductComponentWithQuantityContainer> calculation = (
+            operationRuns, nonComponents) -> {
+        calculations.incrementAndGet();
+
+        operationRuns.put(10L, BigDecimal.TEN);
+        nonComponents.add(nonComponent);
+
+        OperationProductComponentWithQuantityContainer productComponentWithQuantities = new OperationProductComponentWithQuantityContainer();
+
+        productComponentWithQuantities.put(inComponent, BigDecimal.ONE);
+
+        return productComponentWithQuantities;
+    };
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productQuantitiesCache = new ProductQuantitiesCache();
+
+        given(technology.getId()).willReturn(1L);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+        given(operationComponents.iterator()).willReturn(Collections.<Entity> emptyIterator());
+    }
+
+    @Test
+    public void shouldCalculateQuantitiesOfAcceptedTechnologyOnce() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.ACCEPTED);
+
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        // when
+        OperationProductComponentWithQuantityContainer productComponentWithQuantities = productQuantitiesCache
+                .getProductComponentWithQuantities(technology, BigDecimal.TEN, operationRuns, nonComponents, calculation);
+
+        // then
+        assertEquals(1, calculations.get());
+        assertEquals(BigDecimal.ONE, productComponentWithQuantities.get(inComponent));
+        assertEquals(BigDecimal.TEN, operationRuns.get(10L));
+        assertTrue(nonComponents.contains(nonComponent));
+    }
+
+    @Test
+    public void shouldCalculateQuantitiesForOtherGivenQuantity() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.ACCEPTED);
+
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        // when
+        getProductComponentWithQuantities(BigDecimal.ONE);
+
+        // then
+        assertEquals(2, calculations.get());
+    }
+
+    @Test
+    public void shouldAlwaysCalculateQuantitiesOfDraftTechnology() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.DRAFT);
+
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        // when
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        // then
+        assertEquals(2, calculations.get());
+    }
+
+    @Test
+    public void shouldCalculateQuantitiesAgainAfterInvalidation() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.ACCEPTED);
+
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        productQuantitiesCache.invalidate();
+
+        // when
+        getProductComponentWithQuantities(BigDecimal.TEN);
+
+        // then
+        assertEquals(2, calculations.get());
+    }
+
+    private OperationProductComponentWithQuantityContainer getProductComponentWithQuantities(final BigDecimal givenQuantity) {
+        return productQuantitiesCache.getProductComponentWithQuantities(technology, givenQuantity, Maps.newHashMap(),
+                Sets.newHashSet(), calculation);
+    }
+
+}
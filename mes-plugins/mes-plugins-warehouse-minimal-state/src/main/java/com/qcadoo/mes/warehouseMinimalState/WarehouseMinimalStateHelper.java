@@ -25,6 +25,7 @@ package com.qcadoo.mes.warehouseMinimalState;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -40,24 +41,31 @@ public class WarehouseMinimalStateHelper {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private WarehouseStockState warehouseStockState;
+
     public boolean checkIfLowerThanMinimum(long productId, BigDecimal quantity, BigDecimal minimumState) {
         return quantity.compareTo(minimumState) == -1;
     }
 
-    public BigDecimal getOrderedQuantityForProductAndLocation(final Long warehouse, final Long product) {
-        String query = "select COALESCE(sum(op.orderedQuantity),0) as  orderedQuantity from #deliveries_orderedProduct op, "
-                + "#deliveries_delivery del where op.delivery.id=del.id and op.product.id=:product and del.location.id = :warehouseId "
-                + "and del.state in ('01draft', '02prepared', '03duringCorrection', '05approved') and del.active=true";
-        return getResourceStockDtoDD().find(query).setParameter("warehouseId", warehouse).setParameter("product", product)
-                .setMaxResults(1).uniqueResult().getDecimalField("orderedQuantity");
-    }
-
     // WARNING unused argument is used in aspect in plugin integration
     public List<Entity> getWarehouseStockWithTooSmallMinState(final Entity warehouse, final List<Entity> product) {
+        DataDefinition resourceStockDtoDD = getResourceStockDtoDD();
+
+        return warehouseStockState.getStocksBelowMinimum(warehouse.getId()).stream()
+                .map(stock -> createResourceStock(resourceStockDtoDD, stock)).collect(Collectors.toList());
+    }
+
+    private Entity createResourceStock(final DataDefinition resourceStockDtoDD, final WarehouseStock stock) {
+        Entity resourceStock = resourceStockDtoDD.create();
+
+        resourceStock.setField("location_id", stock.getLocationId().intValue());
+        resourceStock.setField("product_id", stock.getProductId().intValue());
+        resourceStock.setField("minimumState", stock.getMinimumState());
+        resourceStock.setField("quantity", stock.getQuantity());
+        resourceStock.setField("orderedQuantity", stock.getOrderedQuantity());
 
-        String query = "select stock from #materialFlowResources_resourceStockDto as stock where stock.minimumState > 0"
-                + " and stock.location_id = :warehouseId";
-        return getResourceStockDtoDD().find(query).setParameter("warehouseId", warehouse.getId().intValue()).list().getEntities();
+        return resourceStock;
     }
 
     private DataDefinition getResourceStockDtoDD() {
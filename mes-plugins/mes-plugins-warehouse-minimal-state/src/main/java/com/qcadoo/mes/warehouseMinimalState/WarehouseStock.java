@@ -0,0 +1,75 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import java.math.BigDecimal;
+
+import com.qcadoo.model.api.BigDecimalUtils;
+
+public class WarehouseStock {
+
+    private final Long locationId;
+
+    private final Long productId;
+
+    private final BigDecimal minimumState;
+
+    private final BigDecimal quantity;
+
+    private final BigDecimal orderedQuantity;
+
+    public WarehouseStock(final Long locationId, final Long productId, final BigDecimal minimumState,
+            final BigDecimal quantity, final BigDecimal orderedQuantity) {
+        this.locationId = locationId;
+        this.productId = productId;
+        this.minimumState = BigDecimalUtils.convertNullToZero(minimumState);
+        this.quantity = BigDecimalUtils.convertNullToZero(quantity);
+        this.orderedQuantity = BigDecimalUtils.convertNullToZero(orderedQuantity);
+    }
+
+    public Long getLocationId() {
+        return locationId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public BigDecimal getMinimumState() {
+        return minimumState;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public BigDecimal getOrderedQuantity() {
+        return orderedQuantity;
+    }
+
+    public boolean isBelowMinimum() {
+        return quantity.add(orderedQuantity).compareTo(minimumState) < 0;
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Keeps on hand and on order totals per (location, product) for products with a minimum state defined, so that products below
+ * minimum can be answered without scanning the whole stock. Totals of a location are loaded once with a single statement and
+ * afterwards only the keys marked as changed are re-read, after the changing transaction commits. A
+ * {@link WarehouseMinimumStateAlert} is published for every key which falls below its minimum state.
+ */
+@Service
+public class WarehouseStockState {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WarehouseStockState.class);
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_IDS = "productIds";
+
+    private static final String STOCKS_QUERY = "SELECT ms.location_id AS locationId, ms.product_id AS productId, "
+            + "ms.minimumstate AS minimumState, "
+            + "(SELECT sum(r.quantity) FROM materialflowresources_resource r "
+            + "WHERE r.location_id = ms.location_id AND r.product_id = ms.product_id) AS quantity, "
+            + "(SELECT sum(op.orderedquantity) FROM deliveries_orderedproduct op "
+            + "JOIN deliveries_delivery d ON d.id = op.delivery_id "
+            + "WHERE d.location_id = ms.location_id AND op.product_id = ms.product_id AND d.active = true "
+            + "AND d.state IN ('01draft', '02prepared', '03duringCorrection', '05approved')) AS orderedQuantity "
+            + "FROM warehouseminimalstate_warehouseminimumstate ms WHERE ms.location_id = :locationId AND ms.minimumstate > 0";
+
+    private static final RowMapper<WarehouseStock> STOCK_ROW_MAPPER = (rs, rowNum) -> new WarehouseStock(
+            rs.getLong("locationId"), rs.getLong("productId"), rs.getBigDecimal("minimumState"), rs.getBigDecimal("quantity"),
+            rs.getBigDecimal("orderedQuantity"));
+
+    private final ConcurrentMap<Long, Map<Long, WarehouseStock>> stocks = new ConcurrentHashMap<>();
+
+    private final Object pendingChangesKey = new Object();
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    public List<WarehouseStock> getStocksBelowMinimum(final Long locationId) {
+        return getStocks(locationId).values().stream().filter(WarehouseStock::isBelowMinimum).collect(Collectors.toList());
+    }
+
+    public void markChanged(final Long locationId, final Long productId) {
+        if ((locationId == null) || (productId == null)) {
+            return;
+        }
+
+        markChanged(locationId, Collections.singleton(productId));
+    }
+
+    public void markChanged(final Long locationId, final Collection<Long> productIds) {
+        if ((locationId == null) || productIds.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getPendingChanges().putAll(locationId, productIds);
+        } else {
+            refresh(locationId, productIds);
+        }
+    }
+
+    public void markDocumentChanged(final Long documentId, final Long... locationIds) {
+        List<Long> productIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT product_id FROM materialflowresources_position WHERE document_id = :documentId",
+                Collections.singletonMap("documentId", documentId), Long.class);
+
+        for (Long locationId : locationIds) {
+            markChanged(locationId, productIds);
+        }
+    }
+
+    public void markDeliveryChanged(final Long deliveryId, final Long... locationIds) {
+        List<Long> productIds = jdbcTemplate.queryForList(
+                "SELECT DISTINCT product_id FROM deliveries_orderedproduct WHERE delivery_id = :deliveryId",
+                Collections.singletonMap("deliveryId", deliveryId), Long.class);
+
+        for (Long locationId : locationIds) {
+            markChanged(locationId, productIds);
+        }
+    }
+
+    private Map<Long, WarehouseStock> getStocks(final Long locationId) {
+        return stocks.computeIfAbsent(locationId, this::loadStocks);
+    }
+
+    private Map<Long, WarehouseStock> loadStocks(final Long locationId) {
+        List<WarehouseStock> locationStocks = jdbcTemplate.query(STOCKS_QUERY,
+                Collections.singletonMap(L_LOCATION_ID, locationId), STOCK_ROW_MAPPER);
+
+        return locationStocks.stream().collect(
+                Collectors.toConcurrentMap(WarehouseStock::getProductId, stock -> stock, (first, second) -> first));
+    }
+
+    private void refresh(final Long locationId, final Collection<Long> productIds) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+        parameters.put(L_PRODUCT_IDS, productIds);
+
+        Map<Long, WarehouseStock> refreshedStocks = jdbcTemplate
+                .query(STOCKS_QUERY + " AND ms.product_id IN (:productIds)", parameters, STOCK_ROW_MAPPER).stream()
+                .collect(Collectors.toMap(WarehouseStock::getProductId, stock -> stock, (first, second) -> first));
+
+        Map<Long, WarehouseStock> locationStocks = stocks.get(locationId);
+
+        for (Long productId : productIds) {
+            WarehouseStock stock = refreshedStocks.get(productId);
+            WarehouseStock previousStock;
+
+            if (locationStocks == null) {
+                previousStock = null;
+            } else if (stock == null) {
+                previousStock = locationStocks.remove(productId);
+            } else {
+                previousStock = locationStocks.put(productId, stock);
+            }
+
+            if ((stock != null) && stock.isBelowMinimum() && ((previousStock == null) || !previousStock.isBelowMinimum())) {
+                LOG.info(String.format("Product %d fell below minimum state in location %d", productId, locationId));
+
+                eventPublisher.publishEvent(new WarehouseMinimumStateAlert(this, stock));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private SetMultimap<Long, Long> getPendingChanges() {
+        SetMultimap<Long, Long> pendingChanges = (SetMultimap<Long, Long>) TransactionSynchronizationManager
+                .getResource(pendingChangesKey);
+
+        if (pendingChanges == null) {
+            SetMultimap<Long, Long> changes = HashMultimap.create();
+
+            TransactionSynchronizationManager.bindResource(pendingChangesKey, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(pendingChangesKey);
+
+                    if (TransactionSynchronization.STATUS_COMMITTED == status) {
+                        for (Long locationId : changes.keySet()) {
+                            refresh(locationId, changes.get(locationId));
+                        }
+                    }
+                }
+            });
+
+            pendingChanges = changes;
+        }
+
+        return pendingChanges;
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState.aop;
+
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
+import com.qcadoo.mes.warehouseMinimalState.WarehouseStockState;
+import com.qcadoo.mes.warehouseMinimalState.constants.WarehouseMinimalStateConstants;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+@Aspect
+@Configurable
+@RunIfEnabled(WarehouseMinimalStateConstants.PLUGIN_IDENTIFIER)
+public class ResourceManagementServiceWMSAspect {
+
+    @Autowired
+    private WarehouseStockState warehouseStockState;
+
+    @Pointcut("execution(public void com.qcadoo.mes.materialFlowResources.service.ResourceManagementServiceImpl.createResources(..)) "
+            + "&& args(document)")
+    public void createResourcesExecution(final Entity document) {
+    }
+
+    @AfterReturning("createResourcesExecution(document)")
+    public void afterCreateResourcesExecution(final Entity document) {
+        warehouseStockState.markDocumentChanged(document.getId(), getLocationId(document, DocumentFields.LOCATION_FROM),
+                getLocationId(document, DocumentFields.LOCATION_TO));
+    }
+
+    private Long getLocationId(final Entity document, final String locationField) {
+        Entity location = document.getBelongsToField(locationField);
+
+        if (location == null) {
+            return null;
+        }
+
+        return location.getId();
+    }
+
+}
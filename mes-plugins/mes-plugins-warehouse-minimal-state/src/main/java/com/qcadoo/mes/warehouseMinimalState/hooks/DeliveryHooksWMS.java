@@ -0,0 +1,71 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState.hooks;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.deliveries.constants.DeliveryFields;
+import com.qcadoo.mes.warehouseMinimalState.WarehouseStockState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class DeliveryHooksWMS {
+
+    @Autowired
+    private WarehouseStockState warehouseStockState;
+
+    public void onSave(final DataDefinition deliveryDD, final Entity delivery) {
+        if (delivery.getId() == null) {
+            return;
+        }
+
+        Entity deliveryFromDB = deliveryDD.get(delivery.getId());
+
+        Long locationId = getLocationId(delivery);
+        Long locationFromDBId = getLocationId(deliveryFromDB);
+
+        if (!Objects.equals(locationId, locationFromDBId)
+                || !Objects.equals(delivery.getStringField(DeliveryFields.STATE),
+                        deliveryFromDB.getStringField(DeliveryFields.STATE))
+                || !Objects.equals(delivery.getBooleanField(DeliveryFields.ACTIVE),
+                        deliveryFromDB.getBooleanField(DeliveryFields.ACTIVE))) {
+            warehouseStockState.markDeliveryChanged(delivery.getId(), locationId, locationFromDBId);
+        }
+    }
+
+    private Long getLocationId(final Entity delivery) {
+        Entity location = delivery.getBelongsToField(DeliveryFields.LOCATION);
+
+        if (location == null) {
+            return null;
+        }
+
+        return location.getId();
+    }
+
+}
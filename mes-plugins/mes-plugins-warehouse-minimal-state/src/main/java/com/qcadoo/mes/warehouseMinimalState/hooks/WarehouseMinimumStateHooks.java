@@ -23,8 +23,10 @@
  */
 package com.qcadoo.mes.warehouseMinimalState.hooks;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.warehouseMinimalState.WarehouseStockState;
 import com.qcadoo.mes.warehouseMinimalState.constants.WarehouseMinimumStateFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -33,6 +35,9 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 @Service
 public class WarehouseMinimumStateHooks {
 
+    @Autowired
+    private WarehouseStockState warehouseStockState;
+
     public boolean validatesWith(final DataDefinition locationMinimumStateDD, final Entity locationMinimumState) {
 
         Entity lms = getLocationMinimumStateByProductAndLocation(locationMinimumStateDD,
@@ -52,6 +57,29 @@ public class WarehouseMinimumStateHooks {
         return true;
     }
 
+    public void onSave(final DataDefinition locationMinimumStateDD, final Entity locationMinimumState) {
+        markChanged(locationMinimumState);
+
+        if (locationMinimumState.getId() != null) {
+            markChanged(locationMinimumStateDD.get(locationMinimumState.getId()));
+        }
+    }
+
+    public boolean onDelete(final DataDefinition locationMinimumStateDD, final Entity locationMinimumState) {
+        markChanged(locationMinimumState);
+
+        return true;
+    }
+
+    private void markChanged(final Entity locationMinimumState) {
+        Entity product = locationMinimumState.getBelongsToField(WarehouseMinimumStateFields.PRODUCT);
+        Entity location = locationMinimumState.getBelongsToField(WarehouseMinimumStateFields.LOCATION);
+
+        if ((product != null) && (location != null)) {
+            warehouseStockState.markChanged(location.getId(), product.getId());
+        }
+    }
+
     private Entity getLocationMinimumStateByProductAndLocation(final DataDefinition locationMinimumStateDD, final Entity product,
             final Entity location) {
         return locationMinimumStateDD.find().add(SearchRestrictions.belongsTo(WarehouseMinimumStateFields.PRODUCT, product))
@@ -186,42 +186,27 @@ public class DocumentPdf extends ReportPdfView {
     private boolean addRow(Entity minimalState, Map<Long, Entity> stocksByProduct, PdfPTable table) {
         boolean rowAdded = false;
         Entity product = minimalState.getBelongsToField(WarehouseMinimumStateFields.PRODUCT);
-        Entity warehouse = minimalState.getBelongsToField(WarehouseMinimumStateFields.LOCATION);
         Entity stock = stocksByProduct.get(product.getId());
-        if (stock == null) {
-            BigDecimal ordered = warehouseMinimalStateHelper.getOrderedQuantityForProductAndLocation(warehouse.getId(),
-                    product.getId());
-
-            if (warehouseMinimalStateHelper.checkIfLowerThanMinimum(product.getId(), ordered,
-                    minimalState.getDecimalField("minimumState"))) {
-                addCells(table, minimalState, null, ordered);
-                rowAdded = true;
-            }
-        } else {
+        if (stock != null) {
             BigDecimal statePlusOrder = BigDecimalUtils.convertNullToZero(stock.getDecimalField("orderedQuantity"))
                     .add(BigDecimalUtils.convertNullToZero(stock.getDecimalField("quantity")), numberService.getMathContext());
             if (warehouseMinimalStateHelper.checkIfLowerThanMinimum(product.getId(), statePlusOrder,
                     stock.getDecimalField("minimumState"))) {
-                addCells(table, minimalState, stock, null);
+                addCells(table, minimalState, stock);
                 rowAdded = true;
             }
         }
         return rowAdded;
     }
 
-    private void addCells(PdfPTable table, Entity warehouseMinimumState, Entity stock, BigDecimal ordered) {
+    private void addCells(PdfPTable table, Entity warehouseMinimumState, Entity stock) {
         Entity product = warehouseMinimumState.getBelongsToField(WarehouseMinimumStateFields.PRODUCT);
         addSmallCell(table, product.getStringField(ProductFields.NUMBER));
         addSmallCell(table, product.getStringField(ProductFields.NAME));
         addSmallCell(table, product.getStringField(ProductFields.UNIT));
         addSmallCell(table, warehouseMinimumState.getDecimalField(WarehouseMinimumStateFields.MINIMUM_STATE));
-        if (stock != null) {
-            addSmallCell(table, stock.getDecimalField("quantity"));
-            addSmallCell(table, stock.getDecimalField("orderedQuantity"));
-        } else {
-            addSmallCell(table, BigDecimal.ZERO);
-            addSmallCell(table, ordered);
-        }
+        addSmallCell(table, stock.getDecimalField("quantity"));
+        addSmallCell(table, stock.getDecimalField("orderedQuantity"));
         addAdditionalCells(table, product);
         addSmallCell(table, warehouseMinimumState.getDecimalField(WarehouseMinimumStateFields.OPTIMAL_ORDER_QUANTITY));
         Optional<Entity> supplier = deliveriesService.getDefaultSupplier(product.getId());
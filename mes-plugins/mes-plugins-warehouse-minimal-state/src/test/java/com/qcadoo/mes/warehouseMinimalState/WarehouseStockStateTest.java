@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.warehouseMinimalState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+@SuppressWarnings("unchecked")
+public class WarehouseStockStateTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private WarehouseStockState warehouseStockState;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Before
+    public void init() {
+        warehouseStockState = new WarehouseStockState();
+
+        MockitoAnnotations.initMocks(this);
+
+        ReflectionTestUtils.setField(warehouseStockState, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(warehouseStockState, "eventPublisher", eventPublisher);
+    }
+
+    @Test
+    public void shouldReturnOnlyStocksBelowMinimum() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(stock(10L, "10", "3", "2"), stock(11L, "10", "8", "2"), stock(12L, "5", null, null)));
+
+        // when
+        List<WarehouseStock> stocks = warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID);
+
+        // then
+        List<Long> productIds = stocks.stream().map(WarehouseStock::getProductId).sorted().collect(Collectors.toList());
+
+        assertEquals(Lists.newArrayList(10L, 12L), productIds);
+    }
+
+    @Test
+    public void shouldLoadLocationOnlyOnce() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(stock(10L, "10", "3", "2")));
+
+        // when
+        warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID);
+        warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID);
+
+        // then
+        verify(jdbcTemplate, times(1)).query(anyString(), anyMap(), any(RowMapper.class));
+    }
+
+    @Test
+    public void shouldDropRefreshedStockWhichIsNoLongerBelowMinimum() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(stock(10L, "10", "3", "2")), Lists.newArrayList(stock(10L, "10", "9", "2")));
+
+        warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID);
+
+        // when
+        warehouseStockState.markChanged(L_LOCATION_ID, 10L);
+
+        // then
+        assertTrue(warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID).isEmpty());
+        verify(eventPublisher, never()).publishEvent(any(WarehouseMinimumStateAlert.class));
+    }
+
+    @Test
+    public void shouldPublishAlertWhenRefreshedStockFallsBelowMinimum() {
+        // given
+        given(jdbcTemplate.query(anyString(), anyMap(), any(RowMapper.class))).willReturn(
+                Lists.newArrayList(stock(10L, "10", "9", "2")), Lists.newArrayList(stock(10L, "10", "4", "2")));
+
+        warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID);
+
+        // when
+        warehouseStockState.markChanged(L_LOCATION_ID, 10L);
+
+        // then
+        assertEquals(1, warehouseStockState.getStocksBelowMinimum(L_LOCATION_ID).size());
+        verify(eventPublisher).publishEvent(any(WarehouseMinimumStateAlert.class));
+    }
+
+    private WarehouseStock stock(final Long productId, final String minimumState, final String quantity,
+            final String orderedQuantity) {
+        return new WarehouseStock(L_LOCATION_ID, productId, decimal(minimumState), decimal(quantity), decimal(orderedQuantity));
+    }
+
+    private BigDecimal decimal(final String value) {
+        return value == null ? null : new BigDecimal(value);
+    }
+
+}
@@ -28,15 +28,20 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.columnExtension.constants.ColumnAlignment;
+import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.productionCounting.ProductionCountingService;
 import com.qcadoo.mes.technologies.constants.OperationFields;
 import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.grouping.OperationMergeService;
@@ -63,6 +68,8 @@ public class OperationProductInGroupingContainerDecorator implements GroupingCon
 
     private OrderIdOperationNumberOperationComponentIdMap orderIdOperationNumberOperationComponentIdMap;
 
+    private Set<Long> orderIdsWithLoadedRegisteredProductValues;
+
     public OperationProductInGroupingContainerDecorator(OperationMergeService operationMergeService,
             GroupingContainer groupingContainer, ProductionCountingService productionCountingService,
             ParameterService parameterService) {
@@ -77,6 +84,7 @@ public class OperationProductInGroupingContainerDecorator implements GroupingCon
         this.operationComponentIdToOrder = new HashMap<Long, Entity>();
         this.operationComponentIdToOperationComponent = new HashMap<Long, Entity>();
         this.orderIdOperationNumberOperationComponentIdMap = OrderIdOperationNumberOperationComponentIdMap.create();
+        this.orderIdsWithLoadedRegisteredProductValues = Sets.newHashSet();
     }
 
     @Override
@@ -85,6 +93,9 @@ public class OperationProductInGroupingContainerDecorator implements GroupingCon
         operationComponentIdToOperationComponent.put(operationComponent.getId(), operationComponent);
         Entity parameters = parameterService.getParameter();
         boolean takeActualProgress = parameters.getBooleanField(ParameterFieldsWP.TAKE_ACTUAL_PROGRESS_IN_WORK_PLANS);
+        if (takeActualProgress) {
+            loadRegisteredProductValues(order);
+        }
         String operationNumber = operationNumber(operationComponent);
         boolean quantityChanged = false;
         if (operationAlreadyExists(order, operationNumber)) {
@@ -202,6 +213,19 @@ public class OperationProductInGroupingContainerDecorator implements GroupingCon
         }
     }
 
+    private void loadRegisteredProductValues(final Entity order) {
+        if (!orderIdsWithLoadedRegisteredProductValues.add(order.getId())) {
+            return;
+        }
+
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+        if (Objects.nonNull(technology)) {
+            productionCountingService.loadRegisteredProductValues(technology
+                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+        }
+    }
+
     private boolean sameProductsIn(Map<String, Entity> existingProductNumberToOperationProductInComponent,
             Map<String, Entity> productNumberToOperationProductInComponent) {
         return containsAll(existingProductNumberToOperationProductInComponent, productNumberToOperationProductInComponent);
@@ -0,0 +1,129 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document.operation.grouping.container;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.productionCounting.ProductionCountingService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.grouping.OperationMergeService;
+import com.qcadoo.mes.workPlans.constants.ParameterFieldsWP;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.testing.model.EntityListMock;
+
+public class OperationProductInGroupingContainerDecoratorTest {
+
+    private OperationProductInGroupingContainerDecorator operationProductInGroupingContainerDecorator;
+
+    @Mock
+    private OperationMergeService operationMergeService;
+
+    @Mock
+    private GroupingContainer groupingContainer;
+
+    @Mock
+    private ProductionCountingService productionCountingService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private Entity parameter, order, technology;
+
+    @Mock
+    private EntityTree operationComponents;
+
+    @Mock
+    private OperationProductComponentWithQuantityContainer productQuantities;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        operationProductInGroupingContainerDecorator = new OperationProductInGroupingContainerDecorator(operationMergeService,
+                groupingContainer, productionCountingService, parameterService);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(order.getId()).willReturn(1L);
+        given(order.getBelongsToField(OrderFields.TECHNOLOGY)).willReturn(technology);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+    }
+
+    @Test
+    public void shouldLoadRegisteredProductValuesOnlyOnceForOrder() {
+        // given
+        given(parameter.getBooleanField(ParameterFieldsWP.TAKE_ACTUAL_PROGRESS_IN_WORK_PLANS)).willReturn(true);
+
+        // when
+        operationProductInGroupingContainerDecorator.add(order, mockOperationComponent(11L, "10"), productQuantities);
+        operationProductInGroupingContainerDecorator.add(order, mockOperationComponent(12L, "20"), productQuantities);
+
+        // then
+        verify(productionCountingService, times(1)).loadRegisteredProductValues(operationComponents);
+    }
+
+    @Test
+    public void shouldNotLoadRegisteredProductValuesWithoutActualProgress() {
+        // given
+        given(parameter.getBooleanField(ParameterFieldsWP.TAKE_ACTUAL_PROGRESS_IN_WORK_PLANS)).willReturn(false);
+
+        // when
+        operationProductInGroupingContainerDecorator.add(order, mockOperationComponent(11L, "10"), productQuantities);
+
+        // then
+        verify(productionCountingService, never()).loadRegisteredProductValues(anyCollectionOf(Entity.class));
+    }
+
+    private Entity mockOperationComponent(final Long id, final String operationNumber) {
+        Entity operationComponent = mock(Entity.class);
+        Entity operation = mock(Entity.class);
+
+        given(operation.getStringField(OperationFields.NUMBER)).willReturn(operationNumber);
+        given(operationComponent.getId()).willReturn(id);
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)).willReturn(operation);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS))
+                .willReturn(EntityListMock.create());
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(EntityListMock.create());
+
+        return operationComponent;
+    }
+
+}